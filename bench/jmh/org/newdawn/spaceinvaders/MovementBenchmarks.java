@@ -0,0 +1,112 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.truman.spaceinvaders.CollisionDetection;
+
+/**
+ * JMH benchmarks for moving large numbers of entities, the work that
+ * used to be a call to Entity.move() on each entity in turn. One
+ * benchmark moves every entity by its own speed, the other moves a
+ * formation of aliens the way a level does, turning round at the edges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovementBenchmarks {
+	/** The number of entities moved */
+	@Param({"1000", "10000", "100000"})
+	public int entityCount;
+
+	/** A sprite that is measured but never drawn */
+	private static final Sprite SPRITE = new NullSprite(32, 24);
+
+	/**
+	 * An entity that does nothing but move
+	 */
+	private static class Mover extends Entity {
+		/**
+		 * Create a new entity in a store
+		 *
+		 * @param store The store to hold the entity
+		 * @param x The initial x location
+		 * @param y The initial y location
+		 */
+		Mover(EntityStore store, double x, double y) {
+			super(store, EntityStore.ALIEN, SPRITE, x, y);
+		}
+
+		public void collidedWith(CollisionDetection d, Entity other) {
+		}
+	}
+
+	/** The entities moving by their own speed */
+	private EntityStore free;
+	/** The entities moving in a formation */
+	private EntityStore formed;
+	/** The formation */
+	private ArrayList<Formation> formations = new ArrayList<Formation>();
+
+	/**
+	 * Fill both stores
+	 */
+	@Setup
+	public void setup() {
+		Random random = new Random(104);
+		free = new EntityStore(entityCount);
+		formed = new EntityStore(entityCount);
+		Formation formation = new Formation(formed, 0, 75, 0);
+		formations.add(formation);
+
+		for (int i=0;i<entityCount;i++) {
+			double x = 100 + random.nextDouble() * 600;
+			double y = 100 + random.nextDouble() * 400;
+			Mover mover = new Mover(free, x, y);
+			mover.setHorizontalMovement(random.nextDouble() * 200 - 100);
+			mover.setVerticalMovement(random.nextDouble() * 200 - 100);
+
+			formation.add(new Mover(formed, x, y));
+		}
+	}
+
+	/**
+	 * Move every entity by its own speed for one tick
+	 *
+	 * @return The x location of the first entity
+	 */
+	@Benchmark
+	public double integrate() {
+		free.storePositions();
+		EntitySystems.integrate(free, 10);
+		return free.x[0];
+	}
+
+	/**
+	 * Move the formation for one tick
+	 *
+	 * @return The x location of the first alien
+	 */
+	@Benchmark
+	public double formation() {
+		formed.storePositions();
+		EntitySystems.updateFormations(formed, formations, 800, 600, 10);
+		EntitySystems.integrate(formed, 10);
+		return formed.x[0];
+	}
+}
@@ -0,0 +1,80 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.opengl.GL11;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for laying out text with SimpleText. One draws the
+ * same label every time, as the HUD does, and should only ever find
+ * it in the cache. The other moves the label on each call so it has
+ * to be laid out every time.
+ *
+ * The glyph texture is never uploaded, the loader is replaced with
+ * one that hands back a texture without touching GL, and the meshes
+ * are prepared but not copied into a sprite batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBenchmarks {
+	/** The label drawn */
+	private static final String LABEL = "Pause\nPress p to continue";
+
+	/** The text renderer */
+	private SimpleText text;
+	/** The x location of the moving label */
+	private int x;
+
+	/**
+	 * Create the text renderer against a loader that doesn't need GL
+	 */
+	@Setup
+	public void setup() {
+		text = new SimpleText(new TextureLoader() {
+			public Texture createTexture(BufferedImage image, int target, int dstPixelFormat, int minFilter, int magFilter) {
+				Texture texture = new Texture(GL11.GL_TEXTURE_2D, 0);
+				texture.setWidth(image.getWidth());
+				texture.setHeight(image.getHeight());
+				texture.setTextureWidth(image.getWidth());
+				texture.setTextureHeight(image.getHeight());
+				return texture;
+			}
+		});
+	}
+
+	/**
+	 * Draw a label that doesn't change
+	 *
+	 * @return The number of quads in the label's mesh
+	 */
+	@Benchmark
+	public int cachedLabel() {
+		return text.getQuads(text.prepare(LABEL, 77, 33));
+	}
+
+	/**
+	 * Draw a label somewhere new each time
+	 *
+	 * @return The number of quads in the label's mesh
+	 */
+	@Benchmark
+	public int layoutLabel() {
+		x = (x + 1) & 1023;
+		return text.getQuads(text.prepare(LABEL, x, 33));
+	}
+}
@@ -0,0 +1,68 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.lwjgl.opengl.GL11;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark for converting a decoded image into texture data, the
+ * CPU side of TextureLoader.getTexture(). The image is decoded once up
+ * front, only the conversion into a power of two RGBA buffer is timed.
+ * Nothing is uploaded so no GL context is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextureBenchmarks {
+	/** The image to convert, a sprite, a background tile and the biggest image */
+	@Param({"sprites/ship.gif", "sprites/152.gif", "sprites/geo.gif"})
+	public String image;
+
+	/** The loader doing the conversion */
+	private TextureLoader loader;
+	/** The decoded image */
+	private BufferedImage decoded;
+	/** The texture the conversion records the sizes in */
+	private Texture texture;
+
+	/**
+	 * Decode the image
+	 *
+	 * @throws IOException Indicates a failure to read the image
+	 */
+	@Setup
+	public void setup() throws IOException {
+		loader = new TextureLoader();
+		decoded = ImageIO.read(TextureBenchmarks.class.getClassLoader().getResource(image));
+		texture = new Texture(GL11.GL_TEXTURE_2D, 0);
+	}
+
+	/**
+	 * Convert the image into texture data
+	 *
+	 * @return The texture data
+	 */
+	@Benchmark
+	public ByteBuffer convertImageData() {
+		return loader.convertImageData(decoded, texture);
+	}
+}
@@ -0,0 +1,156 @@
+package org.truman.spaceinvaders;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.newdawn.spaceinvaders.Entity;
+import org.newdawn.spaceinvaders.EntityStore;
+import org.newdawn.spaceinvaders.GlobalEntity;
+import org.newdawn.spaceinvaders.ResourceFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the collision pass. The frame benchmarks run the
+ * pass the game runs each tick, the spatial hash broadphase feeding the
+ * narrowphase, next to the double loop over every pair that the game
+ * used to run in frameRendering(). The pair benchmarks time a single
+ * CollisionDetection.collidesWith() for a pair that overlaps and one
+ * that doesn't, and for the overlapping pair with the sprites' masks
+ * left out so the cost of comparing pixels can be seen.
+ *
+ * Sprites come from the headless backend so nothing touches GL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmarks {
+	/** The number of entities in the crowd */
+	@Param({"100", "1000", "5000"})
+	public int entityCount;
+
+	/** The entities being tested */
+	private EntityStore entities;
+	/** The broadphase */
+	private SpatialHash hash = new SpatialHash(64);
+	/** The contact record reused for every pair */
+	private CollisionDetection contact = new CollisionDetection();
+	/** A contact record that only compares rectangles */
+	private CollisionDetection rectangles = new CollisionDetection();
+	/** The number of collisions found, so the work can't be thrown away */
+	private int hits;
+	/** Two entities that overlap */
+	private Entity overlapA;
+	/** The entity overlapping overlapA */
+	private Entity overlapB;
+	/** An entity well away from overlapA */
+	private Entity apart;
+
+	/** The narrowphase run on each pair the broadphase finds */
+	private SpatialHash.PairHandler narrowphase = new SpatialHash.PairHandler() {
+		public void pair(int a, int b) {
+			if (contact.collidesWith(entities.get(a), entities.get(b))) {
+				hits++;
+			}
+		}
+	};
+
+	/**
+	 * Fill the crowd, spread over a field three times the size of the
+	 * screen each way as the standalone benchmark does
+	 */
+	@Setup
+	public void setup() {
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		ResourceFactory.get().getGameWindow();
+
+		entities = new EntityStore(entityCount + 3);
+		Random random = new Random(104);
+		String[] refs = {"sprites/alien.gif", "sprites/shot.gif", "sprites/ship.gif"};
+		for (int i=0;i<entityCount;i++) {
+			new GlobalEntity(null, entities, ResourceFactory.get().getSprite(refs[i % refs.length]), random.nextInt(2400), random.nextInt(1800));
+		}
+
+		overlapA = new GlobalEntity(null, entities, ResourceFactory.get().getSprite("sprites/alien.gif"), -500, -500);
+		overlapB = new GlobalEntity(null, entities, ResourceFactory.get().getSprite("sprites/shot.gif"), -490, -495);
+		apart = new GlobalEntity(null, entities, ResourceFactory.get().getSprite("sprites/ship.gif"), -900, -900);
+		rectangles.setPixelPerfect(false);
+	}
+
+	/**
+	 * The collision pass the game runs each tick
+	 *
+	 * @return The number of collisions found
+	 */
+	@Benchmark
+	public int spatialHashFrame() {
+		hits = 0;
+		hash.clear();
+		for (int i=0;i<entities.size();i++) {
+			Entity entity = entities.get(i);
+			hash.insert(i, entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight());
+		}
+		hash.findPairs(narrowphase);
+		return hits;
+	}
+
+	/**
+	 * The collision pass the game used to run, every pair tested
+	 *
+	 * @return The number of collisions found
+	 */
+	@Benchmark
+	public int doubleLoopFrame() {
+		int found = 0;
+		for (int p=0;p<entities.size();p++) {
+			for (int s=p+1;s<entities.size();s++) {
+				if (contact.collidesWith(entities.get(p), entities.get(s))) {
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * A single test of a pair that overlaps
+	 *
+	 * @return True if the pair collides
+	 */
+	@Benchmark
+	public boolean collidesWithOverlapping() {
+		return contact.collidesWith(overlapA, overlapB);
+	}
+
+	/**
+	 * A single test of a pair that overlaps, comparing the rectangles only
+	 *
+	 * @return True if the pair collides
+	 */
+	@Benchmark
+	public boolean collidesWithOverlappingRectangles() {
+		return rectangles.collidesWith(overlapA, overlapB);
+	}
+
+	/**
+	 * A single test of a pair that doesn't
+	 *
+	 * @return True if the pair collides
+	 */
+	@Benchmark
+	public boolean collidesWithApart() {
+		return contact.collidesWith(overlapA, apart);
+	}
+}
@@ -0,0 +1,46 @@
+package org.truman.spaceinvaders;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.util.WaveData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark for loading a sound. Times the part of
+ * SoundManager.addSound() that reads and decodes the wave file, the
+ * OpenAL buffer upload that follows it is left out so the benchmark
+ * runs without a sound card.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoundBenchmarks {
+	/** The sound to load */
+	@Param({"sounds/sparo.wav", "sounds/Blaster-Solo.wav"})
+	public String sound;
+
+	/**
+	 * Load and decode the sound
+	 *
+	 * @return The number of bytes of sample data
+	 */
+	@Benchmark
+	public int loadWave() {
+		WaveData wave = SoundManager.loadWave(sound);
+		int bytes = wave.data.remaining();
+		wave.dispose();
+		return bytes;
+	}
+}
@@ -0,0 +1,165 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.truman.spaceinvaders.CollisionDetection;
+
+/**
+ * Measures the cost of a spread-shot volley killing a few hundred
+ * aliens in a single tick, against levels of increasing size. The
+ * entity store's deferred swap-with-last removal is compared with
+ * the list based removal it replaced, where removed entities were
+ * queued in a second list and taken out with removeAll().
+ *
+ * Each kill is queued twice, as it used to be when both the alien
+ * and the shot asked for the removal. The store must stay flat as
+ * the level grows, and every handle to a killed alien must be seen
+ * to be stale afterwards.
+ */
+public class EntityRemovalBenchmark {
+	/** The number of aliens in each level measured */
+	private static final int[] SIZES = {1000, 10000, 100000};
+	/** The number of aliens killed by each volley */
+	private static final int KILLS = 500;
+	/** The number of volleys to measure for each level */
+	private static final int VOLLEYS = 200;
+
+	/** A sprite that is measured but never drawn */
+	private static final Sprite SPRITE = new NullSprite(32, 24);
+
+	/**
+	 * An alien held in the entity store
+	 */
+	private static class StoreAlien extends Entity {
+		/**
+		 * Create a new alien in a store
+		 *
+		 * @param store The store to hold the alien
+		 */
+		StoreAlien(EntityStore store) {
+			super(store, EntityStore.ALIEN, SPRITE, 0, 0);
+		}
+
+		public void collidedWith(CollisionDetection d, Entity other) {
+		}
+	}
+
+	/**
+	 * Kill a volley's worth of aliens in the store and replace them
+	 *
+	 * @param store The store holding the aliens
+	 * @param victims The slots of the aliens to kill
+	 * @param handles Filled with the handles of the aliens killed
+	 * @return The time taken to remove the aliens (ns)
+	 */
+	private static long volley(EntityStore store, int[] victims, int[] handles) {
+		for (int i=0;i<KILLS;i++) {
+			handles[i] = store.getHandle(victims[i]);
+		}
+
+		long start = System.nanoTime();
+		for (int i=0;i<KILLS;i++) {
+			store.markRemoved(victims[i]);
+			store.markRemoved(victims[i]);
+		}
+		store.flush();
+		long nanos = System.nanoTime() - start;
+
+		for (int i=0;i<KILLS;i++) {
+			if (store.isValid(handles[i])) {
+				throw new RuntimeException("Handle "+handles[i]+" to a removed alien is still valid");
+			}
+			new StoreAlien(store);
+		}
+		return nanos;
+	}
+
+	/**
+	 * Kill a volley's worth of aliens in a list the old way and replace them
+	 *
+	 * @param entities The list holding the aliens
+	 * @param victims The indices of the aliens to kill
+	 * @param removeList The list to queue the removals in
+	 * @return The time taken to remove the aliens (ns)
+	 */
+	private static long volley(ArrayList<Object> entities, int[] victims, ArrayList<Object> removeList) {
+		long start = System.nanoTime();
+		for (int i=0;i<KILLS;i++) {
+			removeList.add(entities.get(victims[i]));
+			removeList.add(entities.get(victims[i]));
+		}
+		entities.removeAll(removeList);
+		removeList.clear();
+		long nanos = System.nanoTime() - start;
+
+		for (int i=0;i<KILLS;i++) {
+			entities.add(new Object());
+		}
+		return nanos;
+	}
+
+	/**
+	 * Pick a volley's worth of distinct victims
+	 *
+	 * @param random The source of random numbers
+	 * @param size The number of aliens in the level
+	 * @param victims Filled with the indices of the victims
+	 */
+	private static void pick(Random random, int size, int[] victims) {
+		for (int i=0;i<KILLS;i++) {
+			boolean repeat;
+			do {
+				victims[i] = random.nextInt(size);
+				repeat = false;
+				for (int j=0;j<i;j++) {
+					repeat |= (victims[j] == victims[i]);
+				}
+			} while (repeat);
+		}
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		Random random = new Random(104);
+		int[] victims = new int[KILLS];
+		int[] handles = new int[KILLS];
+
+		System.out.println("aliens    list ns/volley    store ns/volley");
+		for (int size : SIZES) {
+			EntityStore store = new EntityStore(size);
+			ArrayList<Object> entities = new ArrayList<Object>(size);
+			ArrayList<Object> removeList = new ArrayList<Object>();
+			for (int i=0;i<size;i++) {
+				new StoreAlien(store);
+				entities.add(new Object());
+			}
+
+			// the list is quadratic, run it fewer times as it grows
+			int listVolleys = Math.max(2, VOLLEYS * 1000 / size);
+			long listNanos = 0;
+			long storeNanos = 0;
+			for (int pass=0;pass<2;pass++) {
+				listNanos = 0;
+				storeNanos = 0;
+				for (int i=0;i<listVolleys;i++) {
+					pick(random, size, victims);
+					listNanos += volley(entities, victims, removeList);
+				}
+				for (int i=0;i<VOLLEYS;i++) {
+					pick(random, size, victims);
+					storeNanos += volley(store, victims, handles);
+				}
+			}
+
+			if ((store.size() != size) || (entities.size() != size)) {
+				throw new RuntimeException("Level of "+size+" ended with "+store.size()+" aliens in the store and "+entities.size()+" in the list");
+			}
+			System.out.println(String.format("%6d %17d %18d", size, listNanos / listVolleys, storeNanos / VOLLEYS));
+		}
+	}
+}
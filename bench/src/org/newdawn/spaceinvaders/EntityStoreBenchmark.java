@@ -0,0 +1,226 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.truman.spaceinvaders.CollisionDetection;
+
+/**
+ * Compares the entity store and its batch systems against the
+ * object-per-entity model it replaced, where every entity kept its
+ * own location and speed and was moved and drawn through a virtual
+ * call each tick.
+ *
+ * Both sides run a stress level of 50,000 animated aliens through
+ * the same per tick work: record the positions for interpolation,
+ * animate, check the screen edges, move and draw. In the store the
+ * aliens move as one formation and share one animation, the objects
+ * each check the edges and count down to their next frame for
+ * themselves as they used to. The aliens are kept well away from the
+ * edges so neither ever turns round.
+ */
+public class EntityStoreBenchmark {
+	/** The number of aliens in the stress level */
+	private static final int ALIENS = 50000;
+	/** The number of ticks to measure */
+	private static final int TICKS = 2000;
+	/** The length of a tick in milliseconds */
+	private static final long DELTA = 10;
+	/** The horizontal speed of the aliens, slow enough that nothing gets near an edge over the run */
+	private static final double SPEED = 0.5;
+	/** The vertical speed of the aliens */
+	private static final double DESCENT = 0.25;
+
+	/** A sprite that is measured but never drawn */
+	private static final Sprite SPRITE = new NullSprite(32, 24);
+
+	/** The animation shared by the aliens in the store */
+	private static final int ANIMATION = ResourceFactory.get().addAnimation(new AnimationSet(new Sprite[] {SPRITE, SPRITE, SPRITE, SPRITE}, ResourceFactory.ALIEN_FRAME_DURATION));
+	/** The time on the animation clock (ms) */
+	private static long time;
+	/** The snapshot the store is copied into to be drawn */
+	private static FrameSnapshot frame = new FrameSnapshot(ALIENS, 0);
+
+	/**
+	 * An alien held in the entity store
+	 */
+	private static class StoreAlien extends Entity {
+		/**
+		 * Create a new alien in a store
+		 *
+		 * @param store The store to hold the alien
+		 * @param x The initial x location of the alien
+		 * @param y The initial y location of the alien
+		 */
+		StoreAlien(EntityStore store, double x, double y) {
+			super(store, EntityStore.ALIEN, ANIMATION, 0, x, y);
+		}
+
+		public void collidedWith(CollisionDetection d, Entity other) {
+		}
+	}
+
+	/**
+	 * An alien as it used to be, holding its own state and moved
+	 * through a virtual call
+	 */
+	private static abstract class ObjectEntity {
+		/** The current x location */
+		protected double x;
+		/** The current y location */
+		protected double y;
+		/** The x location at the start of the tick */
+		protected double prevX;
+		/** The y location at the start of the tick */
+		protected double prevY;
+		/** The horizontal speed (pixels/sec) */
+		protected double dx;
+		/** The vertical speed (pixels/sec) */
+		protected double dy;
+		/** The sprite representing this entity */
+		protected Sprite sprite = SPRITE;
+
+		/**
+		 * Move this entity based on its speed
+		 *
+		 * @param delta The time that has elapsed since last move (ms)
+		 */
+		public void move(long delta) {
+			x += (delta * dx) / 1000;
+			y += (delta * dy) / 1000;
+		}
+
+		/**
+		 * Record the location at the start of a tick
+		 */
+		public void storePosition() {
+			prevX = x;
+			prevY = y;
+		}
+
+		/**
+		 * Draw this entity part way through a tick
+		 *
+		 * @param alpha How far we are between the last tick and the next one
+		 */
+		public void draw(float alpha) {
+			sprite.draw((int) (prevX + (x - prevX) * alpha),(int) (prevY + (y - prevY) * alpha));
+		}
+	}
+
+	/**
+	 * The object model version of an animated alien
+	 */
+	private static class ObjectAlien extends ObjectEntity {
+		/** The time since the last frame change (ms) */
+		private long lastFrameChange;
+		/** The number of times the animation has moved on */
+		private int frameNumber;
+		/** The number of logic updates requested */
+		private int logicRequests;
+
+		public void move(long delta) {
+			lastFrameChange += delta;
+			if (lastFrameChange > ResourceFactory.ALIEN_FRAME_DURATION) {
+				lastFrameChange = 0;
+				frameNumber++;
+			}
+			if ((dx < 0) && (x < 10)) {
+				logicRequests++;
+			}
+			if ((dx > 0) && (x > 750)) {
+				logicRequests++;
+			}
+			super.move(delta);
+		}
+	}
+
+	/**
+	 * Run one tick of the stress level through the entity store
+	 *
+	 * @param store The store holding the aliens
+	 * @param formations The formation the aliens move in
+	 */
+	private static void tickStore(EntityStore store, ArrayList<Formation> formations) {
+		store.storePositions();
+		time += DELTA;
+		EntitySystems.updateFormations(store, formations, 800, 600, DELTA);
+		EntitySystems.integrate(store, DELTA);
+		EntitySystems.storeFrame(store, frame, time);
+		frame.drawEntities(0.5f);
+	}
+
+	/**
+	 * Run one tick of the stress level through the object model
+	 *
+	 * @param entities The list of aliens
+	 */
+	private static void tickObjects(ArrayList<ObjectEntity> entities) {
+		for (int i=0;i<entities.size();i++) {
+			entities.get(i).storePosition();
+		}
+		for (int i=0;i<entities.size();i++) {
+			entities.get(i).move(DELTA);
+		}
+		for (int i=0;i<entities.size();i++) {
+			entities.get(i).draw(0.5f);
+		}
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		Random random = new Random(104);
+		EntityStore store = new EntityStore(ALIENS);
+		ArrayList<Formation> formations = new ArrayList<Formation>();
+		Formation formation = new Formation(store, 0, SPEED, DESCENT);
+		formations.add(formation);
+		ArrayList<ObjectEntity> entities = new ArrayList<ObjectEntity>(ALIENS);
+
+		for (int i=0;i<ALIENS;i++) {
+			double x = 200 + random.nextDouble() * 400;
+			double y = 100 + random.nextDouble() * 400;
+
+			formation.add(new StoreAlien(store, x, y));
+
+			ObjectAlien object = new ObjectAlien();
+			object.x = x;
+			object.y = y;
+			object.dx = -SPEED;
+			object.dy = DESCENT;
+			entities.add(object);
+		}
+
+		// warm up both before timing either
+		for (int i=0;i<TICKS/4;i++) {
+			tickStore(store, formations);
+			tickObjects(entities);
+		}
+
+		long start = System.nanoTime();
+		for (int i=0;i<TICKS;i++) {
+			tickObjects(entities);
+		}
+		long objectNanos = (System.nanoTime() - start) / TICKS;
+
+		start = System.nanoTime();
+		for (int i=0;i<TICKS;i++) {
+			tickStore(store, formations);
+		}
+		long storeNanos = (System.nanoTime() - start) / TICKS;
+
+		for (int i=0;i<ALIENS;i++) {
+			if (Math.abs(store.x[i] - entities.get(i).x) > 0.001) {
+				throw new RuntimeException("Alien "+i+" ended up at "+store.x[i]+" in the store and "+entities.get(i).x+" as an object");
+			}
+		}
+
+		System.out.println(String.format("%d aliens, %d ticks", ALIENS, TICKS));
+		System.out.println(String.format("object per entity: %9d ns/tick", objectNanos));
+		System.out.println(String.format("entity store:      %9d ns/tick", storeNanos));
+		System.out.println(String.format("speed up:          %9.2fx", (double) objectNanos / storeNanos));
+	}
+}
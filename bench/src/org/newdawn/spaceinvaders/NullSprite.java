@@ -0,0 +1,74 @@
+package org.newdawn.spaceinvaders;
+
+import org.truman.spaceinvaders.CollisionMask;
+
+/**
+ * A sprite that is measured but never drawn, for the benchmarks that
+ * need entities without a display. Every pixel is solid.
+ */
+public class NullSprite implements Sprite {
+	/** The width in pixels of this sprite */
+	private int width;
+	/** The height in pixels of this sprite */
+	private int height;
+
+	/**
+	 * Create a new sprite
+	 *
+	 * @param width The width in pixels of the sprite
+	 * @param height The height in pixels of the sprite
+	 */
+	public NullSprite(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Get the width of this sprite in pixels
+	 *
+	 * @return The width of this sprite in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of this sprite in pixels
+	 *
+	 * @return The height of this sprite in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Nothing to draw without a display
+	 *
+	 * @param x The x location at which to draw this sprite
+	 * @param y The y location at which to draw this sprite
+	 */
+	public void draw(int x, int y) {
+	}
+
+	/**
+	 * Nothing to draw without a display
+	 *
+	 * @param x The x location of the rectangle
+	 * @param y The y location of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param offsetX How far the copies are shifted right
+	 * @param offsetY How far the copies are shifted down
+	 */
+	public void drawTiled(int x, int y, int width, int height, int offsetX, int offsetY) {
+	}
+
+	/**
+	 * Get the solid pixels of this sprite
+	 *
+	 * @return Always null, the whole rectangle is solid
+	 */
+	public CollisionMask getCollisionMask() {
+		return null;
+	}
+}
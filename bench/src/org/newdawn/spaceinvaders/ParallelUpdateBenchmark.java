@@ -0,0 +1,204 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.truman.spaceinvaders.CollisionDetection;
+
+/**
+ * Measures how the movement of a very large swarm scales with the
+ * number of threads ParallelUpdate is given, from one up to the number
+ * of processors. Each run moves the same swarm of aliens in several
+ * formations, with a stream of shots that leave the screen and are
+ * removed, and the swarm thins out as members of the formations are
+ * killed.
+ *
+ * Every run is also checked against the single threaded passes, the
+ * entities must end up in exactly the same slots at exactly the same
+ * places whatever the number of threads.
+ *
+ * Then swarms of the sizes around DEFAULT_THRESHOLD are moved both
+ * ways with a thread for each processor, to find the size at which
+ * splitting the work starts to pay on this machine. On a machine with
+ * a single processor this only shows what the tasks cost, there's
+ * nothing to gain from them. The game doesn't give its update a pool
+ * until this has been run on a machine with several processors and
+ * DEFAULT_THRESHOLD set from what it finds.
+ *
+ * Usage: ParallelUpdateBenchmark [aliens] [ticks]
+ */
+public class ParallelUpdateBenchmark {
+	/** The length of a tick (ms) */
+	private static final long DELTA = 10;
+	/** The number of formations the aliens are split between */
+	private static final int FORMATIONS = 8;
+
+	/** A sprite that is measured but never drawn */
+	private static final Sprite SPRITE = new NullSprite(12, 8);
+
+	/**
+	 * An entity that does nothing but move
+	 */
+	private static class Mover extends Entity {
+		/**
+		 * Create a new entity in a store
+		 *
+		 * @param store The store to hold the entity
+		 * @param type The type of the entity
+		 * @param x The initial x location
+		 * @param y The initial y location
+		 */
+		Mover(EntityStore store, int type, double x, double y) {
+			super(store, type, SPRITE, x, y);
+		}
+
+		public void collidedWith(CollisionDetection d, Entity other) {
+		}
+	}
+
+	/**
+	 * A swarm and the formations it moves in
+	 */
+	private static class Swarm {
+		/** The entities */
+		private EntityStore store;
+		/** The formations */
+		private ArrayList<Formation> formations = new ArrayList<Formation>();
+		/** The number of ticks run */
+		private int ticks;
+
+		/**
+		 * Create the swarm, the same one for the same arguments
+		 *
+		 * @param aliens The number of aliens
+		 */
+		Swarm(int aliens) {
+			store = new EntityStore(aliens + aliens / 10);
+			Random random = new Random(104);
+			for (int f=0;f<FORMATIONS;f++) {
+				formations.add(new Formation(store, f, 75, 7.5));
+			}
+			for (int i=0;i<aliens;i++) {
+				Mover alien = new Mover(store, EntityStore.ALIEN, 50 + random.nextDouble() * 700, random.nextDouble() * 500);
+				formations.get(i % FORMATIONS).add(alien);
+			}
+		}
+
+		/**
+		 * Run a tick, firing shots up the screen and killing a few aliens
+		 *
+		 * @param update The update to move the entities with, null for the single threaded passes
+		 */
+		void tick(ParallelUpdate update) {
+			ticks++;
+			store.storePositions();
+			for (int s=0;s<10;s++) {
+				new Mover(store, EntityStore.SHOT, (ticks * 37 + s * 80) % 800, 590).setVerticalMovement(-3000);
+			}
+			for (int k=0;k<5;k++) {
+				int i = (ticks * 7919 + k * 104729) % store.size;
+				Entity victim = store.get(i);
+				if ((store.group[i] >= 0) && victim.isAlive()) {
+					formations.get(store.group[i]).memberKilled(victim);
+					store.markRemoved(i);
+				}
+			}
+
+			if (update == null) {
+				EntitySystems.updateFormations(store, formations, 800, 600, DELTA);
+				EntitySystems.updateShip(store, 800, 600);
+				EntitySystems.integrate(store, DELTA);
+				EntitySystems.updateShots(store, 600);
+			} else {
+				update.update(store, formations, 800, 600, DELTA);
+			}
+			store.flush();
+		}
+
+		/**
+		 * Check this swarm is in exactly the same state as another
+		 *
+		 * @param other The swarm to compare with
+		 * @return True if every entity is in the same slot at the same place
+		 */
+		boolean matches(Swarm other) {
+			if (store.size != other.store.size) {
+				return false;
+			}
+			for (int i=0;i<store.size;i++) {
+				if ((store.id[i] != other.store.id[i]) || (store.x[i] != other.store.x[i]) || (store.y[i] != other.store.y[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Time a number of ticks of a fresh swarm
+	 *
+	 * @param update The update to move the entities with, null for the single threaded passes
+	 * @param aliens The number of aliens
+	 * @param ticks The number of ticks to run
+	 * @param result The swarm to run, left in its final state
+	 * @return The time taken per tick (ns)
+	 */
+	private static long time(ParallelUpdate update, int aliens, int ticks, Swarm result) {
+		// warm up on a throw away swarm first
+		Swarm warmup = new Swarm(aliens);
+		for (int t=0;t<ticks / 2;t++) {
+			warmup.tick(update);
+		}
+
+		long start = System.nanoTime();
+		for (int t=0;t<ticks;t++) {
+			result.tick(update);
+		}
+		return (System.nanoTime() - start) / ticks;
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		int aliens = argv.length > 0 ? Integer.parseInt(argv[0]) : 100000;
+		int ticks = argv.length > 1 ? Integer.parseInt(argv[1]) : 500;
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		Swarm expected = new Swarm(aliens);
+		long sequential = time(null, aliens, ticks, expected);
+		System.out.println(aliens+" aliens, "+ticks+" ticks, "+processors+" processors, "+expected.store.size+" entities left");
+		System.out.println("single threaded passes: "+sequential+" ns/tick");
+
+		boolean failed = false;
+		for (int threads=1;threads<=Math.max(2, processors);threads++) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			ParallelUpdate update = new ParallelUpdate(pool, 0, ParallelUpdate.DEFAULT_CHUNK_SIZE);
+			Swarm swarm = new Swarm(aliens);
+			long time = time(update, aliens, ticks, swarm);
+			pool.shutdown();
+
+			boolean same = swarm.matches(expected);
+			failed |= !same;
+			System.out.println(threads+" thread(s): "+time+" ns/tick, speed up "+String.format("%.2f", (double) sequential / time)+"x"+(same ? "" : " - FAILED: differs from single threaded"));
+		}
+
+		System.out.println("threshold, "+processors+" threads:");
+		ForkJoinPool pool = new ForkJoinPool(processors);
+		ParallelUpdate update = new ParallelUpdate(pool, 0, ParallelUpdate.DEFAULT_CHUNK_SIZE);
+		for (int size=ParallelUpdate.DEFAULT_THRESHOLD / 4;size<=ParallelUpdate.DEFAULT_THRESHOLD * 4;size*=2) {
+			long single = time(null, size, ticks, new Swarm(size));
+			long split = time(update, size, ticks, new Swarm(size));
+			System.out.println(size+" aliens: single threaded "+single+" ns/tick, split "+split+" ns/tick, speed up "
+					+String.format("%.2f", (double) single / split)+"x");
+		}
+		pool.shutdown();
+
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
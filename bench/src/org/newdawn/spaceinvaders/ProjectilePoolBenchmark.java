@@ -0,0 +1,135 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Fires shots through a ProjectilePool the way the game does, moving
+ * and culling them each tick, and reports the time and bytes allocated
+ * per shot under each of the pool's policies.
+ *
+ * Once warmed up, firing with DROP or RECYCLE_OLDEST must not allocate
+ * anything. Something else in the JVM (the JIT, a safepoint) can still
+ * allocate a few bytes on this thread now and then, so each of those
+ * policies is measured over several rounds and the run fails with a
+ * non-zero exit status only if every round allocated, as firing would
+ * if it allocated at all.
+ */
+public class ProjectilePoolBenchmark {
+	/** The number of shots the pool starts with */
+	private static final int CAPACITY = 32;
+	/** The number of shots fired each tick, enough to empty the pool */
+	private static final int SHOTS_PER_TICK = 4;
+	/** The number of ticks to warm up over */
+	private static final int WARMUP = 20000;
+	/** The number of ticks to measure */
+	private static final int TICKS = 20000;
+	/** The number of rounds the allocation free policies are measured over */
+	private static final int ROUNDS = 5;
+	/** The length of a tick in milliseconds */
+	private static final long DELTA = 10;
+	/** The names of the policies, indexed by policy */
+	private static final String[] POLICIES = {"DROP", "RECYCLE_OLDEST", "GROW"};
+
+	/**
+	 * Run one tick: fire, move the shots and cull the ones off screen
+	 *
+	 * @param store The store the shots are in
+	 * @param pool The pool to fire from
+	 */
+	private static void tick(EntityStore store, ProjectilePool pool) {
+		for (int i=0;i<SHOTS_PER_TICK;i++) {
+			pool.fire(100 + i * 20, 570);
+		}
+		EntitySystems.integrate(store, DELTA);
+
+		// the same culling as EntitySystems.updateShots(), without a game
+		for (int i=0;i<store.size;i++) {
+			if (store.y[i] + store.height[i] < 0) {
+				store.markRemoved(i);
+			}
+		}
+		store.flush();
+	}
+
+	/**
+	 * Get the number of bytes allocated by this thread so far
+	 *
+	 * @return The number of bytes allocated
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Fire through a fresh pool with one policy and report the result
+	 *
+	 * @param sprite The sprite for the shots
+	 * @param policy The policy to give the pool
+	 * @param report True to print the result, false when just warming up
+	 * @return The number of bytes allocated over the measured ticks
+	 */
+	private static long measure(Sprite sprite, int policy, boolean report) {
+		EntityStore store = new EntityStore(CAPACITY);
+		ProjectilePool pool = new ProjectilePool(store, sprite, CAPACITY, policy);
+
+		for (int i=0;i<WARMUP;i++) {
+			tick(store, pool);
+		}
+
+		// reading the counter can allocate itself, measure that so it can be taken off
+		long overhead = allocatedBytes();
+		overhead = allocatedBytes() - overhead;
+
+		int dropped = pool.getDropped();
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i=0;i<TICKS;i++) {
+			tick(store, pool);
+		}
+		long nanos = System.nanoTime() - start;
+		bytes = allocatedBytes() - bytes - overhead;
+		dropped = pool.getDropped() - dropped;
+
+		if (report) {
+			System.out.println(String.format("%-15s %6d ns/tick, %4d shots in flight, %6d of %d shots dropped, %d bytes allocated",
+					POLICIES[policy], nanos / TICKS, pool.getLiveCount(), dropped, TICKS * SHOTS_PER_TICK, bytes));
+		}
+		return bytes;
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		ResourceFactory.get().getGameWindow();
+		Sprite sprite = ResourceFactory.get().getSprite("sprites/shot.gif");
+
+		// run every policy once first, the JIT settling down part way
+		// through the first measurement can allocate on its own
+		for (int policy=ProjectilePool.DROP;policy<=ProjectilePool.GROW;policy++) {
+			measure(sprite, policy, false);
+		}
+
+		boolean failed = false;
+		for (int policy=ProjectilePool.DROP;policy<=ProjectilePool.GROW;policy++) {
+			long fewest = measure(sprite, policy, true);
+			if (policy == ProjectilePool.GROW) {
+				continue;
+			}
+			for (int round=1;(round<ROUNDS) && (fewest != 0);round++) {
+				fewest = Math.min(fewest, measure(sprite, policy, true));
+			}
+			if (fewest != 0) {
+				System.err.println(POLICIES[policy]+" allocated in every one of "+ROUNDS+" rounds, at least "+fewest
+						+" bytes over "+(TICKS * SHOTS_PER_TICK)+" shots");
+				failed = true;
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
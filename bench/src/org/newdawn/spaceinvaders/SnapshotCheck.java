@@ -0,0 +1,139 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.management.ManagementFactory;
+
+import org.newdawn.spaceinvaders.util.TripleBuffer;
+
+/**
+ * Checks the hand over of frame snapshots between a simulation thread
+ * and a render thread. The simulation thread moves every entity to
+ * the number of the frame, snapshots the store and publishes it as
+ * fast as it can, while the render thread keeps picking up the newest
+ * snapshot and checks that every entity in it is at the same place,
+ * which it wouldn't be if it had been handed a snapshot still being
+ * written. Also checks that publishing allocates nothing, on JVMs that
+ * can count the bytes a thread allocates.
+ *
+ * Usage: SnapshotCheck [frames]
+ */
+public class SnapshotCheck {
+	/** The number of entities in each frame */
+	private static final int ENTITIES = 200;
+
+	/** A sprite that is measured but never drawn */
+	private static final Sprite SPRITE = new NullSprite(32, 24);
+
+	/** True while the simulation thread is publishing */
+	private static volatile boolean running = true;
+	/** The number of bytes the simulation thread allocated while publishing, -1 if unknown */
+	private static long allocated = -1;
+
+	/**
+	 * Get the number of bytes the current thread has allocated
+	 *
+	 * @return The number of bytes, or -1 if the JVM can't tell
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Run the check
+	 *
+	 * @param argv The arguments passed on the command line
+	 * @throws InterruptedException Indicates the check was interrupted
+	 */
+	public static void main(String argv[]) throws InterruptedException {
+		final long frameCount = argv.length > 0 ? Long.parseLong(argv[0]) : 2000000;
+
+		final EntityStore store = new EntityStore(ENTITIES);
+		for (int i=0;i<ENTITIES;i++) {
+			new GlobalEntity(null, store, SPRITE, 0, i);
+		}
+		final Background background = new Background(2);
+		background.addLayer(SPRITE, 0, 120, 0, 0);
+		final TripleBuffer<FrameSnapshot> frames = new TripleBuffer<FrameSnapshot>(new FrameSnapshot(ENTITIES, 2), new FrameSnapshot(ENTITIES, 2), new FrameSnapshot(ENTITIES, 2));
+
+		Thread simulation = new Thread("Simulation") {
+			public void run() {
+				long before = 0;
+				for (long f=1;f<=frameCount;f++) {
+					// measure once everything has been compiled
+					if (f == frameCount / 2) {
+						before = allocatedBytes();
+					}
+					for (int i=0;i<ENTITIES;i++) {
+						store.x[i] = f;
+					}
+					FrameSnapshot frame = frames.getWriteBuffer();
+					EntitySystems.storeFrame(store, frame, f);
+					background.storeFrame(frame);
+					frame.setTime(f);
+					frames.publish();
+				}
+				if (before >= 0) {
+					allocated = allocatedBytes() - before;
+				}
+				running = false;
+			}
+		};
+
+		long start = System.nanoTime();
+		simulation.start();
+
+		long reads = 0;
+		long last = 0;
+		boolean failed = false;
+		while (true) {
+			// read before looking for a frame, the last frame is published
+			// before running is cleared so if the simulation had finished
+			// by now the update below still sees it
+			boolean finished = !running;
+			if (!frames.update()) {
+				if (finished) {
+					// nothing more is coming
+					break;
+				}
+				continue;
+			}
+			FrameSnapshot frame = frames.getReadBuffer();
+			long f = frame.getTime();
+			if (f <= last) {
+				System.out.println("FAILED: frame "+f+" read after frame "+last);
+				failed = true;
+				break;
+			}
+			for (int i=0;i<frame.entityCount;i++) {
+				if (frame.x[i] != f) {
+					System.out.println("FAILED: frame "+f+" has an entity from frame "+(long) frame.x[i]);
+					failed = true;
+					break;
+				}
+			}
+			last = f;
+			reads++;
+		}
+		simulation.join();
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		System.out.println("Published "+frameCount+" frames of "+ENTITIES+" entities in "+millis+"ms, "+reads+" read, last "+last);
+		if (allocated < 0) {
+			System.out.println("This JVM can't count allocation, not checked");
+		} else {
+			System.out.println("Allocated "+allocated+" bytes over the last "+(frameCount - frameCount / 2)+" publishes");
+			// a measurement has a small fixed cost of its own
+			if (allocated > 1024) {
+				System.out.println("FAILED: publishing allocates");
+				failed = true;
+			}
+		}
+		if (failed || (last != frameCount)) {
+			System.exit(1);
+		}
+		System.out.println("Snapshots handed over intact");
+	}
+}
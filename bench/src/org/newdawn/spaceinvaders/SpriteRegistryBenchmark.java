@@ -0,0 +1,138 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.management.ManagementFactory;
+
+import org.newdawn.spaceinvaders.headless.HeadlessGameWindow;
+import org.newdawn.spaceinvaders.headless.HeadlessSprite;
+
+/**
+ * Measures spawning waves of entities with their sprites found in
+ * different ways: a new sprite wrapper for every entity (what asking
+ * for a sprite by reference used to do), the interned sprite asked for
+ * by reference, and the interned sprite fetched by id. The animated
+ * aliens are compared the same way, the animation found from its frame
+ * references each time against its id kept from the first time.
+ *
+ * Reports the time and the bytes allocated per entity spawned, the
+ * entity itself included. The run fails with a non-zero exit status if
+ * asking for the same image twice gives two different sprites.
+ */
+public class SpriteRegistryBenchmark {
+
+	/** The number of entities in a wave */
+	private static final int WAVE = 10000;
+	/** The number of waves to warm up over */
+	private static final int WARMUP = 200;
+	/** The number of waves to measure */
+	private static final int WAVES = 200;
+	/** The image the entities show */
+	private static final String REF = "sprites/alien.gif";
+	/** The images the animated entities show in turn */
+	private static final String[] FRAMES = {"sprites/alien.gif", "sprites/alien2.gif", "sprites/alien.gif", "sprites/alien3.gif"};
+
+	/** Spawn a new sprite wrapper for every entity */
+	private static final int WRAPPER = 0;
+	/** Spawn with the sprite asked for by reference */
+	private static final int BY_REFERENCE = 1;
+	/** Spawn with the sprite fetched by id */
+	private static final int BY_ID = 2;
+	/** Spawn animated, with the animation found from its frame references */
+	private static final int ANIMATION_BY_REFERENCE = 3;
+	/** Spawn animated, with the animation's id */
+	private static final int ANIMATION_BY_ID = 4;
+	/** The name of each way of spawning */
+	private static final String[] NAMES = {"new wrapper each:    ", "sprite by reference: ", "sprite by id:        ",
+			"animation by refs:   ", "animation by id:     "};
+
+	/** The store the waves are spawned into */
+	private static EntityStore store = new EntityStore(WAVE);
+	/** The window the sprites are created for */
+	private static HeadlessGameWindow window;
+
+	/**
+	 * Get the number of bytes allocated by this thread so far
+	 *
+	 * @return The number of bytes
+	 */
+	private static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Spawn a wave of entities. Each way has a loop of its own so the
+	 * compiler doesn't mix them together.
+	 *
+	 * @param way The way to find each entity's sprite
+	 * @param spriteId The id of the sprite
+	 * @param animationId The id of the animation
+	 */
+	private static void wave(int way, int spriteId, int animationId) {
+		store.clear();
+		ResourceFactory resources = ResourceFactory.get();
+		switch (way) {
+		case WRAPPER:
+			for (int i=0;i<WAVE;i++) {
+				new GlobalEntity(null, store, new HeadlessSprite(window, REF), (i % 100) * 8, (i / 100) * 6);
+			}
+			break;
+		case BY_REFERENCE:
+			for (int i=0;i<WAVE;i++) {
+				new GlobalEntity(null, store, resources.getSprite(REF), (i % 100) * 8, (i / 100) * 6);
+			}
+			break;
+		case BY_ID:
+			for (int i=0;i<WAVE;i++) {
+				new GlobalEntity(null, store, resources.getSprite(spriteId), (i % 100) * 8, (i / 100) * 6);
+			}
+			break;
+		case ANIMATION_BY_REFERENCE:
+			for (int i=0;i<WAVE;i++) {
+				new GlobalEntity(null, store, resources.getSprite(spriteId), (i % 100) * 8, (i / 100) * 6)
+						.setAnimation(resources.getAnimation(FRAMES, ResourceFactory.ALIEN_FRAME_DURATION), 0);
+			}
+			break;
+		default:
+			for (int i=0;i<WAVE;i++) {
+				new GlobalEntity(null, store, resources.getSprite(spriteId), (i % 100) * 8, (i / 100) * 6).setAnimation(animationId, 0);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		window = (HeadlessGameWindow) ResourceFactory.get().getGameWindow();
+
+		int spriteId = ResourceFactory.get().getSpriteId(REF);
+		int animationId = ResourceFactory.get().getAnimation(FRAMES, ResourceFactory.ALIEN_FRAME_DURATION);
+		boolean failed = false;
+		if ((ResourceFactory.get().getSprite(REF) != ResourceFactory.get().getSprite(spriteId)) || (ResourceFactory.get().getSpriteId(REF) != spriteId)) {
+			System.out.println("FAILED: the same image gave two different sprites");
+			failed = true;
+		}
+
+		System.out.println("Waves of "+WAVE+" entities");
+		for (int way=WRAPPER;way<=ANIMATION_BY_ID;way++) {
+			for (int i=0;i<WARMUP;i++) {
+				wave(way, spriteId, animationId);
+			}
+			long bytes = allocated();
+			long start = System.nanoTime();
+			for (int i=0;i<WAVES;i++) {
+				wave(way, spriteId, animationId);
+			}
+			long time = System.nanoTime() - start;
+			bytes = allocated() - bytes;
+			System.out.println(NAMES[way]+String.format("%.1f", time / (double) (WAVES * WAVE))+" ns/entity, "
+					+(bytes / (WAVES * WAVE))+" bytes/entity, "+(time / WAVES / 1000)+" us/wave");
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
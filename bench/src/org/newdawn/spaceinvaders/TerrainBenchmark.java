@@ -0,0 +1,286 @@
+package org.newdawn.spaceinvaders;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.newdawn.spaceinvaders.headless.HeadlessSurface;
+
+/**
+ * Checks the terrain against a plain array of pixels, then measures
+ * dozens of bunkers under heavy fire. Each frame a volley of shots is
+ * fired up through the bunkers, each finding the first solid row in
+ * its path and carving a crater there, and the frame is drawn through
+ * a terrain view onto a headless surface. The time for the shots and
+ * for the drawing are reported separately, with the drawing compared
+ * against rebuilding the whole image every frame.
+ *
+ * The check carries out random bunkers and craters, including ones
+ * hanging off the edges, on both the terrain and the array and
+ * compares every pixel and a sample of row searches. It also draws
+ * the terrain through a view every few operations and compares the
+ * surface's pixels with the terrain's.
+ *
+ * The run fails with a non-zero exit status if anything differs.
+ */
+public class TerrainBenchmark {
+
+	/** The number of bunkers across the terrain */
+	private static final int ACROSS = 12;
+	/** The number of rows of bunkers */
+	private static final int DOWN = 4;
+	/** The width of the terrain */
+	private static final int WIDTH = 800;
+	/** The height of the terrain */
+	private static final int HEIGHT = DOWN * 60;
+	/** The number of shots fired each frame */
+	private static final int SHOTS = 50;
+	/** The width of a shot */
+	private static final int SHOT_WIDTH = 3;
+	/** The number of frames before the bunkers are put back */
+	private static final int ROUND = 200;
+	/** The number of frames to warm up over */
+	private static final int WARMUP = 20000;
+	/** The number of frames to measure */
+	private static final int FRAMES = 20000;
+
+	/** The number of shots that hit a bunker */
+	private static long hits;
+
+	/**
+	 * Lay out the bunkers
+	 *
+	 * @param terrain The terrain to lay them out on
+	 */
+	private static void addBunkers(Terrain terrain) {
+		terrain.clear();
+		for (int y=0;y<DOWN;y++) {
+			for (int x=0;x<ACROSS;x++) {
+				terrain.addBunker(((2 * x + 1) * WIDTH) / (2 * ACROSS) - Terrain.BUNKER_WIDTH / 2, 10 + y * 60);
+			}
+		}
+	}
+
+	/**
+	 * Fire a volley of shots up through the terrain
+	 *
+	 * @param terrain The terrain to fire at
+	 * @param random The source of the shots' columns
+	 */
+	private static void fire(Terrain terrain, Random random) {
+		for (int i=0;i<SHOTS;i++) {
+			int x = random.nextInt(WIDTH);
+			int row = terrain.findSolidRow(x, 0, SHOT_WIDTH, HEIGHT, true);
+			if (row != Terrain.NONE) {
+				terrain.carve(x + SHOT_WIDTH / 2, row);
+				hits++;
+			}
+		}
+	}
+
+	/**
+	 * Compare a terrain with an array of its pixels
+	 *
+	 * @param terrain The terrain
+	 * @param expected The solid pixels, [y][x]
+	 * @param random The source of the rows to search
+	 * @return The number of differences
+	 */
+	private static int compare(Terrain terrain, boolean[][] expected, Random random) {
+		int failures = 0;
+		for (int y=0;y<HEIGHT;y++) {
+			for (int x=0;x<WIDTH;x++) {
+				if (terrain.isSolid(x, y) != expected[y][x]) {
+					if (failures++ < 10) {
+						System.out.println("FAILED: pixel "+x+","+y+" should "+(expected[y][x] ? "" : "not ")+"be solid");
+					}
+				}
+			}
+		}
+		for (int i=0;i<200;i++) {
+			int x = random.nextInt(WIDTH + 100) - 50;
+			int y = random.nextInt(HEIGHT + 100) - 50;
+			int w = 1 + random.nextInt(100);
+			int h = 1 + random.nextInt(100);
+			boolean upwards = random.nextBoolean();
+			int found = Terrain.NONE;
+			for (int n=0;n<h;n++) {
+				int row = upwards ? y + h - 1 - n : y + n;
+				for (int col=Math.max(0, x);(col<Math.min(WIDTH, x + w)) && (row >= 0) && (row < HEIGHT);col++) {
+					if (expected[row][col]) {
+						found = row;
+						break;
+					}
+				}
+				if (found != Terrain.NONE) {
+					break;
+				}
+			}
+			if (terrain.findSolidRow(x, y, w, h, upwards) != found) {
+				if (failures++ < 10) {
+					System.out.println("FAILED: search of "+x+","+y+" "+w+"x"+h+(upwards ? " upwards" : " downwards")+" should find "+found);
+				}
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Compare the surface a view has drawn with the terrain
+	 *
+	 * @param terrain The terrain
+	 * @param view The view drawing it
+	 * @return The number of differences
+	 */
+	private static int compare(Terrain terrain, TerrainView view) {
+		HeadlessSurface surface = (HeadlessSurface) view.getSurface();
+		int failures = 0;
+		for (int y=0;y<HEIGHT;y++) {
+			for (int x=0;x<WIDTH;x++) {
+				if ((surface.getPixel(x, y) != 0) != terrain.isSolid(x, y)) {
+					if (failures++ < 10) {
+						System.out.println("FAILED: surface differs from the terrain at "+x+","+y);
+					}
+				}
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Check the terrain against an array of pixels and the surface
+	 * drawn by a view against the terrain
+	 *
+	 * @return The number of differences
+	 */
+	private static int check() {
+		Random random = new Random(104);
+		Terrain terrain = new Terrain(0, 0, WIDTH, HEIGHT);
+		TerrainView view = new TerrainView(terrain);
+		FrameSnapshot frame = new FrameSnapshot(0, 0);
+		boolean[][] expected = new boolean[HEIGHT][WIDTH];
+		Terrain bunker = new Terrain(0, 0, Terrain.BUNKER_WIDTH, Terrain.BUNKER_HEIGHT);
+		bunker.addBunker(0, 0);
+		Terrain crater = new Terrain(0, 0, Terrain.CRATER_RADIUS * 2 + 1, Terrain.CRATER_RADIUS * 2 + 1);
+		// the middle of a bunker is solid, fill the crater's square from it
+		crater.addBunker(-10, -10);
+		crater.carve(Terrain.CRATER_RADIUS, Terrain.CRATER_RADIUS);
+
+		int failures = 0;
+		for (int round=0;round<3;round++) {
+			terrain.clear();
+			for (int y=0;y<HEIGHT;y++) {
+				for (int x=0;x<WIDTH;x++) {
+					expected[y][x] = false;
+				}
+			}
+			for (int op=0;op<2000;op++) {
+				if (op % 10 == 0) {
+					int bx = random.nextInt(WIDTH + 80) - 60;
+					int by = random.nextInt(HEIGHT + 60) - 40;
+					terrain.addBunker(bx, by);
+					for (int y=0;y<Terrain.BUNKER_HEIGHT;y++) {
+						for (int x=0;x<Terrain.BUNKER_WIDTH;x++) {
+							if ((bx + x >= 0) && (bx + x < WIDTH) && (by + y >= 0) && (by + y < HEIGHT) && bunker.isSolid(x, y)) {
+								expected[by + y][bx + x] = true;
+							}
+						}
+					}
+				} else {
+					int cx = random.nextInt(WIDTH + 20) - 10;
+					int cy = random.nextInt(HEIGHT + 20) - 10;
+					terrain.carve(cx, cy);
+					for (int y=0;y<crater.getHeight();y++) {
+						for (int x=0;x<crater.getWidth();x++) {
+							int px = cx - Terrain.CRATER_RADIUS + x;
+							int py = cy - Terrain.CRATER_RADIUS + y;
+							if ((px >= 0) && (px < WIDTH) && (py >= 0) && (py < HEIGHT) && !crater.isSolid(x, y)) {
+								expected[py][px] = false;
+							}
+						}
+					}
+				}
+				// the renderer only sees some of the snapshots
+				if (random.nextInt(50) == 0) {
+					terrain.storeFrame(frame);
+					view.draw(frame);
+				}
+			}
+			failures += compare(terrain, expected, random);
+			terrain.storeFrame(frame);
+			view.draw(frame);
+			failures += compare(terrain, view);
+		}
+		System.out.println("Checked 6000 operations, "+view.getUploads()+" uploads of "+view.getUploadedPixels()+" pixels");
+		return failures;
+	}
+
+	/**
+	 * Time the bunkers under fire
+	 *
+	 * @param fullRebuild True if the whole image should be rebuilt each frame, rather than drawn through a view
+	 */
+	private static void time(boolean fullRebuild) {
+		Random random = new Random(104);
+		Terrain terrain = new Terrain(0, 0, WIDTH, HEIGHT);
+		TerrainView view = new TerrainView(terrain);
+		FrameSnapshot frame = new FrameSnapshot(0, 0);
+		HeadlessSurface surface = new HeadlessSurface(WIDTH, HEIGHT);
+		ByteBuffer pixels = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
+
+		long shooting = 0;
+		long drawing = 0;
+		for (int f=0;f<WARMUP+FRAMES;f++) {
+			if (f == WARMUP) {
+				shooting = 0;
+				drawing = 0;
+				hits = 0;
+			}
+			long start = System.nanoTime();
+			if (f % ROUND == 0) {
+				addBunkers(terrain);
+			}
+			fire(terrain, random);
+			long fired = System.nanoTime();
+			if (fullRebuild) {
+				pixels.clear();
+				for (int y=0;y<HEIGHT;y++) {
+					for (int x=0;x<WIDTH;x++) {
+						pixels.putInt(terrain.isSolid(x, y) ? 0x30E030FF : 0);
+					}
+				}
+				pixels.flip();
+				surface.update(0, 0, WIDTH, HEIGHT, pixels);
+			} else {
+				terrain.storeFrame(frame);
+				view.draw(frame);
+			}
+			long drawn = System.nanoTime();
+			shooting += fired - start;
+			drawing += drawn - fired;
+		}
+
+		System.out.println((fullRebuild ? "full rebuild:     " : "dirty rectangles: ")+(hits / FRAMES)+" hits/frame, shots "+(shooting / FRAMES / 1000.0)+" us/frame, "
+				+"drawing "+(drawing / FRAMES / 1000.0)+" us/frame"
+				+(fullRebuild ? ", "+(WIDTH * HEIGHT)+" pixels/frame uploaded" : ", "+(view.getUploadedPixels() / (WARMUP + FRAMES))+" pixels/frame uploaded"));
+	}
+
+	/**
+	 * Run the check and the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		ResourceFactory.get().getGameWindow();
+
+		int failures = check();
+
+		System.out.println((ACROSS * DOWN)+" bunkers, "+SHOTS+" shots/frame, put back every "+ROUND+" frames");
+		time(true);
+		time(false);
+		if (failures > 0) {
+			System.out.println(failures+" FAILED");
+			System.exit(1);
+		}
+	}
+}
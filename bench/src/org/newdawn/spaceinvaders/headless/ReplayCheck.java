@@ -0,0 +1,79 @@
+package org.newdawn.spaceinvaders.headless;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.newdawn.spaceinvaders.Entity;
+import org.newdawn.spaceinvaders.EntityStore;
+import org.newdawn.spaceinvaders.Game;
+import org.newdawn.spaceinvaders.ResourceFactory;
+import org.newdawn.spaceinvaders.util.InputRecorder;
+import org.newdawn.spaceinvaders.util.ReplayInputSource;
+
+/**
+ * Checks that a recorded session replays exactly. The scripted player
+ * from SimulationBenchmark is recorded while it plays, then the
+ * recording is played back and the entities left at the end of both
+ * runs are compared. Also reports the size of the log and how fast
+ * it replays.
+ *
+ * Usage: ReplayCheck [ticks]
+ */
+public class ReplayCheck {
+
+	/**
+	 * Work out a fingerprint of the entities in the game
+	 *
+	 * @param game The game to look at
+	 * @return A hash of the kind and position of every entity
+	 */
+	private static long fingerprint(Game game) {
+		EntityStore store = game.getEntityStore();
+		long hash = store.size();
+		for (int i=0;i<store.size();i++) {
+			Entity entity = store.get(i);
+			hash = hash * 31 + store.getType(i);
+			hash = hash * 31 + Double.doubleToLongBits(entity.getXd());
+			hash = hash * 31 + Double.doubleToLongBits(entity.getYd());
+		}
+		return hash;
+	}
+
+	/**
+	 * Run the check
+	 *
+	 * @param argv The arguments passed on the command line
+	 * @throws IOException Indicates a failure to record or replay
+	 */
+	public static void main(String argv[]) throws IOException {
+		// half an hour of play at 100 ticks a second
+		long ticks = argv.length > 0 ? Long.parseLong(argv[0]) : 180000;
+
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		HeadlessGameWindow window = (HeadlessGameWindow) ResourceFactory.get().getGameWindow();
+		window.setTickLimit(ticks);
+
+		ScriptedInputSource script = SimulationBenchmark.createScript(ticks);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		InputRecorder recorder = new InputRecorder(script, log);
+		window.setInputSource(recorder);
+		Game recorded = new Game(ResourceFactory.HEADLESS);
+		recorder.close();
+		long expected = fingerprint(recorded);
+
+		ReplayInputSource replay = new ReplayInputSource(new ByteArrayInputStream(log.toByteArray()));
+		window.setInputSource(replay);
+		window.setTickLimit(replay.getLength());
+		Game replayed = new Game(ResourceFactory.HEADLESS);
+		long actual = fingerprint(replayed);
+
+		System.out.println("Recorded "+recorder.getTicks()+" ticks in "+log.size()+" bytes");
+		System.out.println("Replayed "+window.getTicks()+" ticks at "+(long) window.getTicksPerSecond()+" ticks/sec");
+		if ((actual != expected) || (window.getTicks() != recorder.getTicks()) || !replay.isFinished()) {
+			System.out.println("FAILED: replay ended in a different state");
+			System.exit(1);
+		}
+		System.out.println("Replay matches recording");
+	}
+}
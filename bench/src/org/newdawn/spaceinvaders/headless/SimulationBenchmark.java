@@ -0,0 +1,55 @@
+package org.newdawn.spaceinvaders.headless;
+
+import java.awt.event.KeyEvent;
+
+import org.newdawn.spaceinvaders.Game;
+import org.newdawn.spaceinvaders.ResourceFactory;
+
+/**
+ * Measures how many logic ticks per second the game can simulate with
+ * no display attached. A scripted player starts the game, then sweeps
+ * the ship from side to side firing as often as it's allowed.
+ *
+ * Usage: SimulationBenchmark [ticks]
+ */
+public class SimulationBenchmark {
+
+	/**
+	 * Build a script that starts the game and keeps the player busy
+	 * 
+	 * @param ticks The number of ticks the script should cover
+	 * @return The scripted input
+	 */
+	public static ScriptedInputSource createScript(long ticks) {
+		ScriptedInputSource script = new ScriptedInputSource();
+		
+		// press fire to get past "press any key"
+		script.press(10, KeyEvent.VK_SPACE).release(20, KeyEvent.VK_SPACE);
+		for (long t=100;t<ticks;t+=100) {
+			int key = ((t / 100) % 2 == 0) ? KeyEvent.VK_LEFT : KeyEvent.VK_RIGHT;
+			script.press(t, key);
+			script.press(t+10, KeyEvent.VK_SPACE).release(t+20, KeyEvent.VK_SPACE);
+			script.press(t+50, KeyEvent.VK_SHIFT).release(t+60, KeyEvent.VK_SHIFT);
+			script.release(t+90, key);
+		}
+		return script;
+	}
+
+	/**
+	 * Run the benchmark
+	 * 
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		long ticks = argv.length > 0 ? Long.parseLong(argv[0]) : 100000;
+		
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		HeadlessGameWindow window = (HeadlessGameWindow) ResourceFactory.get().getGameWindow();
+		window.setInputSource(createScript(ticks));
+		window.setTickLimit(ticks);
+		
+		new Game(ResourceFactory.HEADLESS);
+		
+		System.out.println("Simulated "+window.getTicks()+" ticks at "+(long) window.getTicksPerSecond()+" ticks/sec");
+	}
+}
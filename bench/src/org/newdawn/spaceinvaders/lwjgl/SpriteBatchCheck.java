@@ -0,0 +1,153 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.LWJGLException;
+import org.lwjgl.opengl.ContextAttribs;
+import org.lwjgl.opengl.Display;
+import org.lwjgl.opengl.DisplayMode;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.PixelFormat;
+
+/**
+ * Draws a screen full of sprites and text through the sprite batch in
+ * the same 3.2 core context the game uses, then checks the number of
+ * draw calls, the number of vertices, that GL reported no errors and
+ * that the pixels ended up where they should. Exits with a non-zero
+ * status if anything is wrong.
+ *
+ * Doesn't need a graphics card, Mesa's software renderer is enough.
+ * The Linux natives are in ext/ next to the Windows ones, they need
+ * the X libraries LWJGL links against (libXcursor, libXrandr and
+ * libXxf86vm), and Xvfb and Mesa to run without a screen. On Debian:
+ *
+ *   apt-get install xvfb libgl1-mesa-dri libxcursor1 libxrandr2 libxxf86vm1
+ *   LIBGL_ALWAYS_SOFTWARE=1 xvfb-run -a -s "-screen 0 1024x768x24" gradle :bench:spriteBatchCheck
+ */
+public class SpriteBatchCheck {
+	/** The width of the display */
+	private static final int WIDTH = 800;
+	/** The height of the display */
+	private static final int HEIGHT = 600;
+	/** The number of sprites to draw */
+	private static final int SPRITES = 2000;
+	/** The number of frames to time */
+	private static final int FRAMES = 200;
+
+	/**
+	 * Draw one frame
+	 *
+	 * @param batch The batch to draw through
+	 * @param text The text renderer to draw the label with
+	 * @param textures The textures to draw the sprites with in turn
+	 */
+	private static void frame(SpriteBatch batch, SimpleText text, Texture[] textures) {
+		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
+		batch.begin(WIDTH, HEIGHT);
+		for (int i=0;i<SPRITES;i++) {
+			Texture t = textures[i % textures.length];
+			batch.draw(t, (i * 37) % (WIDTH - 50), 100 + (i * 53) % (HEIGHT - 150), t.getImageWidth(), t.getImageHeight(),
+					t.getU(), t.getV(), t.getU() + t.getWidth(), t.getV() + t.getHeight());
+		}
+		text.drawString(batch, "Level: 1", 370, 23);
+
+		// a solid block in a corner nothing else touches
+		batch.setColor(0, 1, 0, 1);
+		batch.fillRect(0, HEIGHT - 10, 10, 10);
+		batch.setColor(1, 1, 1, 1);
+		batch.end();
+	}
+
+	/**
+	 * Report a failed check and exit
+	 *
+	 * @param message The reason the check failed
+	 */
+	private static void fail(String message) {
+		System.err.println("FAILED: "+message);
+		Display.destroy();
+		System.exit(1);
+	}
+
+	/**
+	 * Run the check
+	 *
+	 * @param argv The arguments passed on the command line
+	 * @throws Exception Indicates a failure to create the display or load a texture
+	 */
+	public static void main(String argv[]) throws Exception {
+		try {
+			Display.setDisplayMode(new DisplayMode(WIDTH, HEIGHT));
+			ContextAttribs attributes = new ContextAttribs(3, 2).withForwardCompatible(true).withProfileCore(true);
+			Display.create(new PixelFormat(), attributes);
+		} catch (LWJGLException e) {
+			System.err.println("Unable to create a 3.2 core context: "+e.getMessage());
+			System.exit(1);
+		}
+		System.out.println("Renderer: "+GL11.glGetString(GL11.GL_RENDERER)+", "+GL11.glGetString(GL11.GL_VERSION));
+
+		GL11.glViewport(0, 0, WIDTH, HEIGHT);
+		GL11.glEnable(GL11.GL_BLEND);
+		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+
+		// the sprites alternate between images that share an atlas page
+		TextureLoader loader = new TextureLoader();
+		Texture[] textures = new Texture[] {loader.getTexture("sprites/ship.gif"), loader.getTexture("sprites/alien.gif"),
+				loader.getTexture("sprites/shot.gif"), loader.getTexture("sprites/alien2.gif")};
+		SpriteBatch batch = new SpriteBatch(4096);
+		SimpleText text = new SimpleText(loader);
+
+		// the images are decoded off this thread, wait for them to be
+		// uploaded so the frames are drawn with them not the placeholder
+		for (int i=0;i<textures.length;i++) {
+			while (!textures[i].isUploaded()) {
+				if (loader.uploadReady(0) == 0) {
+					Thread.yield();
+				}
+			}
+		}
+
+		frame(batch, text, textures);
+		int error = GL11.glGetError();
+		if (error != GL11.GL_NO_ERROR) {
+			fail("GL error "+error);
+		}
+
+		// the sprites, the text and then the block
+		if (batch.getDrawCalls() != 3) {
+			fail("Expected 3 draw calls, made "+batch.getDrawCalls());
+		}
+		if (batch.getVertexCount() < SPRITES * 4) {
+			fail("Expected at least "+(SPRITES * 4)+" vertices, drew "+batch.getVertexCount());
+		}
+
+		// GL reads from the bottom left, the block is at the bottom left of the screen
+		ByteBuffer pixel = BufferUtils.createByteBuffer(4);
+		GL11.glReadPixels(5, 5, 1, 1, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixel);
+		int r = pixel.get(0) & 0xff;
+		int g = pixel.get(1) & 0xff;
+		int b = pixel.get(2) & 0xff;
+		if ((r > 10) || (g < 245) || (b > 10)) {
+			fail("Expected a green pixel at 5,5, found "+r+","+g+","+b);
+		}
+
+		long start = System.nanoTime();
+		for (int i=0;i<FRAMES;i++) {
+			frame(batch, text, textures);
+			Display.update();
+		}
+		long nanos = (System.nanoTime() - start) / FRAMES;
+
+		// the label never changes so it should only ever have been laid out once
+		if (text.getCacheMisses() != 1) {
+			fail("Expected the label to be laid out once, laid out "+text.getCacheMisses()+" times");
+		}
+
+		System.out.println(SPRITES+" sprites: "+batch.getDrawCalls()+" draw calls, "+batch.getVertexCount()+" vertices, "
+				+(nanos / 1000)+" us/frame");
+		text.dispose();
+		batch.dispose();
+		Display.destroy();
+	}
+}
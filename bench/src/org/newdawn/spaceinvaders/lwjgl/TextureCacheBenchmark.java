@@ -0,0 +1,228 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+
+import org.truman.spaceinvaders.CollisionMask;
+
+/**
+ * Checks the texture cache across a run that fills it and runs that
+ * start from it, then measures how long it takes to have every image
+ * ready to upload when the cache is empty against when it's full.
+ *
+ * The check compares the texture data and masks each run ends up with
+ * against decoding the images on this thread, that the images come
+ * from the cache once it's been filled, and that a cache with its last
+ * entry cut short or its header overwritten is mended rather than
+ * trusted. A run started while another holds the cache must use what's
+ * there without writing to the file. Nothing is uploaded so no GL
+ * context is needed.
+ *
+ * The run fails with a non-zero exit status if anything differs.
+ */
+public class TextureCacheBenchmark {
+	/** The images to ask for */
+	private static final String[] REFS = {"sprites/152.gif", "sprites/alien.gif", "sprites/alien2.gif", "sprites/alien3.gif",
+		"sprites/bg.gif", "sprites/bg2.gif", "sprites/brick.gif", "sprites/gotyou.gif", "sprites/pressanykey.gif",
+		"sprites/ship.gif", "sprites/shot.gif", "sprites/youwin.gif", "sprites/floor.gif", "sprites/geo.gif"};
+	/** The images that are decoded, the atlas page and the images that weren't packed onto it */
+	private static final String[] DECODED = {AtlasPacker.PAGE_PREFIX+"0.png", "sprites/floor.gif", "sprites/geo.gif"};
+	/** The number of runs to warm up over */
+	private static final int WARMUP = 20;
+	/** The number of runs to measure */
+	private static final int RUNS = 20;
+
+	/** The texture data of each decoded image, converted on this thread */
+	private static HashMap<String, ByteBuffer> expected = new HashMap<String, ByteBuffer>();
+	/** The textures of the last run */
+	private static Texture[] textures = new Texture[REFS.length];
+
+	/**
+	 * Read an image
+	 *
+	 * @param ref The location of the image
+	 * @return The decoded image
+	 * @throws IOException Indicates a failure to read the image
+	 */
+	private static BufferedImage read(String ref) throws IOException {
+		return ImageIO.read(TextureCacheBenchmark.class.getClassLoader().getResource(ref));
+	}
+
+	/**
+	 * Start the game's textures loading as a run of the game would, and
+	 * wait for them all to be ready to upload
+	 *
+	 * @param cache The cache to load through
+	 * @return The texture data of each decoded image
+	 * @throws IOException Indicates a failure to read an image
+	 */
+	private static HashMap<String, DecodedImage> run(TextureCache cache) throws IOException {
+		TextureLoader loader = new TextureLoader();
+		loader.setCache(cache);
+		for (int i=0;i<REFS.length;i++) {
+			textures[i] = loader.getTexture(REFS[i]);
+		}
+
+		HashMap<Texture, String> refs = new HashMap<Texture, String>();
+		for (int i=0;i<DECODED.length;i++) {
+			refs.put(loader.getTexture(DECODED[i]), DECODED[i]);
+		}
+		HashMap<String, DecodedImage> decoded = new HashMap<String, DecodedImage>();
+		while (decoded.size() < DECODED.length) {
+			TextureLoader.Decode decode = loader.nextReady();
+			if (decode == null) {
+				Thread.yield();
+				continue;
+			}
+			decoded.put(refs.get(decode.getTexture()), decode.getImage());
+		}
+		return decoded;
+	}
+
+	/**
+	 * Run the game through a cache and check what it ends up with
+	 *
+	 * @param file The file holding the cache
+	 * @param name The name of the run
+	 * @param hits The number of images that should be found in the cache
+	 * @return The number of differences
+	 * @throws IOException Indicates a failure to read an image
+	 */
+	private static int check(File file, String name, int hits) throws IOException {
+		TextureCache cache = new TextureCache(file);
+		HashMap<String, DecodedImage> decoded = run(cache);
+		cache.close();
+
+		int failures = 0;
+		if ((cache.getHits() != hits) || (cache.getMisses() != DECODED.length - hits)) {
+			System.out.println("FAILED: "+name+" found "+cache.getHits()+" images in the cache and missed "+cache.getMisses()
+					+" rather than "+hits+" and "+(DECODED.length - hits));
+			failures++;
+		}
+		for (int i=0;i<DECODED.length;i++) {
+			if (!expected.get(DECODED[i]).equals(decoded.get(DECODED[i]).pixels)) {
+				System.out.println("FAILED: "+name+" has the wrong texture data for "+DECODED[i]);
+				failures++;
+			}
+		}
+		// the images have all been decoded, so their masks are known
+		for (int i=0;i<REFS.length;i++) {
+			BufferedImage image = read(REFS[i]);
+			CollisionMask mask = textures[i].getCollisionMask();
+			CollisionMask imageMask = CollisionMask.create(image);
+			for (int y=0;y<image.getHeight();y++) {
+				for (int x=0;x<image.getWidth();x++) {
+					if (((mask == null) || mask.isSolid(x, y)) != ((imageMask == null) || imageMask.isSolid(x, y))) {
+						System.out.println("FAILED: "+name+" has the wrong mask for "+REFS[i]+" at "+x+","+y);
+						failures++;
+						y = image.getHeight();
+						break;
+					}
+				}
+			}
+		}
+		System.out.println(name+": "+cache.getHits()+" from the cache, "+cache.getMisses()+" decoded, cache file "+file.length()+" bytes");
+		return failures;
+	}
+
+	/**
+	 * Check the cache from empty, through damage to it
+	 *
+	 * @param file The file to hold the cache in
+	 * @return The number of differences
+	 * @throws IOException Indicates a failure to read an image or change the file
+	 */
+	private static int check(File file) throws IOException {
+		TextureLoader converter = new TextureLoader();
+		for (int i=0;i<DECODED.length;i++) {
+			BufferedImage image = read(DECODED[i]);
+			expected.put(DECODED[i], converter.convertImageData(image, new Texture(0, 0)));
+		}
+
+		int failures = 0;
+		file.delete();
+		failures += check(file, "first run", 0);
+		failures += check(file, "second run", DECODED.length);
+
+		RandomAccessFile damage = new RandomAccessFile(file, "rw");
+		damage.setLength(damage.length() - 100);
+		damage.close();
+		failures += check(file, "last entry cut short", DECODED.length - 1);
+		failures += check(file, "after mending", DECODED.length);
+
+		damage = new RandomAccessFile(file, "rw");
+		damage.writeInt(0);
+		damage.close();
+		failures += check(file, "header overwritten", 0);
+		failures += check(file, "after starting again", DECODED.length);
+
+		// a game still writing its last entry holds the lock, a second
+		// game started meanwhile must leave the file as it finds it
+		TextureCache holder = new TextureCache(file);
+		holder.get(new byte[20], 0, 0, 0, 0);
+		damage = new RandomAccessFile(file, "rw");
+		damage.setLength(damage.length() - 100);
+		long length = damage.length();
+		damage.close();
+		failures += check(file, "while another run holds the cache", DECODED.length - 1);
+		if (file.length() != length) {
+			System.out.println("FAILED: a run without the lock changed the cache file from "+length+" to "+file.length()+" bytes");
+			failures++;
+		}
+		holder.close();
+		failures += check(file, "once it's let go", DECODED.length - 1);
+		failures += check(file, "after mending again", DECODED.length);
+		return failures;
+	}
+
+	/**
+	 * Time runs of the game loading its textures
+	 *
+	 * @param file The file to hold the cache in
+	 * @param empty True if the cache should be emptied before each run
+	 * @throws IOException Indicates a failure to read an image
+	 */
+	private static void time(File file, boolean empty) throws IOException {
+		long total = 0;
+		for (int i=0;i<WARMUP+RUNS;i++) {
+			if (empty) {
+				file.delete();
+			}
+			long start = System.nanoTime();
+			TextureCache cache = new TextureCache(file);
+			run(cache);
+			cache.close();
+			if (i >= WARMUP) {
+				total += System.nanoTime() - start;
+			}
+		}
+		System.out.println((empty ? "empty cache: " : "full cache:  ")+"every image ready to upload after "
+				+String.format("%.2f", total / (RUNS * 1000000.0))+" ms");
+	}
+
+	/**
+	 * Run the check and the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 * @throws IOException Indicates a failure to read an image or the cache
+	 */
+	public static void main(String argv[]) throws IOException {
+		File file = File.createTempFile("textures", ".cache");
+		file.deleteOnExit();
+
+		int failures = check(file);
+		time(file, true);
+		time(file, false);
+		file.delete();
+		if (failures > 0) {
+			System.out.println(failures+" FAILED");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+
+import javax.imageio.ImageIO;
+
+import org.truman.spaceinvaders.CollisionMask;
+
+/**
+ * Checks the textures handed out before their images are decoded, then
+ * measures how long asking for an image holds up the thread that asks
+ * for it, the display's when a level starts, against decoding and
+ * converting it there as the loader used to. The time the asking
+ * thread spends is its processor time, a decoder started on a machine
+ * with a single processor takes the processor from it, and the time
+ * until the image is ready to upload is the time on the clock.
+ *
+ * The check asks for every image, the ones packed into the atlas and
+ * the ones that weren't, checks that asking for their masks straight
+ * away doesn't wait for them to be decoded, and compares each texture's size and mask with
+ * the image's and the decoded texture data with converting the image
+ * on this thread. Nothing is uploaded so no GL context is needed, the
+ * decoded images are taken off the queue here instead. A decode that
+ * fails is handed to the loader's upload, which reports it and leaves
+ * the texture on the placeholder without touching GL.
+ *
+ * The run fails with a non-zero exit status if anything differs.
+ */
+public class TextureDecodeBenchmark {
+	/** The images to ask for */
+	private static final String[] REFS = {"sprites/152.gif", "sprites/alien.gif", "sprites/alien2.gif", "sprites/alien3.gif",
+		"sprites/bg.gif", "sprites/bg2.gif", "sprites/brick.gif", "sprites/gotyou.gif", "sprites/pressanykey.gif",
+		"sprites/ship.gif", "sprites/shot.gif", "sprites/youwin.gif", "sprites/floor.gif", "sprites/geo.gif"};
+	/** The images that weren't packed into the atlas, each decoded on its own */
+	private static final String[] UNPACKED = {"sprites/floor.gif", "sprites/geo.gif"};
+	/** The images timed, the atlas page every level's sprites are on and the biggest image */
+	private static final String[] TIMED = {AtlasPacker.PAGE_PREFIX+"0.png", "sprites/geo.gif"};
+	/** The number of rounds to warm up over */
+	private static final int WARMUP = 20;
+	/** The number of rounds to measure */
+	private static final int ROUNDS = 20;
+
+	/** The source of the processor time of this thread */
+	private static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Read an image
+	 *
+	 * @param ref The location of the image
+	 * @return The decoded image
+	 * @throws IOException Indicates a failure to read the image
+	 */
+	private static BufferedImage read(String ref) throws IOException {
+		return ImageIO.read(TextureDecodeBenchmark.class.getClassLoader().getResource(ref));
+	}
+
+	/**
+	 * Take the next decoded image off a loader's queue, waiting for one
+	 * if there isn't one yet
+	 *
+	 * @param loader The loader decoding the images
+	 * @return The decode that has finished
+	 */
+	private static TextureLoader.Decode take(TextureLoader loader) {
+		TextureLoader.Decode decode;
+		while ((decode = loader.nextReady()) == null) {
+			Thread.yield();
+		}
+		return decode;
+	}
+
+	/**
+	 * Compare two masks
+	 *
+	 * @param mask The mask found by the loader, null if every pixel is solid
+	 * @param expected The mask of the image, null if every pixel is solid
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @return True if they have the same solid pixels
+	 */
+	private static boolean sameMask(CollisionMask mask, CollisionMask expected, int width, int height) {
+		for (int y=0;y<height;y++) {
+			for (int x=0;x<width;x++) {
+				boolean solid = (mask == null) || mask.isSolid(x, y);
+				if (solid != ((expected == null) || expected.isSolid(x, y))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check the textures against the images
+	 *
+	 * @return The number of differences
+	 * @throws IOException Indicates a failure to read an image
+	 */
+	private static int check() throws IOException {
+		TextureLoader loader = new TextureLoader();
+		int failures = 0;
+
+		Texture[] textures = new Texture[REFS.length];
+		for (int i=0;i<REFS.length;i++) {
+			textures[i] = loader.getTexture(REFS[i]);
+			if (textures[i].isUploaded()) {
+				System.out.println("FAILED: "+REFS[i]+" has a GL texture before it's been uploaded");
+				failures++;
+			}
+			if (loader.getTexture(REFS[i]) != textures[i]) {
+				System.out.println("FAILED: "+REFS[i]+" was decoded twice");
+				failures++;
+			}
+		}
+
+		// asking for a mask never waits for the decode, there's no mask
+		// until the image has been decoded
+		for (int i=0;i<REFS.length;i++) {
+			if ((textures[i].getCollisionMask() != null) && !textures[i].isDecoded()) {
+				System.out.println("FAILED: "+REFS[i]+" has a mask before it's been decoded");
+				failures++;
+			}
+		}
+
+		// only the atlas page and the images that weren't packed are
+		// decoded, they're taken off the queue before the masks are
+		// looked at as a mask isn't known until its image is decoded
+		HashMap<Texture, String> refs = new HashMap<Texture, String>();
+		refs.put(loader.getTexture(TIMED[0]), TIMED[0]);
+		for (int i=0;i<UNPACKED.length;i++) {
+			refs.put(loader.getTexture(UNPACKED[i]), UNPACKED[i]);
+		}
+		for (int i=0;i<refs.size();i++) {
+			TextureLoader.Decode decode = take(loader);
+			String ref = refs.get(decode.getTexture());
+			if (ref == null) {
+				System.out.println("FAILED: an unexpected image was decoded");
+				failures++;
+				continue;
+			}
+			ByteBuffer expected = loader.convertImageData(read(ref), decode.texWidth, decode.texHeight);
+			if (!expected.equals(decode.getImage().pixels)) {
+				System.out.println("FAILED: the texture data of "+ref+" differs");
+				failures++;
+			}
+		}
+
+		for (int i=0;i<REFS.length;i++) {
+			BufferedImage image = read(REFS[i]);
+			if ((textures[i].getImageWidth() != image.getWidth()) || (textures[i].getImageHeight() != image.getHeight())) {
+				System.out.println("FAILED: "+REFS[i]+" is "+textures[i].getImageWidth()+"x"+textures[i].getImageHeight()
+						+" rather than "+image.getWidth()+"x"+image.getHeight());
+				failures++;
+			}
+			if (!sameMask(textures[i].getCollisionMask(), CollisionMask.create(image), image.getWidth(), image.getHeight())) {
+				System.out.println("FAILED: "+REFS[i]+" has the wrong mask");
+				failures++;
+			}
+		}
+		if (loader.nextReady() != null) {
+			System.out.println("FAILED: more images were decoded than were asked for");
+			failures++;
+		}
+
+		// a decode that fails mustn't stop the display, the failure is
+		// reported and the texture stays on the placeholder
+		Texture broken = new Texture(0, 0);
+		TextureLoader.Decode failing = loader.new Decode("sprites/broken.gif", broken, 16, 16, new Callable<DecodedImage>() {
+			public DecodedImage call() throws IOException {
+				throw new IOException("Corrupt image");
+			}
+		});
+		broken.setDecode(failing);
+		failing.run();
+		System.out.println("A failed decode is reported as:");
+		try {
+			loader.uploadReady(0);
+			if (broken.isUploaded() || !broken.isDecoded() || (broken.getCollisionMask() != null)) {
+				System.out.println("FAILED: the texture of a failed decode wasn't left on the placeholder");
+				failures++;
+			}
+		} catch (RuntimeException e) {
+			System.out.println("FAILED: uploading a failed decode threw "+e);
+			failures++;
+		}
+		System.out.println("Checked "+REFS.length+" images, "+refs.size()+" decoded");
+		return failures;
+	}
+
+	/**
+	 * Time asking for an image both ways
+	 *
+	 * @param ref The location of the image
+	 * @throws IOException Indicates a failure to read the image
+	 */
+	private static void time(String ref) throws IOException {
+		long synchronous = 0;
+		long request = 0;
+		long decoded = 0;
+		for (int i=0;i<WARMUP+ROUNDS;i++) {
+			if (i == WARMUP) {
+				synchronous = 0;
+				request = 0;
+				decoded = 0;
+			}
+
+			// what the display thread used to do
+			long start = threads.getCurrentThreadCpuTime();
+			BufferedImage image = read(ref);
+			TextureLoader loader = new TextureLoader();
+			loader.convertImageData(image, new Texture(0, 0));
+			CollisionMask.create(image);
+			synchronous += threads.getCurrentThreadCpuTime() - start;
+
+			// what it does now, the image is decoded on a worker
+			long clock = System.nanoTime();
+			start = threads.getCurrentThreadCpuTime();
+			loader.getTexture(ref);
+			request += threads.getCurrentThreadCpuTime() - start;
+			take(loader);
+			decoded += System.nanoTime() - clock;
+		}
+
+		System.out.println(ref+": decoded on the display thread "+String.format("%.2f", synchronous / (ROUNDS * 1000000.0))+" ms, "
+				+"asked for "+String.format("%.3f", request / (ROUNDS * 1000000.0))+" ms, "
+				+"ready to upload after "+String.format("%.2f", decoded / (ROUNDS * 1000000.0))+" ms");
+	}
+
+	/**
+	 * Run the check and the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 * @throws IOException Indicates a failure to read an image
+	 */
+	public static void main(String argv[]) throws IOException {
+		int failures = check();
+		for (int i=0;i<TIMED.length;i++) {
+			time(TIMED[i]);
+		}
+		if (failures > 0) {
+			System.out.println(failures+" FAILED");
+			System.exit(1);
+		}
+	}
+}
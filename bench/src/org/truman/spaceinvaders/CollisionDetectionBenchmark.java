@@ -0,0 +1,107 @@
+package org.truman.spaceinvaders;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.newdawn.spaceinvaders.Entity;
+import org.newdawn.spaceinvaders.EntityStore;
+import org.newdawn.spaceinvaders.GlobalEntity;
+import org.newdawn.spaceinvaders.ResourceFactory;
+
+/**
+ * Runs the collision pass the game uses (spatial hash broadphase
+ * and the reused CollisionDetection narrowphase) over a crowd of
+ * entities and reports the time and the bytes allocated per frame.
+ *
+ * Once warmed up a frame must not allocate anything, the run
+ * fails with a non-zero exit status if it does.
+ */
+public class CollisionDetectionBenchmark {
+
+	/** The number of entities in the crowd */
+	private static final int ENTITIES = 2000;
+	/** The number of frames to warm up over */
+	private static final int WARMUP = 2000;
+	/** The number of frames to measure */
+	private static final int FRAMES = 2000;
+
+	/** The entities being tested */
+	private static EntityStore entities = new EntityStore(ENTITIES);
+	/** The contact record reused for every pair */
+	private static CollisionDetection contact = new CollisionDetection();
+	/** The number of collisions found */
+	private static long hits;
+
+	/** The narrowphase run on each pair the broadphase finds */
+	private static SpatialHash.PairHandler narrowphase = new SpatialHash.PairHandler() {
+		public void pair(int a, int b) {
+			if (contact.collidesWith(entities.get(a), entities.get(b))) {
+				hits++;
+			}
+		}
+	};
+
+	/**
+	 * Run one frame of collision detection
+	 *
+	 * @param hash The broadphase to use
+	 */
+	private static void frame(SpatialHash hash) {
+		hash.clear();
+		for (int i=0;i<entities.size();i++) {
+			Entity entity = entities.get(i);
+			hash.insert(i, entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight());
+		}
+		hash.findPairs(narrowphase);
+	}
+
+	/**
+	 * Get the number of bytes allocated by this thread so far
+	 *
+	 * @return The number of bytes allocated
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		ResourceFactory.get().getGameWindow();
+
+		Random random = new Random(104);
+		String[] refs = {"sprites/alien.gif", "sprites/shot.gif", "sprites/ship.gif"};
+		for (int i=0;i<ENTITIES;i++) {
+			new GlobalEntity(null, entities, ResourceFactory.get().getSprite(refs[i % refs.length]), random.nextInt(2400), random.nextInt(1800));
+		}
+
+		SpatialHash hash = new SpatialHash(64);
+		for (int i=0;i<WARMUP;i++) {
+			frame(hash);
+		}
+
+		// reading the counter can allocate itself, measure that so it can be taken off
+		long overhead = allocatedBytes();
+		overhead = allocatedBytes() - overhead;
+
+		hits = 0;
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i=0;i<FRAMES;i++) {
+			frame(hash);
+		}
+		long nanos = System.nanoTime() - start;
+		bytes = allocatedBytes() - bytes - overhead;
+
+		System.out.println(ENTITIES+" entities: "+(nanos / FRAMES)+" ns/frame, "+hash.getPairTests()+" pairs/frame, "
+				+(hits / FRAMES)+" collisions/frame, "+(bytes / FRAMES)+" bytes allocated/frame");
+		if (bytes != 0) {
+			System.err.println("Collision detection allocated "+bytes+" bytes over "+FRAMES+" frames");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package org.truman.spaceinvaders;
+
+import org.newdawn.spaceinvaders.Entity;
+import org.newdawn.spaceinvaders.EntityStore;
+import org.newdawn.spaceinvaders.GlobalEntity;
+import org.newdawn.spaceinvaders.ResourceFactory;
+
+/**
+ * Compares the collision pass with and without collision layers over
+ * the entities of a level as the game lays them out: the formation of
+ * aliens, a brick, the ship and a stream of shots climbing up from it
+ * through the formation. Reports the pairs handed to the narrowphase
+ * and the time per frame each way, for each level's number of rows.
+ *
+ * The run fails with a non-zero exit status if the layers lose any
+ * collision between layers that react to each other, or if a pair
+ * given the other way round to how its layers were registered reaches
+ * the handler with side flags that aren't from the point of view of
+ * the entity the handler receives first.
+ */
+public class CollisionLayerBenchmark {
+
+	/** The number of frames to warm up over */
+	private static final int WARMUP = 20000;
+	/** The number of frames to measure */
+	private static final int FRAMES = 20000;
+	/** The number of shots in flight */
+	private static final int SHOTS = 20;
+
+	/** The entities being tested */
+	private static EntityStore entities;
+	/** The layers the game registers */
+	private static CollisionLayers layers = new CollisionLayers();
+	/** The contact record reused for every pair */
+	private static CollisionDetection contact = new CollisionDetection();
+	/** The number of collisions found between layers that react to each other */
+	private static long hits;
+
+	/** The narrowphase as it was, every pair tested and only the ones that matter counted */
+	private static SpatialHash.PairHandler everyPair = new SpatialHash.PairHandler() {
+		public void pair(int a, int b) {
+			if (contact.collidesWith(entities.get(a), entities.get(b)) && layers.collides(entities.getLayer(a), entities.getLayer(b))) {
+				hits++;
+			}
+		}
+	};
+
+	/** The narrowphase dispatching through the layers */
+	private static SpatialHash.PairHandler layeredPair = new SpatialHash.PairHandler() {
+		public void pair(int a, int b) {
+			layers.dispatch(contact, entities.get(a), entities.getLayer(a), entities.get(b), entities.getLayer(b));
+		}
+	};
+
+	/** Counts the collisions the layers report */
+	private static CollisionLayers.ContactHandler count = new CollisionLayers.ContactHandler() {
+		public void contact(CollisionDetection d, Entity first, Entity second) {
+			hits++;
+		}
+	};
+
+	/**
+	 * Add an entity on a given layer
+	 *
+	 * @param ref The sprite of the entity
+	 * @param layer The layer to put it on
+	 * @param x The x location of the entity
+	 * @param y The y location of the entity
+	 */
+	private static void add(String ref, int layer, double x, double y) {
+		Entity entity = new GlobalEntity(null, entities, ResourceFactory.get().getSprite(ref), x, y);
+		entity.setCollisionLayer(layer);
+	}
+
+	/**
+	 * Lay out a level the way the game does
+	 *
+	 * @param level The level, which gives the number of rows of aliens
+	 */
+	private static void createLevel(int level) {
+		entities = new EntityStore(256);
+		add("sprites/brick.gif", EntityStore.GLOBAL, 340, 50);
+		for (int x=0;x<10;x++) {
+			add("sprites/alien.gif", EntityStore.ALIEN, 100+(x*50), 30);
+			for (int y=0;y<level;y++) {
+				add("sprites/alien.gif", EntityStore.ALIEN, 100+(x*50), (50*y)+30);
+			}
+		}
+		add("sprites/ship.gif", EntityStore.SHIP, 385, 560);
+		for (int i=0;i<SHOTS;i++) {
+			add("sprites/shot.gif", EntityStore.SHOT, 403, 538-(i*30));
+		}
+	}
+
+	/**
+	 * Get the side flags of a contact record
+	 *
+	 * @param d The contact record
+	 * @return The flags, one bit for each of top, left, bottom and right
+	 */
+	private static int sides(CollisionDetection d) {
+		return (d.collidedTop ? 1 : 0) | (d.collidedLeft ? 2 : 0) | (d.collidedBottom ? 4 : 0) | (d.collidedRight ? 8 : 0);
+	}
+
+	/**
+	 * Check a shot overlapping the bottom of an alien reaches the handler
+	 * with the alien first and the side flags from the alien's point of
+	 * view, whichever way round the pair is given
+	 *
+	 * @return True if the handler saw the alien's flags both ways round
+	 */
+	private static boolean checkFlags() {
+		entities = new EntityStore(2);
+		add("sprites/alien.gif", EntityStore.ALIEN, 100, 100);
+		add("sprites/shot.gif", EntityStore.SHOT, 115, 100 + entities.get(0).getHeight() - 10);
+		entities.storePositions();
+		final Entity alien = entities.get(0);
+		Entity shot = entities.get(1);
+
+		contact.collidesWith(alien, shot);
+		final int expected = sides(contact);
+		contact.collidesWith(shot, alien);
+		if (sides(contact) == expected) {
+			// the check would pass whichever way round the flags were
+			return false;
+		}
+
+		final int[] seen = new int[2];
+		final int[] calls = new int[1];
+		CollisionLayers flags = new CollisionLayers();
+		flags.register(EntityStore.ALIEN, EntityStore.SHOT, new CollisionLayers.ContactHandler() {
+			public void contact(CollisionDetection d, Entity first, Entity second) {
+				seen[calls[0]++] = (first == alien) ? sides(d) : -1;
+			}
+		});
+		flags.dispatch(contact, alien, EntityStore.ALIEN, shot, EntityStore.SHOT);
+		flags.dispatch(contact, shot, EntityStore.SHOT, alien, EntityStore.ALIEN);
+		return (calls[0] == 2) && (seen[0] == expected) && (seen[1] == expected);
+	}
+
+	/**
+	 * Run one frame of collision detection
+	 *
+	 * @param hash The broadphase to use
+	 * @param layered True if the entities should be inserted on their layers
+	 */
+	private static void frame(SpatialHash hash, boolean layered) {
+		hash.clear();
+		for (int i=0;i<entities.size();i++) {
+			Entity entity = entities.get(i);
+			if (layered) {
+				int layer = entities.getLayer(i);
+				hash.insert(i, entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight(), 1 << layer, layers.getMask(layer));
+			} else {
+				hash.insert(i, entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight());
+			}
+		}
+		hash.findPairs(layered ? layeredPair : everyPair);
+	}
+
+	/**
+	 * Time a number of frames
+	 *
+	 * @param hash The broadphase to use
+	 * @param layered True if the entities should be inserted on their layers
+	 * @return The time taken per frame (ns)
+	 */
+	private static long time(SpatialHash hash, boolean layered) {
+		for (int i=0;i<WARMUP;i++) {
+			frame(hash, layered);
+		}
+		hits = 0;
+		long start = System.nanoTime();
+		for (int i=0;i<FRAMES;i++) {
+			frame(hash, layered);
+		}
+		return (System.nanoTime() - start) / FRAMES;
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		ResourceFactory.get().getGameWindow();
+
+		layers.register(EntityStore.ALIEN, EntityStore.SHOT, count);
+		layers.register(EntityStore.SHIP, EntityStore.ALIEN, count);
+		layers.register(EntityStore.SHIP, EntityStore.GLOBAL, count);
+
+		boolean failed = false;
+		if (!checkFlags()) {
+			System.out.println("FAILED: a swapped pair reached the handler with the other entity's side flags");
+			failed = true;
+		}
+		for (int level=1;level<=5;level++) {
+			createLevel(level);
+			SpatialHash hash = new SpatialHash(64);
+
+			long everyNanos = time(hash, false);
+			long everyHits = hits;
+			int everyPairs = hash.getPairTests();
+
+			long layeredNanos = time(hash, true);
+			long layeredHits = hits;
+			int layeredPairs = hash.getPairTests();
+
+			System.out.println("level "+level+", "+entities.size()+" entities: every pair "+everyPairs+" pairs/frame "+everyNanos+" ns/frame, "
+					+"layered "+layeredPairs+" pairs/frame ("+hash.getPairsFiltered()+" filtered) "+layeredNanos+" ns/frame");
+			if (layeredHits != everyHits) {
+				System.out.println("FAILED: layers found "+(layeredHits / FRAMES)+" collisions/frame, expected "+(everyHits / FRAMES));
+				failed = true;
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
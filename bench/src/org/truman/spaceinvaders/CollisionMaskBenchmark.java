@@ -0,0 +1,242 @@
+package org.truman.spaceinvaders;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.newdawn.spaceinvaders.Entity;
+import org.newdawn.spaceinvaders.EntityStore;
+import org.newdawn.spaceinvaders.GlobalEntity;
+import org.newdawn.spaceinvaders.ResourceFactory;
+
+/**
+ * Checks the packed collision masks against a plain pixel by pixel
+ * comparison of the images, then measures what comparing the masks
+ * adds to the collision pass over the rectangle test alone.
+ *
+ * The check places every pair of the game's sprites at every offset
+ * where their rectangles overlap and compares the answer from the
+ * masks with the answer from reading the alpha of each pixel. It also
+ * checks masks cut out of a larger one match masks built straight
+ * from the same part of the image, as happens for atlas pages.
+ *
+ * The run fails with a non-zero exit status if any answer differs.
+ */
+public class CollisionMaskBenchmark {
+
+	/** The sprites the game collides */
+	private static final String[] REFS = {"sprites/alien.gif", "sprites/alien2.gif", "sprites/alien3.gif", "sprites/ship.gif", "sprites/shot.gif", "sprites/brick.gif"};
+	/** The number of entities in the crowd */
+	private static final int ENTITIES = 2000;
+	/** The number of frames to warm up over */
+	private static final int WARMUP = 1000;
+	/** The number of frames to measure */
+	private static final int FRAMES = 1000;
+
+	/** The entities being tested */
+	private static EntityStore entities = new EntityStore(ENTITIES);
+	/** The contact record reused for every pair */
+	private static CollisionDetection contact = new CollisionDetection();
+	/** The number of collisions found */
+	private static long hits;
+
+	/** The narrowphase run on each pair the broadphase finds */
+	private static SpatialHash.PairHandler narrowphase = new SpatialHash.PairHandler() {
+		public void pair(int a, int b) {
+			if (contact.collidesWith(entities.get(a), entities.get(b))) {
+				hits++;
+			}
+		}
+	};
+
+	/**
+	 * Check if a pixel of an image is solid by reading it
+	 *
+	 * @param image The image
+	 * @param x The x location of the pixel
+	 * @param y The y location of the pixel
+	 * @return True if the pixel's alpha makes it solid
+	 */
+	private static boolean solid(BufferedImage image, int x, int y) {
+		return !image.getColorModel().hasAlpha() || ((image.getRGB(x, y) >>> 24) >= CollisionMask.ALPHA_THRESHOLD);
+	}
+
+	/**
+	 * Compare two images pixel by pixel
+	 *
+	 * @param a The first image
+	 * @param b The second image
+	 * @param dx The x location of the second image relative to the first
+	 * @param dy The y location of the second image relative to the first
+	 * @return True if a solid pixel of one is over a solid pixel of the other
+	 */
+	private static boolean pixelsOverlap(BufferedImage a, BufferedImage b, int dx, int dy) {
+		for (int y=Math.max(0, dy);y<Math.min(a.getHeight(), dy + b.getHeight());y++) {
+			for (int x=Math.max(0, dx);x<Math.min(a.getWidth(), dx + b.getWidth());x++) {
+				if (solid(a, x, y) && solid(b, x - dx, y - dy)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compare two masks, either of which may be missing because its
+	 * image is solid
+	 *
+	 * @param a The first mask
+	 * @param aImage The first image
+	 * @param b The second mask
+	 * @param bImage The second image
+	 * @param dx The x location of the second relative to the first
+	 * @param dy The y location of the second relative to the first
+	 * @return True if the masks overlap
+	 */
+	private static boolean masksOverlap(CollisionMask a, BufferedImage aImage, CollisionMask b, BufferedImage bImage, int dx, int dy) {
+		if (a == null) {
+			return (b == null) || b.overlaps(-dx, -dy, aImage.getWidth(), aImage.getHeight());
+		}
+		if (b == null) {
+			return a.overlaps(dx, dy, bImage.getWidth(), bImage.getHeight());
+		}
+		return a.overlaps(b, dx, dy);
+	}
+
+	/**
+	 * Check the masks of the game's sprites against their pixels
+	 *
+	 * @return The number of answers that differed
+	 * @throws IOException Indicates a failure to read a sprite
+	 */
+	private static int check() throws IOException {
+		BufferedImage[] images = new BufferedImage[REFS.length];
+		CollisionMask[] masks = new CollisionMask[REFS.length];
+		for (int i=0;i<REFS.length;i++) {
+			images[i] = ImageIO.read(CollisionMaskBenchmark.class.getClassLoader().getResource(REFS[i]));
+			masks[i] = CollisionMask.create(images[i]);
+		}
+
+		int tests = 0;
+		int touching = 0;
+		int failures = 0;
+		for (int a=0;a<REFS.length;a++) {
+			for (int b=0;b<REFS.length;b++) {
+				for (int dy=1-images[b].getHeight();dy<images[a].getHeight();dy++) {
+					for (int dx=1-images[b].getWidth();dx<images[a].getWidth();dx++) {
+						boolean expected = pixelsOverlap(images[a], images[b], dx, dy);
+						tests++;
+						if (expected) {
+							touching++;
+						}
+						if (masksOverlap(masks[a], images[a], masks[b], images[b], dx, dy) != expected) {
+							if (failures++ < 10) {
+								System.out.println("FAILED: "+REFS[a]+" and "+REFS[b]+" at "+dx+","+dy+" should "+(expected ? "" : "not ")+"overlap");
+							}
+						}
+					}
+				}
+			}
+		}
+		System.out.println("Checked "+tests+" overlapping placements, "+touching+" touching ("+(tests - touching)+" rejected by the masks)");
+
+		// cut masks out of a page holding the sprites side by side
+		int width = 0;
+		int height = 0;
+		for (int i=0;i<REFS.length;i++) {
+			width += images[i].getWidth() + 3;
+			height = Math.max(height, images[i].getHeight());
+		}
+		BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] left = new int[REFS.length];
+		for (int i=0, x=0;i<REFS.length;x+=images[i].getWidth()+3, i++) {
+			left[i] = x;
+			page.getGraphics().drawImage(images[i], x, 0, null);
+		}
+		CollisionMask pageMask = CollisionMask.create(page);
+		for (int i=0;i<REFS.length;i++) {
+			CollisionMask region = pageMask.region(left[i], 0, images[i].getWidth(), images[i].getHeight());
+			CollisionMask direct = CollisionMask.create(page, left[i], 0, images[i].getWidth(), images[i].getHeight());
+			for (int y=0;y<images[i].getHeight();y++) {
+				for (int x=0;x<images[i].getWidth();x++) {
+					boolean expected = (direct == null) || direct.isSolid(x, y);
+					if (((region == null) || region.isSolid(x, y)) != expected) {
+						if (failures++ < 10) {
+							System.out.println("FAILED: region of "+REFS[i]+" differs at "+x+","+y);
+						}
+					}
+				}
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Run one frame of collision detection
+	 *
+	 * @param hash The broadphase to use
+	 */
+	private static void frame(SpatialHash hash) {
+		hash.clear();
+		for (int i=0;i<entities.size();i++) {
+			Entity entity = entities.get(i);
+			hash.insert(i, entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight());
+		}
+		hash.findPairs(narrowphase);
+	}
+
+	/**
+	 * Time the collision pass over the crowd
+	 *
+	 * @param hash The broadphase to use
+	 * @return The time taken per frame (ns)
+	 */
+	private static long time(SpatialHash hash) {
+		for (int f=0;f<WARMUP;f++) {
+			frame(hash);
+		}
+		hits = 0;
+		long start = System.nanoTime();
+		for (int f=0;f<FRAMES;f++) {
+			frame(hash);
+		}
+		return (System.nanoTime() - start) / FRAMES;
+	}
+
+	/**
+	 * Run the check and the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 * @throws IOException Indicates a failure to read a sprite
+	 */
+	public static void main(String argv[]) throws IOException {
+		int failures = check();
+
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		ResourceFactory.get().getGameWindow();
+		Random random = new Random(104);
+		// the brick is bigger than a cell of the grid, leave it out so
+		// the pairs are the ones a crowd of small sprites would give
+		for (int i=0;i<ENTITIES;i++) {
+			new GlobalEntity(null, entities, ResourceFactory.get().getSprite(REFS[i % (REFS.length - 1)]), random.nextInt(1200), random.nextInt(900));
+		}
+		SpatialHash hash = new SpatialHash(64);
+
+		contact.setPixelPerfect(false);
+		long rectangles = time(hash);
+		long rectangleHits = hits / FRAMES;
+		contact.setPixelPerfect(true);
+		long pixels = time(hash);
+		long pixelHits = hits / FRAMES;
+
+		System.out.println(ENTITIES+" entities, "+hash.getPairTests()+" pairs/frame");
+		System.out.println("rectangles only: "+rectangles+" ns/frame, "+rectangleHits+" collisions/frame");
+		System.out.println("pixel perfect:   "+pixels+" ns/frame, "+pixelHits+" collisions/frame");
+		if (failures > 0) {
+			System.out.println(failures+" FAILED");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package org.truman.spaceinvaders;
+
+import java.util.Random;
+
+/**
+ * Compares the spatial hash broadphase against the brute force
+ * loop that compares every entity with every other. Entities are
+ * scattered at random over a world that grows with their number,
+ * so the density (and the number of real collisions per entity)
+ * stays about the same as in a level.
+ *
+ * For each size it reports the number of pairs reaching the
+ * narrowphase and the time taken per frame by both approaches.
+ */
+public class SpatialHashBenchmark {
+
+	/** The entity counts to measure */
+	private static final int[] SIZES = {100, 1000, 10000, 100000};
+
+	/** The x location of each entity */
+	private static double[] x;
+	/** The y location of each entity */
+	private static double[] y;
+	/** The width of each entity */
+	private static double[] w;
+	/** The height of each entity */
+	private static double[] h;
+	/** The number of overlapping pairs found */
+	private static int hits;
+
+	/** The narrowphase run on each pair the spatial hash hands over */
+	private static SpatialHash.PairHandler overlap = new SpatialHash.PairHandler() {
+		public void pair(int a, int b) {
+			if (overlaps(a, b)) {
+				hits++;
+			}
+		}
+	};
+
+	/**
+	 * Check if two entities overlap
+	 *
+	 * @param a The first entity
+	 * @param b The second entity
+	 * @return True if the entities overlap
+	 */
+	private static boolean overlaps(int a, int b) {
+		return (x[a] < x[b] + w[b]) && (x[b] < x[a] + w[a]) && (y[a] < y[b] + h[b]) && (y[b] < y[a] + h[a]);
+	}
+
+	/**
+	 * Scatter entities over a world sized to keep the density constant
+	 *
+	 * @param count The number of entities
+	 */
+	private static void scatter(int count) {
+		Random random = new Random(104);
+		double side = Math.sqrt(count * 64.0 * 64.0 * 2);
+		x = new double[count];
+		y = new double[count];
+		w = new double[count];
+		h = new double[count];
+		for (int i=0;i<count;i++) {
+			x[i] = random.nextDouble() * side;
+			y[i] = random.nextDouble() * side;
+			w[i] = 8 + random.nextInt(40);
+			h[i] = 8 + random.nextInt(40);
+		}
+	}
+
+	/**
+	 * Run one frame of brute force collision detection
+	 *
+	 * @param count The number of entities
+	 */
+	private static void bruteForce(int count) {
+		for (int p=0;p<count;p++) {
+			for (int s=p+1;s<count;s++) {
+				if (overlaps(p, s)) {
+					hits++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run one frame of spatial hash collision detection
+	 *
+	 * @param hash The spatial hash to use
+	 * @param count The number of entities
+	 */
+	private static void spatialHash(SpatialHash hash, int count) {
+		hash.clear();
+		for (int i=0;i<count;i++) {
+			hash.insert(i, x[i], y[i], w[i], h[i]);
+		}
+		hash.findPairs(overlap);
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		System.out.println("entities    brute pairs      brute ns/frame    hash pairs    hash ns/frame    hits");
+		for (int size : SIZES) {
+			scatter(size);
+			SpatialHash hash = new SpatialHash(64);
+
+			// the brute force loop is quadratic, run it fewer times as it grows
+			int bruteFrames = Math.max(1, 1000000 / size / size * 100);
+			bruteForce(size);
+			hits = 0;
+			long start = System.nanoTime();
+			for (int i=0;i<bruteFrames;i++) {
+				bruteForce(size);
+			}
+			long bruteNanos = (System.nanoTime() - start) / bruteFrames;
+			int bruteHits = hits / bruteFrames;
+
+			int hashFrames = Math.max(10, 10000000 / size);
+			for (int i=0;i<hashFrames;i++) {
+				spatialHash(hash, size);
+			}
+			hits = 0;
+			start = System.nanoTime();
+			for (int i=0;i<hashFrames;i++) {
+				spatialHash(hash, size);
+			}
+			long hashNanos = (System.nanoTime() - start) / hashFrames;
+			int hashHits = hits / hashFrames;
+
+			if (bruteHits != hashHits) {
+				throw new RuntimeException("Spatial hash found "+hashHits+" collisions, brute force found "+bruteHits);
+			}
+			System.out.println(String.format("%8d %14d %19d %13d %16d %7d", size, (long) size * (size - 1) / 2,
+					bruteNanos, hash.getPairTests(), hashNanos, hashHits));
+		}
+	}
+}
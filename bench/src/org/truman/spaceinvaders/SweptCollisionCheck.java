@@ -0,0 +1,91 @@
+package org.truman.spaceinvaders;
+
+import org.newdawn.spaceinvaders.Entity;
+import org.newdawn.spaceinvaders.EntityStore;
+import org.newdawn.spaceinvaders.EntitySystems;
+import org.newdawn.spaceinvaders.GlobalEntity;
+import org.newdawn.spaceinvaders.ResourceFactory;
+
+/**
+ * Fires a shot straight up at an alien over a range of shot speeds and
+ * tick lengths, and checks the collision test catches it every time.
+ * For each run it reports whether comparing the rectangles where they
+ * end up each tick (the test the game used to run) would have caught
+ * it, and the time of impact the swept test found, which must match
+ * the moment the top of the shot reaches the bottom of the alien.
+ *
+ * The run fails with a non-zero exit status if the swept test misses
+ * a shot or reports the wrong time or side.
+ */
+public class SweptCollisionCheck {
+
+	/** The shot speeds to try (pixels/sec) */
+	private static final int[] SPEEDS = {300, 1200, 4800, 19200};
+	/** The tick lengths to try (ms) */
+	private static final long[] TICKS = {10, 25, 50, 100};
+	/** The y location of the alien */
+	private static final double ALIEN_Y = 100;
+
+	/**
+	 * Check if two entities overlap where they are now, without
+	 * taking account of how they got there
+	 *
+	 * @param a The first entity
+	 * @param b The second entity
+	 * @return True if the pixel rectangles overlap
+	 */
+	private static boolean overlaps(Entity a, Entity b) {
+		return (a.getX() < b.getX() + b.getWidth()) && (b.getX() < a.getX() + a.getWidth()) &&
+				(a.getY() < b.getY() + b.getHeight()) && (b.getY() < a.getY() + a.getHeight());
+	}
+
+	/**
+	 * Run the check
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		ResourceFactory.get().getGameWindow();
+
+		// the time checked is when the rectangles meet, the pixels of
+		// the sprites would only touch a little later
+		CollisionDetection contact = new CollisionDetection();
+		contact.setPixelPerfect(false);
+		boolean failed = false;
+		for (int s=0;s<SPEEDS.length;s++) {
+			for (int t=0;t<TICKS.length;t++) {
+				EntityStore store = new EntityStore(2);
+				Entity alien = new GlobalEntity(null, store, ResourceFactory.get().getSprite("sprites/alien.gif"), 100, ALIEN_Y);
+				Entity shot = new GlobalEntity(null, store, ResourceFactory.get().getSprite("sprites/shot.gif"), 115, 590);
+				shot.setVerticalMovement(-SPEEDS[s]);
+				double bottom = ALIEN_Y + alien.getHeight();
+
+				boolean discrete = false;
+				boolean swept = false;
+				while (!swept && (shot.getYd() + shot.getHeight() > ALIEN_Y - 1000)) {
+					store.storePositions();
+					EntitySystems.integrate(store, TICKS[t]);
+					discrete |= overlaps(shot, alien);
+					swept = contact.collidesWith(shot, alien);
+				}
+
+				double expected = (shot.getPrevYd() - bottom) / (shot.getPrevYd() - shot.getYd());
+				String result = SPEEDS[s]+" pixels/sec, "+TICKS[t]+"ms ticks ("+(SPEEDS[s] * TICKS[t] / 1000)+" pixels/tick): "
+						+"overlap test "+(discrete ? "hits" : "misses")+", swept test ";
+				if (!swept) {
+					System.out.println(result+"misses - FAILED");
+					failed = true;
+				} else if ((Math.abs(contact.time - expected) > 1e-9) || !contact.collidedBottom) {
+					System.out.println(result+"hits at "+contact.time+" expected "+expected+" from below - FAILED");
+					failed = true;
+				} else {
+					System.out.println(result+"hits at "+String.format("%.3f", contact.time)+" of the tick");
+				}
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -8,117 +8,53 @@ import org.truman.spaceinvaders.CollisionDetection;
  * @author Kevin Glass
  */
 public class AlienEntity extends Entity {
-	/** The speed at which the alient moves horizontally */
-	private double moveSpeed = 75;
-	/** The game in which the entity exists */
-	private Game game;
-	/** The animation frames */
-	private Sprite[] frames = new Sprite[4];
-	/** The time since the last frame change took place */
-	private long lastFrameChange;
-	/** The frame duration in milliseconds, i.e. how long any given frame of animation lasts */
-	private long frameDuration = 250;
-	/** The current frame of animation being displayed */
-	private int frameNumber;
-	private boolean used;
+	/** The formation this alien moves with */
+	private Formation formation;
 	private int health = 100;
 	
 	/**
 	 * Create a new alien entity
 	 * 
 	 * @param game The game in which this entity is being created
+	 * @param formation The formation this alien moves with
 	 * @param x The intial x location of this alien
 	 * @param y The intial y location of this alient
 	 */
-	public AlienEntity(Game game,int x,int y) {
-		super("sprites/alien.gif",x,y);
+	public AlienEntity(Game game,Formation formation,int x,int y) {
+		// the animation is shared by every alien, each one starts
+		// on its first frame when it's created
+		super(game.getEntityStore(),EntityStore.ALIEN,ResourceFactory.get().getAlienAnimation(),-game.getAnimationTime(),x,y);
 		
-		// setup the animatin frames
-		frames[0] = getSprite();
-		frames[1] = ResourceFactory.get().getSprite("sprites/alien2.gif");
-		frames[2] = getSprite();
-		frames[3] = ResourceFactory.get().getSprite("sprites/alien3.gif");
-		
-		this.game = game;
-		dx = -moveSpeed;
-		dy = moveSpeed/10;
+		this.formation = formation;
+		formation.add(this);
 	}
 
 	/**
-	 * Request that this alien moved based on time elapsed
-	 * 
-	 * @param delta The time that has elapsed since last move
+	 * Get the horizontal speed of this alien, the speed of its formation
+	 *
+	 * @return The horizontal speed of this alien (pixels/sec)
 	 */
-	public void move(long delta) {
-		// since the move tells us how much time has passed
-		// by we can use it to drive the animation, however
-		// its the not the prettiest solution
-		lastFrameChange += delta;
-		
-		// if we need to change the frame, update the frame number
-		// and flip over the sprite in use
-		if (lastFrameChange > frameDuration) {
-			// reset our frame change time counter
-			lastFrameChange = 0;
-			
-			// update the frame
-			frameNumber++;
-			if (frameNumber >= frames.length) {
-				frameNumber = 0;
-			}
-			
-			setSprite(frames[frameNumber]);
-		}
-		
-		// if we have reached the left hand side of the screen and
-		// are moving left then request a logic update 
-		if ((dx < 0) && (x < 10)) {
-			game.updateLogic();
-		}
-		// and vice vesa, if we have reached the right hand side of 
-		// the screen and are moving right, request a logic update
-		if ((dx > 0) && (x > 750)) {
-			game.updateLogic();
-		}
-		
-		// proceed with normal move
-		super.move(delta);
+	public double getHorizontalMovement() {
+		return formation.getHorizontalMovement();
 	}
-	
+
 	/**
-	 * Update the game logic related to aliens
+	 * Get the vertical speed of this alien, the speed of its formation
+	 *
+	 * @return The vertical speed of this alien (pixels/sec)
 	 */
-	public void doLogic() {
-		// swap over horizontal movement and move down the
-		// screen a bit
-		dx = -dx;
-		//y += 10;
-		
-		// if we've reached the bottom of the screen then
-		// put it on top
-		if (y > game.getHeight()) {
-			y = 0 - this.getSprite().getHeight();
-		}
+	public double getVerticalMovement() {
+		return formation.getVerticalMovement();
 	}
 	
 	/**
-	 * Notification that this alien has collided with another entity
+	 * Notification that this alien has collided with another entity.
+	 * Being hit by a shot is handled by the game's contact handler for
+	 * aliens and shots, there's nothing more for the alien to do.
 	 * 
 	 * @param other The other entity
 	 */
 	public void collidedWith(CollisionDetection d, Entity other) {
-	
-		if(used) return;
-		
-		if (other instanceof ShotEntity) {
-			game.removeEntity(other);
-			game.updateHealth(this, other);
-			if(health <= 0){
-				used = true;
-				game.notifyAlienKilled();
-				game.removeEntity(this);
-			}
-		}
 	}
 	public int getHealth() {
 		return health ;
@@ -0,0 +1,76 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * A looping sequence of sprites shown for a fixed time each. A set is
+ * never changed once created, so one set is shared by every entity that
+ * uses the animation. Entities don't keep track of which frame they're
+ * on, the frame is worked out from the time whenever it's drawn.
+ *
+ * Sets are registered with the ResourceFactory, which hands out the
+ * id that entities keep in place of the set itself.
+ */
+public class AnimationSet {
+	/** The frames of the animation in the order they're shown */
+	private final Sprite[] frames;
+	/** The time each frame is shown for (ms) */
+	private final long frameDuration;
+	/** The time it takes to show every frame once (ms) */
+	private final long length;
+
+	/**
+	 * Create a new animation
+	 *
+	 * @param frames The frames of the animation in the order they're shown
+	 * @param frameDuration The time each frame is shown for (ms)
+	 */
+	public AnimationSet(Sprite[] frames, long frameDuration) {
+		if ((frames.length == 0) || (frameDuration <= 0)) {
+			throw new IllegalArgumentException("An animation needs at least one frame and a positive frame duration");
+		}
+		this.frames = new Sprite[frames.length];
+		System.arraycopy(frames, 0, this.frames, 0, frames.length);
+		this.frameDuration = frameDuration;
+		this.length = frameDuration * frames.length;
+	}
+
+	/**
+	 * Get the frame showing at a given time
+	 *
+	 * @param time The time into the animation (ms), may be negative
+	 * @return The frame to draw
+	 */
+	public Sprite getFrame(long time) {
+		long t = time % length;
+		if (t < 0) {
+			t += length;
+		}
+		return frames[(int) (t / frameDuration)];
+	}
+
+	/**
+	 * Get the first frame, the one showing at time zero
+	 *
+	 * @return The first frame
+	 */
+	public Sprite getFirstFrame() {
+		return frames[0];
+	}
+
+	/**
+	 * Get the number of frames in the animation
+	 *
+	 * @return The number of frames
+	 */
+	public int getFrameCount() {
+		return frames.length;
+	}
+
+	/**
+	 * Get the time each frame is shown for
+	 *
+	 * @return The time each frame is shown for (ms)
+	 */
+	public long getFrameDuration() {
+		return frameDuration;
+	}
+}
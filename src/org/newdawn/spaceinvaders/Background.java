@@ -0,0 +1,151 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * The scrolling layers drawn behind everything else. Each layer is a
+ * sprite repeated across the whole screen and scrolled at its own
+ * speed, so layers moving at different speeds give a parallax effect.
+ *
+ * A layer isn't made up of tiles, it's one offset that's moved each
+ * tick and wrapped at the size of the sprite, and it's drawn with a
+ * single tiled sprite draw. Adding a layer costs the same however many
+ * tiles it takes to cover the screen, and the layers are held in
+ * arrays sized up front so nothing is allocated when a level starts.
+ */
+public class Background {
+	/** The sprite each layer repeats */
+	private Sprite[] sprite;
+	/** The horizontal speed of each layer (pixels/sec) */
+	private double[] dx;
+	/** The vertical speed of each layer (pixels/sec) */
+	private double[] dy;
+	/** How far each layer is shifted right, between 0 and the sprite width */
+	private double[] offsetX;
+	/** How far each layer is shifted down, between 0 and the sprite height */
+	private double[] offsetY;
+	/** The horizontal shift of each layer at the start of the tick */
+	private double[] prevX;
+	/** The vertical shift of each layer at the start of the tick */
+	private double[] prevY;
+	/** The number of layers */
+	private int layers;
+
+	/**
+	 * Create a new background with no layers
+	 *
+	 * @param capacity The most layers the background can hold
+	 */
+	public Background(int capacity) {
+		sprite = new Sprite[capacity];
+		dx = new double[capacity];
+		dy = new double[capacity];
+		offsetX = new double[capacity];
+		offsetY = new double[capacity];
+		prevX = new double[capacity];
+		prevY = new double[capacity];
+	}
+
+	/**
+	 * Remove every layer
+	 */
+	public void clear() {
+		for (int i=0;i<layers;i++) {
+			sprite[i] = null;
+		}
+		layers = 0;
+	}
+
+	/**
+	 * Add a layer in front of the ones already added
+	 *
+	 * @param layerSprite The sprite to repeat across the layer
+	 * @param speedX The horizontal speed of the layer (pixels/sec)
+	 * @param speedY The vertical speed of the layer (pixels/sec)
+	 * @param x How far the layer starts shifted right
+	 * @param y How far the layer starts shifted down
+	 * @return The index of the new layer
+	 */
+	public int addLayer(Sprite layerSprite, double speedX, double speedY, double x, double y) {
+		if (layers == sprite.length) {
+			throw new IllegalStateException("Background can only hold "+sprite.length+" layers");
+		}
+		int i = layers++;
+		sprite[i] = layerSprite;
+		dx[i] = speedX;
+		dy[i] = speedY;
+		offsetX[i] = wrap(x, layerSprite.getWidth());
+		offsetY[i] = wrap(y, layerSprite.getHeight());
+		prevX[i] = offsetX[i];
+		prevY[i] = offsetY[i];
+		return i;
+	}
+
+	/**
+	 * Record where every layer is at the start of a tick so the
+	 * renderer can interpolate towards where it ends up
+	 */
+	public void storePositions() {
+		System.arraycopy(offsetX, 0, prevX, 0, layers);
+		System.arraycopy(offsetY, 0, prevY, 0, layers);
+	}
+
+	/**
+	 * Scroll every layer based on its speed
+	 *
+	 * @param delta The time that has elapsed since last move (ms)
+	 */
+	public void update(long delta) {
+		for (int i=0;i<layers;i++) {
+			double x = offsetX[i] + (delta * dx[i]) / 1000;
+			double y = offsetY[i] + (delta * dy[i]) / 1000;
+
+			// wrap the start of the tick by the same amount so the
+			// interpolated position doesn't jump back across the sprite
+			double wrappedX = wrap(x, sprite[i].getWidth());
+			double wrappedY = wrap(y, sprite[i].getHeight());
+			prevX[i] += wrappedX - x;
+			prevY[i] += wrappedY - y;
+			offsetX[i] = wrappedX;
+			offsetY[i] = wrappedY;
+		}
+	}
+
+	/**
+	 * Copy every layer into the snapshot of a frame, where it's drawn
+	 * across the screen
+	 *
+	 * @param frame The snapshot to copy the layers into
+	 */
+	public void storeFrame(FrameSnapshot frame) {
+		frame.ensureLayers(layers);
+		System.arraycopy(sprite, 0, frame.layerSprite, 0, layers);
+		System.arraycopy(offsetX, 0, frame.layerX, 0, layers);
+		System.arraycopy(offsetY, 0, frame.layerY, 0, layers);
+		System.arraycopy(prevX, 0, frame.layerPrevX, 0, layers);
+		System.arraycopy(prevY, 0, frame.layerPrevY, 0, layers);
+		frame.layerCount = layers;
+	}
+
+	/**
+	 * Get the number of layers
+	 *
+	 * @return The number of layers
+	 */
+	public int getLayerCount() {
+		return layers;
+	}
+
+	/**
+	 * Wrap a shift into the range 0 to the size of the sprite
+	 *
+	 * @param value The shift to wrap
+	 * @param size The size of the sprite in that direction
+	 * @return The wrapped shift
+	 */
+	private static double wrap(double value, int size) {
+		double result = value % size;
+		if (result < 0) {
+			result += size;
+		}
+		return result;
+	}
+}
@@ -10,17 +10,6 @@ import org.truman.spaceinvaders.CollisionDetection;
 public class EnemiesEntity extends Entity {
 	/** The speed at which the alient moves horizontally */
 	private double moveSpeed = 75;
-	/** The game in which the entity exists */
-	private Game game;
-	/** The animation frames */
-	private Sprite[] frames = new Sprite[4];
-	/** The time since the last frame change took place */
-	private long lastFrameChange;
-	/** The frame duration in milliseconds, i.e. how long any given frame of animation lasts */
-	private long frameDuration = 250;
-	/** The current frame of animation being displayed */
-	private int frameNumber;
-	private boolean used;
 	private int health = 100;
 	
 	/**
@@ -31,85 +20,22 @@ public class EnemiesEntity extends Entity {
 	 * @param y The intial y location of this alient
 	 */
 	public EnemiesEntity(Game game,int x,int y) {
-		super("sprites/alien.gif",x,y);
+		// the animation is shared by every alien, each one starts
+		// on its first frame when it's created
+		super(game.getEntityStore(),EntityStore.ALIEN,ResourceFactory.get().getAlienAnimation(),-game.getAnimationTime(),x,y);
 		
-		// setup the animatin frames
-		frames[0] = getSprite();
-		frames[1] = ResourceFactory.get().getSprite("sprites/alien2.gif");
-		frames[2] = getSprite();
-		frames[3] = ResourceFactory.get().getSprite("sprites/alien3.gif");
-		
-		this.game = game;
-		dx = -moveSpeed;
-		dy = moveSpeed/10;
-	}
-
-	/**
-	 * Request that this alien moved based on time elapsed
-	 * 
-	 * @param delta The time that has elapsed since last move
-	 */
-	public void move(long delta) {
-		// since the move tells us how much time has passed
-		// by we can use it to drive the animation, however
-		// its the not the prettiest solution
-		lastFrameChange += delta;
-		
-		// if we need to change the frame, update the frame number
-		// and flip over the sprite in use
-		if (lastFrameChange > frameDuration) {
-			// reset our frame change time counter
-			lastFrameChange = 0;
-			
-			// update the frame
-			frameNumber++;
-			if (frameNumber >= frames.length) {
-				frameNumber = 0;
-			}
-			
-			setSprite(frames[frameNumber]);
-		}
-		
-		// if we have reached the left hand side of the screen and
-		// are moving left then request a logic update 
-		if ((dx < 0) && (x < 10)) {
-			game.updateLogic();
-		}
-		// and vice vesa, if we have reached the right hand side of 
-		// the screen and are moving right, request a logic update
-		if ((dx > 0) && (x > 750)) {
-			game.updateLogic();
-		}
-		
-		// proceed with normal move
-		super.move(delta);
+		setHorizontalMovement(-moveSpeed);
+		setVerticalMovement(moveSpeed/10);
 	}
-	
-	/**
-	 * Update the game logic related to aliens
-	 */
-	public void doLogic() {
 
-	}
-	
 	/**
-	 * Notification that this alien has collided with another entity
+	 * Notification that this alien has collided with another entity.
+	 * Being hit by a shot is handled by the game's contact handler for
+	 * aliens and shots, there's nothing more for the alien to do.
 	 * 
 	 * @param other The other entity
 	 */
 	public void collidedWith(CollisionDetection d, Entity other) {
-	
-		if(used) return;
-		
-		if (other instanceof ShotEntity) {
-			game.removeEntity(other);
-			game.updateHealth(this, other);
-			if(health <= 0){
-				used = true;
-				game.notifyAlienKilled();
-				game.removeEntity(this);
-			}
-		}
 	}
 	public int getHealth() {
 		return health ;
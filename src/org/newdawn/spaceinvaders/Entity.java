@@ -1,148 +1,260 @@
 package org.newdawn.spaceinvaders;
 
-import java.awt.Rectangle;
-
 import org.truman.spaceinvaders.CollisionDetection;
+import org.truman.spaceinvaders.CollisionMask;
 
 /**
  * An entity represents any element that appears in the game. The
  * entity is responsible for resolving collisions and movement
  * based on a set of properties defined either by subclass or externally.
- * 
+ *
+ * The state the game loop touches every tick (location, speed, sprite)
+ * isn't kept in the entity itself but in a slot of an EntityStore, this
+ * object is a handle onto that slot. Movement is carried out for all
+ * entities of a type at once by EntitySystems rather than by each entity.
+ *
  * Note that doubles are used for positions. This may seem strange
  * given that pixels locations are integers. However, using double means
  * that an entity can move a partial pixel. It doesn't of course mean that
  * they will be display half way through a pixel but allows us not lose
  * accuracy as we move.
- * 
+ *
  * @author Kevin Glass
  */
 public abstract class Entity {
-	/** The current x location of this entity */ 
-	protected double x;
-	/** The current y location of this entity */
-	protected double y;
-	/** The sprite that represents this entity */
-	private Sprite sprite;
-	/** The current speed of this entity horizontally (pixels/sec) */
-	protected double dx;
-	/** The current speed of this entity vertically (pixels/sec) */
-	protected double dy;
+	/** The store holding the state of this entity */
+	protected final EntityStore store;
+	/** The slot of this entity in the store, -1 once it has been removed */
+	int index = -1;
 	private int health = 100;
-	
+
 	/**
 	 * Construct a entity based on a sprite image and a location.
-	 * 
+	 *
+	 * @param store The store that will hold this entity
+	 * @param type The type tag of this entity (defined in EntityStore)
 	 * @param ref The reference to the image to be displayed for this entity
  	 * @param x The initial x location of this entity
 	 * @param y The initial y location of this entity
 	 */
-	public Entity(String ref, double x, double y) {
-		this.setSprite(ResourceFactory.get().getSprite(ref));
-		this.x = x;
-		this.y = y;
+	public Entity(EntityStore store, int type, String ref, double x, double y) {
+		this(store, type, ResourceFactory.get().getSprite(ref), x, y);
 	}
-	
-	public Entity(Sprite sprite, double x, double y) {
-		this.setSprite(sprite);
-		this.x = x;
-		this.y = y;
+
+	/**
+	 * Construct a entity based on a sprite and a location.
+	 *
+	 * @param store The store that will hold this entity
+	 * @param type The type tag of this entity (defined in EntityStore)
+	 * @param sprite The sprite to be displayed for this entity
+ 	 * @param x The initial x location of this entity
+	 * @param y The initial y location of this entity
+	 */
+	public Entity(EntityStore store, int type, Sprite sprite, double x, double y) {
+		this.store = store;
+		this.index = store.add(this, type, sprite, x, y);
 	}
 
 	/**
-	 * Request that this entity move itself based on a certain ammount
-	 * of time passing.
-	 * 
-	 * @param delta The ammount of time that has passed in milliseconds
+	 * Construct an animated entity at a location.
+	 *
+	 * @param store The store that will hold this entity
+	 * @param type The type tag of this entity (defined in EntityStore)
+	 * @param animation The id of the animation to show (see ResourceFactory.getAnimation())
+	 * @param phase The time offset into the animation (ms)
+ 	 * @param x The initial x location of this entity
+	 * @param y The initial y location of this entity
 	 */
-	public void move(long delta) {
-		// update the location of the entity based on move speeds
-		x += (delta * dx) / 1000;
-		y += (delta * dy) / 1000;
+	public Entity(EntityStore store, int type, int animation, long phase, double x, double y) {
+		this(store, type, ResourceFactory.get().getAnimation(animation).getFirstFrame(), x, y);
+		store.animation[index] = animation;
+		store.animPhase[index] = phase;
 	}
-	
+
+	/**
+	 * Construct an entity that isn't in the game yet. It won't be
+	 * moved, drawn or collided until it's given a slot by attach().
+	 *
+	 * @param store The store that will hold this entity once attached
+	 */
+	protected Entity(EntityStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Give a detached entity a slot in its store, bringing it into
+	 * the game. Used to reuse entity objects rather than create new ones.
+	 *
+	 * @param type The type tag of this entity (defined in EntityStore)
+	 * @param sprite The sprite to be displayed for this entity
+ 	 * @param x The initial x location of this entity
+	 * @param y The initial y location of this entity
+	 */
+	void attach(int type, Sprite sprite, double x, double y) {
+		index = store.add(this, type, sprite, x, y);
+	}
+
 	/**
 	 * Set the horizontal speed of this entity
-	 * 
+	 *
 	 * @param dx The horizontal speed of this entity (pixels/sec)
 	 */
 	public void setHorizontalMovement(double dx) {
-		this.dx = dx;
+		store.dx[index] = dx;
 	}
 
 	/**
 	 * Set the vertical speed of this entity
-	 * 
+	 *
 	 * @param dy The vertical speed of this entity (pixels/sec)
 	 */
 	public void setVerticalMovement(double dy) {
-		this.dy = dy;
+		store.dy[index] = dy;
 	}
-	
+
 	/**
 	 * Get the horizontal speed of this entity
-	 * 
+	 *
 	 * @return The horizontal speed of this entity (pixels/sec)
 	 */
 	public double getHorizontalMovement() {
-		return dx;
+		return store.dx[index];
 	}
 
 	/**
 	 * Get the vertical speed of this entity
-	 * 
+	 *
 	 * @return The vertical speed of this entity (pixels/sec)
 	 */
 	public double getVerticalMovement() {
-		return dy;
+		return store.dy[index];
 	}
-	
+
 	/**
-	 * Draw this entity to the graphics context provided
+	 * Move this entity straight to a new location. It won't be
+	 * drawn sliding across the screen from where it was.
+	 *
+	 * @param x The new x location of this entity
+	 * @param y The new y location of this entity
 	 */
-	public void draw() {
-		getSprite().draw((int) x,(int) y);
+	public void setLocation(double x, double y) {
+		store.x[index] = x;
+		store.y[index] = y;
+		store.prevX[index] = x;
+		store.prevY[index] = y;
 	}
-	
+
 	/**
-	 * Do the logic associated with this entity. This method
-	 * will be called periodically based on game events
+	 * Notification that this entity has been taken out of its store,
+	 * either because it was removed or because the store was cleared.
 	 */
-	public void doLogic() {
+	void removed() {
 	}
-	
+
 	/**
 	 * Get the x location of this entity
-	 * 
+	 *
 	 * @return The x location of this entity
 	 */
 	public int getX() {
-		return (int) x;
+		return (int) store.x[index];
 	}
 
 	public double getXd() {
-		return x;
+		return store.x[index];
 	}
 
 	/**
 	 * Get the y location of this entity
-	 * 
+	 *
 	 * @return The y location of this entity
 	 */
 	public int getY() {
-		return (int) y;
+		return (int) store.y[index];
 	}
 	public double getYd() {
-		return y;
+		return store.y[index];
+	}
+
+	/**
+	 * Get the x location of this entity before its last move
+	 *
+	 * @return The x location at the start of the last tick's movement
+	 */
+	public double getPrevXd() {
+		return store.prevX[index];
+	}
+
+	/**
+	 * Get the y location of this entity before its last move
+	 *
+	 * @return The y location at the start of the last tick's movement
+	 */
+	public double getPrevYd() {
+		return store.prevY[index];
 	}
-	
+
+	/**
+	 * Get the handle of this entity, which can be held on to in place
+	 * of the entity and checked with EntityStore.isValid()
+	 *
+	 * @return The handle of this entity, or EntityStore.NONE if it has been removed
+	 */
+	public int getHandle() {
+		return (index < 0) ? EntityStore.NONE : store.getHandle(index);
+	}
+
+	/**
+	 * Check if this entity is still in the game
+	 *
+	 * @return True if the entity hasn't been removed
+	 */
+	public boolean isAlive() {
+		return index >= 0;
+	}
+
 	/**
 	 * Notification that this entity collided with another.
-	 * @param d 
+	 * @param d
 	 * @param other The entity with which this entity collided.
 	 */
 	public abstract void collidedWith(CollisionDetection d, Entity other);
 
+	/**
+	 * Get the layer this entity collides on. Which layers can collide
+	 * and what happens when they do is set up in CollisionLayers.
+	 *
+	 * @return The collision layer, the entity's type unless it's been changed
+	 */
+	public int getCollisionLayer() {
+		return store.layer[index];
+	}
+
+	/**
+	 * Move this entity onto another collision layer
+	 *
+	 * @param layer The layer to collide on (0 to CollisionLayers.LAYERS-1)
+	 */
+	public void setCollisionLayer(int layer) {
+		store.layer[index] = layer;
+	}
+
+	/**
+	 * Get the solid pixels of the image this entity is showing. An
+	 * animated entity shows a different frame, with its own mask,
+	 * depending on the time.
+	 *
+	 * @param time The time on the animation clock (ms)
+	 * @return The mask of the frame shown, or null if the whole rectangle is solid
+	 */
+	public CollisionMask getCollisionMask(long time) {
+		int a = store.animation[index];
+		if (a < 0) {
+			return store.sprite[index].getCollisionMask();
+		}
+		return ResourceFactory.get().getAnimation(a).getFrame(time + store.animPhase[index]).getCollisionMask();
+	}
+
 	public int getHealth() {
 		return health ;
 	}
@@ -151,10 +263,46 @@ public abstract class Entity {
 	}
 
 	public Sprite getSprite() {
-		return sprite;
+		return store.sprite[index];
 	}
 
 	public void setSprite(Sprite sprite) {
-		this.sprite = sprite;
+		store.sprite[index] = sprite;
+		store.width[index] = sprite.getWidth();
+		store.height[index] = sprite.getHeight();
+		store.animation[index] = -1;
+	}
+
+	/**
+	 * Show an animation in place of a fixed sprite. The frame shown
+	 * is worked out from the animation clock when drawing, the size
+	 * of this entity is taken from the first frame.
+	 *
+	 * @param id The id of the animation (see ResourceFactory.getAnimation())
+	 * @param phase The time offset into the animation (ms), entities
+	 * with different phases show different frames at the same time
+	 */
+	public void setAnimation(int id, long phase) {
+		setSprite(ResourceFactory.get().getAnimation(id).getFirstFrame());
+		store.animation[index] = id;
+		store.animPhase[index] = phase;
+	}
+
+	/**
+	 * Get the width of this entity, the width of its sprite
+	 *
+	 * @return The width of this entity in pixels
+	 */
+	public int getWidth() {
+		return store.width[index];
+	}
+
+	/**
+	 * Get the height of this entity, the height of its sprite
+	 *
+	 * @return The height of this entity in pixels
+	 */
+	public int getHeight() {
+		return store.height[index];
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,432 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.Arrays;
+
+/**
+ * The storage for every entity in a part of the game. Rather than
+ * each entity object holding its own position and speed, the state
+ * the game loop touches every tick is kept here in parallel arrays,
+ * one slot per entity. The per-type systems (see EntitySystems) then
+ * run over these arrays in tight loops instead of calling a virtual
+ * method on each entity in turn.
+ *
+ * The live entities always occupy slots 0 to size()-1, so the systems
+ * never skip over holes. Removing an entity moves the last one into its
+ * slot, which means slots change and aren't in any particular order.
+ * Anything that needs to refer to an entity over time should hold its
+ * handle instead: an id that never moves plus a generation that changes
+ * each time the id is reused, so a handle to an entity that's gone is
+ * detected rather than silently pointing at whatever took its place.
+ *
+ * Removals are deferred. markRemoved() only queues the entity (once, no
+ * matter how many times it's called) and flush() takes them all out at
+ * the end of the tick, each in constant time.
+ *
+ * Each Entity object keeps its current slot up to date, and holds the
+ * state only its own type needs (health, animation frames and so on).
+ */
+public class EntityStore {
+	/** The type tag of an alien */
+	public static final int ALIEN = 0;
+	/** The type tag of a shot fired by the player */
+	public static final int SHOT = 1;
+	/** The type tag of the player's ship */
+	public static final int SHIP = 2;
+	/** The type tag of a global entity (bricks, backgrounds...) */
+	public static final int GLOBAL = 3;
+
+	/** The flag marking an entity to be removed at the end of the tick */
+	public static final int REMOVED = 1;
+	/** The handle that never refers to an entity */
+	public static final int NONE = -1;
+
+	/** The number of bits of a handle holding the id */
+	private static final int ID_BITS = 20;
+	/** The mask for the id part of a handle */
+	private static final int ID_MASK = (1 << ID_BITS) - 1;
+	/** The mask for a generation, kept small enough that handles are never negative */
+	private static final int GENERATION_MASK = (1 << (31 - ID_BITS)) - 1;
+
+	/** The number of live entities */
+	int size;
+	/** The entity object that owns each slot */
+	Entity[] owner;
+	/** The id of the entity in each slot */
+	int[] id;
+	/** The type tag of each entity */
+	int[] type;
+	/** The flags of each entity */
+	int[] flags;
+	/** The current x location of each entity */
+	double[] x;
+	/** The current y location of each entity */
+	double[] y;
+	/** The x location of each entity at the start of the current tick */
+	double[] prevX;
+	/** The y location of each entity at the start of the current tick */
+	double[] prevY;
+	/** The horizontal speed of each entity (pixels/sec) */
+	double[] dx;
+	/** The vertical speed of each entity (pixels/sec) */
+	double[] dy;
+	/** The sprite that represents each entity */
+	Sprite[] sprite;
+	/** The width of each entity's sprite */
+	int[] width;
+	/** The height of each entity's sprite */
+	int[] height;
+	/** The animation each entity shows, or -1 if it just shows its sprite */
+	int[] animation;
+	/** The time offset of each entity into its animation (ms) */
+	long[] animPhase;
+	/** The formation each entity moves with, or -1 if it moves by itself */
+	int[] group;
+	/** The collision layer of each entity, its type unless it's been changed */
+	int[] layer;
+
+	/** The slot holding each id, or -1 if the id isn't in use */
+	private int[] slotOf;
+	/** The current generation of each id */
+	private int[] generation;
+	/** The ids that have been used and released */
+	private int[] freeIds;
+	/** The number of released ids */
+	private int freeIdCount;
+	/** The number of ids that have ever been handed out */
+	private int idCount;
+	/** The ids of the entities waiting to be removed */
+	private int[] pending;
+	/** The number of entities waiting to be removed */
+	private int pendingCount;
+
+	/**
+	 * Create a new, empty store
+	 *
+	 * @param capacity The number of entities to make room for to start with
+	 */
+	public EntityStore(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Add an entity into a free slot
+	 *
+	 * @param entity The entity object that will own the slot
+	 * @param entityType The type tag of the entity
+	 * @param entitySprite The sprite representing the entity
+	 * @param ex The initial x location of the entity
+	 * @param ey The initial y location of the entity
+	 * @return The slot the entity has been given
+	 */
+	int add(Entity entity, int entityType, Sprite entitySprite, double ex, double ey) {
+		// checked before anything changes, so the store is still usable after
+		if ((freeIdCount == 0) && (idCount > ID_MASK)) {
+			throw new RuntimeException("Too many entities in one store: "+idCount);
+		}
+		if (size == owner.length) {
+			grow();
+		}
+		int i = size++;
+		int entityId = (freeIdCount > 0) ? freeIds[--freeIdCount] : idCount++;
+		slotOf[entityId] = i;
+		id[i] = entityId;
+		owner[i] = entity;
+		type[i] = entityType;
+		flags[i] = 0;
+		x[i] = ex;
+		y[i] = ey;
+		prevX[i] = ex;
+		prevY[i] = ey;
+		dx[i] = 0;
+		dy[i] = 0;
+		sprite[i] = entitySprite;
+		width[i] = entitySprite.getWidth();
+		height[i] = entitySprite.getHeight();
+		animation[i] = -1;
+		animPhase[i] = 0;
+		group[i] = -1;
+		layer[i] = entityType;
+		return i;
+	}
+
+	/**
+	 * Mark an entity to be removed when the store is next flushed.
+	 * Marking an entity more than once has no further effect.
+	 *
+	 * @param index The slot of the entity to remove
+	 */
+	void markRemoved(int index) {
+		if ((flags[index] & REMOVED) != 0) {
+			return;
+		}
+		flags[index] |= REMOVED;
+		if (pendingCount == pending.length) {
+			int[] larger = new int[pending.length * 2];
+			System.arraycopy(pending, 0, larger, 0, pendingCount);
+			pending = larger;
+		}
+		pending[pendingCount++] = id[index];
+	}
+
+	/**
+	 * Mark the entity a handle refers to to be removed when the
+	 * store is next flushed
+	 *
+	 * @param handle The handle of the entity to remove
+	 * @return True if the entity was marked, false if the handle is stale
+	 */
+	public boolean remove(int handle) {
+		int index = getSlot(handle);
+		if (index < 0) {
+			return false;
+		}
+		markRemoved(index);
+		return true;
+	}
+
+	/**
+	 * Check if an entity has been marked for removal
+	 *
+	 * @param index The slot of the entity
+	 * @return True if the entity will be removed at the next flush
+	 */
+	boolean isRemoved(int index) {
+		return (flags[index] & REMOVED) != 0;
+	}
+
+	/**
+	 * Remove every entity marked for removal. Each one is replaced by
+	 * the entity in the last slot, so the cost depends only on the number
+	 * removed and the live entities stay packed at the front of the arrays.
+	 */
+	public void flush() {
+		for (int p=0;p<pendingCount;p++) {
+			int removedId = pending[p];
+			int index = slotOf[removedId];
+			Entity entity = owner[index];
+
+			int last = --size;
+			if (index != last) {
+				move(last, index);
+			}
+			owner[last] = null;
+			sprite[last] = null;
+
+			release(removedId);
+			entity.index = -1;
+			entity.removed();
+		}
+		pendingCount = 0;
+	}
+
+	/**
+	 * Remove every entity
+	 */
+	public void clear() {
+		for (int i=0;i<size;i++) {
+			Entity entity = owner[i];
+			release(id[i]);
+			owner[i] = null;
+			sprite[i] = null;
+			entity.index = -1;
+			entity.removed();
+		}
+		size = 0;
+		pendingCount = 0;
+	}
+
+	/**
+	 * Get the handle of the entity in a given slot. The handle stays
+	 * valid as the entity moves between slots, until it's removed.
+	 *
+	 * @param index The slot of the entity
+	 * @return The handle of the entity
+	 */
+	public int getHandle(int index) {
+		int entityId = id[index];
+		return (generation[entityId] << ID_BITS) | entityId;
+	}
+
+	/**
+	 * Get the slot currently holding the entity a handle refers to
+	 *
+	 * @param handle The handle of the entity
+	 * @return The slot of the entity, or -1 if the entity has been removed
+	 */
+	public int getSlot(int handle) {
+		if (handle < 0) {
+			return -1;
+		}
+		int entityId = handle & ID_MASK;
+		if ((entityId >= idCount) || (generation[entityId] != (handle >>> ID_BITS))) {
+			return -1;
+		}
+		return slotOf[entityId];
+	}
+
+	/**
+	 * Check if a handle still refers to an entity in this store
+	 *
+	 * @param handle The handle to check
+	 * @return True if the entity hasn't been removed
+	 */
+	public boolean isValid(int handle) {
+		return getSlot(handle) >= 0;
+	}
+
+	/**
+	 * Get the entity a handle refers to
+	 *
+	 * @param handle The handle of the entity
+	 * @return The entity, or null if it's been removed
+	 */
+	public Entity resolve(int handle) {
+		int index = getSlot(handle);
+		return (index < 0) ? null : owner[index];
+	}
+
+	/**
+	 * Record the current location of every entity as the start of
+	 * a tick, rendering interpolates from here.
+	 */
+	public void storePositions() {
+		System.arraycopy(x, 0, prevX, 0, size);
+		System.arraycopy(y, 0, prevY, 0, size);
+	}
+
+	/**
+	 * Get the number of live entities
+	 *
+	 * @return The number of live entities
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the entity in a given slot
+	 *
+	 * @param index The slot of the entity
+	 * @return The entity that owns the slot
+	 */
+	public Entity get(int index) {
+		return owner[index];
+	}
+
+	/**
+	 * Get the type tag of the entity in a given slot
+	 *
+	 * @param index The slot of the entity
+	 * @return The type tag of the entity
+	 */
+	public int getType(int index) {
+		return type[index];
+	}
+
+	/**
+	 * Get the collision layer of the entity in a given slot
+	 *
+	 * @param index The slot of the entity
+	 * @return The layer the entity collides on
+	 */
+	public int getLayer(int index) {
+		return layer[index];
+	}
+
+	/**
+	 * Move an entity from one slot to another, overwriting the target
+	 *
+	 * @param from The slot to move from
+	 * @param to The slot to move to
+	 */
+	private void move(int from, int to) {
+		owner[to] = owner[from];
+		owner[to].index = to;
+		id[to] = id[from];
+		slotOf[id[to]] = to;
+		type[to] = type[from];
+		flags[to] = flags[from];
+		x[to] = x[from];
+		y[to] = y[from];
+		prevX[to] = prevX[from];
+		prevY[to] = prevY[from];
+		dx[to] = dx[from];
+		dy[to] = dy[from];
+		sprite[to] = sprite[from];
+		width[to] = width[from];
+		height[to] = height[from];
+		animation[to] = animation[from];
+		animPhase[to] = animPhase[from];
+		group[to] = group[from];
+		layer[to] = layer[from];
+	}
+
+	/**
+	 * Give up an id so it can be handed out again. Its generation
+	 * moves on so any handle still holding it is seen to be stale.
+	 *
+	 * @param releasedId The id to give up
+	 */
+	private void release(int releasedId) {
+		slotOf[releasedId] = -1;
+		generation[releasedId] = (generation[releasedId] + 1) & GENERATION_MASK;
+		freeIds[freeIdCount++] = releasedId;
+	}
+
+	/**
+	 * Double the size of every array holding slots or ids, in place. The
+	 * pending removals grow on their own as they're queued.
+	 */
+	private void grow() {
+		int capacity = owner.length * 2;
+		owner = Arrays.copyOf(owner, capacity);
+		id = Arrays.copyOf(id, capacity);
+		slotOf = Arrays.copyOf(slotOf, capacity);
+		generation = Arrays.copyOf(generation, capacity);
+		freeIds = Arrays.copyOf(freeIds, capacity);
+		type = Arrays.copyOf(type, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		prevX = Arrays.copyOf(prevX, capacity);
+		prevY = Arrays.copyOf(prevY, capacity);
+		dx = Arrays.copyOf(dx, capacity);
+		dy = Arrays.copyOf(dy, capacity);
+		sprite = Arrays.copyOf(sprite, capacity);
+		width = Arrays.copyOf(width, capacity);
+		height = Arrays.copyOf(height, capacity);
+		animation = Arrays.copyOf(animation, capacity);
+		animPhase = Arrays.copyOf(animPhase, capacity);
+		group = Arrays.copyOf(group, capacity);
+		layer = Arrays.copyOf(layer, capacity);
+	}
+
+	/**
+	 * Allocate every array
+	 *
+	 * @param capacity The number of slots to allocate
+	 */
+	private void allocate(int capacity) {
+		owner = new Entity[capacity];
+		id = new int[capacity];
+		slotOf = new int[capacity];
+		generation = new int[capacity];
+		freeIds = new int[capacity];
+		pending = new int[capacity];
+		type = new int[capacity];
+		flags = new int[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		prevX = new double[capacity];
+		prevY = new double[capacity];
+		dx = new double[capacity];
+		dy = new double[capacity];
+		sprite = new Sprite[capacity];
+		width = new int[capacity];
+		height = new int[capacity];
+		animation = new int[capacity];
+		animPhase = new long[capacity];
+		group = new int[capacity];
+		layer = new int[capacity];
+	}
+}
@@ -0,0 +1,271 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+
+/**
+ * The per-type behaviour of the entities, run as batches over the
+ * arrays of an EntityStore. Each system makes one pass over the store
+ * and only acts on the slots with its type tag, the movement of every
+ * entity is then integrated in a single loop with no calls at all.
+ *
+ * The order within a tick matches what each entity used to do in its
+ * own move(): aliens and the ship look at where they are before moving,
+ * shots look at where they've ended up after.
+ */
+public class EntitySystems {
+
+	/**
+	 * Turn round any formation that has reached the side of the screen
+	 * it's heading for, then move every member of every formation.
+	 *
+	 * @param store The store holding the members
+	 * @param formations The formations to update, indexed by id
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 * @param delta The time that has elapsed since last move (ms)
+	 */
+	public static void updateFormations(EntityStore store, ArrayList<Formation> formations, int width, int height, long delta) {
+		int[] group = store.group;
+		double[] x = store.x;
+		double[] y = store.y;
+
+		rebuildBounds(store, formations);
+		if (!steerFormations(store, formations, width, height, delta)) {
+			return;
+		}
+
+		for (int i=0;i<store.size;i++) {
+			int g = group[i];
+			if (g >= 0) {
+				Formation formation = formations.get(g);
+				x[i] += formation.stepX;
+				y[i] += formation.stepY;
+			}
+		}
+	}
+
+	/**
+	 * Turn round any formation that has reached the side of the screen
+	 * it's heading for and work out how far each formation moves this
+	 * tick, without moving the members. The bounds of the formations
+	 * must be up to date.
+	 *
+	 * @param store The store holding the members
+	 * @param formations The formations to update, indexed by id
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 * @param delta The time that has elapsed since last move (ms)
+	 * @return True if any formation has members to move
+	 */
+	static boolean steerFormations(EntityStore store, ArrayList<Formation> formations, int width, int height, long delta) {
+		boolean moving = false;
+		for (int f=0;f<formations.size();f++) {
+			Formation formation = formations.get(f);
+			if (formation.getMembers() == 0) {
+				formation.stepX = 0;
+				formation.stepY = 0;
+				continue;
+			}
+
+			// if we have reached the left hand side of the screen and
+			// are moving left, or vice versa, turn round
+			double dx = formation.getHorizontalMovement();
+			if (((dx < 0) && (formation.left < 10)) || ((dx > 0) && (formation.right > width - 10))) {
+				formation.reverse();
+				dx = -dx;
+
+				// any members that have dropped off the bottom
+				// of the screen go back round to the top
+				if (formation.bottom > height) {
+					wrapMembers(store, formation, height);
+				}
+			}
+
+			formation.stepX = (delta * dx) / 1000;
+			formation.stepY = (delta * formation.getVerticalMovement()) / 1000;
+			formation.left += formation.stepX;
+			formation.right += formation.stepX;
+			formation.top += formation.stepY;
+			formation.bottom += formation.stepY;
+			moving = true;
+		}
+		return moving;
+	}
+
+	/**
+	 * Rebuild the box around the members of any formation that
+	 * has lost a member from its edge, in one pass for them all
+	 *
+	 * @param store The store holding the members
+	 * @param formations The formations to check
+	 */
+	static void rebuildBounds(EntityStore store, ArrayList<Formation> formations) {
+		boolean dirty = false;
+		for (int f=0;f<formations.size();f++) {
+			Formation formation = formations.get(f);
+			if (formation.boundsDirty) {
+				formation.left = Double.MAX_VALUE;
+				formation.top = Double.MAX_VALUE;
+				formation.right = -Double.MAX_VALUE;
+				formation.bottom = -Double.MAX_VALUE;
+				dirty = true;
+			}
+		}
+		if (!dirty) {
+			return;
+		}
+
+		int[] group = store.group;
+		for (int i=0;i<store.size;i++) {
+			int g = group[i];
+			if (g < 0) {
+				continue;
+			}
+			Formation formation = formations.get(g);
+			if (formation.boundsDirty) {
+				formation.left = Math.min(formation.left, store.x[i]);
+				formation.top = Math.min(formation.top, store.y[i]);
+				formation.right = Math.max(formation.right, store.x[i] + store.width[i]);
+				formation.bottom = Math.max(formation.bottom, store.y[i] + store.height[i]);
+			}
+		}
+
+		for (int f=0;f<formations.size();f++) {
+			formations.get(f).boundsDirty = false;
+		}
+	}
+
+	/**
+	 * Move the members of a formation that are below the bottom of
+	 * the screen back round to just above the top
+	 *
+	 * @param store The store holding the members
+	 * @param formation The formation to wrap
+	 * @param height The height of the screen
+	 */
+	private static void wrapMembers(EntityStore store, Formation formation, int height) {
+		int[] group = store.group;
+		double[] y = store.y;
+
+		for (int i=0;i<store.size;i++) {
+			if ((group[i] == formation.id) && (y[i] > height)) {
+				y[i] = 0 - store.height[i];
+				store.prevY[i] = y[i];
+			}
+		}
+		formation.boundsDirty = true;
+	}
+
+	/**
+	 * Stop the ship moving off the edges of the screen
+	 *
+	 * @param store The store holding the ship
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 */
+	public static void updateShip(EntityStore store, int width, int height) {
+		int[] type = store.type;
+
+		for (int i=0;i<store.size;i++) {
+			if (type[i] != EntityStore.SHIP) {
+				continue;
+			}
+
+			double x = store.x[i];
+			double y = store.y[i];
+			double dx = store.dx[i];
+			double dy = store.dy[i];
+
+			// if we're moving towards an edge we've already reached, don't move
+			if (((dx < 0) && (x < 10)) ||
+					((dx > 0) && (x > width-store.width[i]-10)) ||
+					((dy < 0) && (y < 10)) ||
+					((dy > 0) && (y > height-store.height[i]-10))) {
+				store.dx[i] = 0;
+				store.dy[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Remove any shots that have gone completely off the screen,
+	 * they'll be returned to their pool
+	 *
+	 * @param store The store holding the shots
+	 * @param bottom The height of the screen
+	 */
+	public static void updateShots(EntityStore store, int bottom) {
+		int[] type = store.type;
+		double[] y = store.y;
+		int[] height = store.height;
+
+		for (int i=0;i<store.size;i++) {
+			if ((type[i] == EntityStore.SHOT) && ((y[i] + height[i] < 0) || (y[i] > bottom))) {
+				store.markRemoved(i);
+			}
+		}
+	}
+
+	/**
+	 * Move every entity in a store based on its speed
+	 *
+	 * @param store The store holding the entities to move
+	 * @param delta The time that has elapsed since last move (ms)
+	 */
+	public static void integrate(EntityStore store, long delta) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] dx = store.dx;
+		double[] dy = store.dy;
+
+		for (int i=0;i<store.size;i++) {
+			x[i] += (delta * dx[i]) / 1000;
+			y[i] += (delta * dy[i]) / 1000;
+		}
+	}
+
+	/**
+	 * Copy every entity in a store into the snapshot of a frame.
+	 * Animated entities are given the frame their animation has
+	 * reached at the given time.
+	 *
+	 * @param store The store holding the entities to copy
+	 * @param frame The snapshot to copy them into
+	 * @param time The time on the animation clock (ms)
+	 */
+	public static void storeFrame(EntityStore store, FrameSnapshot frame, long time) {
+		int size = store.size;
+		frame.ensureEntities(size);
+		System.arraycopy(store.x, 0, frame.x, 0, size);
+		System.arraycopy(store.y, 0, frame.y, 0, size);
+		System.arraycopy(store.prevX, 0, frame.prevX, 0, size);
+		System.arraycopy(store.prevY, 0, frame.prevY, 0, size);
+		frame.entityCount = size;
+
+		Sprite[] frameSprite = frame.sprite;
+		Sprite[] sprite = store.sprite;
+		int[] animation = store.animation;
+		long[] animPhase = store.animPhase;
+		AnimationSet[] animations = ResourceFactory.get().getAnimations();
+
+		// entities created together share a phase, so the last frame
+		// worked out is usually the right one for the next entity too
+		int lastAnimation = -1;
+		long lastPhase = 0;
+		Sprite lastFrame = null;
+
+		for (int i=0;i<size;i++) {
+			Sprite current = sprite[i];
+			int a = animation[i];
+			if (a >= 0) {
+				if ((a != lastAnimation) || (animPhase[i] != lastPhase)) {
+					lastAnimation = a;
+					lastPhase = animPhase[i];
+					lastFrame = animations[a].getFrame(time + lastPhase);
+				}
+				current = lastFrame;
+			}
+			frameSprite[i] = current;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * A group of aliens that move together. Rather than each alien having
+ * its own speed and checking the edges of the screen for itself, the
+ * formation holds the speed and direction for all of them and keeps a
+ * box around its members, so turning round at the edge of the screen is
+ * one check per formation rather than one per alien.
+ *
+ * The box moves with the formation each tick. When a member is killed
+ * it's only marked as needing to be rebuilt if that member was on its
+ * edge, and it's rebuilt for every formation at once at the start of
+ * the next update (see EntitySystems.updateFormations()). Killing an
+ * alien doesn't touch any of the others.
+ */
+public class Formation {
+	/** The amount the formation speeds up by each time one of its members is killed */
+	private static final double KILL_SPEED_UP = 1.02;
+
+	/** The store holding the members */
+	private EntityStore store;
+	/** The id of this formation, the value of the group column for its members */
+	int id;
+	/** The horizontal speed the formation started with (pixels/sec) */
+	private double speed;
+	/** The vertical speed of the formation (pixels/sec) */
+	private double descent;
+	/** The amount the horizontal speed has been multiplied by */
+	private double multiplier = 1;
+	/** The horizontal direction of movement, -1 for left and 1 for right */
+	private int direction = -1;
+	/** The number of members left */
+	private int members;
+
+	/** The left edge of the box around the members */
+	double left;
+	/** The top edge of the box around the members */
+	double top;
+	/** The right edge of the box around the members */
+	double right;
+	/** The bottom edge of the box around the members */
+	double bottom;
+	/** True if the box needs rebuilding from the members */
+	boolean boundsDirty;
+
+	/** The distance moved horizontally in the current tick */
+	double stepX;
+	/** The distance moved vertically in the current tick */
+	double stepY;
+
+	/**
+	 * Create a new, empty formation
+	 *
+	 * @param store The store the members will be held in
+	 * @param id The id of the formation, unique within the store
+	 * @param speed The horizontal speed of the formation (pixels/sec)
+	 * @param descent The vertical speed of the formation (pixels/sec)
+	 */
+	public Formation(EntityStore store, int id, double speed, double descent) {
+		this.store = store;
+		this.id = id;
+		this.speed = speed;
+		this.descent = descent;
+	}
+
+	/**
+	 * Add an alien to this formation. From now on it's moved by
+	 * the formation rather than by its own speed.
+	 *
+	 * @param alien The alien to add
+	 */
+	public void add(Entity alien) {
+		int i = alien.index;
+		store.group[i] = id;
+		store.dx[i] = 0;
+		store.dy[i] = 0;
+
+		double x = store.x[i];
+		double y = store.y[i];
+		if (members == 0) {
+			left = x;
+			top = y;
+			right = x + store.width[i];
+			bottom = y + store.height[i];
+		} else {
+			left = Math.min(left, x);
+			top = Math.min(top, y);
+			right = Math.max(right, x + store.width[i]);
+			bottom = Math.max(bottom, y + store.height[i]);
+		}
+		members++;
+	}
+
+	/**
+	 * Notification that one of the members has been killed. The rest
+	 * of the formation speeds up.
+	 *
+	 * @param alien The alien that has been killed
+	 */
+	public void memberKilled(Entity alien) {
+		int i = alien.index;
+		store.group[i] = -1;
+		members--;
+		multiplier *= KILL_SPEED_UP;
+
+		// only an alien on the edge of the box can make it smaller
+		double x = store.x[i];
+		double y = store.y[i];
+		if ((x <= left) || (y <= top) || (x + store.width[i] >= right) || (y + store.height[i] >= bottom)) {
+			boundsDirty = true;
+		}
+	}
+
+	/**
+	 * Turn the formation round
+	 */
+	void reverse() {
+		direction = -direction;
+	}
+
+	/**
+	 * Get the horizontal speed shared by the members
+	 *
+	 * @return The horizontal speed (pixels/sec)
+	 */
+	public double getHorizontalMovement() {
+		return direction * speed * multiplier;
+	}
+
+	/**
+	 * Get the vertical speed shared by the members
+	 *
+	 * @return The vertical speed (pixels/sec)
+	 */
+	public double getVerticalMovement() {
+		return descent;
+	}
+
+	/**
+	 * Get the number of members left
+	 *
+	 * @return The number of members left
+	 */
+	public int getMembers() {
+		return members;
+	}
+}
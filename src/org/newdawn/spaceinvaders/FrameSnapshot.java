@@ -0,0 +1,183 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * Everything needed to draw one frame of the game, copied out of the
+ * game state at the end of a tick. Once it has been filled in the
+ * snapshot doesn't refer back to the entities, so it can be drawn on
+ * one thread while the next ticks are being run on another.
+ *
+ * A snapshot is filled in again for every frame rather than created,
+ * its arrays are sized up front and only grow the first time a frame
+ * holds more entities or layers than any before it.
+ */
+public class FrameSnapshot {
+	/** The number of entities in the frame */
+	int entityCount;
+	/** The sprite each entity is drawn with, animations already resolved */
+	Sprite[] sprite;
+	/** The x location of each entity at the end of the last tick */
+	double[] x;
+	/** The y location of each entity at the end of the last tick */
+	double[] y;
+	/** The x location of each entity at the start of the last tick */
+	double[] prevX;
+	/** The y location of each entity at the start of the last tick */
+	double[] prevY;
+
+	/** The number of background layers in the frame */
+	int layerCount;
+	/** The sprite each layer repeats */
+	Sprite[] layerSprite;
+	/** How far each layer is shifted right at the end of the last tick */
+	double[] layerX;
+	/** How far each layer is shifted down at the end of the last tick */
+	double[] layerY;
+	/** How far each layer is shifted right at the start of the last tick */
+	double[] layerPrevX;
+	/** How far each layer is shifted down at the start of the last tick */
+	double[] layerPrevY;
+
+	/** The operations logged on the terrain since it was last cleared, 3 ints each */
+	int[] terrainLog;
+	/** The number of operations in the terrain's log at the end of the last tick */
+	int terrainOps;
+	/** The number of times the terrain had been cleared at the end of the last tick */
+	int terrainGeneration;
+	/** The message shown over the game, null for none */
+	Sprite message;
+	/** The level label */
+	String levelText;
+	/** True if the game is paused */
+	boolean pause;
+	/** The profile summary shown over the game, null for none */
+	String profile;
+
+	/** The time the last tick in the frame finished (ns) */
+	private long time;
+
+	/**
+	 * Create a new, empty snapshot
+	 *
+	 * @param entities The number of entities to make room for up front
+	 * @param layers The number of background layers to make room for up front
+	 */
+	public FrameSnapshot(int entities, int layers) {
+		sprite = new Sprite[entities];
+		x = new double[entities];
+		y = new double[entities];
+		prevX = new double[entities];
+		prevY = new double[entities];
+
+		layerSprite = new Sprite[layers];
+		layerX = new double[layers];
+		layerY = new double[layers];
+		layerPrevX = new double[layers];
+		layerPrevY = new double[layers];
+	}
+
+	/**
+	 * Make sure there's room for a number of entities
+	 *
+	 * @param count The number of entities the frame will hold
+	 */
+	void ensureEntities(int count) {
+		if (count <= sprite.length) {
+			return;
+		}
+		int size = Math.max(count, sprite.length * 2);
+		Sprite[] sprites = new Sprite[size];
+		System.arraycopy(sprite, 0, sprites, 0, entityCount);
+		sprite = sprites;
+		x = grow(x, size, entityCount);
+		y = grow(y, size, entityCount);
+		prevX = grow(prevX, size, entityCount);
+		prevY = grow(prevY, size, entityCount);
+	}
+
+	/**
+	 * Make sure there's room for a number of background layers
+	 *
+	 * @param count The number of layers the frame will hold
+	 */
+	void ensureLayers(int count) {
+		if (count <= layerSprite.length) {
+			return;
+		}
+		Sprite[] sprites = new Sprite[count];
+		System.arraycopy(layerSprite, 0, sprites, 0, layerCount);
+		layerSprite = sprites;
+		layerX = grow(layerX, count, layerCount);
+		layerY = grow(layerY, count, layerCount);
+		layerPrevX = grow(layerPrevX, count, layerCount);
+		layerPrevY = grow(layerPrevY, count, layerCount);
+	}
+
+	/**
+	 * Copy an array into a larger one
+	 *
+	 * @param array The array to grow
+	 * @param size The size of the new array
+	 * @param used The number of elements in use
+	 * @return The new array
+	 */
+	private static double[] grow(double[] array, int size, int used) {
+		double[] larger = new double[size];
+		System.arraycopy(array, 0, larger, 0, used);
+		return larger;
+	}
+
+	/**
+	 * Draw the background layers, back to front, across the screen
+	 *
+	 * @param alpha How far we are between the last tick and the next one (0-1)
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 */
+	void drawBackground(float alpha, int width, int height) {
+		for (int i=0;i<layerCount;i++) {
+			int lx = (int) (layerPrevX[i] + (layerX[i] - layerPrevX[i]) * alpha);
+			int ly = (int) (layerPrevY[i] + (layerY[i] - layerPrevY[i]) * alpha);
+			layerSprite[i].drawTiled(0, 0, width, height, lx, ly);
+		}
+	}
+
+	/**
+	 * Draw every entity part way between where it started and ended
+	 * the last tick
+	 *
+	 * @param alpha How far we are between the last tick and the next one (0-1)
+	 */
+	void drawEntities(float alpha) {
+		for (int i=0;i<entityCount;i++) {
+			sprite[i].draw((int) (prevX[i] + (x[i] - prevX[i]) * alpha),(int) (prevY[i] + (y[i] - prevY[i]) * alpha));
+		}
+	}
+
+	/**
+	 * Set the time the last tick in the frame finished, used to work
+	 * out how far to interpolate when the frame is drawn
+	 *
+	 * @param time The time in nanoseconds
+	 */
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * Get the time the last tick in the frame finished
+	 *
+	 * @return The time in nanoseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Get the number of entities in the frame
+	 *
+	 * @return The number of entities
+	 */
+	public int getEntityCount() {
+		return entityCount;
+	}
+}
@@ -1,16 +1,21 @@
 package org.newdawn.spaceinvaders;
 
 import java.awt.Canvas;
-import java.awt.GraphicsDevice;
-import java.awt.GraphicsEnvironment;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
-import org.lwjgl.input.Keyboard;
-import org.lwjgl.opengl.Display;
+import org.newdawn.spaceinvaders.lwjgl.LWJGLGameWindow;
+import org.newdawn.spaceinvaders.util.FrameProfiler;
+import org.newdawn.spaceinvaders.util.InputRecorder;
 import org.truman.spaceinvaders.CollisionDetection;
+import org.truman.spaceinvaders.CollisionLayers;
+import org.truman.spaceinvaders.CollisionMask;
 import org.truman.spaceinvaders.SoundManager;
+import org.truman.spaceinvaders.SpatialHash;
 
 /**
  * The main hook of our game. This class with both act as a manager
@@ -30,14 +35,65 @@ import org.truman.spaceinvaders.SoundManager;
 public class Game extends Canvas implements GameWindowCallback {
 
 	private static final long serialVersionUID = 1L;
-	/** The list of all the entities that exist in our game */
-	private ArrayList<Entity> entities = new ArrayList<Entity>();
-	/** The list of all moving entities like backgrounds that exist in our game */
-	private ArrayList<GlobalEntity> backgroundEntities = new ArrayList<GlobalEntity>();
-	/** The list of entities that need to be removed from the game this loop */
-	private ArrayList<Entity> removeList = new ArrayList<Entity>();
+	/** The store of all the entities that exist in our game */
+	private EntityStore entities = new EntityStore(256);
+	/** The scrolling layers drawn behind the entities */
+	private Background background = new Background(4);
+	/** The grid used to find which entities are close enough to collide */
+	private SpatialHash broadphase = new SpatialHash(64);
+	/** Moves the entities, on this thread until splitting them has been measured */
+	private ParallelUpdate movement = new ParallelUpdate();
+	/** The contact record reused for every pair the narrowphase tests */
+	private CollisionDetection contact = new CollisionDetection();
+	/** The pairs of collision layers that can collide and what happens when they do */
+	private CollisionLayers layers = new CollisionLayers();
+	/** Runs the narrowphase on each pair the broadphase finds */
+	private SpatialHash.PairHandler collisionPairs = new SpatialHash.PairHandler() {
+		public void pair(int p, int s) {
+			layers.dispatch(contact, entities.owner[p], entities.layer[p], entities.owner[s], entities.layer[s]);
+		}
+	};
+	/** An alien hit by a shot, the shot is spent and the alien is killed once its health runs out */
+	private CollisionLayers.ContactHandler alienShot = new CollisionLayers.ContactHandler() {
+		public void contact(CollisionDetection d, Entity alien, Entity shot) {
+			// a second shot in the same tick can't kill it again
+			if ((entities.flags[alien.index] & EntityStore.REMOVED) != 0) {
+				return;
+			}
+			removeEntity(shot);
+			updateHealth(alien, shot);
+			if (alien.getHealth() <= 0) {
+				int formation = entities.group[alien.index];
+				if (formation >= 0) {
+					formations.get(formation).memberKilled(alien);
+				}
+				notifyAlienKilled();
+				removeEntity(alien);
+			}
+		}
+	};
+	/** The ship touched by an alien, the player is dead */
+	private CollisionLayers.ContactHandler shipAlien = new CollisionLayers.ContactHandler() {
+		public void contact(CollisionDetection d, Entity ship, Entity alien) {
+			notifyDeath();
+		}
+	};
+	/** The bunkers, worn away by the shots that hit them */
+	private Terrain terrain;
+	/** Draws the bunkers from the frame snapshots */
+	private TerrainView terrainView;
 	/** The entity representing the player */
 	private Entity ship;
+	/** The shots the player can fire, reused rather than created each time */
+	private ProjectilePool shots;
+	/** The sprite of the player's shots */
+	private Sprite shotSprite;
+	/** The mask the solid columns of the shot were found from */
+	private CollisionMask shotMask;
+	/** The first column of the shot sprite with anything solid in it */
+	private int shotLeft;
+	/** The column after the last one of the shot sprite with anything solid in it */
+	private int shotRight;
 	/** The speed at which the player's ship should move (pixels/sec) */
 	private double moveSpeed = 300;
 	/** The time at which last fired a shot */
@@ -46,18 +102,26 @@ public class Game extends Canvas implements GameWindowCallback {
 	private long firingInterval = 100;
 	/** The number of aliens left on the screen */
 	private int alienCount;
+	/** The formations the aliens move in, indexed by id */
+	private ArrayList<Formation> formations = new ArrayList<Formation>();
+	/** The speed at which the aliens move horizontally (pixels/sec) */
+	private double alienSpeed = 75;
 
 	/** The message to display which waiting for a key press */
 	private Sprite message;
 	/** True if we're holding up game play until a key has been pressed */
 	private boolean waitingForKeyPress = true;
-	/** True if game logic needs to be applied this loop, normally as a result of a game event */
-	private boolean logicRequiredThisLoop = false;
 
-	/** The time at which the last rendering looped started from the point of view of the game logic */
-	private long lastLoopTime = System.currentTimeMillis();
+	/** The amount of game time that has been simulated (ms), advanced a tick at a time */
+	private long gameTime = 0;
+	/** The time animations are shown at (ms), stands still while the game is held up */
+	private long animationTime = 0;
 	/** The window that is being used to render the game */
 	private GameWindow window;
+	/** Times each phase of the frame */
+	private FrameProfiler profiler = new FrameProfiler(5000);
+	/** True if the profiler's summary is drawn over the game */
+	private boolean showProfile;
 	/** True if the fire key has been released */
 	private boolean fireHasBeenReleased = false;
 
@@ -68,19 +132,19 @@ public class Game extends Canvas implements GameWindowCallback {
 	/** The sprite containing the "You lose!" message */
 	private Sprite gotYou;
 
-	/** The time since the last record of fps */
-	private long lastFpsTime = 0;
-	/** The recorded fps */
-	private int fps;
-
 	/** The normal title of the window */
 	private String windowTitle = "Space Invaders 104 - Version (0.4)";
 
 	/** The screen size */
-	GraphicsDevice gd = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
-	private int width = 800;//gd.getDisplayMode().getWidth();
-	private int height = 600;//gd.getDisplayMode().getHeight();
+	private int width = 800;
+	private int height = 600;
 	private int level = 1;
+	/** The number of bunkers across the screen */
+	private int bunkers = 4;
+	/** The y location of the top of the bunkers */
+	private int bunkerY = 450;
+	/** The level label drawn on screen, rebuilt only when the level changes */
+	private String levelText = "Level: "+level;
 	private boolean fire2HasBeenReleased = true;
 	private boolean pause = false;
 	private boolean vsync = true;
@@ -107,6 +171,23 @@ public class Game extends Canvas implements GameWindowCallback {
 		getWindow().setGameWindowCallback(this);
 		getWindow().setTitle(getWindowTitle());
 		
+		// log a summary of the frame timings every window, but not
+		// when running without a display where it would just be noise
+		profiler.setLogging(renderingType != ResourceFactory.HEADLESS);
+		getWindow().setProfiler(profiler);
+		
+		// only the pairs something reacts to are tested at all. Aliens
+		// are hit by shots and the ship is killed by aliens, nothing
+		// else cares what it touches. The ship is blocked by the bunkers
+		// in collideTerrain() rather than by entities
+		layers.register(EntityStore.ALIEN, EntityStore.SHOT, alienShot);
+		layers.register(EntityStore.SHIP, EntityStore.ALIEN, shipAlien);
+		
+		// the bunkers aren't entities, shots and the ship are tested
+		// against their bits once the entities have been collided
+		terrain = new Terrain(0, bunkerY - 50, width, Terrain.BUNKER_HEIGHT + 100);
+		terrainView = new TerrainView(terrain);
+		
 		getWindow().startRendering();
 	}
 
@@ -121,8 +202,19 @@ public class Game extends Canvas implements GameWindowCallback {
 
 		message = pressAnyKey;
 
+		shotSprite = ResourceFactory.get().getSprite("sprites/shot.gif");
+		shots = new ProjectilePool(entities, shotSprite, 64, ProjectilePool.RECYCLE_OLDEST);
+		findShotColumns();
+
+		// start decoding every level's background now, so it's been
+		// uploaded long before the level that shows it starts
+		ResourceFactory.get().getSprite("sprites/bg2.gif");
+
 		sm = new SoundManager();
-		sm.initialize(10);
+		// there's no one to listen when we're running without a display
+		if (ResourceFactory.get().getRenderingType() != ResourceFactory.HEADLESS) {
+			sm.initialize(10);
+		}
 		sb1 = sm.addSound("sounds/sparo.wav");
 		sb2 = sm.addSound("sounds/Blaster-Solo.wav");
 
@@ -149,7 +241,7 @@ public class Game extends Canvas implements GameWindowCallback {
 
 	/**
 	 * Initialize the starting state of the entities (ship and aliens). Each
-	 * entity will be added to the overall list of entities in the game.
+	 * entity adds itself to the overall store of entities in the game.
 	 */
 	private void initEntities() {
 
@@ -180,40 +272,53 @@ public class Game extends Canvas implements GameWindowCallback {
 			bgmref = "sounds/Filter & The Crystal Method - (Can't You) Trip Like I Do [Official Video] - DASH.WAV";
 			break;
 		}
-		// fill the screen
-		for (int i = 1; i <= (int)(height/bg.getHeight()+2); i++)
-			for (int j = 0; j < (int)(width/bg.getWidth()+1); j++)
-				backgroundEntities.add(new GlobalEntity(this, bg, bg.getWidth()*j, height - bg.getHeight()*i));
-		// bricks, walls...
-		GlobalEntity b = new GlobalEntity(this, "sprites/brick.gif", 340, 50);
-		b.setVerticalMovement(30);
-		entities.add(b);
+		// fill the screen, a tile's bottom edge starts on the bottom of the screen
+		background.clear();
+		background.addLayer(bg, 0, 120, 0, height);
+		// bunkers, spread evenly across the screen
+		terrain.clear();
+		for (int i=0;i<bunkers;i++) {
+			terrain.addBunker((width * (2 * i + 1)) / (2 * bunkers) - Terrain.BUNKER_WIDTH / 2, bunkerY);
+		}
 		// arrange enemies
 		alienCount = 0;
+		formations.clear();
+		Formation formation = createFormation(alienSpeed, alienSpeed/10);
 		for (int x=0;x<10;x++){
-			entities.add(new AlienEntity(this,100+(x*50),30));
+			new AlienEntity(this,formation,100+(x*50),30);
 			alienCount++;
 			for (int y=0;y<level;y++){			
-				Entity alieny = new AlienEntity(this,100+(x*50),(50*y)+30);
-				entities.add(alieny);
+				new AlienEntity(this,formation,100+(x*50),(50*y)+30);
 				alienCount++;
 			}
 		}
 
 		// create the player ship and place it roughly in the center of the screen
 		ship = new ShipEntity(this,"sprites/ship.gif",0,0);
-		ship.x = width/2-ship.getSprite().getWidth()/2;
-		ship.y = height-ship.getSprite().getHeight()-5;
-		entities.add(ship);
+		ship.setLocation(width/2-ship.getWidth()/2, height-ship.getHeight()-5);
 	}
 
 	/**
-	 * Notification from a game entity that the logic of the game
-	 * should be run at the next opportunity (normally as a result of some
-	 * game event)
+	 * Create a new formation for aliens to move in. A level can have
+	 * as many as it likes, each turns round by itself.
+	 *
+	 * @param speed The horizontal speed of the formation (pixels/sec)
+	 * @param descent The vertical speed of the formation (pixels/sec)
+	 * @return The new, empty formation
 	 */
-	public void updateLogic() {
-		logicRequiredThisLoop = true;
+	public Formation createFormation(double speed, double descent) {
+		Formation formation = new Formation(entities, formations.size(), speed, descent);
+		formations.add(formation);
+		return formation;
+	}
+
+	/**
+	 * Get the time on the clock all animations are shown against
+	 *
+	 * @return The animation time (ms)
+	 */
+	public long getAnimationTime() {
+		return animationTime;
 	}
 
 	/**
@@ -223,7 +328,9 @@ public class Game extends Canvas implements GameWindowCallback {
 	 * @param entity The entity that should be removed
 	 */
 	public void removeEntity(Entity entity) {
-		removeList.add(entity);
+		if (entity.isAlive()) {
+			entity.store.markRemoved(entity.index);
+		}
 	}
 
 	public void updateHealth(Entity first, Entity second) {
@@ -248,6 +355,7 @@ public class Game extends Canvas implements GameWindowCallback {
 	public void notifyWin() {
 		message = youWin;
 		level++;
+		levelText = "Level: "+level;
 		pressEnter = true;
 	}
 
@@ -261,17 +369,6 @@ public class Game extends Canvas implements GameWindowCallback {
 		if (alienCount == 0) {
 			notifyWin();
 		}
-
-		// if there are still some aliens left then they all need to get faster, so
-		// speed up all the existing aliens
-		for (int i=0;i<entities.size();i++) {
-			Entity entity = (Entity) entities.get(i);
-
-			if (entity instanceof AlienEntity) {
-				// speed up by 2%
-				entity.setHorizontalMovement(entity.getHorizontalMovement() * 1.02);
-			}
-		}
 	}
 
 	/**
@@ -281,56 +378,38 @@ public class Game extends Canvas implements GameWindowCallback {
 	 */
 	public void tryToFire() {
 		// check that we have waiting long enough to fire
-		if (System.currentTimeMillis() - lastFire < firingInterval) {
+		if (gameTime - lastFire < firingInterval) {
 			return;
 		}
 
 		// if we waited long enough, create the shot entity, and record the time.
-		lastFire = System.currentTimeMillis();
-		ShotEntity shot = new ShotEntity(this,"sprites/shot.gif",ship.getX()+10,ship.getY()-30);
-		entities.add(shot);
+		lastFire = gameTime;
+		shots.fire(ship.getX()+10,ship.getY()-30);
 		sm.playEffect(sb1);
 	}
 
 	public void tryToFire2() {
 		// check that we have waiting long enough to fire
-		if (System.currentTimeMillis() - lastFire < firingInterval) {
+		if (gameTime - lastFire < firingInterval) {
 			return;
 		}
 
 		// if we waited long enough, create the shot entity, and record the time.
-		lastFire = System.currentTimeMillis();
-		ShotEntity shotL = new ShotEntity(this,"sprites/shot.gif",ship.getX()+2,ship.getY()-22);
-		entities.add(shotL);
-		ShotEntity shotR = new ShotEntity(this,"sprites/shot.gif",ship.getX()+18,ship.getY()-22);
-		entities.add(shotR);
+		lastFire = gameTime;
+		shots.fire(ship.getX()+2,ship.getY()-22);
+		shots.fire(ship.getX()+18,ship.getY()-22);
 		sm.playEffect(sb2);
 
 	}
 
 	/**
-	 * Notification that a frame is being rendered. Responsible for
-	 * running game logic and rendering the scene.
+	 * Notification that a fixed step of game logic should be run. Responsible
+	 * for moving the entities, resolving collisions and handling input.
+	 * 
+	 * @param delta The length of the step in milliseconds
 	 */
-	public void frameRendering() {	
-/*		SystemTimer.sleep(lastLoopTime+10-SystemTimer.getTime());
-
-		// work out how long its been since the last update, this
-		// will be used to calculate how far the entities should
-		// move this loop
-		long delta = SystemTimer.getTime() - lastLoopTime;
-		lastLoopTime = SystemTimer.getTime();*/
-		long delta = System.currentTimeMillis() - lastLoopTime;
-		lastLoopTime = System.currentTimeMillis();
-		lastFpsTime += delta;
-		fps++;
-		try { getClass().wait(1000); } catch (Exception e) {}
-		// update our FPS counter if a second has passed
-		if (lastFpsTime >= 1000) {
-			getWindow().setTitle(getWindowTitle()+" (FPS: "+fps+")");
-			lastFpsTime = 0;
-			fps = 0;
-		}
+	public void tick(long delta) {
+		gameTime += delta;
 
 		// resolve the movement of the ship. First assume the ship 
 		// isn't moving. If either cursor key is pressed then
@@ -341,93 +420,190 @@ public class Game extends Canvas implements GameWindowCallback {
 		// make sure we don't have blocked keys 
 		blockedKeys.clear();
 		
-		// brute force collisions, compare every entity against
-		// every other entity. If any of them collide notify 
-		// both entities that the collision has occurred
-		for (int p=0;p<entities.size();p++) {
-			for (int s=p+1;s<entities.size();s++) {
-				Entity me = (Entity) entities.get(p);
-				Entity him = (Entity) entities.get(s);
-				CollisionDetection d = new CollisionDetection(me);
-				if (d.collidesWith(him)) {
-					me.collidedWith(d, him);
-					him.collidedWith(d, me);
-				}
-			}
+		// collisions, place the box each entity swept through on its
+		// last move in the grid and only compare the ones that end up
+		// close to each other. If any of them collide notify the
+		// entities that the collision has occurred
+		long start = profiler.start();
+		broadphase.clear();
+		for (int i=0;i<entities.size;i++) {
+			int layer = entities.layer[i];
+			double left = Math.min(entities.x[i], entities.prevX[i]);
+			double top = Math.min(entities.y[i], entities.prevY[i]);
+			broadphase.insert(i, (int) left, (int) top,
+					entities.width[i] + Math.abs(entities.x[i] - entities.prevX[i]),
+					entities.height[i] + Math.abs(entities.y[i] - entities.prevY[i]),
+					1 << layer, layers.getMask(layer));
 		}
-
-		// remove any entity that has been marked for clear up
-		entities.removeAll(removeList);
-		removeList.clear();
+		contact.setAnimationTime(animationTime);
+		broadphase.findPairs(collisionPairs);
+		collideTerrain();
+		profiler.record(FrameProfiler.COLLISION, start);
+
+		// remember where everything started this tick so the
+		// renderer can interpolate towards where it ends up, and
+		// the next collision pass can sweep along the move
+		entities.storePositions();
+		background.storePositions();
+
+		start = profiler.start();
 		keyhandling();
+		profiler.record(FrameProfiler.INPUT, start);
 
-		// if a game event has indicated that game logic should
-		// be resolved, cycle round every entity requesting that
-		// their personal logic should be considered.
-		if (logicRequiredThisLoop) {
-			for (int i=0;i<entities.size();i++) {
-				Entity entity = (Entity) entities.get(i);
-				entity.doLogic();
-			}
+		if (!waitingForKeyPress && !pause && !pressEnter) {
+			// Entity moving, each type of entity has its say
+			// on where it's heading then they all move at once
+			start = profiler.start();
+			animationTime += delta;
+			movement.update(entities, formations, width, height, delta);
+			// Background scrolling
+			background.update(delta);
+			profiler.record(FrameProfiler.MOVE, start);
+		}
 
-			logicRequiredThisLoop = false;
+		// remove any entity that has been marked for clear up
+		start = profiler.start();
+		entities.flush();
+		profiler.record(FrameProfiler.REMOVAL, start);
+	}
+
+	/**
+	 * Find the solid columns of the shot sprite. Only they hit the
+	 * bunkers, so a crater as wide as the shot looks lets the next one
+	 * through. The mask may not be known until the image has been
+	 * decoded, until then the whole width is used.
+	 */
+	private void findShotColumns() {
+		CollisionMask mask = shotSprite.getCollisionMask();
+		shotMask = mask;
+		shotLeft = 0;
+		shotRight = shotSprite.getWidth();
+		while ((mask != null) && (shotLeft < shotRight) && !mask.overlaps(shotLeft, 0, 1, shotSprite.getHeight())) {
+			shotLeft++;
+		}
+		while ((mask != null) && (shotRight > shotLeft) && !mask.overlaps(shotRight - 1, 0, 1, shotSprite.getHeight())) {
+			shotRight--;
 		}
+	}
 
-		if (!waitingForKeyPress && !pause && !pressEnter) {
-			// Entity moving
-			for (int i=0;i<entities.size();i++) {
-				Entity entity = (Entity) entities.get(i);	
-				entity.move(delta);
+	/**
+	 * Collide the shots and the ship with the bunkers. The solid
+	 * columns of a shot are tested along the whole of its last move,
+	 * searching from where it started for the first solid row it
+	 * crossed, and it carves a crater there. The ship is held back from moving further into
+	 * any side of it that's touching a bunker.
+	 */
+	private void collideTerrain() {
+		if (shotSprite.getCollisionMask() != shotMask) {
+			findShotColumns();
+		}
+		for (int i=0;i<entities.size;i++) {
+			if ((entities.type[i] != EntityStore.SHOT) || ((entities.flags[i] & EntityStore.REMOVED) != 0)) {
+				continue;
 			}
-			// Background moving/replace
-			for (int i=0;i<backgroundEntities.size();i++) {
-				GlobalEntity entity = (GlobalEntity) backgroundEntities.get(i);
-				if(entity.y >= height)
-					entity.y -= (int)(height/bg.getHeight()+2)*bg.getHeight();
-				entity.setVerticalMovement(120);
-				entity.move(delta);
+			int top = (int) Math.min(entities.y[i], entities.prevY[i]);
+			int bottom = (int) Math.max(entities.y[i], entities.prevY[i]) + entities.height[i];
+			int left = (int) entities.x[i] + shotLeft;
+			int row = terrain.findSolidRow(left, top, shotRight - shotLeft, bottom - top, entities.dy[i] < 0);
+			if (row != Terrain.NONE) {
+				terrain.carve(left + (shotRight - shotLeft) / 2, row);
+				removeEntity(entities.owner[i]);
 			}
 		}
-		// cycle round drawing all the entities we have in the game
-		for (int i=0;i<backgroundEntities.size();i++) {
-			Entity entity = (Entity) backgroundEntities.get(i);
-			entity.draw();
-		}
-		for (int i=0;i<entities.size();i++) {
-			Entity entity = (Entity) entities.get(i);
-			entity.draw();
+
+		int x = ship.getX();
+		int y = ship.getY();
+		int w = ship.getWidth();
+		int h = ship.getHeight();
+		if (terrain.overlaps(x, y, w, h)) {
+			if (terrain.overlaps(x, y, w, h / 4)) {
+				addBlockedKey(KeyEvent.VK_UP);
+			}
+			if (terrain.overlaps(x, y + h - h / 4, w, h / 4)) {
+				addBlockedKey(KeyEvent.VK_DOWN);
+			}
+			if (terrain.overlaps(x, y, w / 4, h)) {
+				addBlockedKey(KeyEvent.VK_LEFT);
+			}
+			if (terrain.overlaps(x + w - w / 4, y, w / 4, h)) {
+				addBlockedKey(KeyEvent.VK_RIGHT);
+			}
 		}
+	}
 
-		getWindow().renderText("Level: "+level, 370, 23);
-		if(pause) getWindow().renderText("Pause\nPress p to continue", 77, 33);
-		// if we're waiting for an "any key" press then draw the 
+	/**
+	 * Notification that the ticks so far should be made into a frame.
+	 * Copies the entities, background and what the HUD shows into the
+	 * snapshot.
+	 * 
+	 * @param frame The snapshot to fill in
+	 */
+	public void storeFrame(FrameSnapshot frame) {
+		long start = profiler.start();
+		background.storeFrame(frame);
+		terrain.storeFrame(frame);
+		EntitySystems.storeFrame(entities, frame, animationTime);
+		// if we're waiting for an "any key" press then show the 
 		// current message 
-		if (waitingForKeyPress) {
-			message.draw(325,250);
-		}
+		frame.message = waitingForKeyPress ? message : null;
+		frame.levelText = levelText;
+		frame.pause = pause;
+		frame.profile = showProfile ? profiler.getSummary() : null;
+		profiler.record(FrameProfiler.SNAPSHOT, start);
+	}
 
+	/**
+	 * Notification that a frame is being rendered. Responsible for
+	 * drawing the scene, which is taken from the snapshot alone so
+	 * it can be drawn while the next ticks are run in tick()
+	 * 
+	 * @param frame The snapshot of the frame to draw
+	 * @param alpha How far we are between the last tick and the next one (0-1)
+	 */
+	public void frameRendering(FrameSnapshot frame, float alpha) {
+		// cycle round drawing all the entities we have in the game
+		long start = profiler.start();
+		frame.drawBackground(alpha, width, height);
+		profiler.record(FrameProfiler.BACKGROUND, start);
+
+		start = profiler.start();
+		terrainView.draw(frame);
+		frame.drawEntities(alpha);
+		if (frame.message != null) {
+			frame.message.draw(325,250);
+		}
+		profiler.record(FrameProfiler.DRAW, start);
 
+		start = profiler.start();
+		getWindow().renderText(frame.levelText, 370, 23);
+		if(frame.pause) getWindow().renderText("Pause\nPress p to continue", 77, 33);
+		if (frame.profile != null) {
+			getWindow().renderText(frame.profile, 500, 60);
+		}
+		profiler.record(FrameProfiler.TEXT, start);
 	}
 
 	private void keyhandling() {
 
-		while (Keyboard.next()) {
-			if (Keyboard.getEventKeyState()) {
-				if (Keyboard.getEventKey() == Keyboard.KEY_F) {
-					//getWindow().setDisplayMode(!Display.isFullscreen());
-				}
-				else if (Keyboard.getEventKey() == Keyboard.KEY_V) {
-					vsync = !vsync;
-					Display.setVSyncEnabled(vsync);
-				}
-				else if (Keyboard.getEventKey() == Keyboard.KEY_P && !pressEnter && !waitingForKeyPress) {
-					pause = !pause;
-				}
-				else if (Keyboard.getEventKey() == Keyboard.KEY_RETURN) {
-					if (pressEnter) {
-						startGame();
-						pressEnter = false;
-					}
+		int key;
+		while ((key = getWindow().nextKeyEvent()) != KeyEvent.VK_UNDEFINED) {
+			if (key == KeyEvent.VK_F) {
+				//getWindow().setDisplayMode(!Display.isFullscreen());
+			}
+			else if (key == KeyEvent.VK_V) {
+				vsync = !vsync;
+				getWindow().setVSync(vsync);
+			}
+			else if (key == KeyEvent.VK_F3) {
+				showProfile = !showProfile;
+			}
+			else if (key == KeyEvent.VK_P && !pressEnter && !waitingForKeyPress) {
+				pause = !pause;
+			}
+			else if (key == KeyEvent.VK_ENTER) {
+				if (pressEnter) {
+					startGame();
+					pressEnter = false;
 				}
 			}
 		}
@@ -499,10 +675,59 @@ public class Game extends Canvas implements GameWindowCallback {
 	 * instance of class which will start the display and game
 	 * loop.
 	 * 
+	 * Passing "-record <file>" records the player's input to the
+	 * file as the game is played, so the session can be run again
+	 * with the headless Replay. Passing "-pipelined" runs the game
+	 * logic on a thread of its own, apart from the drawing.
+	 * 
+	 * The decoded textures are kept in a cache file in the user's home
+	 * directory between runs, "-texturecache <file>" keeps them in 
+	 * another file and "-notexturecache" turns the cache off.
+	 * 
 	 * @param argv The arguments that are passed into our game
 	 */
 	public static void main(String argv[]) {
 
+		String record = null;
+		boolean pipelined = false;
+		File textureCache = new File(System.getProperty("user.home"), ".spaceinvaders/textures.cache");
+		for (int i=0;i<argv.length;i++) {
+			if (argv[i].equals("-record") && (i+1 < argv.length)) {
+				record = argv[++i];
+			} else if (argv[i].equals("-pipelined")) {
+				pipelined = true;
+			} else if (argv[i].equals("-texturecache") && (i+1 < argv.length)) {
+				textureCache = new File(argv[++i]);
+			} else if (argv[i].equals("-notexturecache")) {
+				textureCache = null;
+			}
+		}
+
+		ResourceFactory.get().setRenderingType(ResourceFactory.OPENGL_LWJGL);
+		LWJGLGameWindow window = (LWJGLGameWindow) ResourceFactory.get().getGameWindow();
+		// the window swaps in its own input source for the simulation
+		// thread, so this has to come before the recorder wraps it
+		window.setPipelined(pipelined);
+		window.setTextureCache(textureCache);
+
+		if (record != null) {
+			final InputRecorder recorder;
+			try {
+				recorder = new InputRecorder(window.getInputSource(), new FileOutputStream(record));
+			} catch (IOException e) {
+				System.err.println("Unable to record to "+record+": "+e);
+				System.exit(1);
+				return;
+			}
+			window.setInputSource(recorder);
+			// the game leaves through System.exit(), finish the log on the way out
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					recorder.close();
+				}
+			});
+		}
+
 		new Game(ResourceFactory.OPENGL_LWJGL);
 		/*		int result = JOptionPane.showOptionDialog(null,"Java2D or OpenGL?","Java2D or OpenGL?",JOptionPane.YES_NO_CANCEL_OPTION,JOptionPane.QUESTION_MESSAGE,null,new String[] {"Java2D","JOGL","LWJGL"},null);
 
@@ -515,6 +740,15 @@ public class Game extends Canvas implements GameWindowCallback {
 		}*/
 	}
 
+	/**
+	 * Get the store holding the entities in the game
+	 * 
+	 * @return The store of entities
+	 */
+	public EntityStore getEntityStore() {
+		return entities;
+	}
+
 	public GameWindow getWindow() {
 		return window;
 	}
@@ -554,4 +788,4 @@ public class Game extends Canvas implements GameWindowCallback {
 	public boolean isBlockedKey(int key) {
 		return blockedKeys.contains(key);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package org.newdawn.spaceinvaders;
 
+import org.newdawn.spaceinvaders.util.FrameProfiler;
+
 /**
  * The window in which the game will be displayed. This interface exposes just
  * enough to allow the game logic to interact with, while still maintaining an
@@ -47,6 +49,30 @@ public interface GameWindow {
 	public boolean isKeyPressed(int keyCode);
 	public boolean isLMousePressed(int mouseCode);
 	public boolean isRMousePressed(int mouseCode);
+	
+	/**
+	 * Get the next key that has been pressed since the last time
+	 * the key events were read.
+	 * 
+	 * @return The code (defined in KeyEvent) of the next key pressed, or
+	 * KeyEvent.VK_UNDEFINED if there are no more key presses to read
+	 */
+	public int nextKeyEvent();
+	
+	/**
+	 * Enable or disable syncing the display to the screen refresh rate
+	 * 
+	 * @param vsync True if the display should be synced
+	 */
+	public void setVSync(boolean vsync);
 	public void setDisplayMode(boolean fullscreen);
 	public void renderText(String s, int x, int y);
+	
+	/**
+	 * Set the profiler the window records its own part of the frame
+	 * into and tells when each frame has finished
+	 * 
+	 * @param profiler The profiler to record into
+	 */
+	public void setProfiler(FrameProfiler profiler);
 }
\ No newline at end of file
@@ -13,11 +13,34 @@ public interface GameWindowCallback {
 	 */
 	public void initialise();
 	
+	/**
+	 * Notification that a fixed step of game logic should be run. This
+	 * may be called any number of times (including none) between frames.
+	 * 
+	 * @param delta The length of the step in milliseconds
+	 */
+	public void tick(long delta);
+	
+	/**
+	 * Notification that the ticks run so far should be made into a
+	 * frame. The implementor should copy everything it needs to draw
+	 * into the snapshot. This is called on the same thread as tick(),
+	 * which may not be the one the frame is drawn on.
+	 * 
+	 * @param frame The snapshot to fill in
+	 */
+	public void storeFrame(FrameSnapshot frame);
+	
 	/**
 	 * Notification that the display is being rendered. The implementor
-	 * should render the scene and update any game logic
+	 * should render the scene from the snapshot alone, it should not
+	 * look at or update any game logic.
+	 * 
+	 * @param frame The snapshot of the frame to draw
+	 * @param alpha How far we are between the last tick and the next one (0-1),
+	 * used to interpolate the drawn positions of moving entities
 	 */
-	public void frameRendering();
+	public void frameRendering(FrameSnapshot frame, float alpha);
 	
 	/**
 	 * Notification that game window has been closed.
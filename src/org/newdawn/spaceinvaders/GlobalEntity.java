@@ -15,31 +15,24 @@ public class GlobalEntity extends Entity{
 	 * @param y The initial y location of the entity
 	 */
 	public GlobalEntity(Game game, String ref, double x, double y) {
-		super(ref,x,y);
+		super(game.getEntityStore(),EntityStore.GLOBAL,ref,x,y);
 
 		this.setGame(game);
 	}
 
-	public GlobalEntity(Game game, Sprite sprite, double x, double y) {
-		super(sprite,x,y);
-
-		this.setGame(game);
-	}
-
-	/**
-	 * Request that the entity move itself based on an elapsed amount of
-	 * time
-	 * 
-	 * @param delta The time that has elapsed since last move (ms)
-	 */
-	public void move(long delta) {
-		super.move(delta);
-	}
 	/**
-	 * Update the game logic related to aliens
+	 * Create a new global entity in a given store
+	 *  
+	 * @param game The game in which the entity is being created
+	 * @param store The store that will hold the entity
+	 * @param sprite The sprite to show for the entity
+	 * @param x The initial x location of the entity
+	 * @param y The initial y location of the entity
 	 */
-	public void doLogic() {
-		
+	public GlobalEntity(Game game, EntityStore store, Sprite sprite, double x, double y) {
+		super(store,EntityStore.GLOBAL,sprite,x,y);
+
+		this.setGame(game);
 	}
 	/**
 	 * Notification that the entity has collided with something
@@ -47,8 +40,6 @@ public class GlobalEntity extends Entity{
 	 * @param other The entity with which this entity has collided
 	 */
 	public void collidedWith(CollisionDetection d, Entity other) {
-		if(other instanceof ShipEntity){
-		}
 	}
 
 	public Game getGame() {
@@ -0,0 +1,391 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves every entity in a store for one tick, the same work as running
+ * EntitySystems.updateFormations(), updateShip(), integrate() and
+ * updateShots() in turn, but split across the threads of a fork join
+ * pool once the store is big enough to be worth it.
+ *
+ * The store is cut into chunks of consecutive slots and each chunk is
+ * moved by a task of its own. Everything done to an entity only reads
+ * and writes that entity's slot, so the four passes are run as one
+ * pass per chunk and the chunks don't share anything they write. The
+ * only thing a chunk can't do for itself is remove an entity, that
+ * touches the store's list of pending removals, so each chunk records
+ * its removals in a command buffer of its own and the buffers are
+ * played into the store in chunk order once every chunk is done. The
+ * store ends each tick in exactly the state the single threaded passes
+ * would leave it in, however the chunks were scheduled.
+ *
+ * Below the threshold the single threaded passes are run instead, for
+ * the few dozen entities of a normal level the tasks would cost more
+ * than they save. The tasks and buffers are created once and reused, a
+ * tick allocates nothing unless the store has grown.
+ *
+ * The work is only split when a pool is passed in. DEFAULT_THRESHOLD
+ * hasn't been measured on a machine with more than one processor yet,
+ * so until ParallelUpdateBenchmark has been run on one and shown where
+ * splitting starts to pay, an update created with the defaults runs
+ * the single threaded passes whatever the size of the store.
+ */
+public class ParallelUpdate {
+	/** The number of entities below which the update stays on one thread, a guess still to be measured */
+	public static final int DEFAULT_THRESHOLD = 8192;
+	/** The number of entities moved by each task */
+	public static final int DEFAULT_CHUNK_SIZE = 2048;
+
+	/** The pass finding the bounds of the formations */
+	private static final int BOUNDS = 0;
+	/** The pass moving the entities */
+	private static final int MOVE = 1;
+
+	/** The pool the chunks are run in, null to always stay on one thread */
+	private ForkJoinPool pool;
+	/** The number of entities below which the update stays on one thread */
+	private int threshold;
+	/** The number of entities moved by each task */
+	private int chunkSize;
+	/** The task running every chunk */
+	private Root root = new Root();
+	/** The chunks the store is cut into, one task each */
+	private Chunk[] chunks = new Chunk[0];
+
+	/** The store being updated */
+	private EntityStore store;
+	/** The pass the chunks should run */
+	private int pass;
+	/** The width of the screen */
+	private int width;
+	/** The height of the screen */
+	private int height;
+	/** The length of the tick (ms) */
+	private long delta;
+	/** The number of formations */
+	private int formationCount;
+	/** True for each formation whose bounds are being rebuilt */
+	private boolean[] rebuild = new boolean[0];
+	/** How far each formation moves horizontally this tick */
+	private double[] stepX = new double[0];
+	/** How far each formation moves vertically this tick */
+	private double[] stepY = new double[0];
+	/** True if any formation moves this tick */
+	private boolean moving;
+
+	/**
+	 * Create an update without a pool, always staying on one thread
+	 * until the threshold has been measured
+	 */
+	public ParallelUpdate() {
+		this(null, DEFAULT_THRESHOLD, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Create a new update
+	 *
+	 * @param pool The pool to run the chunks in, null to always stay on one thread
+	 * @param threshold The number of entities below which the update stays on one thread
+	 * @param chunkSize The number of entities moved by each task
+	 */
+	public ParallelUpdate(ForkJoinPool pool, int threshold, int chunkSize) {
+		this.pool = pool;
+		this.threshold = threshold;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Move every entity in a store for one tick
+	 *
+	 * @param store The store holding the entities
+	 * @param formations The formations the aliens move in, indexed by id
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 * @param delta The time that has elapsed since last move (ms)
+	 */
+	public void update(EntityStore store, ArrayList<Formation> formations, int width, int height, long delta) {
+		if ((pool == null) || (store.size < threshold)) {
+			EntitySystems.updateFormations(store, formations, width, height, delta);
+			EntitySystems.updateShip(store, width, height);
+			EntitySystems.integrate(store, delta);
+			EntitySystems.updateShots(store, height);
+			return;
+		}
+
+		this.store = store;
+		this.width = width;
+		this.height = height;
+		this.delta = delta;
+		prepare(store.size, formations.size());
+
+		boolean dirty = false;
+		for (int f=0;f<formationCount;f++) {
+			rebuild[f] = formations.get(f).boundsDirty;
+			dirty |= rebuild[f];
+		}
+		if (dirty) {
+			run(BOUNDS);
+			mergeBounds(formations);
+		}
+
+		moving = EntitySystems.steerFormations(store, formations, width, height, delta);
+		for (int f=0;f<formationCount;f++) {
+			stepX[f] = formations.get(f).stepX;
+			stepY[f] = formations.get(f).stepY;
+		}
+		run(MOVE);
+
+		// play the removals back in the order one thread would have made them
+		for (int c=0;c<chunks.length;c++) {
+			chunks[c].commands.apply(store);
+		}
+		this.store = null;
+	}
+
+	/**
+	 * Cut the store into chunks and size the tables for the formations
+	 *
+	 * @param size The number of entities in the store
+	 * @param formations The number of formations
+	 */
+	private void prepare(int size, int formations) {
+		int count = (size + chunkSize - 1) / chunkSize;
+		if (count != chunks.length) {
+			Chunk[] resized = new Chunk[count];
+			for (int c=0;c<count;c++) {
+				resized[c] = (c < chunks.length) ? chunks[c] : new Chunk();
+			}
+			chunks = resized;
+		}
+		for (int c=0;c<count;c++) {
+			chunks[c].from = c * chunkSize;
+			chunks[c].to = Math.min(size, (c + 1) * chunkSize);
+		}
+
+		formationCount = formations;
+		if (rebuild.length < formations) {
+			rebuild = new boolean[formations];
+			stepX = new double[formations];
+			stepY = new double[formations];
+		}
+	}
+
+	/**
+	 * Run a pass over every chunk in the pool, returning once they're all done
+	 *
+	 * @param pass The pass to run
+	 */
+	private void run(int pass) {
+		this.pass = pass;
+		for (int c=0;c<chunks.length;c++) {
+			chunks[c].reinitialize();
+		}
+		root.reinitialize();
+		pool.invoke(root);
+	}
+
+	/**
+	 * Combine the bounds each chunk found into the bounds of the formations
+	 *
+	 * @param formations The formations, indexed by id
+	 */
+	private void mergeBounds(ArrayList<Formation> formations) {
+		for (int f=0;f<formationCount;f++) {
+			if (!rebuild[f]) {
+				continue;
+			}
+			Formation formation = formations.get(f);
+			formation.left = Double.MAX_VALUE;
+			formation.top = Double.MAX_VALUE;
+			formation.right = -Double.MAX_VALUE;
+			formation.bottom = -Double.MAX_VALUE;
+			for (int c=0;c<chunks.length;c++) {
+				double[] bounds = chunks[c].bounds;
+				formation.left = Math.min(formation.left, bounds[f*4]);
+				formation.top = Math.min(formation.top, bounds[f*4+1]);
+				formation.right = Math.max(formation.right, bounds[f*4+2]);
+				formation.bottom = Math.max(formation.bottom, bounds[f*4+3]);
+			}
+			formation.boundsDirty = false;
+		}
+	}
+
+	/**
+	 * Set the number of entities below which the update stays on one thread
+	 *
+	 * @param threshold The number of entities
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * The task running every chunk of the current pass
+	 */
+	private class Root extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Fork every chunk and wait for them
+		 */
+		protected void compute() {
+			ForkJoinTask.invokeAll(chunks);
+		}
+	}
+
+	/**
+	 * A run of consecutive slots in the store, moved by one task
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/** The first slot in the chunk */
+		private int from;
+		/** The slot after the last one in the chunk */
+		private int to;
+		/** The removals made by this chunk */
+		private CommandBuffer commands = new CommandBuffer();
+		/** The left, top, right and bottom of the members of each formation found in this chunk */
+		private double[] bounds = new double[0];
+
+		/**
+		 * Run the current pass over this chunk
+		 */
+		protected void compute() {
+			if (pass == BOUNDS) {
+				findBounds();
+			} else {
+				move();
+			}
+		}
+
+		/**
+		 * Find the box around the members of each formation being
+		 * rebuilt that are in this chunk
+		 */
+		private void findBounds() {
+			if (bounds.length < formationCount * 4) {
+				bounds = new double[formationCount * 4];
+			}
+			for (int f=0;f<formationCount;f++) {
+				bounds[f*4] = Double.MAX_VALUE;
+				bounds[f*4+1] = Double.MAX_VALUE;
+				bounds[f*4+2] = -Double.MAX_VALUE;
+				bounds[f*4+3] = -Double.MAX_VALUE;
+			}
+
+			int[] group = store.group;
+			double[] x = store.x;
+			double[] y = store.y;
+			for (int i=from;i<to;i++) {
+				int g = group[i];
+				if ((g < 0) || !rebuild[g]) {
+					continue;
+				}
+				bounds[g*4] = Math.min(bounds[g*4], x[i]);
+				bounds[g*4+1] = Math.min(bounds[g*4+1], y[i]);
+				bounds[g*4+2] = Math.max(bounds[g*4+2], x[i] + store.width[i]);
+				bounds[g*4+3] = Math.max(bounds[g*4+3], y[i] + store.height[i]);
+			}
+		}
+
+		/**
+		 * Move every entity in this chunk. Each entity goes through the
+		 * same steps in the same order as the single threaded passes
+		 * would take it through.
+		 */
+		private void move() {
+			int[] type = store.type;
+			int[] group = store.group;
+			double[] x = store.x;
+			double[] y = store.y;
+			double[] dx = store.dx;
+			double[] dy = store.dy;
+			int[] entityWidth = store.width;
+			int[] entityHeight = store.height;
+			double[] formationX = stepX;
+			double[] formationY = stepY;
+			boolean formationsMoving = moving;
+			int width = ParallelUpdate.this.width;
+			int height = ParallelUpdate.this.height;
+			long delta = ParallelUpdate.this.delta;
+			int end = to;
+
+			commands.clear();
+			for (int i=from;i<end;i++) {
+				// formation members move with their formation
+				int g = group[i];
+				if (formationsMoving && (g >= 0)) {
+					x[i] += formationX[g];
+					y[i] += formationY[g];
+				}
+
+				// the ship doesn't move towards an edge it's reached
+				if (type[i] == EntityStore.SHIP) {
+					if (((dx[i] < 0) && (x[i] < 10)) ||
+							((dx[i] > 0) && (x[i] > width-entityWidth[i]-10)) ||
+							((dy[i] < 0) && (y[i] < 10)) ||
+							((dy[i] > 0) && (y[i] > height-entityHeight[i]-10))) {
+						dx[i] = 0;
+						dy[i] = 0;
+					}
+				}
+
+				x[i] += (delta * dx[i]) / 1000;
+				y[i] += (delta * dy[i]) / 1000;
+
+				// shots that have left the screen go back to their pool
+				if ((type[i] == EntityStore.SHOT) && ((y[i] + entityHeight[i] < 0) || (y[i] > height))) {
+					commands.remove(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The changes to the store a chunk can't make while the other
+	 * chunks are running, kept to be made afterwards
+	 */
+	private static class CommandBuffer {
+		/** The slots of the entities to remove, in the order they were found */
+		private int[] removals = new int[64];
+		/** The number of entities to remove */
+		private int count;
+
+		/**
+		 * Empty the buffer
+		 */
+		void clear() {
+			count = 0;
+		}
+
+		/**
+		 * Record that an entity should be removed
+		 *
+		 * @param index The slot of the entity
+		 */
+		void remove(int index) {
+			if (count == removals.length) {
+				int[] larger = new int[removals.length * 2];
+				System.arraycopy(removals, 0, larger, 0, count);
+				removals = larger;
+			}
+			removals[count++] = index;
+		}
+
+		/**
+		 * Make the recorded changes to the store
+		 *
+		 * @param store The store to change
+		 */
+		void apply(EntityStore store) {
+			for (int i=0;i<count;i++) {
+				store.markRemoved(removals[i]);
+			}
+			count = 0;
+		}
+	}
+}
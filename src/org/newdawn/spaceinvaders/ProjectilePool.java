@@ -0,0 +1,202 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * A fixed set of shots that are fired and reused, so firing never
+ * creates a new entity or loads a sprite. Shots waiting to be fired
+ * are kept on a free list, shots in flight are kept in the order they
+ * were fired so the oldest can be found straight away.
+ *
+ * Once fired a shot is an ordinary entity in the store, it's moved
+ * with everything else and culled by EntitySystems.updateShots() when
+ * it leaves the screen. Whenever the store lets go of a shot it comes
+ * back here.
+ *
+ * What happens when every shot is in flight is decided by the policy,
+ * one of DROP, RECYCLE_OLDEST or GROW.
+ */
+public class ProjectilePool {
+	/** When the pool is empty, don't fire */
+	public static final int DROP = 0;
+	/** When the pool is empty, take back the shot that's been in flight longest */
+	public static final int RECYCLE_OLDEST = 1;
+	/** When the pool is empty, create more shots */
+	public static final int GROW = 2;
+
+	/** The store shots are placed in when fired */
+	private EntityStore store;
+	/** The sprite shared by every shot */
+	private Sprite sprite;
+	/** What to do when every shot is in flight */
+	private int policy;
+	/** The number of shots created */
+	private int capacity;
+	/** The shots ready to be fired */
+	private ShotEntity[] free;
+	/** The number of shots ready to be fired */
+	private int freeCount;
+	/** The shot that's been in flight longest */
+	private ShotEntity oldest;
+	/** The shot fired most recently */
+	private ShotEntity newest;
+	/** The number of shots in flight */
+	private int liveCount;
+	/** The number of shots that couldn't be fired */
+	private int dropped;
+
+	/**
+	 * Create a new pool
+	 *
+	 * @param store The store shots are placed in when fired
+	 * @param sprite The sprite shared by every shot
+	 * @param capacity The number of shots to create up front
+	 * @param policy What to do when every shot is in flight (DROP, RECYCLE_OLDEST or GROW)
+	 */
+	public ProjectilePool(EntityStore store, Sprite sprite, int capacity, int policy) {
+		if ((policy < DROP) || (policy > GROW)) {
+			throw new IllegalArgumentException("Unknown pool policy: "+policy);
+		}
+		this.store = store;
+		this.sprite = sprite;
+		this.policy = policy;
+
+		free = new ShotEntity[Math.max(capacity, 1)];
+		grow(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Fire a shot
+	 *
+	 * @param x The initial x location of the shot
+	 * @param y The initial y location of the shot
+	 * @return The shot fired, or null if the pool is empty and the policy is DROP
+	 */
+	public ShotEntity fire(double x, double y) {
+		ShotEntity shot;
+
+		if (freeCount > 0) {
+			shot = free[--freeCount];
+		} else if (policy == GROW) {
+			grow(capacity);
+			shot = free[--freeCount];
+		} else if (policy == RECYCLE_OLDEST) {
+			// shots already marked for removal are on their way back,
+			// the oldest one still flying is taken instead
+			shot = oldest;
+			while ((shot != null) && store.isRemoved(shot.index)) {
+				shot = shot.newer;
+			}
+			if (shot == null) {
+				dropped++;
+				return null;
+			}
+			unlink(shot);
+		} else {
+			dropped++;
+			return null;
+		}
+
+		shot.fire(x, y);
+
+		// the new shot goes on the young end of the flight list
+		shot.older = newest;
+		shot.newer = null;
+		if (newest != null) {
+			newest.newer = shot;
+		} else {
+			oldest = shot;
+		}
+		newest = shot;
+		liveCount++;
+
+		return shot;
+	}
+
+	/**
+	 * Notification that a shot has been taken out of the store
+	 * and can be fired again
+	 *
+	 * @param shot The shot to return to the pool
+	 */
+	void release(ShotEntity shot) {
+		unlink(shot);
+		free[freeCount++] = shot;
+	}
+
+	/**
+	 * Get the number of shots created
+	 *
+	 * @return The number of shots created, in flight or not
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the number of shots in flight
+	 *
+	 * @return The number of shots in the game
+	 */
+	public int getLiveCount() {
+		return liveCount;
+	}
+
+	/**
+	 * Get the number of shots that couldn't be fired because
+	 * the pool was empty
+	 *
+	 * @return The number of shots dropped
+	 */
+	public int getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Set what to do when every shot is in flight
+	 *
+	 * @param policy One of DROP, RECYCLE_OLDEST or GROW
+	 */
+	public void setPolicy(int policy) {
+		if ((policy < DROP) || (policy > GROW)) {
+			throw new IllegalArgumentException("Unknown pool policy: "+policy);
+		}
+		this.policy = policy;
+	}
+
+	/**
+	 * Take a shot out of the flight list
+	 *
+	 * @param shot The shot to take out
+	 */
+	private void unlink(ShotEntity shot) {
+		if (shot.older != null) {
+			shot.older.newer = shot.newer;
+		} else {
+			oldest = shot.newer;
+		}
+		if (shot.newer != null) {
+			shot.newer.older = shot.older;
+		} else {
+			newest = shot.older;
+		}
+		shot.older = null;
+		shot.newer = null;
+		liveCount--;
+	}
+
+	/**
+	 * Create more shots and put them on the free list
+	 *
+	 * @param count The number of shots to create
+	 */
+	private void grow(int count) {
+		if (freeCount + count > free.length) {
+			ShotEntity[] larger = new ShotEntity[Math.max(free.length * 2, freeCount + count)];
+			System.arraycopy(free, 0, larger, 0, freeCount);
+			free = larger;
+		}
+		for (int i=0;i<count;i++) {
+			free[freeCount++] = new ShotEntity(this, store, sprite);
+		}
+		capacity += count;
+	}
+}
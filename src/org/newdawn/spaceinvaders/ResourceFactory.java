@@ -1,11 +1,18 @@
 package org.newdawn.spaceinvaders;
 
+import java.util.Arrays;
+import java.util.HashMap;
+
 /*import org.newdawn.spaceinvaders.java2d.Java2DGameWindow;
 import org.newdawn.spaceinvaders.java2d.Java2DSpriteStore;
 import org.newdawn.spaceinvaders.jogl.JoglGameWindow;
 import org.newdawn.spaceinvaders.jogl.JoglSprite;*/
+import org.newdawn.spaceinvaders.headless.HeadlessGameWindow;
+import org.newdawn.spaceinvaders.headless.HeadlessSprite;
+import org.newdawn.spaceinvaders.headless.HeadlessSurface;
 import org.newdawn.spaceinvaders.lwjgl.LWJGLGameWindow;
 import org.newdawn.spaceinvaders.lwjgl.LWJGLSprite;
+import org.newdawn.spaceinvaders.lwjgl.LWJGLSurface;
 
 /**
  * A central reference point for creating resources for use in the game. The resources
@@ -13,6 +20,18 @@ import org.newdawn.spaceinvaders.lwjgl.LWJGLSprite;
  * work within the GameWindow supplied from this class. For instance, a Sprite retrieved
  * as a resource will draw happily in the GameWindow supplied from this factory
  *
+ * Sprites are interned. The first time an image is asked for its sprite is created
+ * and given a small integer id, after that every request for the same image gets the
+ * same sprite back. Code that creates a lot of entities should look the id up once
+ * and fetch the sprite by id, which is an array index rather than a hash of the
+ * reference. Animations are registered and fetched by id in the same way.
+ *
+ * Sprites and animations may be created on any thread, the simulation
+ * thread creates them while the display thread draws. Creating one is
+ * synchronized and replaces the table of them with a copy holding the
+ * new one, so fetching by id never takes a lock and always sees a
+ * table that's been completely filled in.
+ *
  * @author Kevin Glass
  */
 public class ResourceFactory {
@@ -34,11 +53,28 @@ public class ResourceFactory {
 	public static final int OPENGL_JOGL = 2;
 	/** A value to indicate that we should use OpenGL (LWJGL) to render our game */
 	public static final int OPENGL_LWJGL = 3;
+	/** A value to indicate that we should run the game without any display */
+	public static final int HEADLESS = 4;
+
+	/** The time each frame of an alien's animation is shown for (ms) */
+	public static final long ALIEN_FRAME_DURATION = 250;
+	/** The images shown in turn to animate an alien */
+	private static final String[] ALIEN_FRAMES = {"sprites/alien.gif", "sprites/alien2.gif", "sprites/alien.gif", "sprites/alien3.gif"};
 
 	/** The type of rendering that we are currently using */
 	private int renderingType = JAVA2D;
 	/** The window the game should use to render */
 	private GameWindow window;
+	/** The sprites created, indexed by id, replaced by a copy when one is added */
+	private volatile Sprite[] sprites = new Sprite[0];
+	/** The ids of the sprites created, keyed by the references to their images */
+	private HashMap<String,Integer> spriteIds = new HashMap<String,Integer>();
+	/** The animations registered, indexed by id, replaced by a copy when one is added */
+	private volatile AnimationSet[] animations = new AnimationSet[0];
+	/** The ids of the animations loaded from images, keyed by their frame references */
+	private HashMap<String,Integer> loadedAnimations = new HashMap<String,Integer>();
+	/** The id of the animation every alien shows, -1 until it's first asked for */
+	private volatile int alienAnimation = -1;
 
 	/** 
        * The default contructor has been made private to prevent construction of 
@@ -56,7 +92,7 @@ public class ResourceFactory {
 	 */
 	public void setRenderingType(int renderingType) {
 		// If the rendering type is unrecognised tell the caller
-		if ((renderingType != JAVA2D) && (renderingType != OPENGL_JOGL) && (renderingType != OPENGL_LWJGL)) {
+		if ((renderingType != JAVA2D) && (renderingType != OPENGL_JOGL) && (renderingType != OPENGL_LWJGL) && (renderingType != HEADLESS)) {
 			// Note, we could create our own exception to be thrown here but it
 			// seems a little bit over the top for a simple message. In general
 			// RuntimeException should be subclassed and thrown, not thrown directly.
@@ -65,13 +101,22 @@ public class ResourceFactory {
 
 		// If the window has already been created then we have already created resources in 
 		// the current rendering method, we are not allowed to change rendering types
-		if (window != null) {
+		if ((window != null) && (renderingType != this.renderingType)) {
 			throw new RuntimeException("Attempt to change rendering method at game runtime");
 		}
 
 		this.renderingType = renderingType;
 	}
 
+	/**
+	 * Get the rendering method that is being used
+	 * 
+	 * @return The type of rendering in use
+	 */
+	public int getRenderingType() {
+		return renderingType;
+	}
+
 	/**
  	 * Retrieve the game window that should be used to render the game
 	 *
@@ -97,6 +142,11 @@ public class ResourceFactory {
 					window = new LWJGLGameWindow();
 					break;
 				}
+				case HEADLESS:
+				{
+					window = new HeadlessGameWindow();
+					break;
+				}
 			}
 		}
 
@@ -105,12 +155,56 @@ public class ResourceFactory {
 
 	/**
 	 * Create or get a sprite which displays the image that is pointed
-	 * to in the classpath by "ref"
+	 * to in the classpath by "ref". The sprite is shared with every
+	 * other caller asking for the same image.
 	 * 
 	 * @param ref A reference to the image to load
 	 * @return A sprite that can be drawn onto the current graphics context.
 	 */
 	public Sprite getSprite(String ref) {
+		int id = getSpriteId(ref);
+		return sprites[id];
+	}
+
+	/**
+	 * Get the id of the sprite which displays the image that is pointed
+	 * to in the classpath by "ref", creating the sprite the first time
+	 * 
+	 * @param ref A reference to the image to load
+	 * @return The id of the sprite, see getSprite(int)
+	 */
+	public synchronized int getSpriteId(String ref) {
+		Integer id = spriteIds.get(ref);
+		if (id != null) {
+			return id.intValue();
+		}
+		
+		Sprite sprite = createSprite(ref);
+		Sprite[] larger = Arrays.copyOf(sprites, sprites.length + 1);
+		larger[sprites.length] = sprite;
+		spriteIds.put(ref, Integer.valueOf(sprites.length));
+		sprites = larger;
+		return larger.length - 1;
+	}
+
+	/**
+	 * Get a sprite that has already been created
+	 * 
+	 * @param id The id of the sprite (see getSpriteId())
+	 * @return The sprite
+	 */
+	public Sprite getSprite(int id) {
+		return sprites[id];
+	}
+
+	/**
+	 * Create a new sprite which displays the image that is pointed
+	 * to in the classpath by "ref"
+	 * 
+	 * @param ref A reference to the image to load
+	 * @return A sprite that can be drawn onto the current graphics context.
+	 */
+	private Sprite createSprite(String ref) {
 		if (window == null) {
 			throw new RuntimeException("Attempt to retrieve sprite before game window was created");
 		}
@@ -128,8 +222,123 @@ public class ResourceFactory {
 			{
 				return new LWJGLSprite((LWJGLGameWindow) window,ref);
 			}
+			case HEADLESS:
+			{
+				return new HeadlessSprite((HeadlessGameWindow) window,ref);
+			}
 		}
 		
 		throw new RuntimeException("Unknown rendering type: "+renderingType);
 	}
+
+	/**
+	 * Create a surface whose pixels can be changed while the game runs.
+	 * With a display this has to be called on the thread that draws.
+	 * 
+	 * @param width The width of the surface in pixels
+	 * @param height The height of the surface in pixels
+	 * @return A new surface with every pixel clear
+	 */
+	public Surface createSurface(int width, int height) {
+		if (window == null) {
+			throw new RuntimeException("Attempt to create surface before game window was created");
+		}
+		
+		switch (renderingType) {
+			case OPENGL_LWJGL:
+			{
+				return new LWJGLSurface((LWJGLGameWindow) window,width,height);
+			}
+			case HEADLESS:
+			{
+				return new HeadlessSurface(width,height);
+			}
+		}
+		
+		throw new RuntimeException("Unknown rendering type: "+renderingType);
+	}
+
+	/**
+	 * Register an animation so entities can refer to it by id
+	 *
+	 * @param animation The animation to register
+	 * @return The id of the animation
+	 */
+	public synchronized int addAnimation(AnimationSet animation) {
+		AnimationSet[] larger = Arrays.copyOf(animations, animations.length + 1);
+		larger[animations.length] = animation;
+		animations = larger;
+		return larger.length - 1;
+	}
+
+	/**
+	 * Create or get an animation which shows the images that are pointed
+	 * to in the classpath by "refs" in turn. The images are only loaded the
+	 * first time, after that the same animation is returned. Finding it
+	 * again builds a key from the references, so code creating a lot of
+	 * entities should keep hold of the id rather than ask each time.
+	 *
+	 * @param refs References to the images to show, in order
+	 * @param frameDuration The time each image is shown for (ms)
+	 * @return The id of the animation
+	 */
+	public synchronized int getAnimation(String[] refs, long frameDuration) {
+		StringBuilder key = new StringBuilder();
+		for (int i=0;i<refs.length;i++) {
+			key.append(refs[i]).append('|');
+		}
+		key.append(frameDuration);
+
+		Integer id = loadedAnimations.get(key.toString());
+		if (id != null) {
+			return id.intValue();
+		}
+
+		// an image appearing more than once gets the same sprite each time
+		Sprite[] frames = new Sprite[refs.length];
+		for (int i=0;i<refs.length;i++) {
+			frames[i] = getSprite(refs[i]);
+		}
+
+		int added = addAnimation(new AnimationSet(frames, frameDuration));
+		loadedAnimations.put(key.toString(), Integer.valueOf(added));
+		return added;
+	}
+
+	/**
+	 * Get a registered animation
+	 *
+	 * @param id The id of the animation
+	 * @return The animation
+	 */
+	public AnimationSet getAnimation(int id) {
+		return animations[id];
+	}
+
+	/**
+	 * Get every registered animation, indexed by id, for code that
+	 * looks up a lot of them at once. An animation added afterwards
+	 * goes into a new table, the one returned is never changed and
+	 * mustn't be changed by the caller either.
+	 *
+	 * @return The animations registered so far
+	 */
+	public AnimationSet[] getAnimations() {
+		return animations;
+	}
+
+	/**
+	 * Get the id of the animation every alien shows. The references to
+	 * its images are only looked up the first time, not for every alien.
+	 *
+	 * @return The id of the animation
+	 */
+	public int getAlienAnimation() {
+		int id = alienAnimation;
+		if (id < 0) {
+			id = getAnimation(ALIEN_FRAMES,ALIEN_FRAME_DURATION);
+			alienAnimation = id;
+		}
+		return id;
+	}
 }
\ No newline at end of file
@@ -3,53 +3,71 @@ package org.newdawn.spaceinvaders;
 import org.truman.spaceinvaders.CollisionDetection;
 
 /**
- * An entity representing a shot fired by the player's ship
- * 
+ * An entity representing a shot fired by the player's ship. Shots
+ * are created up front by a ProjectilePool and reused, each time one
+ * is fired it's attached to the store and when it's removed it goes
+ * back to the pool.
+ *
  * @author Kevin Glass
  */
 public class ShotEntity extends Entity {
 	/** The vertical speed at which the players shot moves */
 	private double moveSpeed = -300;
-	/** The game in which this entity exists */
-	private Game game;
+	/** The pool this shot belongs to */
+	private ProjectilePool pool;
+	/** The sprite representing this shot */
+	private Sprite sprite;
 	/** True if this shot has been "used", i.e. its hit something */
 	private boolean used = false;
-	
+	/** The shot fired just before this one, while both are in flight */
+	ShotEntity older;
+	/** The shot fired just after this one, while both are in flight */
+	ShotEntity newer;
+
 	/**
-	 * Create a new shot from the player
-	 * 
-	 * @param game The game in which the shot has been created
+	 * Create a new shot for the pool. It isn't in the game
+	 * until the pool fires it.
+	 *
+	 * @param pool The pool the shot belongs to
+	 * @param store The store the shot is placed in when fired
 	 * @param sprite The sprite representing this shot
+	 */
+	ShotEntity(ProjectilePool pool,EntityStore store,Sprite sprite) {
+		super(store);
+
+		this.pool = pool;
+		this.sprite = sprite;
+	}
+
+	/**
+	 * Bring this shot into the game
+	 *
 	 * @param x The initial x location of the shot
 	 * @param y The initial y location of the shot
 	 */
-	public ShotEntity(Game game,String sprite,int x,int y) {
-		super(sprite,x,y);
-		
-		this.game = game;
-		
-		dy = moveSpeed;
+	void fire(double x,double y) {
+		if (isAlive()) {
+			setLocation(x,y);
+		} else {
+			attach(EntityStore.SHOT,sprite,x,y);
+		}
+		used = false;
+
+		setVerticalMovement(moveSpeed);
 	}
 
 	/**
-	 * Request that this shot moved based on time elapsed
-	 * 
-	 * @param delta The time that has elapsed since last move
+	 * Notification that this shot has left the game, it's
+	 * ready to be fired again
 	 */
-	public void move(long delta) {
-		// proceed with normal move
-		super.move(delta);
-		
-		// if we shot off the screen, remove ourselfs
-		if (y < -100) {
-			game.removeEntity(this);
-		}
+	void removed() {
+		pool.release(this);
 	}
-	
+
 	/**
 	 * Notification that this shot has collided with another
 	 * entity
-	 * 
+	 *
 	 * @param other The other entity with which we've collided
 	 */
 	public void collidedWith(CollisionDetection d, Entity other) {
@@ -63,4 +81,4 @@ public class ShotEntity extends Entity {
 	public void setUsed(boolean used) {
 		this.used = used;
 	}
-}
\ No newline at end of file
+}
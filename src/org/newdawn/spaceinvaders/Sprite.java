@@ -1,5 +1,7 @@
 package org.newdawn.spaceinvaders;
 
+import org.truman.spaceinvaders.CollisionMask;
+
 /**
  * A sprite to be displayed on the screen. Note that a sprite
  * contains no state information, i.e. its just the image and 
@@ -32,4 +34,24 @@ public interface Sprite {
 	 * @param y The y location at which to draw the sprite
 	 */
 	public void draw(int x,int y);
+	
+	/**
+	 * Fill a rectangle with copies of the sprite laid edge to edge
+	 * 
+	 * @param x The x location of the rectangle
+	 * @param y The y location of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param offsetX How far the copies are shifted right from the rectangle's left edge
+	 * @param offsetY How far the copies are shifted down from the rectangle's top edge
+	 */
+	public void drawTiled(int x,int y,int width,int height,int offsetX,int offsetY);
+	
+	/**
+	 * Get the solid pixels of the sprite, used to check collisions
+	 * once the rectangles of two entities are found to overlap
+	 * 
+	 * @return The mask of the sprite's solid pixels, or null if the whole rectangle is solid
+	 */
+	public CollisionMask getCollisionMask();
 }
\ No newline at end of file
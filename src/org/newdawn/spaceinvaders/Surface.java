@@ -0,0 +1,46 @@
+package org.newdawn.spaceinvaders;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An image that's drawn like a sprite but whose pixels are changed
+ * while the game runs, used for the bunkers as they're shot away. Only
+ * the part of the image that changed is sent each time, so a small
+ * change costs the same however big the image is.
+ */
+public interface Surface {
+
+	/**
+	 * Get the width of the surface
+	 *
+	 * @return The width in pixels of this surface
+	 */
+	public int getWidth();
+
+	/**
+	 * Get the height of the surface
+	 *
+	 * @return The height in pixels of this surface
+	 */
+	public int getHeight();
+
+	/**
+	 * Replace the pixels in a rectangle of the surface
+	 *
+	 * @param x The x location of the rectangle
+	 * @param y The y location of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param pixels The new pixels, 4 bytes (RGBA) each, row by row from
+	 * the buffer's position with no gap between the rows
+	 */
+	public void update(int x,int y,int width,int height,ByteBuffer pixels);
+
+	/**
+	 * Draw the surface at a location on the screen
+	 *
+	 * @param x The x location at which to draw the surface
+	 * @param y The y location at which to draw the surface
+	 */
+	public void draw(int x,int y);
+}
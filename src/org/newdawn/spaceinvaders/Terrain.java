@@ -0,0 +1,494 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * The bunkers the player hides behind, kept as a bitmap rather than
+ * as entities so they can be worn away a few pixels at a time. Each
+ * pixel is a single bit, set if it's solid, packed into longs a row
+ * at a time with the leftmost pixel in the lowest bit (the same layout
+ * as a CollisionMask). Adding a bunker ORs its shape in and a shot
+ * carves a crater by ANDing the crater's shape out, a whole row of the
+ * shape at once, and collisions read the bits directly.
+ *
+ * Every change is also recorded in a log of operations. The renderer
+ * keeps its own copy of the terrain that it brings up to date by
+ * replaying the log, so the bits here are only ever touched by the
+ * game logic even when the frames are drawn on another thread. The
+ * log starts again each time the terrain is cleared.
+ *
+ * The parts of the terrain changed since it was last cleaned are kept
+ * as a few dirty rectangles, which are all that need sending to the
+ * card. A change touching a rectangle already dirty grows it, others
+ * get a rectangle of their own until there are MAX_DIRTY of them, then
+ * go in whichever rectangle grows least. Craters scattered across the
+ * screen are sent one by one, or a few close together, rather than as
+ * a single rectangle spanning them all.
+ */
+public class Terrain {
+	/** The operation that adds a bunker at a location */
+	public static final int BUNKER = 0;
+	/** The operation that carves a crater at a location */
+	public static final int CRATER = 1;
+	/** The row returned when nothing solid is found */
+	public static final int NONE = -1;
+
+	/** The width of a bunker in pixels */
+	public static final int BUNKER_WIDTH = 44;
+	/** The height of a bunker in pixels */
+	public static final int BUNKER_HEIGHT = 32;
+	/** The distance from the centre of a crater to its edge in pixels */
+	public static final int CRATER_RADIUS = 5;
+	/** The most dirty rectangles kept, past this they're merged */
+	public static final int MAX_DIRTY = 16;
+
+	/** The solid pixels of each row of a bunker */
+	private static final long[] BUNKER_SHAPE = new long[BUNKER_HEIGHT];
+	/** The solid pixels of each row of a crater */
+	private static final long[] CRATER_SHAPE = new long[CRATER_RADIUS * 2 + 1];
+
+	static {
+		// a block with its top corners cut off and an arch under it
+		for (int y=0;y<BUNKER_HEIGHT;y++) {
+			for (int x=0;x<BUNKER_WIDTH;x++) {
+				boolean corner = (x + y < 8) || ((BUNKER_WIDTH - 1 - x) + y < 8);
+				double ax = x - (BUNKER_WIDTH - 1) / 2.0;
+				double ay = y - BUNKER_HEIGHT;
+				boolean arch = (ax * ax) + (ay * ay) < 144;
+				if (!corner && !arch) {
+					BUNKER_SHAPE[y] |= 1L << x;
+				}
+			}
+		}
+		for (int y=-CRATER_RADIUS;y<=CRATER_RADIUS;y++) {
+			for (int x=-CRATER_RADIUS;x<=CRATER_RADIUS;x++) {
+				if ((x * x) + (y * y) <= CRATER_RADIUS * (CRATER_RADIUS + 1)) {
+					CRATER_SHAPE[y + CRATER_RADIUS] |= 1L << (x + CRATER_RADIUS);
+				}
+			}
+		}
+	}
+
+	/** The x location of the terrain on the screen */
+	private final int left;
+	/** The y location of the terrain on the screen */
+	private final int top;
+	/** The width of the terrain in pixels */
+	private final int width;
+	/** The height of the terrain in pixels */
+	private final int height;
+	/** The number of longs holding each row */
+	private final int words;
+	/** The bits of each row in turn, bits past the width are always clear */
+	private final long[] bits;
+
+	/** The left edge of each dirty rectangle */
+	private int[] dirtyLeft = new int[MAX_DIRTY];
+	/** The top edge of each dirty rectangle */
+	private int[] dirtyTop = new int[MAX_DIRTY];
+	/** The right edge of each dirty rectangle */
+	private int[] dirtyRight = new int[MAX_DIRTY];
+	/** The bottom edge of each dirty rectangle */
+	private int[] dirtyBottom = new int[MAX_DIRTY];
+	/** The number of dirty rectangles */
+	private int dirtyCount;
+
+	/** The operations since the terrain was last cleared, 3 ints each (operation, x, y) */
+	private int[] log = new int[192];
+	/** The number of operations in the log */
+	private int logSize;
+	/** The number of times the terrain has been cleared */
+	private int generation;
+
+	/**
+	 * Create a new terrain with nothing solid in it
+	 *
+	 * @param left The x location of the terrain on the screen
+	 * @param top The y location of the terrain on the screen
+	 * @param width The width of the terrain in pixels
+	 * @param height The height of the terrain in pixels
+	 */
+	public Terrain(int left, int top, int width, int height) {
+		this.left = left;
+		this.top = top;
+		this.width = width;
+		this.height = height;
+		this.words = (width + 63) >> 6;
+		this.bits = new long[words * height];
+	}
+
+	/**
+	 * Remove everything from the terrain and start a new log. The
+	 * old log isn't reused since a frame still being drawn may be
+	 * reading it.
+	 */
+	public void clear() {
+		log = new int[log.length];
+		logSize = 0;
+		generation++;
+		wipe();
+	}
+
+	/**
+	 * Add a bunker
+	 *
+	 * @param x The x location of the bunker's left edge on the screen
+	 * @param y The y location of the bunker's top edge on the screen
+	 */
+	public void addBunker(int x, int y) {
+		record(BUNKER, x, y);
+		apply(BUNKER, x, y);
+	}
+
+	/**
+	 * Carve a crater out of whatever is solid around a point
+	 *
+	 * @param x The x location of the centre of the crater on the screen
+	 * @param y The y location of the centre of the crater on the screen
+	 */
+	public void carve(int x, int y) {
+		record(CRATER, x, y);
+		apply(CRATER, x, y);
+	}
+
+	/**
+	 * Add an operation to the log, growing it if it's full. A frame
+	 * being drawn may still hold the old array, so it's copied rather
+	 * than changed.
+	 *
+	 * @param operation The operation (BUNKER or CRATER)
+	 * @param x The x location the operation was carried out at
+	 * @param y The y location the operation was carried out at
+	 */
+	private void record(int operation, int x, int y) {
+		if ((logSize + 1) * 3 > log.length) {
+			int[] larger = new int[log.length * 2];
+			System.arraycopy(log, 0, larger, 0, logSize * 3);
+			log = larger;
+		}
+		log[logSize * 3] = operation;
+		log[logSize * 3 + 1] = x;
+		log[logSize * 3 + 2] = y;
+		logSize++;
+	}
+
+	/**
+	 * Carry out an operation on the bits without logging it, used to
+	 * replay the log on a copy of the terrain
+	 *
+	 * @param operation The operation (BUNKER or CRATER)
+	 * @param x The x location given to the operation on the screen
+	 * @param y The y location given to the operation on the screen
+	 */
+	void apply(int operation, int x, int y) {
+		if (operation == BUNKER) {
+			paint(BUNKER_SHAPE, BUNKER_WIDTH, x - left, y - top, true);
+		} else {
+			paint(CRATER_SHAPE, CRATER_SHAPE.length, x - left - CRATER_RADIUS, y - top - CRATER_RADIUS, false);
+		}
+	}
+
+	/**
+	 * Clear every bit without logging it, and mark the whole terrain dirty
+	 */
+	void wipe() {
+		for (int i=0;i<bits.length;i++) {
+			bits[i] = 0;
+		}
+		markDirty(0, 0, width, height);
+	}
+
+	/**
+	 * Set or clear the solid pixels of a shape. Each row of the shape
+	 * is shifted into line with the terrain's words and applied to the
+	 * (at most) two words it lands on.
+	 *
+	 * @param shape The solid pixels of each row of the shape, no more than 64 wide
+	 * @param shapeWidth The width of the shape
+	 * @param x The x location of the shape's left edge in the terrain
+	 * @param y The y location of the shape's top edge in the terrain
+	 * @param solid True to set the shape's pixels, false to clear them
+	 */
+	private void paint(long[] shape, int shapeWidth, int x, int y, boolean solid) {
+		int firstRow = Math.max(0, -y);
+		int lastRow = Math.min(shape.length, height - y);
+		if ((firstRow >= lastRow) || (x + shapeWidth <= 0) || (x >= width)) {
+			return;
+		}
+
+		// pixels off the left edge are dropped by shifting them out,
+		// pixels off the right edge by masking them off
+		int column = Math.max(0, x);
+		int dropped = column - x;
+		long keep = (width - column >= 64) ? -1L : (1L << (width - column)) - 1;
+		int w = column >> 6;
+		int shift = column & 63;
+		for (int row=firstRow;row<lastRow;row++) {
+			long pixels = (shape[row] >>> dropped) & keep;
+			long low = pixels << shift;
+			long high = (shift == 0) ? 0 : pixels >>> (64 - shift);
+			int base = (y + row) * words + w;
+			if (solid) {
+				bits[base] |= low;
+				if (high != 0) {
+					bits[base + 1] |= high;
+				}
+			} else {
+				bits[base] &= ~low;
+				if (high != 0) {
+					bits[base + 1] &= ~high;
+				}
+			}
+		}
+		markDirty(column, y + firstRow, Math.min(width, x + shapeWidth), y + lastRow);
+	}
+
+	/**
+	 * Mark a rectangle dirty, growing the first dirty rectangle it
+	 * touches to take it in or adding a new one. Once there's no room
+	 * for another it's taken in by whichever grows the least.
+	 *
+	 * @param x0 The left edge of the rectangle
+	 * @param y0 The top edge of the rectangle
+	 * @param x1 The right edge of the rectangle
+	 * @param y1 The bottom edge of the rectangle
+	 */
+	private void markDirty(int x0, int y0, int x1, int y1) {
+		int i = 0;
+		while ((i < dirtyCount) && ((x0 > dirtyRight[i]) || (x1 < dirtyLeft[i]) || (y0 > dirtyBottom[i]) || (y1 < dirtyTop[i]))) {
+			i++;
+		}
+		if (i == MAX_DIRTY) {
+			int growth = Integer.MAX_VALUE;
+			for (int j=0;j<MAX_DIRTY;j++) {
+				int area = (Math.max(dirtyRight[j], x1) - Math.min(dirtyLeft[j], x0)) * (Math.max(dirtyBottom[j], y1) - Math.min(dirtyTop[j], y0));
+				int grown = area - (dirtyRight[j] - dirtyLeft[j]) * (dirtyBottom[j] - dirtyTop[j]);
+				if (grown < growth) {
+					growth = grown;
+					i = j;
+				}
+			}
+		}
+		if (i == dirtyCount) {
+			dirtyLeft[i] = x0;
+			dirtyTop[i] = y0;
+			dirtyRight[i] = x1;
+			dirtyBottom[i] = y1;
+			dirtyCount++;
+		} else {
+			dirtyLeft[i] = Math.min(dirtyLeft[i], x0);
+			dirtyTop[i] = Math.min(dirtyTop[i], y0);
+			dirtyRight[i] = Math.max(dirtyRight[i], x1);
+			dirtyBottom[i] = Math.max(dirtyBottom[i], y1);
+		}
+	}
+
+	/**
+	 * Get the number of dirty rectangles
+	 *
+	 * @return The number of rectangles changed since the terrain was last cleaned
+	 */
+	int getDirtyCount() {
+		return dirtyCount;
+	}
+
+	/**
+	 * Forget the dirty rectangles, once they've been sent to the card
+	 */
+	void clean() {
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Get the left edge of a dirty rectangle
+	 *
+	 * @param i The index of the rectangle
+	 * @return The x location in the terrain
+	 */
+	int getDirtyX(int i) {
+		return dirtyLeft[i];
+	}
+
+	/**
+	 * Get the top edge of a dirty rectangle
+	 *
+	 * @param i The index of the rectangle
+	 * @return The y location in the terrain
+	 */
+	int getDirtyY(int i) {
+		return dirtyTop[i];
+	}
+
+	/**
+	 * Get the width of a dirty rectangle
+	 *
+	 * @param i The index of the rectangle
+	 * @return The width in pixels
+	 */
+	int getDirtyWidth(int i) {
+		return dirtyRight[i] - dirtyLeft[i];
+	}
+
+	/**
+	 * Get the height of a dirty rectangle
+	 *
+	 * @param i The index of the rectangle
+	 * @return The height in pixels
+	 */
+	int getDirtyHeight(int i) {
+		return dirtyBottom[i] - dirtyTop[i];
+	}
+
+	/**
+	 * Check if a pixel is solid, without checking it's in the terrain
+	 *
+	 * @param x The x location of the pixel in the terrain
+	 * @param y The y location of the pixel in the terrain
+	 * @return True if the pixel is solid
+	 */
+	boolean isSet(int x, int y) {
+		return (bits[y * words + (x >> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Check if a pixel on the screen is solid terrain
+	 *
+	 * @param x The x location of the pixel on the screen
+	 * @param y The y location of the pixel on the screen
+	 * @return True if the pixel is solid
+	 */
+	public boolean isSolid(int x, int y) {
+		x -= left;
+		y -= top;
+		if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+			return false;
+		}
+		return isSet(x, y);
+	}
+
+	/**
+	 * Check if any pixel of a row between two columns is solid
+	 *
+	 * @param row The row in the terrain
+	 * @param from The first column in the terrain
+	 * @param to The column after the last one, greater than from
+	 * @return True if any of the pixels are solid
+	 */
+	private boolean anySolid(int row, int from, int to) {
+		int base = row * words;
+		int firstWord = from >> 6;
+		int lastWord = (to - 1) >> 6;
+		for (int w=firstWord;w<=lastWord;w++) {
+			long span = -1L;
+			if (w == firstWord) {
+				span &= -1L << from;
+			}
+			if ((w == lastWord) && ((to & 63) != 0)) {
+				span &= (1L << (to & 63)) - 1;
+			}
+			if ((bits[base + w] & span) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if any solid pixel falls in a rectangle on the screen
+	 *
+	 * @param x The x location of the rectangle on the screen
+	 * @param y The y location of the rectangle on the screen
+	 * @param rectWidth The width of the rectangle
+	 * @param rectHeight The height of the rectangle
+	 * @return True if a solid pixel is in the rectangle
+	 */
+	public boolean overlaps(int x, int y, int rectWidth, int rectHeight) {
+		return findSolidRow(x, y, rectWidth, rectHeight, false) != NONE;
+	}
+
+	/**
+	 * Find the first row of a rectangle on the screen with anything
+	 * solid in it, searching from one edge towards the other. A shot
+	 * searches the rectangle it swept through from the edge it left,
+	 * which gives the row it struck first.
+	 *
+	 * @param x The x location of the rectangle on the screen
+	 * @param y The y location of the rectangle on the screen
+	 * @param rectWidth The width of the rectangle
+	 * @param rectHeight The height of the rectangle
+	 * @param upwards True to search from the bottom edge up, false from the top down
+	 * @return The y location on the screen of the row found, or NONE if nothing is solid
+	 */
+	public int findSolidRow(int x, int y, int rectWidth, int rectHeight, boolean upwards) {
+		int from = Math.max(0, x - left);
+		int to = Math.min(width, x - left + rectWidth);
+		int first = Math.max(0, y - top);
+		int last = Math.min(height, y - top + rectHeight);
+		if ((from >= to) || (first >= last)) {
+			return NONE;
+		}
+
+		if (upwards) {
+			for (int row=last-1;row>=first;row--) {
+				if (anySolid(row, from, to)) {
+					return row + top;
+				}
+			}
+		} else {
+			for (int row=first;row<last;row++) {
+				if (anySolid(row, from, to)) {
+					return row + top;
+				}
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Copy the log into a snapshot, so the renderer can bring its own
+	 * copy of the terrain up to date. The operations already in the
+	 * array are never changed, so the renderer can read them while
+	 * more are added.
+	 *
+	 * @param frame The snapshot to fill in
+	 */
+	public void storeFrame(FrameSnapshot frame) {
+		frame.terrainLog = log;
+		frame.terrainOps = logSize;
+		frame.terrainGeneration = generation;
+	}
+
+	/**
+	 * Get the x location of the terrain on the screen
+	 *
+	 * @return The x location of the left edge
+	 */
+	public int getLeft() {
+		return left;
+	}
+
+	/**
+	 * Get the y location of the terrain on the screen
+	 *
+	 * @return The y location of the top edge
+	 */
+	public int getTop() {
+		return top;
+	}
+
+	/**
+	 * Get the width of the terrain
+	 *
+	 * @return The width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the terrain
+	 *
+	 * @return The height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,124 @@
+package org.newdawn.spaceinvaders;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws the terrain from the snapshots of the game. The view keeps a
+ * copy of the terrain of its own, brought up to date by replaying the
+ * operations logged since the last frame, and a surface showing it.
+ * Only the dirty rectangles of the copy are turned into pixels and
+ * sent to the surface, so a frame where a few shots hit costs a few
+ * small uploads rather than rebuilding the whole image.
+ *
+ * The surface is created the first time the terrain is drawn, on
+ * whichever thread draws the frames.
+ */
+public class TerrainView {
+	/** The colour of a solid pixel (RGBA) */
+	private static final int SOLID = 0x30E030FF;
+	/** The colour of an empty pixel (RGBA) */
+	private static final int EMPTY = 0;
+
+	/** The renderer's copy of the terrain */
+	private Terrain copy;
+	/** The surface showing the terrain, null until the first frame */
+	private Surface surface;
+	/** The pixels of the dirty rectangle, big enough for the whole terrain */
+	private ByteBuffer pixels;
+	/** The generation of the log the copy was built from */
+	private int generation = -1;
+	/** The number of operations of the log replayed onto the copy */
+	private int applied;
+	/** The number of times pixels have been sent to the surface */
+	private long uploads;
+	/** The number of pixels sent to the surface */
+	private long uploadedPixels;
+
+	/**
+	 * Create a view of a terrain
+	 *
+	 * @param terrain The terrain the game logic changes, only its size is read here
+	 */
+	public TerrainView(Terrain terrain) {
+		copy = new Terrain(terrain.getLeft(), terrain.getTop(), terrain.getWidth(), terrain.getHeight());
+		pixels = ByteBuffer.allocateDirect(terrain.getWidth() * terrain.getHeight() * 4);
+	}
+
+	/**
+	 * Bring the copy up to date with a snapshot and draw it
+	 *
+	 * @param frame The snapshot being drawn
+	 */
+	public void draw(FrameSnapshot frame) {
+		if (surface == null) {
+			surface = ResourceFactory.get().createSurface(copy.getWidth(), copy.getHeight());
+		}
+
+		// the terrain has been cleared since the last frame, start
+		// again from the beginning of the new log
+		if (frame.terrainGeneration != generation) {
+			generation = frame.terrainGeneration;
+			applied = 0;
+			copy.wipe();
+		}
+		int[] log = frame.terrainLog;
+		for (;applied<frame.terrainOps;applied++) {
+			copy.apply(log[applied * 3], log[applied * 3 + 1], log[applied * 3 + 2]);
+		}
+
+		for (int i=0;i<copy.getDirtyCount();i++) {
+			upload(copy.getDirtyX(i), copy.getDirtyY(i), copy.getDirtyWidth(i), copy.getDirtyHeight(i));
+		}
+		copy.clean();
+		surface.draw(copy.getLeft(), copy.getTop());
+	}
+
+	/**
+	 * Send a rectangle of the copy to the surface
+	 *
+	 * @param x The x location of the rectangle in the terrain
+	 * @param y The y location of the rectangle in the terrain
+	 * @param w The width of the rectangle
+	 * @param h The height of the rectangle
+	 */
+	private void upload(int x, int y, int w, int h) {
+		pixels.clear();
+		for (int py=y;py<y+h;py++) {
+			for (int px=x;px<x+w;px++) {
+				pixels.putInt(copy.isSet(px, py) ? SOLID : EMPTY);
+			}
+		}
+		pixels.flip();
+		surface.update(x, y, w, h, pixels);
+
+		uploads++;
+		uploadedPixels += w * h;
+	}
+
+	/**
+	 * Get the surface the terrain is drawn on
+	 *
+	 * @return The surface, or null if nothing has been drawn yet
+	 */
+	public Surface getSurface() {
+		return surface;
+	}
+
+	/**
+	 * Get the number of times pixels have been sent to the surface
+	 *
+	 * @return The number of uploads
+	 */
+	public long getUploads() {
+		return uploads;
+	}
+
+	/**
+	 * Get the number of pixels sent to the surface
+	 *
+	 * @return The number of pixels uploaded
+	 */
+	public long getUploadedPixels() {
+		return uploadedPixels;
+	}
+}
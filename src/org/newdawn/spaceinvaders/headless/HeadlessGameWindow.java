@@ -0,0 +1,460 @@
+package org.newdawn.spaceinvaders.headless;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.newdawn.spaceinvaders.FrameSnapshot;
+import org.newdawn.spaceinvaders.GameWindow;
+import org.newdawn.spaceinvaders.GameWindowCallback;
+import org.newdawn.spaceinvaders.util.FrameProfiler;
+import org.newdawn.spaceinvaders.util.FrameScheduler;
+import org.newdawn.spaceinvaders.util.GameClock;
+import org.newdawn.spaceinvaders.util.InputSource;
+import org.truman.spaceinvaders.CollisionMask;
+
+/**
+ * An implementation of GameWindow that has no display at all. The game
+ * logic runs exactly as it would on screen but nothing is drawn, input
+ * comes from a pluggable source (normally a script) and time from a
+ * pluggable clock.
+ * 
+ * By default the game loop runs logic ticks back to back as fast as the
+ * CPU allows, which lets the simulation be measured (and tested) in
+ * isolation from any rendering. It can also be set to run in real time
+ * against its clock, just like the LWJGL window.
+ */
+public class HeadlessGameWindow implements GameWindow {
+
+	/** The length of a single game logic tick (ms) */
+	private static final long TICK_MILLIS = 10;
+
+	/** The most logic ticks run for a single frame when running in real time */
+	private static final int MAX_TICKS_PER_FRAME = 25;
+
+	/** The callback which should be notified of window events */
+	private GameWindowCallback callback;
+
+	/** True if the game is currently "running", i.e. the game loop is looping */
+	private boolean gameRunning = true;
+
+	/** The title of this window, never shown */
+	private String title;
+
+	/** The width of the game display area */
+	private int width;
+
+	/** The height of the game display area */
+	private int height;
+
+	/** The source of the player's input */
+	private InputSource input = new ScriptedInputSource();
+
+	/** The clock used to time the game loop */
+	private GameClock clock = GameClock.SYSTEM;
+
+	/** True if ticks should be run in real time rather than as fast as possible */
+	private boolean realTime;
+
+	/** The number of ticks to run between (empty) frames when running as fast as possible, 0 for none */
+	private int renderInterval = 1;
+
+	/** The number of ticks to run before the game loop stops */
+	private long tickLimit = Long.MAX_VALUE;
+
+	/** The number of ticks that have been run */
+	private long ticks;
+
+	/** The snapshot each frame is copied into and drawn from */
+	private FrameSnapshot frame = new FrameSnapshot(256, 4);
+
+	/** The profiler told when each frame has finished, null for none */
+	private FrameProfiler profiler;
+
+	/** The time the game loop took to run (ns) */
+	private long elapsed;
+
+	/** The sizes of the images that have been looked up, keyed by reference */
+	private HashMap<String, int[]> imageSizes = new HashMap<String, int[]>();
+
+	/** The masks of the images that have been decoded, keyed by reference */
+	private HashMap<String, CollisionMask> imageMasks = new HashMap<String, CollisionMask>();
+
+	/**
+	 * Create a new game window that doesn't display anything
+	 */
+	public HeadlessGameWindow() {
+	}
+
+	/**
+	 * Get the size of an image without decoding its pixels. Note, this
+	 * has been made package level since only the headless sprites need it.
+	 * 
+	 * @param ref A reference to the image in the classpath
+	 * @return The width and height of the image
+	 */
+	int[] getImageSize(String ref) {
+		int[] size = imageSizes.get(ref);
+		
+		if (size != null) {
+			return size;
+		}
+		
+		InputStream in = HeadlessGameWindow.class.getClassLoader().getResourceAsStream(ref);
+		if (in == null) {
+			throw new RuntimeException("Cannot find: "+ref);
+		}
+		try {
+			ImageInputStream stream = ImageIO.createImageInputStream(in);
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+				if (!readers.hasNext()) {
+					throw new RuntimeException("Unable to read image: "+ref);
+				}
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(stream);
+					size = new int[] {reader.getWidth(0), reader.getHeight(0)};
+				} finally {
+					reader.dispose();
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read image: "+ref, e);
+		}
+		
+		imageSizes.put(ref, size);
+		return size;
+	}
+
+	/**
+	 * Get the mask of the solid pixels of an image. Unlike the size
+	 * this needs the pixels, so the image is decoded the first time
+	 * and the mask is shared by every sprite showing it after that.
+	 * 
+	 * @param ref A reference to the image in the classpath
+	 * @return The mask of the image, or null if every pixel is solid
+	 */
+	CollisionMask getImageMask(String ref) {
+		if (imageMasks.containsKey(ref)) {
+			return imageMasks.get(ref);
+		}
+		
+		InputStream in = HeadlessGameWindow.class.getClassLoader().getResourceAsStream(ref);
+		if (in == null) {
+			throw new RuntimeException("Cannot find: "+ref);
+		}
+		CollisionMask mask;
+		try {
+			try {
+				BufferedImage image = ImageIO.read(in);
+				if (image == null) {
+					throw new RuntimeException("Unable to read image: "+ref);
+				}
+				mask = CollisionMask.create(image);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read image: "+ref, e);
+		}
+		
+		imageMasks.put(ref, mask);
+		return mask;
+	}
+
+	/**
+	 * Set the title of this window.
+	 *
+	 * @param title The title to set on this window
+	 */
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	/**
+	 * Get the title of this window
+	 * 
+	 * @return The title of this window
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Set the resolution of the game display area.
+	 *
+	 * @param x The width of the game display area
+	 * @param y The height of the game display area
+	 */
+	public void setResolution(int x, int y) {
+		width = x;
+		height = y;
+	}
+
+	/**
+	 * Get the width of the game display area
+	 * 
+	 * @return The width of the game display area
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the game display area
+	 * 
+	 * @return The height of the game display area
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Start the game loop. This method will run logic ticks until the tick
+	 * limit is reached or the window is stopped, then return. The tick
+	 * count starts again from zero each time, so one window can run a
+	 * game more than once.
+	 */
+	public void startRendering() {
+		ticks = 0;
+		gameRunning = true;
+		if (callback != null) {
+			callback.initialise();
+		}
+		
+		gameLoop();
+	}
+
+	/**
+	 * Register a callback that will be notified of game window
+	 * events.
+	 *
+	 * @param callback The callback that should be notified of game
+	 * window events. 
+	 */
+	public void setGameWindowCallback(GameWindowCallback callback) {
+		this.callback = callback;
+	}
+
+	/**
+	 * Run the game loop, either as fast as possible or in real time
+	 */
+	private void gameLoop() {
+		long start = clock.nanoTime();
+		
+		if (realTime) {
+			FrameScheduler scheduler = new FrameScheduler(TICK_MILLIS, MAX_TICKS_PER_FRAME);
+			scheduler.reset(start);
+			
+			while (gameRunning && (ticks < tickLimit)) {
+				int count = scheduler.advance(clock.nanoTime());
+				for (int i=0;(i<count) && (ticks < tickLimit);i++) {
+					tick();
+				}
+				if (callback != null) {
+					callback.storeFrame(frame);
+					callback.frameRendering(frame, scheduler.getAlpha());
+				}
+				if (profiler != null) {
+					profiler.frameFinished(clock.nanoTime());
+				}
+				if (count == 0) {
+					Thread.yield();
+				}
+			}
+		} else {
+			while (gameRunning && (ticks < tickLimit)) {
+				tick();
+				if ((renderInterval > 0) && (ticks % renderInterval == 0) && (callback != null)) {
+					callback.storeFrame(frame);
+					callback.frameRendering(frame, 1);
+				}
+				if (profiler != null) {
+					profiler.frameFinished(clock.nanoTime());
+				}
+			}
+		}
+		
+		elapsed = clock.nanoTime() - start;
+	}
+
+	/**
+	 * Run a single logic tick
+	 */
+	private void tick() {
+		long delta = input.poll(TICK_MILLIS);
+		if (callback != null) {
+			callback.tick(delta);
+		}
+		ticks++;
+	}
+
+	/**
+	 * Stop the game loop at the end of the current tick
+	 */
+	public void stop() {
+		gameRunning = false;
+	}
+
+	/**
+	 * Set the source of input the game should read
+	 * 
+	 * @param input The source of input for the game
+	 */
+	public void setInputSource(InputSource input) {
+		this.input = input;
+	}
+
+	/**
+	 * Get the source of input the game is reading
+	 * 
+	 * @return The source of input for the game
+	 */
+	public InputSource getInputSource() {
+		return input;
+	}
+
+	/**
+	 * Set the clock used to time the game loop
+	 * 
+	 * @param clock The clock to use
+	 */
+	public void setClock(GameClock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Set whether ticks run in real time against the clock or
+	 * as fast as possible
+	 * 
+	 * @param realTime True if the ticks should run in real time
+	 */
+	public void setRealTime(boolean realTime) {
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Set how often frames are "rendered" when running as fast as possible.
+	 * Rendering draws nothing but still walks the scene.
+	 * 
+	 * @param renderInterval The number of ticks between frames, 0 for no frames at all
+	 */
+	public void setRenderInterval(int renderInterval) {
+		this.renderInterval = renderInterval;
+	}
+
+	/**
+	 * Set the number of ticks the game loop runs before stopping
+	 * 
+	 * @param tickLimit The number of ticks to run
+	 */
+	public void setTickLimit(long tickLimit) {
+		this.tickLimit = tickLimit;
+	}
+
+	/**
+	 * Get the number of ticks that have been run
+	 * 
+	 * @return The number of ticks run
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Get the rate at which the last run of the game loop ran ticks
+	 * 
+	 * @return The number of ticks run per second
+	 */
+	public double getTicksPerSecond() {
+		if (elapsed <= 0) {
+			return 0;
+		}
+		return ticks * 1000000000.0 / elapsed;
+	}
+
+	/**
+	 * Check if a particular key is pressed
+	 *
+	 * @param keyCode The code associated with the key to check 
+	 * @return True if the specified key is pressed
+	 */
+	public boolean isKeyPressed(int keyCode) {
+		return input.isKeyPressed(keyCode);
+	}
+
+	/**
+	 * Check if the left mouse button is pressed
+	 *
+	 * @param mouseCode The code associated with the button to check 
+	 * @return True if the button is pressed
+	 */
+	public boolean isLMousePressed(int mouseCode) {
+		return input.isMousePressed(0);
+	}
+
+	/**
+	 * Check if the right mouse button is pressed
+	 *
+	 * @param mouseCode The code associated with the button to check 
+	 * @return True if the button is pressed
+	 */
+	public boolean isRMousePressed(int mouseCode) {
+		return input.isMousePressed(1);
+	}
+
+	/**
+	 * Get the next key that has been pressed since the last time
+	 * the key events were read.
+	 * 
+	 * @return The code of the next key pressed, or KeyEvent.VK_UNDEFINED
+	 */
+	public int nextKeyEvent() {
+		return input.nextKeyEvent();
+	}
+
+	/**
+	 * There's no display to sync
+	 * 
+	 * @param vsync True if the display should be synced
+	 */
+	public void setVSync(boolean vsync) {
+	}
+
+	/**
+	 * There's no display to change
+	 * 
+	 * @param fullscreen True if we want fullscreen mode
+	 */
+	public void setDisplayMode(boolean fullscreen) {
+	}
+
+	/**
+	 * There's no display to render text to
+	 * 
+	 * @param s The text to render
+	 * @param x The x location of the text
+	 * @param y The y location of the text
+	 */
+	public void renderText(String s, int x, int y) {
+	}
+
+	/**
+	 * Set the profiler told when each frame has finished. There's no
+	 * display so the window has no part of the frame of its own to time.
+	 * 
+	 * @param profiler The profiler to tell
+	 */
+	public void setProfiler(FrameProfiler profiler) {
+		this.profiler = profiler;
+	}
+}
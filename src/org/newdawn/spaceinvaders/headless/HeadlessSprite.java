@@ -0,0 +1,84 @@
+package org.newdawn.spaceinvaders.headless;
+
+import org.newdawn.spaceinvaders.Sprite;
+import org.truman.spaceinvaders.CollisionMask;
+
+/**
+ * A sprite that knows the size of its image but never draws anything.
+ * Used when the game runs without a display, the game logic still needs
+ * sprite sizes and masks to position entities and resolve collisions.
+ */
+public class HeadlessSprite implements Sprite {
+	/** The width in pixels of this sprite */
+	private int width;
+	
+	/** The height in pixels of this sprite */
+	private int height;
+	
+	/** The solid pixels of this sprite, null if they're all solid */
+	private CollisionMask mask;
+
+	/**
+	 * Create a new sprite from a specified image.
+	 * 
+	 * @param window The window in which the sprite will be "displayed"
+	 * @param ref A reference to the image on which this sprite should be based
+	 */
+	public HeadlessSprite(HeadlessGameWindow window,String ref) {
+		int[] size = window.getImageSize(ref);
+		
+		width = size[0];
+		height = size[1];
+		mask = window.getImageMask(ref);
+	}
+
+	/**
+	 * Get the width of this sprite in pixels
+	 * 
+	 * @return The width of this sprite in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of this sprite in pixels
+	 * 
+	 * @return The height of this sprite in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Nothing to draw without a display
+	 * 
+	 * @param x The x location at which to draw this sprite
+	 * @param y The y location at which to draw this sprite
+	 */
+	public void draw(int x, int y) {
+	}
+	
+	/**
+	 * Nothing to draw without a display
+	 * 
+	 * @param x The x location of the rectangle
+	 * @param y The y location of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param offsetX How far the copies are shifted right
+	 * @param offsetY How far the copies are shifted down
+	 */
+	public void drawTiled(int x, int y, int width, int height, int offsetX, int offsetY) {
+	}
+	
+	/**
+	 * Get the solid pixels of this sprite, the same ones a sprite
+	 * on the display would have
+	 * 
+	 * @return The mask of this sprite, or null if every pixel is solid
+	 */
+	public CollisionMask getCollisionMask() {
+		return mask;
+	}
+}
@@ -0,0 +1,91 @@
+package org.newdawn.spaceinvaders.headless;
+
+import java.nio.ByteBuffer;
+
+import org.newdawn.spaceinvaders.Surface;
+
+/**
+ * A surface that's never drawn but keeps its pixels, the stand in
+ * for a texture when the game runs without a display. Updates copy
+ * the changed rectangle into the pixels just as they'd be sent to
+ * the card, so what would be on screen can still be checked.
+ */
+public class HeadlessSurface implements Surface {
+	/** The width in pixels of this surface */
+	private int width;
+	
+	/** The height in pixels of this surface */
+	private int height;
+	
+	/** The pixels of this surface, 4 bytes (RGBA) each, row by row */
+	private byte[] pixels;
+
+	/**
+	 * Create a new surface with every pixel clear
+	 * 
+	 * @param width The width of the surface in pixels
+	 * @param height The height of the surface in pixels
+	 */
+	public HeadlessSurface(int width,int height) {
+		this.width = width;
+		this.height = height;
+		pixels = new byte[width * height * 4];
+	}
+
+	/**
+	 * Get the width of this surface in pixels
+	 * 
+	 * @return The width of this surface in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of this surface in pixels
+	 * 
+	 * @return The height of this surface in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Copy new pixels into a rectangle of this surface
+	 * 
+	 * @param x The x location of the rectangle
+	 * @param y The y location of the rectangle
+	 * @param rectWidth The width of the rectangle
+	 * @param rectHeight The height of the rectangle
+	 * @param data The new pixels, row by row from the buffer's position
+	 */
+	public void update(int x, int y, int rectWidth, int rectHeight, ByteBuffer data) {
+		int position = data.position();
+		for (int row=0;row<rectHeight;row++) {
+			data.position(position + row * rectWidth * 4);
+			data.get(pixels, ((y + row) * width + x) * 4, rectWidth * 4);
+		}
+		data.position(position);
+	}
+
+	/**
+	 * Nothing to draw without a display
+	 * 
+	 * @param x The x location at which to draw this surface
+	 * @param y The y location at which to draw this surface
+	 */
+	public void draw(int x, int y) {
+	}
+
+	/**
+	 * Get a pixel of this surface
+	 * 
+	 * @param x The x location of the pixel
+	 * @param y The y location of the pixel
+	 * @return The colour of the pixel (RGBA)
+	 */
+	public int getPixel(int x, int y) {
+		int i = (y * width + x) * 4;
+		return ((pixels[i] & 0xFF) << 24) | ((pixels[i + 1] & 0xFF) << 16) | ((pixels[i + 2] & 0xFF) << 8) | (pixels[i + 3] & 0xFF);
+	}
+}
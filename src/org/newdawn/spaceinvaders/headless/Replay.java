@@ -0,0 +1,54 @@
+package org.newdawn.spaceinvaders.headless;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.newdawn.spaceinvaders.Game;
+import org.newdawn.spaceinvaders.ResourceFactory;
+import org.newdawn.spaceinvaders.util.ReplayInputSource;
+
+/**
+ * Runs a session recorded with "Game -record <file>" again without a
+ * display. By default the ticks are run back to back as fast as they
+ * can be, so a long session replays in seconds and a slowdown seen in
+ * it can be run under a profiler the same way every time. With
+ * -realtime the ticks are run at the speed they were played.
+ *
+ * Usage: Replay <file> [-realtime]
+ */
+public class Replay {
+
+	/**
+	 * Replay a recorded session
+	 *
+	 * @param argv The arguments passed on the command line
+	 */
+	public static void main(String argv[]) {
+		if (argv.length < 1) {
+			System.err.println("Usage: Replay <file> [-realtime]");
+			System.exit(1);
+		}
+		boolean realTime = (argv.length > 1) && argv[1].equals("-realtime");
+
+		ReplayInputSource replay;
+		try {
+			replay = new ReplayInputSource(new FileInputStream(argv[0]));
+		} catch (IOException e) {
+			System.err.println("Unable to read "+argv[0]+": "+e);
+			System.exit(1);
+			return;
+		}
+
+		ResourceFactory.get().setRenderingType(ResourceFactory.HEADLESS);
+		HeadlessGameWindow window = (HeadlessGameWindow) ResourceFactory.get().getGameWindow();
+		window.setInputSource(replay);
+		window.setTickLimit(replay.getLength());
+		window.setRealTime(realTime);
+
+		long start = System.nanoTime();
+		new Game(ResourceFactory.HEADLESS);
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		System.out.println("Replayed "+window.getTicks()+" ticks in "+millis+"ms ("+(long) window.getTicksPerSecond()+" ticks/sec)");
+	}
+}
@@ -0,0 +1,203 @@
+package org.newdawn.spaceinvaders.headless;
+
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+
+import org.newdawn.spaceinvaders.util.InputSource;
+
+/**
+ * An input source that plays back a script of key and mouse actions,
+ * each set to happen on a given logic tick. Actions must be added in
+ * tick order. Used to drive the game when there is no one to play it.
+ */
+public class ScriptedInputSource implements InputSource {
+	/** An action pressing a key or button */
+	private static final int PRESS = 0;
+	/** An action releasing a key or button */
+	private static final int RELEASE = 1;
+	/** An action typing a key, producing a key event */
+	private static final int TYPE = 2;
+	/** The largest number of key events that can be waiting to be read */
+	private static final int MAX_EVENTS = 64;
+
+	/** The actions making up the script, in tick order */
+	private ArrayList<Action> actions = new ArrayList<Action>();
+	/** The index of the next action to play */
+	private int next;
+	/** The number of ticks that have been polled */
+	private long tick;
+	/** The status of the keys on the keyboard */
+	private boolean[] keys = new boolean[1024];
+	/** The status of the mouse buttons */
+	private boolean[] buttons = new boolean[2];
+	/** The key events waiting to be read, in a ring */
+	private int[] events = new int[MAX_EVENTS];
+	/** The index of the first key event waiting to be read */
+	private int eventHead;
+	/** The number of key events waiting to be read */
+	private int eventCount;
+
+	/**
+	 * Add an action pressing and holding a key
+	 * 
+	 * @param tick The tick on which the key is pressed
+	 * @param keyCode The code of the key to press (defined in KeyEvent)
+	 * @return This script, so calls can be chained
+	 */
+	public ScriptedInputSource press(long tick, int keyCode) {
+		return add(tick, PRESS, keyCode);
+	}
+
+	/**
+	 * Add an action releasing a key
+	 * 
+	 * @param tick The tick on which the key is released
+	 * @param keyCode The code of the key to release (defined in KeyEvent)
+	 * @return This script, so calls can be chained
+	 */
+	public ScriptedInputSource release(long tick, int keyCode) {
+		return add(tick, RELEASE, keyCode);
+	}
+
+	/**
+	 * Add an action typing a key, the game will see it as a key event
+	 * 
+	 * @param tick The tick on which the key is typed
+	 * @param keyCode The code of the key to type (defined in KeyEvent)
+	 * @return This script, so calls can be chained
+	 */
+	public ScriptedInputSource type(long tick, int keyCode) {
+		return add(tick, TYPE, keyCode);
+	}
+
+	/**
+	 * Add an action pressing and holding a mouse button
+	 * 
+	 * @param tick The tick on which the button is pressed
+	 * @param button The button to press, 0 being left and 1 being right
+	 * @return This script, so calls can be chained
+	 */
+	public ScriptedInputSource pressMouse(long tick, int button) {
+		return add(tick, PRESS, -1 - button);
+	}
+
+	/**
+	 * Add an action releasing a mouse button
+	 * 
+	 * @param tick The tick on which the button is released
+	 * @param button The button to release, 0 being left and 1 being right
+	 * @return This script, so calls can be chained
+	 */
+	public ScriptedInputSource releaseMouse(long tick, int button) {
+		return add(tick, RELEASE, -1 - button);
+	}
+
+	/**
+	 * Add an action to the end of the script
+	 * 
+	 * @param tick The tick on which the action happens
+	 * @param type The type of action
+	 * @param code The key code, or for mouse buttons -1 minus the button
+	 * @return This script, so calls can be chained
+	 */
+	private ScriptedInputSource add(long tick, int type, int code) {
+		if (!actions.isEmpty() && actions.get(actions.size()-1).tick > tick) {
+			throw new RuntimeException("Scripted input must be added in tick order");
+		}
+		actions.add(new Action(tick, type, code));
+		return this;
+	}
+
+	/**
+	 * Play any actions scheduled for the coming tick
+	 *
+	 * @param delta The length the window means to run the tick for (ms)
+	 * @return The same length
+	 */
+	public long poll(long delta) {
+		while ((next < actions.size()) && (actions.get(next).tick <= tick)) {
+			Action action = actions.get(next++);
+			
+			if (action.type == TYPE) {
+				if (eventCount < MAX_EVENTS) {
+					events[(eventHead + eventCount++) % MAX_EVENTS] = action.code;
+				}
+			} else if (action.code < 0) {
+				buttons[-1 - action.code] = action.type == PRESS;
+			} else {
+				keys[action.code] = action.type == PRESS;
+			}
+		}
+		tick++;
+		return delta;
+	}
+
+	/**
+	 * Check if a particular key is pressed
+	 *
+	 * @param keyCode The code of the key to check (defined in KeyEvent)
+	 * @return True if the key is pressed
+	 */
+	public boolean isKeyPressed(int keyCode) {
+		return keys[keyCode];
+	}
+
+	/**
+	 * Check if a particular mouse button is pressed
+	 *
+	 * @param button The button to check, 0 being left and 1 being right
+	 * @return True if the button is pressed
+	 */
+	public boolean isMousePressed(int button) {
+		return buttons[button];
+	}
+
+	/**
+	 * Get the next key that has been typed since key events were last read
+	 *
+	 * @return The code of the next key typed, or KeyEvent.VK_UNDEFINED
+	 */
+	public int nextKeyEvent() {
+		if (eventCount == 0) {
+			return KeyEvent.VK_UNDEFINED;
+		}
+		int keyCode = events[eventHead];
+		eventHead = (eventHead + 1) % MAX_EVENTS;
+		eventCount--;
+		return keyCode;
+	}
+
+	/**
+	 * Check if every action in the script has been played
+	 * 
+	 * @return True if the script has finished
+	 */
+	public boolean isFinished() {
+		return next >= actions.size();
+	}
+
+	/**
+	 * A single scripted action
+	 */
+	private static class Action {
+		/** The tick on which the action happens */
+		private long tick;
+		/** The type of action */
+		private int type;
+		/** The key code, or for mouse buttons -1 minus the button */
+		private int code;
+
+		/**
+		 * Create a new action
+		 * 
+		 * @param tick The tick on which the action happens
+		 * @param type The type of action
+		 * @param code The key code, or for mouse buttons -1 minus the button
+		 */
+		private Action(long tick, int type, int code) {
+			this.tick = tick;
+			this.type = type;
+			this.code = code;
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs a set of images onto one or a few square atlas pages so that
+ * sprites drawn one after another share a texture and the sprite batch
+ * doesn't have to stop and bind a new one for each of them. Each image
+ * also loses the padding it would need to be a power of two on its own.
+ *
+ * The images are sorted tallest first and placed on shelves, each image
+ * going on the first shelf it fits. A new shelf is started when none
+ * have room and a new page when the last page is full.
+ *
+ * Run at build time over the sprites directory, it writes the pages as
+ * PNGs alongside the sprites and an index listing where each sprite
+ * ended up, one per line:
+ *
+ *   ref page x y width height
+ *
+ * The TextureLoader reads the index and hands out regions of the pages
+ * in place of the individual images.
+ */
+public class AtlasPacker {
+	/** The location of the atlas index */
+	public static final String INDEX = "sprites/atlas.txt";
+	/** The prefix of the atlas page images, followed by the page number and ".png" */
+	public static final String PAGE_PREFIX = "sprites/atlas";
+	/** The default size of an atlas page */
+	public static final int DEFAULT_PAGE_SIZE = 512;
+	/** The largest image packed when no list is given, bigger ones are left as textures of their own */
+	private static final int MAX_IMAGE_SIZE = 256;
+
+	/** The width and height of each page in pixels */
+	private int pageSize;
+	/** The transparent gap left around each image */
+	private int padding;
+	/** The references of the images to pack */
+	private ArrayList<String> refs = new ArrayList<String>();
+	/** The images to pack */
+	private ArrayList<BufferedImage> images = new ArrayList<BufferedImage>();
+
+	/** The page each image was placed on */
+	private int[] page;
+	/** The x location of each image on its page */
+	private int[] x;
+	/** The y location of each image on its page */
+	private int[] y;
+	/** The number of pages used */
+	private int pages;
+
+	/**
+	 * Create a new packer
+	 *
+	 * @param pageSize The width and height of each page in pixels, a power of two
+	 * @param padding The transparent gap left around each image
+	 */
+	public AtlasPacker(int pageSize, int padding) {
+		this.pageSize = pageSize;
+		this.padding = padding;
+	}
+
+	/**
+	 * Add an image to be packed
+	 *
+	 * @param ref The reference the image is loaded by
+	 * @param image The image to pack
+	 */
+	public void add(String ref, BufferedImage image) {
+		if ((image.getWidth() + padding * 2 > pageSize) || (image.getHeight() + padding * 2 > pageSize)) {
+			throw new IllegalArgumentException(ref+" is too big for a "+pageSize+"x"+pageSize+" page");
+		}
+		refs.add(ref);
+		images.add(image);
+	}
+
+	/**
+	 * Place every image added onto the pages
+	 *
+	 * @return The number of pages used
+	 */
+	public int pack() {
+		int count = images.size();
+		page = new int[count];
+		x = new int[count];
+		y = new int[count];
+
+		Integer[] order = new Integer[count];
+		for (int i=0;i<count;i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				BufferedImage first = images.get(a.intValue());
+				BufferedImage second = images.get(b.intValue());
+				if (first.getHeight() != second.getHeight()) {
+					return second.getHeight() - first.getHeight();
+				}
+				return second.getWidth() - first.getWidth();
+			}
+		});
+
+		// each shelf is the page it's on, its top, its height and how far along it's filled
+		ArrayList<int[]> shelves = new ArrayList<int[]>();
+		int nextShelf = 0;
+		pages = 0;
+
+		for (int o=0;o<count;o++) {
+			int i = order[o].intValue();
+			int width = images.get(i).getWidth() + padding * 2;
+			int height = images.get(i).getHeight() + padding * 2;
+
+			int[] shelf = null;
+			for (int s=0;s<shelves.size();s++) {
+				int[] candidate = shelves.get(s);
+				if ((candidate[2] >= height) && (candidate[3] + width <= pageSize)) {
+					shelf = candidate;
+					break;
+				}
+			}
+			if (shelf == null) {
+				if ((pages == 0) || (nextShelf + height > pageSize)) {
+					pages++;
+					nextShelf = 0;
+				}
+				shelf = new int[] {pages - 1, nextShelf, height, 0};
+				shelves.add(shelf);
+				nextShelf += height;
+			}
+
+			page[i] = shelf[0];
+			x[i] = shelf[3] + padding;
+			y[i] = shelf[1] + padding;
+			shelf[3] += width;
+		}
+
+		return pages;
+	}
+
+	/**
+	 * Draw the images placed on one page
+	 *
+	 * @param number The number of the page to draw
+	 * @return The page image
+	 */
+	public BufferedImage renderPage(int number) {
+		BufferedImage result = new BufferedImage(pageSize, pageSize, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = result.createGraphics();
+		for (int i=0;i<images.size();i++) {
+			if (page[i] == number) {
+				g.drawImage(images.get(i), x[i], y[i], null);
+			}
+		}
+		g.dispose();
+		return result;
+	}
+
+	/**
+	 * Write the index of where each image was placed
+	 *
+	 * @param out The writer to write the index to
+	 */
+	public void writeIndex(PrintWriter out) {
+		out.println("# ref page x y width height, packed onto "+pages+" "+pageSize+"x"+pageSize+" page(s) by AtlasPacker");
+		for (int i=0;i<images.size();i++) {
+			out.println(refs.get(i)+" "+page[i]+" "+x[i]+" "+y[i]+" "+images.get(i).getWidth()+" "+images.get(i).getHeight());
+		}
+	}
+
+	/**
+	 * Get the area the images would take as textures of their own,
+	 * each padded out to a power of two
+	 *
+	 * @return The area in pixels
+	 */
+	public long getSeparateArea() {
+		long area = 0;
+		for (int i=0;i<images.size();i++) {
+			area += (long) get2Fold(images.get(i).getWidth()) * get2Fold(images.get(i).getHeight());
+		}
+		return area;
+	}
+
+	/**
+	 * Get the area the images actually cover
+	 *
+	 * @return The area in pixels
+	 */
+	public long getImageArea() {
+		long area = 0;
+		for (int i=0;i<images.size();i++) {
+			area += (long) images.get(i).getWidth() * images.get(i).getHeight();
+		}
+		return area;
+	}
+
+	/**
+	 * Get the closest greater power of 2 to the fold number,
+	 * as the TextureLoader would pad it
+	 *
+	 * @param fold The target number
+	 * @return The power of 2
+	 */
+	private static int get2Fold(int fold) {
+		int ret = 2;
+		while (ret < fold) {
+			ret *= 2;
+		}
+		return ret;
+	}
+
+	/**
+	 * Pack the sprites under a source directory into atlas pages,
+	 * writing the pages and the index back into the sprites directory.
+	 *
+	 *   AtlasPacker <source dir> [page size] [ref ...]
+	 *
+	 * With no references given every GIF under sprites/ small enough
+	 * to share a page is packed, otherwise only the ones listed are,
+	 * for instance the subset a level uses.
+	 *
+	 * @param argv The arguments passed on the command line
+	 * @throws IOException Indicates a failure to read a sprite or write the atlas
+	 */
+	public static void main(String argv[]) throws IOException {
+		if (argv.length < 1) {
+			System.err.println("Usage: AtlasPacker <source dir> [page size] [ref ...]");
+			System.exit(1);
+		}
+		File root = new File(argv[0]);
+		int pageSize = argv.length > 1 ? Integer.parseInt(argv[1]) : DEFAULT_PAGE_SIZE;
+
+		ArrayList<String> refs = new ArrayList<String>();
+		for (int i=2;i<argv.length;i++) {
+			refs.add(argv[i]);
+		}
+		boolean everything = refs.isEmpty();
+		if (everything) {
+			String[] names = new File(root, "sprites").list();
+			if (names != null) {
+				for (int i=0;i<names.length;i++) {
+					if (names[i].endsWith(".gif")) {
+						refs.add("sprites/"+names[i]);
+					}
+				}
+			}
+			Collections.sort(refs);
+		}
+
+		AtlasPacker packer = new AtlasPacker(pageSize, 1);
+		for (int i=0;i<refs.size();i++) {
+			BufferedImage image = ImageIO.read(new File(root, refs.get(i)));
+			if (image == null) {
+				throw new IOException("Cannot read: "+refs.get(i));
+			}
+			if (everything && ((image.getWidth() > MAX_IMAGE_SIZE) || (image.getHeight() > MAX_IMAGE_SIZE))) {
+				System.out.println("Leaving "+refs.get(i)+" as its own texture ("+image.getWidth()+"x"+image.getHeight()+")");
+				continue;
+			}
+			packer.add(refs.get(i), image);
+		}
+
+		int pages = packer.pack();
+		for (int i=0;i<pages;i++) {
+			ImageIO.write(packer.renderPage(i), "png", new File(root, PAGE_PREFIX+i+".png"));
+		}
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(root, INDEX)), "UTF-8"));
+		packer.writeIndex(out);
+		out.close();
+
+		long atlasArea = (long) pages * pageSize * pageSize;
+		System.out.println(String.format("%d images on %d page(s)", packer.images.size(), pages));
+		System.out.println(String.format("texture area as separate images: %8d pixels (%5.1f%% unused)",
+				packer.getSeparateArea(), 100.0 * (packer.getSeparateArea() - packer.getImageArea()) / packer.getSeparateArea()));
+		System.out.println(String.format("texture area in the atlas:       %8d pixels (%5.1f%% unused)",
+				atlasArea, 100.0 * (atlasArea - packer.getImageArea()) / atlasArea));
+	}
+}
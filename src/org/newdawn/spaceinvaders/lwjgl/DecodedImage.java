@@ -0,0 +1,31 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.nio.ByteBuffer;
+
+import org.truman.spaceinvaders.CollisionMask;
+
+/**
+ * An image that has been decoded and converted into texture data off
+ * the display thread, waiting to be sent to the card.
+ */
+class DecodedImage {
+    /** The texture data, padded out to the texture's power of two size */
+    final ByteBuffer pixels;
+    /** The GL format of the texture data, RGBA or RGB */
+    final int srcPixelFormat;
+    /** The solid pixels of the image, null if they're all solid */
+    final CollisionMask collisionMask;
+
+    /**
+     * Create a decoded image
+     *
+     * @param pixels The texture data
+     * @param srcPixelFormat The GL format of the texture data
+     * @param collisionMask The solid pixels of the image, null if they're all solid
+     */
+    DecodedImage(ByteBuffer pixels,int srcPixelFormat,CollisionMask collisionMask) {
+        this.pixels = pixels;
+        this.srcPixelFormat = srcPixelFormat;
+        this.collisionMask = collisionMask;
+    }
+}
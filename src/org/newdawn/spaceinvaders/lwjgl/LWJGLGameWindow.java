@@ -1,7 +1,7 @@
 package org.newdawn.spaceinvaders.lwjgl;
 
-import java.awt.event.KeyEvent;
-import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.concurrent.locks.LockSupport;
 
 import org.lwjgl.LWJGLException;
 import org.lwjgl.input.Keyboard;
@@ -11,8 +11,13 @@ import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.PixelFormat;
+import org.newdawn.spaceinvaders.FrameSnapshot;
 import org.newdawn.spaceinvaders.GameWindow;
 import org.newdawn.spaceinvaders.GameWindowCallback;
+import org.newdawn.spaceinvaders.util.FrameProfiler;
+import org.newdawn.spaceinvaders.util.FrameScheduler;
+import org.newdawn.spaceinvaders.util.InputSource;
+import org.newdawn.spaceinvaders.util.TripleBuffer;
 
 /**
  * An implementation of GameWindow that will use OPENGL (JOGL) to 
@@ -24,11 +29,23 @@ import org.newdawn.spaceinvaders.GameWindowCallback;
  */
 public class LWJGLGameWindow implements GameWindow {
 
+	/** The length of a single game logic tick (ms) */
+	private static final long TICK_MILLIS = 10;
+
+	/** The most logic ticks run for a single frame before we give up catching up */
+	private static final int MAX_TICKS_PER_FRAME = 25;
+
+	/** The number of quads the sprite batch collects before drawing */
+	private static final int BATCH_SIZE = 4096;
+
+	/** The time each frame may spend sending decoded textures to the card, in nanoseconds */
+	private static final long UPLOAD_BUDGET_NANOS = 2000000;
+
 	/** The callback which should be notified of window events */
 	private GameWindowCallback callback;
 
 	/** True if the game is currently "running", i.e. the game loop is looping */
-	private boolean gameRunning = true;
+	private volatile boolean gameRunning = true;
 
 	/** The width of the game display area */
 	private int width;
@@ -39,10 +56,45 @@ public class LWJGLGameWindow implements GameWindow {
 	/** The loader responsible for converting images into OpenGL textures */
 	private TextureLoader textureLoader;
 
+	/** The file texture data is kept in between runs, null for none */
+	private File textureCache;
+
+	/** The batch every sprite and piece of text is drawn through */
+	private SpriteBatch batch;
+
+	/** The text renderer holding the glyph texture and laid out strings */
+	private SimpleText text;
+
+	/** The profiler the display update is recorded into, null for none */
+	private FrameProfiler profiler;
+
 	/** Title of window, we get it before our window is ready, so store it till needed */
-	@SuppressWarnings("unused")
 	private String title;
 
+	/** The scheduler deciding how many logic ticks to run each frame */
+	private FrameScheduler scheduler = new FrameScheduler(TICK_MILLIS, MAX_TICKS_PER_FRAME);
+
+	/** The live keyboard and mouse */
+	private LWJGLInputSource live = new LWJGLInputSource();
+
+	/** The source of the player's input */
+	private InputSource input = live;
+
+	/** True if the game logic runs on a thread of its own */
+	private boolean pipelined;
+
+	/** The live input passed to the simulation thread, null unless pipelined */
+	private LatchedInputSource latch;
+
+	/** The thread running the game logic, null unless pipelined */
+	private Thread simulation;
+
+	/** The snapshots frames are passed from the game logic to the display in */
+	private TripleBuffer<FrameSnapshot> frames = new TripleBuffer<FrameSnapshot>(new FrameSnapshot(256, 4), new FrameSnapshot(256, 4), new FrameSnapshot(256, 4));
+
+	/** The vsync setting to apply at the start of the next frame, 1 for on, 0 for off and -1 for no change */
+	private volatile int vsyncRequest = -1;
+
 	private boolean intro;
 
 	/**
@@ -65,6 +117,16 @@ public class LWJGLGameWindow implements GameWindow {
 		return textureLoader;
 	}
 
+	/**
+	 * Retrieve the batch that sprites are drawn through. Only valid
+	 * once the window has been created.
+	 * 
+	 * @return The sprite batch for this window
+	 */
+	SpriteBatch getSpriteBatch() {
+		return batch;
+	}
+
 	/**
 	 * Set the title of this window.
 	 *
@@ -196,9 +258,10 @@ public class LWJGLGameWindow implements GameWindow {
 			// set up OpenGL to run in forward-compatible mode
 			// so that using deprecated functionality will
 			// throw an error. This ensures that we are making
-			// use of OpenGL 
+			// use of OpenGL. 3.2 core is all the sprite batch
+			// needs, and is available from Mesa's software renderer
 			PixelFormat pixelFormat = new PixelFormat();
-			ContextAttribs contextAtrributes = new ContextAttribs(4, 0);
+			ContextAttribs contextAtrributes = new ContextAttribs(3, 2);
 			contextAtrributes.withForwardCompatible(true);
 			contextAtrributes.withProfileCore(true);
 			Display.create(pixelFormat, contextAtrributes);
@@ -215,16 +278,12 @@ public class LWJGLGameWindow implements GameWindow {
 		// grab the mouse, dont want that hideous cursor when we're playing!
 		Mouse.setGrabbed(true);
 
-		// enable textures since we're going to use these for our sprites
-		GL11.glEnable(GL11.GL_TEXTURE_2D);
-
 		// disable the OpenGL depth test since we're rendering 2D graphics 
 		GL11.glDisable(GL11.GL_DEPTH_TEST);
 
-		GL11.glMatrixMode(GL11.GL_PROJECTION);
-		GL11.glLoadIdentity();
-
-		GL11.glOrtho(0, width, height, 0, -1, 1);
+		// sprites are drawn with their transparent parts see through
+		GL11.glEnable(GL11.GL_BLEND);
+		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
 
 		/*			Canvas Canvas = new Canvas();
 	        JFrame Frame = new JFrame(title);
@@ -240,6 +299,11 @@ public class LWJGLGameWindow implements GameWindow {
 
 	        Display.setParent(Canvas);*/
 		textureLoader = new TextureLoader();
+		if (textureCache != null) {
+			textureLoader.setCache(new TextureCache(textureCache));
+		}
+		batch = new SpriteBatch(BATCH_SIZE);
+		text = new SimpleText(textureLoader);
 
 		if(callback != null) {
 			callback.initialise();
@@ -266,62 +330,104 @@ public void setGameWindowCallback(GameWindowCallback callback) {
  * @return True if the specified key is pressed
  */
 public boolean isKeyPressed(int keyCode) {
-	// apparently, someone at decided not to use standard 
-	// keycode, so we have to map them over:
-	switch(keyCode) {
-	case KeyEvent.VK_SPACE:
-		keyCode = Keyboard.KEY_SPACE;
-		break;
-	case KeyEvent.VK_UP:
-		keyCode = Keyboard.KEY_UP;
-		break;
-	case KeyEvent.VK_DOWN:
-		keyCode = Keyboard.KEY_DOWN;
-		break;
-	case KeyEvent.VK_LEFT:
-		keyCode = Keyboard.KEY_LEFT;
-		break;
-	case KeyEvent.VK_RIGHT:
-		keyCode = Keyboard.KEY_RIGHT;
-		break;
-	case KeyEvent.VK_SHIFT:
-		keyCode = Keyboard.KEY_LSHIFT;
-		break;
-	case KeyEvent.VK_P:
-		keyCode = Keyboard.KEY_P;
-		break;
-	}    
-
-	return org.lwjgl.input.Keyboard.isKeyDown(keyCode);
+	return input.isKeyPressed(keyCode);
 }	
 /**
- * Check if a particular key is current pressed.
+ * Check if the left mouse button is currently pressed.
  *
- * @param keyCode The code associated with the key to check 
- * @return True if the specified key is pressed
+ * @param mouseCode The code associated with the button to check 
+ * @return True if the button is pressed
  */
 public boolean isLMousePressed(int mouseCode) {
-	switch(mouseCode) {
-	case MouseEvent.BUTTON1:
-		mouseCode = 0;
-		break;
-	}
-	return org.lwjgl.input.Mouse.isButtonDown(mouseCode);
+	return input.isMousePressed(0);
 }
 
 public boolean isRMousePressed(int mouseCode) {
-	switch(mouseCode) {
-	case MouseEvent.BUTTON2:
-		mouseCode = 1;
-		break;
+	return input.isMousePressed(1);
+}
+
+/**
+ * Get the next key that has been pressed since the last time
+ * the key events were read.
+ * 
+ * @return The code of the next key pressed, or KeyEvent.VK_UNDEFINED
+ */
+public int nextKeyEvent() {
+	return input.nextKeyEvent();
+}
+
+/**
+ * Enable or disable syncing the display to the screen refresh rate
+ * 
+ * @param vsync True if the display should be synced
+ */
+public void setVSync(boolean vsync) {
+	// the game may ask from the simulation thread, where there's no
+	// GL context, so the change is made at the start of the next frame
+	vsyncRequest = vsync ? 1 : 0;
+}
+
+/**
+ * Set whether the game logic runs on a thread of its own. When it
+ * does, the simulation thread runs the ticks and publishes a snapshot
+ * of each frame, and this thread draws the newest snapshot each time
+ * the display is ready, so a long tick doesn't hold up the display
+ * and a long frame doesn't hold up the ticks. Must be set before the
+ * window starts rendering, and before any other input source is set.
+ * 
+ * @param pipelined True if the game logic should run on its own thread
+ */
+public void setPipelined(boolean pipelined) {
+	this.pipelined = pipelined;
+	if (pipelined && (latch == null)) {
+		latch = new LatchedInputSource(live);
+		if (input == live) {
+			input = latch;
+		}
 	}
-	return org.lwjgl.input.Mouse.isButtonDown(mouseCode);
+}
+
+/**
+ * Set the file texture data is kept in between runs, so images that
+ * haven't changed don't have to be decoded again. Must be set before
+ * the window starts rendering.
+ * 
+ * @param textureCache The file to keep the texture data in, null for none
+ */
+public void setTextureCache(File textureCache) {
+	this.textureCache = textureCache;
+}
+
+/**
+ * Set the source of input the game should read, by default
+ * this is the live keyboard and mouse
+ * 
+ * @param input The source of input for the game
+ */
+public void setInputSource(InputSource input) {
+	this.input = input;
+}
+
+/**
+ * Get the source of input the game is reading
+ * 
+ * @return The source of input for the game
+ */
+public InputSource getInputSource() {
+	return input;
 }
 
 public void renderText(String s, int x, int y) {
-	GL11.glDisable(GL11.GL_TEXTURE_2D);
-	SimpleText.drawString(s, x, y);
-	GL11.glEnable(GL11.GL_TEXTURE_2D);
+	text.drawString(batch, s, x, y);
+}
+
+/**
+ * Set the profiler the display update is recorded into
+ * 
+ * @param profiler The profiler to record into
+ */
+public void setProfiler(FrameProfiler profiler) {
+	this.profiler = profiler;
 }
 
 /**
@@ -329,35 +435,176 @@ public void renderText(String s, int x, int y) {
  * and requesting that the callback update its screen.
  */
 private void gameLoop() {
+	if (pipelined && (callback != null)) {
+		pipelinedLoop();
+		return;
+	}
+	
+	FrameSnapshot frame = frames.getWriteBuffer();
+	scheduler.reset(System.nanoTime());
 	while (gameRunning) {
-		// clear screen
-		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
-		GL11.glMatrixMode(GL11.GL_MODELVIEW);
-		GL11.glLoadIdentity();
-		/*			
-			if (!intro) {
-				Intro();
-				//SystemTimer.sleep(3000);
-				//intro = true;
-			}
-			else */if (callback != null) {
-				callback.frameRendering();
+		// run however many fixed logic ticks have built up since
+		// the last frame, the remainder is used to interpolate
+		int ticks = scheduler.advance(System.nanoTime());
+		if (callback != null) {
+			for (int i=0;i<ticks;i++) {
+				callback.tick(input.poll(scheduler.getTickMillis()));
 			}
+			callback.storeFrame(frame);
+		}
 
-			Display.update();
+		renderFrame(frame, scheduler.getAlpha());
+		finishFrame(scheduler);
+	}
+}
 
-			if(Display.isCloseRequested() || Keyboard.isKeyDown(Keyboard.KEY_ESCAPE)) {
+/**
+ * Run the game loop with the game logic on a thread of its own. This
+ * thread keeps drawing the newest snapshot the simulation thread has
+ * published, interpolated to the time it's drawn at.
+ */
+private void pipelinedLoop() {
+	simulation = new Thread("Simulation") {
+		public void run() {
+			try {
+				simulate();
+			} finally {
 				gameRunning = false;
-				Display.destroy();
-				callback.windowClosed();
 			}
-			
+		}
+	};
+	simulation.start();
+	
+	// counts the frames drawn, the ticks it works out aren't used
+	FrameScheduler frameCounter = new FrameScheduler(TICK_MILLIS, MAX_TICKS_PER_FRAME);
+	frameCounter.reset(System.nanoTime());
+	boolean started = false;
+	while (gameRunning) {
+		frameCounter.advance(System.nanoTime());
+		started |= frames.update();
+		if (started) {
+			FrameSnapshot frame = frames.getReadBuffer();
+			float alpha = (float) (System.nanoTime() - frame.getTime()) / scheduler.getTickNanos();
+			renderFrame(frame, Math.max(0, Math.min(1, alpha)));
+		} else {
+			Display.update();
+		}
+		latch.sample();
+		finishFrame(frameCounter);
+	}
+	
+	joinSimulation();
+}
+
+/**
+ * Run the game logic, on the simulation thread. Ticks are run in
+ * real time and a snapshot published after each batch of them, in
+ * between the thread sleeps until the next tick is due.
+ */
+private void simulate() {
+	scheduler.reset(System.nanoTime());
+	while (gameRunning) {
+		long now = System.nanoTime();
+		int ticks = scheduler.advance(now);
+		if (ticks == 0) {
+			LockSupport.parkNanos((long) ((1 - scheduler.getAlpha()) * scheduler.getTickNanos()));
+			continue;
+		}
+		
+		for (int i=0;i<ticks;i++) {
+			callback.tick(input.poll(scheduler.getTickMillis()));
+		}
+		FrameSnapshot frame = frames.getWriteBuffer();
+		callback.storeFrame(frame);
+		frame.setTime(now - (long) (scheduler.getAlpha() * scheduler.getTickNanos()));
+		frames.publish();
+	}
+}
+
+/**
+ * Draw a frame and hand it to the display
+ * 
+ * @param frame The snapshot of the frame to draw
+ * @param alpha How far we are between the last tick and the next one (0-1)
+ */
+private void renderFrame(FrameSnapshot frame, float alpha) {
+	int vsync = vsyncRequest;
+	if (vsync >= 0) {
+		vsyncRequest = -1;
+		Display.setVSyncEnabled(vsync == 1);
+	}
+	
+	// send the textures that have been decoded since the last frame
+	// to the card, a few at a time so a new level doesn't stall a frame
+	long upload = (profiler != null) ? profiler.start() : 0;
+	textureLoader.uploadReady(UPLOAD_BUDGET_NANOS);
+	if (profiler != null) {
+		profiler.record(FrameProfiler.UPLOAD, upload);
+	}
+	
+	// clear screen
+	GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+	batch.begin(width, height);
+	/*			
+		if (!intro) {
+			Intro();
+			//SystemTimer.sleep(3000);
+			//intro = true;
+		}
+		else */if (callback != null) {
+			callback.frameRendering(frame, alpha);
+		}
+		long start = (profiler != null) ? profiler.start() : 0;
+		batch.end();
+
+		Display.update();
+		if (profiler != null) {
+			profiler.record(FrameProfiler.DISPLAY, start);
+		}
+}
+
+/**
+ * Finish a frame, updating the title once a second and closing
+ * the window if it's been asked to
+ * 
+ * @param counter The scheduler counting the frames drawn
+ */
+private void finishFrame(FrameScheduler counter) {
+	if (profiler != null) {
+		profiler.frameFinished(System.nanoTime());
+	}
+
+	// update our FPS counter once a second
+	if (counter.isFpsUpdated()) {
+		Display.setTitle(title+" (FPS: "+counter.getFps()+", draw calls: "+batch.getDrawCalls()+", vertices: "+batch.getVertexCount()+")");
+	}
+
+	if(Display.isCloseRequested() || Keyboard.isKeyDown(Keyboard.KEY_ESCAPE)) {
+		gameRunning = false;
+		joinSimulation();
+		Display.destroy();
+		callback.windowClosed();
+	}
+}
+
+/**
+ * Wait for the simulation thread, if there is one, to finish the
+ * tick it's running
+ */
+private void joinSimulation() {
+	if (simulation == null) {
+		return;
+	}
+	try {
+		simulation.join();
+	} catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
 	}
 }
 
 @SuppressWarnings("unused")
 private void Intro() {
-	SimpleText.drawString("Space Invaders 1.04.1", width/2, height/2);		
+	text.drawString(batch, "Space Invaders 1.04.1", width/2, height/2);		
 }
 
 public boolean isIntro() {
@@ -367,4 +614,4 @@ public boolean isIntro() {
 public void setIntro(boolean intro) {
 	this.intro = intro;
 }
-}
\ No newline at end of file
+}
\ No newline at end of file
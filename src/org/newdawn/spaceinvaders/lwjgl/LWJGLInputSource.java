@@ -0,0 +1,117 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.awt.event.KeyEvent;
+
+import org.lwjgl.input.Keyboard;
+import org.lwjgl.input.Mouse;
+import org.newdawn.spaceinvaders.util.InputSource;
+
+/**
+ * An input source reading the live keyboard and mouse through LWJGL.
+ * The LWJGL devices are polled as part of Display.update() so there
+ * is nothing to do at the start of a tick.
+ */
+public class LWJGLInputSource implements InputSource {
+
+	/**
+	 * Nothing to do, LWJGL polls the devices when the display is updated
+	 *
+	 * @param delta The length the window means to run the tick for (ms)
+	 * @return The same length
+	 */
+	public long poll(long delta) {
+		return delta;
+	}
+
+	/**
+	 * Check if a particular key is current pressed.
+	 *
+	 * @param keyCode The code associated with the key to check 
+	 * @return True if the specified key is pressed
+	 */
+	public boolean isKeyPressed(int keyCode) {
+		return Keyboard.isKeyDown(toLWJGLKey(keyCode));
+	}
+
+	/**
+	 * Check if a particular mouse button is pressed
+	 *
+	 * @param button The button to check, 0 being left and 1 being right
+	 * @return True if the button is pressed
+	 */
+	public boolean isMousePressed(int button) {
+		return Mouse.isButtonDown(button);
+	}
+
+	/**
+	 * Get the next key that has been pressed since key events were last read.
+	 * Keys we've no mapping for are skipped.
+	 *
+	 * @return The code (defined in KeyEvent) of the next key pressed, or
+	 * KeyEvent.VK_UNDEFINED if there are no more key presses to read
+	 */
+	public int nextKeyEvent() {
+		while (Keyboard.next()) {
+			if (Keyboard.getEventKeyState()) {
+				int keyCode = toKeyEvent(Keyboard.getEventKey());
+				if (keyCode != KeyEvent.VK_UNDEFINED) {
+					return keyCode;
+				}
+			}
+		}
+		return KeyEvent.VK_UNDEFINED;
+	}
+
+	/**
+	 * Map a standard key code onto the LWJGL one. Apparently, someone 
+	 * decided not to use standard keycodes, so we have to map them over.
+	 *
+	 * @param keyCode The code of the key (defined in KeyEvent)
+	 * @return The LWJGL code of the same key
+	 */
+	private int toLWJGLKey(int keyCode) {
+		switch(keyCode) {
+		case KeyEvent.VK_SPACE:
+			return Keyboard.KEY_SPACE;
+		case KeyEvent.VK_UP:
+			return Keyboard.KEY_UP;
+		case KeyEvent.VK_DOWN:
+			return Keyboard.KEY_DOWN;
+		case KeyEvent.VK_LEFT:
+			return Keyboard.KEY_LEFT;
+		case KeyEvent.VK_RIGHT:
+			return Keyboard.KEY_RIGHT;
+		case KeyEvent.VK_SHIFT:
+			return Keyboard.KEY_LSHIFT;
+		case KeyEvent.VK_P:
+			return Keyboard.KEY_P;
+		case KeyEvent.VK_ESCAPE:
+			return Keyboard.KEY_ESCAPE;
+		}
+		return keyCode;
+	}
+
+	/**
+	 * Map an LWJGL key code onto the standard one for the keys
+	 * the game reacts to as events
+	 *
+	 * @param key The LWJGL code of the key
+	 * @return The code of the key (defined in KeyEvent), or KeyEvent.VK_UNDEFINED
+	 * if the game doesn't use this key as an event
+	 */
+	private int toKeyEvent(int key) {
+		switch(key) {
+		case Keyboard.KEY_F:
+			return KeyEvent.VK_F;
+		case Keyboard.KEY_V:
+			return KeyEvent.VK_V;
+		case Keyboard.KEY_P:
+			return KeyEvent.VK_P;
+		case Keyboard.KEY_RETURN:
+			return KeyEvent.VK_ENTER;
+		case Keyboard.KEY_F3:
+			return KeyEvent.VK_F3;
+		}
+		return KeyEvent.VK_UNDEFINED;
+	}
+}
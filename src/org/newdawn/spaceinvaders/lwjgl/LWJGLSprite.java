@@ -2,18 +2,21 @@ package org.newdawn.spaceinvaders.lwjgl;
 
 import java.io.IOException;
 
-import org.lwjgl.opengl.GL11;
-
 import org.newdawn.spaceinvaders.Sprite;
+import org.truman.spaceinvaders.CollisionMask;
 
 /**
  * Implementation of sprite that uses an OpenGL quad and a texture
- * to render a given image to the screen.
+ * to render a given image to the screen. The quad is added to the
+ * window's sprite batch rather than drawn straight away.
  * 
  * @author Kevin Glass
  * @author Brian Matzon
  */
 public class LWJGLSprite implements Sprite {
+	/** The window this sprite is drawn in */
+	private LWJGLGameWindow window;
+
 	/** The texture that stores the image for this sprite */
 	private Texture texture;
   
@@ -23,6 +26,15 @@ public class LWJGLSprite implements Sprite {
 	/** The height in pixels of this sprite */
 	private int height;
 	
+	/** The texture x coordinate of the left edge */
+	private float u0;
+	/** The texture y coordinate of the top edge */
+	private float v0;
+	/** The texture x coordinate of the right edge */
+	private float u1;
+	/** The texture y coordinate of the bottom edge */
+	private float v1;
+	
 	/**
 	 * Create a new sprite from a specified image.
 	 * 
@@ -30,11 +42,17 @@ public class LWJGLSprite implements Sprite {
 	 * @param ref A reference to the image on which this sprite should be based
 	 */
 	public LWJGLSprite(LWJGLGameWindow window,String ref) {
+		this.window = window;
 		try {
 			texture = window.getTextureLoader().getTexture(ref);
 			
 			width = texture.getImageWidth();
 			height = texture.getImageHeight();
+			
+			u0 = texture.getU();
+			v0 = texture.getV();
+			u1 = u0 + texture.getWidth();
+			v1 = v0 + texture.getHeight();
 		} catch (IOException e) {
 			// a tad abrupt, but our purposes if you can't find a 
 			// sprite's image you might as well give up.
@@ -69,32 +87,35 @@ public class LWJGLSprite implements Sprite {
 	 * @param y The y location at which to draw this sprite
 	 */
 	public void draw(int x, int y) {
-		// store the current model matrix
-		GL11.glPushMatrix();
-		
-		// bind to the appropriate texture for this sprite
-		texture.bind();
-    
-		// translate to the right location and prepare to draw
-		GL11.glTranslatef(x, y, 0);		
-    	GL11.glColor3f(1,1,1);
-		
-		// draw a quad textured to match the sprite
-    	GL11.glBegin(GL11.GL_QUADS);
-		{
-	      GL11.glTexCoord2f(0, 0);
-	      GL11.glVertex2f(0, 0);
-	      GL11.glTexCoord2f(0, texture.getHeight());
-	      GL11.glVertex2f(0, height);
-	      GL11.glTexCoord2f(texture.getWidth(), texture.getHeight());
-	      GL11.glVertex2f(width,height);
-	      GL11.glTexCoord2f(texture.getWidth(), 0);
-	      GL11.glVertex2f(width,0);
-		}
-		GL11.glEnd();
-		
-		// restore the model view matrix to prevent contamination
-		GL11.glPopMatrix();
+		// a quad textured to match the sprite, the texture may be bigger
+		// than the image or an atlas page so only the image's part of it is used
+		window.getSpriteBatch().draw(texture, x, y, width, height, u0, v0, u1, v1);
+	}
+	
+	/**
+	 * Fill a rectangle with copies of the sprite. However big the 
+	 * rectangle it's a single quad, the copies come from wrapping 
+	 * the texture coordinates.
+	 * 
+	 * @param x The x location of the rectangle
+	 * @param y The y location of the rectangle
+	 * @param rectWidth The width of the rectangle
+	 * @param rectHeight The height of the rectangle
+	 * @param offsetX How far the copies are shifted right
+	 * @param offsetY How far the copies are shifted down
+	 */
+	public void drawTiled(int x, int y, int rectWidth, int rectHeight, int offsetX, int offsetY) {
+		window.getSpriteBatch().drawTiled(texture, x, y, rectWidth, rectHeight, u0, v0, u1, v1, width, height, offsetX, offsetY);
+	}
+	
+	/**
+	 * Get the solid pixels of this sprite, shared with every other
+	 * sprite showing the same image
+	 * 
+	 * @return The mask of this sprite, or null if every pixel is solid
+	 */
+	public CollisionMask getCollisionMask() {
+		return texture.getCollisionMask();
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.newdawn.spaceinvaders.Surface;
+
+/**
+ * A surface held in a texture of its own. The texture is created
+ * once at its full size, after that changes are sent with
+ * glTexSubImage2D for only the rectangle that changed, and it's drawn
+ * as a single quad through the window's sprite batch.
+ */
+public class LWJGLSurface implements Surface {
+	/** The window this surface is drawn in */
+	private LWJGLGameWindow window;
+
+	/** The texture holding the pixels of this surface */
+	private Texture texture;
+
+	/** The width in pixels of this surface */
+	private int width;
+
+	/** The height in pixels of this surface */
+	private int height;
+
+	/**
+	 * Create a new surface with every pixel clear. Has to be called
+	 * on the thread that owns the GL context.
+	 * 
+	 * @param window The window in which the surface will be displayed
+	 * @param width The width of the surface in pixels
+	 * @param height The height of the surface in pixels
+	 */
+	public LWJGLSurface(LWJGLGameWindow window,int width,int height) {
+		this.window = window;
+		this.width = width;
+		this.height = height;
+
+		IntBuffer id = BufferUtils.createIntBuffer(1);
+		GL11.glGenTextures(id);
+		texture = new Texture(GL11.GL_TEXTURE_2D, id.get(0));
+		texture.setWidth(width);
+		texture.setHeight(height);
+		texture.setTextureWidth(get2Fold(width));
+		texture.setTextureHeight(get2Fold(height));
+
+		// nearest filtering keeps the edges of the craters sharp
+		texture.bind();
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, get2Fold(width), get2Fold(height), 0,
+				GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, BufferUtils.createByteBuffer(get2Fold(width) * get2Fold(height) * 4));
+	}
+
+	/**
+	 * Get the closest greater power of 2 to the fold number
+	 * 
+	 * @param fold The target number
+	 * @return The power of 2
+	 */
+	private static int get2Fold(int fold) {
+		int ret = 2;
+		while (ret < fold) {
+			ret *= 2;
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the width of this surface in pixels
+	 * 
+	 * @return The width of this surface in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of this surface in pixels
+	 * 
+	 * @return The height of this surface in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Send new pixels for a rectangle of this surface to the card
+	 * 
+	 * @param x The x location of the rectangle
+	 * @param y The y location of the rectangle
+	 * @param rectWidth The width of the rectangle
+	 * @param rectHeight The height of the rectangle
+	 * @param pixels The new pixels, row by row from the buffer's position
+	 */
+	public void update(int x, int y, int rectWidth, int rectHeight, ByteBuffer pixels) {
+		// anything of this surface already in the batch was meant to
+		// show the old pixels, draw it before they change
+		window.getSpriteBatch().flush();
+		texture.bind();
+		GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x, y, rectWidth, rectHeight, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+	}
+
+	/**
+	 * Draw this surface at the specified location
+	 * 
+	 * @param x The x location at which to draw this surface
+	 * @param y The y location at which to draw this surface
+	 */
+	public void draw(int x, int y) {
+		window.getSpriteBatch().draw(texture, x, y, width, height, 0, 0, texture.getWidth(), texture.getHeight());
+	}
+}
@@ -0,0 +1,128 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.awt.event.KeyEvent;
+
+import org.newdawn.spaceinvaders.util.InputSource;
+
+/**
+ * An input source that lets the game read input on a thread other than
+ * the one the devices are polled on. LWJGL updates the keyboard and
+ * mouse in Display.update(), on the render thread, and can't be read
+ * safely from anywhere else. The render thread calls sample() after
+ * each update, which copies the keys the game holds down into a single
+ * set of bits and passes the key events on through a ring, and the
+ * game's ticks read those from the simulation thread.
+ *
+ * There's one thread on each side so neither lock nor allocation is
+ * needed, the held set is a volatile and each end of the ring is only
+ * moved by one of the threads.
+ */
+class LatchedInputSource implements InputSource {
+	/** The keys the game holds down, in the order of their bits in the held set */
+	private static final int[] KEYS = {KeyEvent.VK_UP, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_SPACE, KeyEvent.VK_SHIFT, KeyEvent.VK_ESCAPE};
+	/** The bit of the held set given to the first mouse button, the second follows it */
+	private static final int MOUSE_BIT = KEYS.length;
+	/** The number of key events the ring can hold, a power of two */
+	private static final int RING_SIZE = 64;
+
+	/** The source being read on the render thread */
+	private InputSource source;
+	/** The keys and buttons held at the last sample */
+	private volatile int held;
+	/** The key events waiting to be read */
+	private int[] ring = new int[RING_SIZE];
+	/** The number of key events ever added, only moved by the render thread */
+	private volatile int tail;
+	/** The number of key events ever read, only moved by the simulation thread */
+	private volatile int head;
+
+	/**
+	 * Create a new latched source
+	 *
+	 * @param source The source to sample on the render thread
+	 */
+	LatchedInputSource(InputSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * Sample the source. Must be called on the thread the source
+	 * can be read on.
+	 */
+	void sample() {
+		int state = 0;
+		for (int i=0;i<KEYS.length;i++) {
+			if (source.isKeyPressed(KEYS[i])) {
+				state |= 1 << i;
+			}
+		}
+		for (int i=0;i<2;i++) {
+			if (source.isMousePressed(i)) {
+				state |= 1 << (MOUSE_BIT + i);
+			}
+		}
+		held = state;
+
+		int key;
+		int end = tail;
+		while ((key = source.nextKeyEvent()) != KeyEvent.VK_UNDEFINED) {
+			// if the game has stopped reading drop the event rather
+			// than wait for room
+			if (end - head < RING_SIZE) {
+				ring[end & (RING_SIZE - 1)] = key;
+				end++;
+			}
+		}
+		tail = end;
+	}
+
+	/**
+	 * Notification that a logic tick is about to run
+	 *
+	 * @param delta The length the window means to run the tick for (ms)
+	 * @return The same length
+	 */
+	public long poll(long delta) {
+		return delta;
+	}
+
+	/**
+	 * Check if a particular key was pressed at the last sample
+	 *
+	 * @param keyCode The code of the key to check (defined in KeyEvent)
+	 * @return True if the key is pressed
+	 */
+	public boolean isKeyPressed(int keyCode) {
+		for (int i=0;i<KEYS.length;i++) {
+			if (KEYS[i] == keyCode) {
+				return (held & (1 << i)) != 0;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if a particular mouse button was pressed at the last sample
+	 *
+	 * @param button The button to check, 0 being left and 1 being right
+	 * @return True if the button is pressed
+	 */
+	public boolean isMousePressed(int button) {
+		return (held & (1 << (MOUSE_BIT + button))) != 0;
+	}
+
+	/**
+	 * Get the next key event passed on from the render thread
+	 *
+	 * @return The code of the next key pressed, or KeyEvent.VK_UNDEFINED
+	 */
+	public int nextKeyEvent() {
+		int start = head;
+		if (start == tail) {
+			return KeyEvent.VK_UNDEFINED;
+		}
+		int key = ring[start & (RING_SIZE - 1)];
+		head = start + 1;
+		return key;
+	}
+}
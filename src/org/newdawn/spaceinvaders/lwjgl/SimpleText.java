@@ -1,487 +1,715 @@
 package org.newdawn.spaceinvaders.lwjgl;
 
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.lwjgl.opengl.GL11;
 
 //saucecode's text rendering in opengl 1.1
 //edited by kadence.
+//the letters are plotted once into a glyph texture when the text is
+//created, strings are laid out into meshes of one quad per letter and
+//the meshes are kept so a label that doesn't change is never laid out
+//again
 
 public class SimpleText {
+	/** The width of a letter's cell in the glyph texture */
+	private static final int CELL_WIDTH = 8;
+	/** The height of a letter's cell, enough for the highest pixel of any letter */
+	private static final int CELL_HEIGHT = 16;
+	/** The row of a cell the letters stand on */
+	private static final int BASELINE = CELL_HEIGHT - 1;
+	/** The number of cells across the glyph texture */
+	private static final int CELLS_ACROSS = 16;
+	/** The number of character codes with a cell */
+	private static final int CHARS = 128;
+	/** The distance between lines */
+	private static final int LINE_HEIGHT = 10;
+	/** The number of laid out strings kept */
+	private static final int CACHE_SIZE = 16;
 
-	public static void drawString(String s, int x, int y){
-		int startX = x;
-		GL11.glPushMatrix();
-    	GL11.glColor3f(1,0,0);
-    	GL11.glBegin(GL11.GL_POINTS);
-		for(char c : s.toLowerCase().toCharArray()){
-			if(c == 'a'){
-				for(int i=0;i<8;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y-4);
-				}
-				x+=8;
-			}else if(c == 'b'){
-				for(int i=0;i<8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=1;i<=6;i++){
-					GL11.glVertex2f(x+i, y);
-					GL11.glVertex2f(x+i, y-4);
-					GL11.glVertex2f(x+i, y-8);
-				}
-				GL11.glVertex2f(x+7, y-5);
-				GL11.glVertex2f(x+7, y-7);
-				GL11.glVertex2f(x+7, y-6);
-				
-				GL11.glVertex2f(x+7, y-1);
-				GL11.glVertex2f(x+7, y-2);
-				GL11.glVertex2f(x+7, y-3);
-				x+=8;
-			}else if(c == 'c'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y);
-					GL11.glVertex2f(x+i, y-8);
-				}
-				GL11.glVertex2f(x+6, y-1);
-				GL11.glVertex2f(x+6, y-2);
-				
-				GL11.glVertex2f(x+6, y-6);
-				GL11.glVertex2f(x+6, y-7);
-				
-				x+=8;
-			}else if(c == 'd'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y);
-					GL11.glVertex2f(x+i, y-8);
-				}
-				GL11.glVertex2f(x+6, y-1);
-				GL11.glVertex2f(x+6, y-2);
-				GL11.glVertex2f(x+6, y-3);
-				GL11.glVertex2f(x+6, y-4);
-				GL11.glVertex2f(x+6, y-5);
-				GL11.glVertex2f(x+6, y-6);
-				GL11.glVertex2f(x+6, y-7);
-				
-				x+=8;
-			}else if(c == 'e'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=1;i<=6;i++){
-					GL11.glVertex2f(x+i, y-0);
-					GL11.glVertex2f(x+i, y-8);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-4);
-				}
-				x+=8;
-			}else if(c == 'f'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=1;i<=6;i++){
-					GL11.glVertex2f(x+i, y-8);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-4);
-				}
-				x+=8;
-			}else if(c == 'g'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y);
-					GL11.glVertex2f(x+i, y-8);
-				}
-				GL11.glVertex2f(x+6, y-1);
-				GL11.glVertex2f(x+6, y-2);
-				GL11.glVertex2f(x+6, y-3);
-				GL11.glVertex2f(x+5, y-3);
-				GL11.glVertex2f(x+7, y-3);
-				
-				GL11.glVertex2f(x+6, y-6);
-				GL11.glVertex2f(x+6, y-7);
-				
-				x+=8;
-			}else if(c == 'h'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-4);
-				}
-				x+=8;
-			}else if(c == 'i'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+3, y-i);
-				}
-				for(int i=1;i<=5;i++){
-					GL11.glVertex2f(x+i, y-0);
-					GL11.glVertex2f(x+i, y-8);
-				}
-				x+=7;
-			}else if(c == 'j'){
-				for(int i=1;i<=8;i++){
-					GL11.glVertex2f(x+6, y-i);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-0);
-				}
-				GL11.glVertex2f(x+1, y-3);
-				GL11.glVertex2f(x+1, y-2);
-				GL11.glVertex2f(x+1, y-1);
-				x+=8;
-			}else if(c == 'k'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				GL11.glVertex2f(x+6, y-8);
-				GL11.glVertex2f(x+5, y-7);
-				GL11.glVertex2f(x+4, y-6);
-				GL11.glVertex2f(x+3, y-5);
-				GL11.glVertex2f(x+2, y-4);
-				GL11.glVertex2f(x+2, y-3);
-				GL11.glVertex2f(x+3, y-4);
-				GL11.glVertex2f(x+4, y-3);
-				GL11.glVertex2f(x+5, y-2);
-				GL11.glVertex2f(x+6, y-1);
-				GL11.glVertex2f(x+7, y);
-				x+=8;
-			}else if(c == 'l'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=1;i<=6;i++){
-					GL11.glVertex2f(x+i, y);
-				}
-				x+=7;
-			}else if(c == 'm'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				GL11.glVertex2f(x+3, y-6);
-				GL11.glVertex2f(x+2, y-7);
-				GL11.glVertex2f(x+4, y-5);
-				
-				GL11.glVertex2f(x+5, y-6);
-				GL11.glVertex2f(x+6, y-7);
-				GL11.glVertex2f(x+4, y-5);
-				x+=8;
-			}else if(c == 'n'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				GL11.glVertex2f(x+2, y-7);
-				GL11.glVertex2f(x+2, y-6);
-				GL11.glVertex2f(x+3, y-5);
-				GL11.glVertex2f(x+4, y-4);
-				GL11.glVertex2f(x+5, y-3);
-				GL11.glVertex2f(x+6, y-2);
-				GL11.glVertex2f(x+6, y-1);
-				x+=8;
-			}else if(c == 'o' || c == '0'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y-0);
-				}
-				x+=8;
-			}else if(c == 'p'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y-4);
-				}
-				GL11.glVertex2f(x+6, y-7);
-				GL11.glVertex2f(x+6, y-5);
-				GL11.glVertex2f(x+6, y-6);
-				x+=8;
-			}else if(c == 'q'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-					if(i != 1) GL11.glVertex2f(x+7, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-8);
-					if(i != 6) GL11.glVertex2f(x+i, y-0);
-				}
-				GL11.glVertex2f(x+4, y-3);
-				GL11.glVertex2f(x+5, y-2);
-				GL11.glVertex2f(x+6, y-1);
-				GL11.glVertex2f(x+7, y);
-				x+=8;
-			}else if(c == 'r'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y-4);
-				}
-				GL11.glVertex2f(x+6, y-7);
-				GL11.glVertex2f(x+6, y-5);
-				GL11.glVertex2f(x+6, y-6);
-				
-				GL11.glVertex2f(x+4, y-3);
-				GL11.glVertex2f(x+5, y-2);
-				GL11.glVertex2f(x+6, y-1);
-				GL11.glVertex2f(x+7, y);
-				x+=8;
-			}else if(c == 's'){
-				for(int i=2;i<=7;i++){
-					GL11.glVertex2f(x+i, y-8);
-				}
-				GL11.glVertex2f(x+1, y-7);
-				GL11.glVertex2f(x+1, y-6);
-				GL11.glVertex2f(x+1, y-5);
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-4);
-					GL11.glVertex2f(x+i, y);
-				}
-				GL11.glVertex2f(x+7, y-3);
-				GL11.glVertex2f(x+7, y-2);
-				GL11.glVertex2f(x+7, y-1);
-				GL11.glVertex2f(x+1, y-1);
-				GL11.glVertex2f(x+1, y-2);
-				x+=8;
-			}else if(c == 't'){
-				for(int i=0;i<=8;i++){
-					GL11.glVertex2f(x+4, y-i);
-				}
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+i, y-8);
-				}
-				x+=7;
-			}else if(c == 'u'){
-				for(int i=1;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-0);
-				}
-				x+=8;
-			}else if(c == 'v'){
-				for(int i=2;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+6, y-i);
-				}
-				GL11.glVertex2f(x+2, y-1);
-				GL11.glVertex2f(x+5, y-1);
-				GL11.glVertex2f(x+3, y);
-				GL11.glVertex2f(x+4, y);
-				x+=7;
-			}else if(c == 'w'){
-				for(int i=1;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				GL11.glVertex2f(x+2, y);
-				GL11.glVertex2f(x+3, y);
-				GL11.glVertex2f(x+5, y);
-				GL11.glVertex2f(x+6, y);
-				for(int i=1;i<=6;i++){
-					GL11.glVertex2f(x+4, y-i);
-				}
-				x+=8;
-			}else if(c == 'x'){
-				for(int i=1;i<=7;i++)
-					GL11.glVertex2f(x+i, y-i);
-				for(int i=7;i>=1;i--)
-					GL11.glVertex2f(x+i, y-8-i);
-				x+=8;
-			}else if(c == 'y'){
-				GL11.glVertex2f(x+4, y);
-				GL11.glVertex2f(x+4, y-1);
-				GL11.glVertex2f(x+4, y-2);
-				GL11.glVertex2f(x+4, y-3);
-				GL11.glVertex2f(x+4, y-4);
-				
-				GL11.glVertex2f(x+3, y-5);
-				GL11.glVertex2f(x+2, y-6);
-				GL11.glVertex2f(x+1, y-7);
-				GL11.glVertex2f(x+1, y-8);
-				
-				GL11.glVertex2f(x+5, y-5);
-				GL11.glVertex2f(x+6, y-6);
-				GL11.glVertex2f(x+7, y-7);
-				GL11.glVertex2f(x+7, y-8);
-				x+=8;
-			}else if(c == 'z'){
-				for(int i=1;i<=6;i++){
-					GL11.glVertex2f(x+i, y);
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y-i);
-				}
-				GL11.glVertex2f(x+6, y-7);
-				x += 8;
-			}else if(c == '1'){
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y);
-				}
-				for(int i=1;i<=8;i++){
-					GL11.glVertex2f(x+4, y-i);
-				}
-				GL11.glVertex2f(x+3, y-7);
-				x += 8;
-			}else if(c == '2'){
-				for(int i=1;i<=6;i++){
-					GL11.glVertex2f(x+i, y);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-8);
-				}
-				GL11.glVertex2f(x+1, y-7);
-				GL11.glVertex2f(x+1, y-6);
-				
-				GL11.glVertex2f(x+6, y-7);
-				GL11.glVertex2f(x+6, y-6);
-				GL11.glVertex2f(x+6, y-5);
-				GL11.glVertex2f(x+5, y-4);
-				GL11.glVertex2f(x+4, y-3);
-				GL11.glVertex2f(x+3, y-2);
-				GL11.glVertex2f(x+2, y-1);
-				x += 8;
-			}else if(c == '3'){
-				for(int i=1;i<=5;i++){
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y);
-				}
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+6, y-i);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-4);
-				}
-				x += 8;
-			}else if(c == '4'){
-				for(int i=2;i<=8;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=7;i++){
-					GL11.glVertex2f(x+i, y-1);
-				}
-				for(int i=0;i<=4;i++){
-					GL11.glVertex2f(x+4, y-i);
-				}
-				x+=8;
-			}else if(c == '5'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+i, y-8);
-				}
-				for(int i=4;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				GL11.glVertex2f(x+1, y-1);
-				GL11.glVertex2f(x+2, y);
-				GL11.glVertex2f(x+3, y);
-				GL11.glVertex2f(x+4, y);
-				GL11.glVertex2f(x+5, y);
-				GL11.glVertex2f(x+6, y);
-				
-				GL11.glVertex2f(x+7, y-1);
-				GL11.glVertex2f(x+7, y-2);
-				GL11.glVertex2f(x+7, y-3);
-				
-				GL11.glVertex2f(x+6, y-4);
-				GL11.glVertex2f(x+5, y-4);
-				GL11.glVertex2f(x+4, y-4);
-				GL11.glVertex2f(x+3, y-4);
-				GL11.glVertex2f(x+2, y-4);
-				x += 8;
-			}else if(c == '6'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y);
-				}
-				for(int i=2;i<=5;i++){
-					GL11.glVertex2f(x+i, y-4);
-					GL11.glVertex2f(x+i, y-8);
-				}
-				GL11.glVertex2f(x+7, y-1);
-				GL11.glVertex2f(x+7, y-2);
-				GL11.glVertex2f(x+7, y-3);
-				GL11.glVertex2f(x+6, y-4);
-				x+=8;
-			}else if(c == '7'){
-				for(int i=0;i<=7;i++)
-					GL11.glVertex2f(x+i, y-8);
-				GL11.glVertex2f(x+7, y-7);
-				GL11.glVertex2f(x+7, y-6);
-				
-				GL11.glVertex2f(x+6, y-5);
-				GL11.glVertex2f(x+5, y-4);
-				GL11.glVertex2f(x+4, y-3);
-				GL11.glVertex2f(x+3, y-2);
-				GL11.glVertex2f(x+2, y-1);
-				GL11.glVertex2f(x+1, y);
-				x+=8;
-			}else if(c == '8'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-					GL11.glVertex2f(x+7, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y-0);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-4);
-				}
-				x += 8;
-			}else if(c == '9'){
-				for(int i=1;i<=7;i++){
-					GL11.glVertex2f(x+7, y-i);
-				}
-				for(int i=5;i<=7;i++){
-					GL11.glVertex2f(x+1, y-i);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-8);
-					GL11.glVertex2f(x+i, y-0);
-				}
-				for(int i=2;i<=6;i++){
-					GL11.glVertex2f(x+i, y-4);
-				}
-				GL11.glVertex2f(x+1, y-0);
-				x += 8;
-			}else if(c == '.'){
-				GL11.glVertex2f(x+1, y);
-				x+=2;
-			}else if(c == ','){
-				GL11.glVertex2f(x+1, y);
-				GL11.glVertex2f(x+1, y-1);
-				x+=2;
-			}else if(c == '\n'){
-				y+=10;
-				x = startX;
-			}else if(c == ' '){
-				x += 8;
+	/** The texture holding every letter */
+	private Texture font;
+	/** The distance moved along after each character, indexed by character code */
+	private int[] advance = new int[CHARS];
+	/** True for each character code that has any pixels to draw */
+	private boolean[] visible = new boolean[CHARS];
+	/** The colour of the letters */
+	private int color = SpriteBatch.packColor(1, 0, 0, 1);
+
+	/** The pixels of the glyph texture while the letters are being plotted */
+	private int[] pixels;
+	/** The character being plotted */
+	private int current;
+
+	/** The strings that have been laid out */
+	private String[] cachedText = new String[CACHE_SIZE];
+	/** The x location each string was laid out at */
+	private int[] cachedX = new int[CACHE_SIZE];
+	/** The y location each string was laid out at */
+	private int[] cachedY = new int[CACHE_SIZE];
+	/** The quads of each string */
+	private ByteBuffer[] cachedMesh = new ByteBuffer[CACHE_SIZE];
+	/** The number of quads in each string */
+	private int[] cachedQuads = new int[CACHE_SIZE];
+	/** When each string was last drawn, the one drawn longest ago is replaced first */
+	private long[] lastUsed = new long[CACHE_SIZE];
+	/** The number of strings drawn */
+	private long uses;
+	/** The number of times a string had to be laid out */
+	private int misses;
+
+	/**
+	 * Create the text renderer, plotting every letter into the glyph
+	 * texture. Must be called with the GL context current.
+	 *
+	 * @param loader The loader used to create the glyph texture
+	 */
+	public SimpleText(TextureLoader loader) {
+		int width = CELLS_ACROSS * CELL_WIDTH;
+		int height = (CHARS / CELLS_ACROSS) * CELL_HEIGHT;
+		pixels = new int[width * height];
+		for (int c=0;c<CHARS;c++) {
+			current = c;
+			advance[c] = rasterize(Character.toLowerCase((char) c));
+		}
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+		pixels = null;
+		font = loader.createTexture(image, GL11.GL_TEXTURE_2D, GL11.GL_RGBA, GL11.GL_NEAREST, GL11.GL_NEAREST);
+	}
+
+	/**
+	 * Draw a string, the first line standing on y. Lines are split
+	 * on '\n'.
+	 *
+	 * @param batch The batch to draw into
+	 * @param s The string to draw
+	 * @param x The x location of the left edge of the text
+	 * @param y The y location of the bottom of the first line
+	 */
+	public void drawString(SpriteBatch batch, String s, int x, int y) {
+		int entry = prepare(s, x, y);
+		if (cachedQuads[entry] > 0) {
+			batch.drawMesh(font, cachedMesh[entry], cachedQuads[entry]);
+		}
+	}
+
+	/**
+	 * Get the mesh for a string, laying it out if it isn't in the cache
+	 *
+	 * @param s The string to draw
+	 * @param x The x location of the left edge of the text
+	 * @param y The y location of the bottom of the first line
+	 * @return The cache entry holding the string's mesh
+	 */
+	int prepare(String s, int x, int y) {
+		int entry = find(s, x, y);
+		if (entry < 0) {
+			entry = layout(s, x, y);
+		}
+		lastUsed[entry] = ++uses;
+		return entry;
+	}
+
+	/**
+	 * Get the number of quads in a cached string's mesh
+	 *
+	 * @param entry The cache entry holding the string
+	 * @return The number of quads
+	 */
+	int getQuads(int entry) {
+		return cachedQuads[entry];
+	}
+
+	/**
+	 * Get the number of times a string had to be laid out because it
+	 * wasn't in the cache
+	 *
+	 * @return The number of cache misses
+	 */
+	public int getCacheMisses() {
+		return misses;
+	}
+
+	/**
+	 * Release the glyph texture
+	 */
+	public void dispose() {
+		GL11.glDeleteTextures(font.getTextureID());
+	}
+
+	/**
+	 * Find a string already laid out at a given location
+	 *
+	 * @param s The string to find
+	 * @param x The x location of the string
+	 * @param y The y location of the string
+	 * @return The cache entry holding the string or -1 if it isn't there
+	 */
+	private int find(String s, int x, int y) {
+		for (int i=0;i<CACHE_SIZE;i++) {
+			String text = cachedText[i];
+			if ((text != null) && (cachedX[i] == x) && (cachedY[i] == y) && ((text == s) || text.equals(s))) {
+				return i;
 			}
 		}
-		GL11.glEnd();
-		GL11.glTranslatef(x, y, 0);
-		GL11.glPopMatrix();
+		return -1;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Lay out a string into a mesh, replacing the string in the cache
+	 * that was drawn longest ago
+	 *
+	 * @param s The string to lay out
+	 * @param x The x location of the string
+	 * @param y The y location of the string
+	 * @return The cache entry now holding the string
+	 */
+	private int layout(String s, int x, int y) {
+		misses++;
+
+		int entry = 0;
+		for (int i=0;i<CACHE_SIZE;i++) {
+			if (cachedText[i] == null) {
+				entry = i;
+				break;
+			}
+			if (lastUsed[i] < lastUsed[entry]) {
+				entry = i;
+			}
+		}
+
+		int quads = 0;
+		for (int i=0;i<s.length();i++) {
+			char c = s.charAt(i);
+			if ((c < CHARS) && visible[c]) {
+				quads++;
+			}
+		}
+		ByteBuffer mesh = cachedMesh[entry];
+		if ((mesh == null) || (mesh.capacity() < SpriteBatch.getMeshSize(quads))) {
+			mesh = ByteBuffer.allocateDirect(SpriteBatch.getMeshSize(Math.max(quads, 16))).order(ByteOrder.nativeOrder());
+		}
+		mesh.clear();
+
+		float cellU = (float) CELL_WIDTH / font.getImageWidth();
+		float cellV = (float) CELL_HEIGHT / font.getImageHeight();
+		int penX = x;
+		int penY = y;
+		for (int i=0;i<s.length();i++) {
+			char c = s.charAt(i);
+			if (c == '\n') {
+				penY += LINE_HEIGHT;
+				penX = x;
+			} else if (c < CHARS) {
+				if (visible[c]) {
+					float u = (c % CELLS_ACROSS) * cellU;
+					float v = (c / CELLS_ACROSS) * cellV;
+					SpriteBatch.putQuad(mesh, penX, penY - BASELINE, CELL_WIDTH, CELL_HEIGHT, u, v, u + cellU, v + cellV, color);
+				}
+				penX += advance[c];
+			}
+		}
+		mesh.flip();
+
+		cachedText[entry] = s;
+		cachedX[entry] = x;
+		cachedY[entry] = y;
+		cachedMesh[entry] = mesh;
+		cachedQuads[entry] = quads;
+		return entry;
+	}
+
+	/**
+	 * Plot a single pixel of the current letter into its cell
+	 *
+	 * @param x The x location of the pixel in the cell
+	 * @param y The y location of the pixel in the cell
+	 */
+	private void plot(int x, int y) {
+		if ((x < 0) || (x >= CELL_WIDTH) || (y < 0) || (y >= CELL_HEIGHT)) {
+			return;
+		}
+		int px = (current % CELLS_ACROSS) * CELL_WIDTH + x;
+		int py = (current / CELLS_ACROSS) * CELL_HEIGHT + y;
+		pixels[py * CELLS_ACROSS * CELL_WIDTH + px] = 0xffffffff;
+		visible[current] = true;
+	}
+
+	/**
+	 * Plot a letter into its cell
+	 *
+	 * @param c The letter to plot
+	 * @return The distance to move along after the letter
+	 */
+	private int rasterize(char c) {
+		int x = 0;
+		int y = BASELINE;
+		if(c == 'a'){
+			for(int i=0;i<8;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-8);
+				plot(x+i, y-4);
+			}
+			x+=8;
+		}else if(c == 'b'){
+			for(int i=0;i<8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=1;i<=6;i++){
+				plot(x+i, y);
+				plot(x+i, y-4);
+				plot(x+i, y-8);
+			}
+			plot(x+7, y-5);
+			plot(x+7, y-7);
+			plot(x+7, y-6);
+			
+			plot(x+7, y-1);
+			plot(x+7, y-2);
+			plot(x+7, y-3);
+			x+=8;
+		}else if(c == 'c'){
+			for(int i=1;i<=7;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y);
+				plot(x+i, y-8);
+			}
+			plot(x+6, y-1);
+			plot(x+6, y-2);
+			
+			plot(x+6, y-6);
+			plot(x+6, y-7);
+			
+			x+=8;
+		}else if(c == 'd'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y);
+				plot(x+i, y-8);
+			}
+			plot(x+6, y-1);
+			plot(x+6, y-2);
+			plot(x+6, y-3);
+			plot(x+6, y-4);
+			plot(x+6, y-5);
+			plot(x+6, y-6);
+			plot(x+6, y-7);
+			
+			x+=8;
+		}else if(c == 'e'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=1;i<=6;i++){
+				plot(x+i, y-0);
+				plot(x+i, y-8);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-4);
+			}
+			x+=8;
+		}else if(c == 'f'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=1;i<=6;i++){
+				plot(x+i, y-8);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-4);
+			}
+			x+=8;
+		}else if(c == 'g'){
+			for(int i=1;i<=7;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y);
+				plot(x+i, y-8);
+			}
+			plot(x+6, y-1);
+			plot(x+6, y-2);
+			plot(x+6, y-3);
+			plot(x+5, y-3);
+			plot(x+7, y-3);
+			
+			plot(x+6, y-6);
+			plot(x+6, y-7);
+			
+			x+=8;
+		}else if(c == 'h'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-4);
+			}
+			x+=8;
+		}else if(c == 'i'){
+			for(int i=0;i<=8;i++){
+				plot(x+3, y-i);
+			}
+			for(int i=1;i<=5;i++){
+				plot(x+i, y-0);
+				plot(x+i, y-8);
+			}
+			x+=7;
+		}else if(c == 'j'){
+			for(int i=1;i<=8;i++){
+				plot(x+6, y-i);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-0);
+			}
+			plot(x+1, y-3);
+			plot(x+1, y-2);
+			plot(x+1, y-1);
+			x+=8;
+		}else if(c == 'k'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			plot(x+6, y-8);
+			plot(x+5, y-7);
+			plot(x+4, y-6);
+			plot(x+3, y-5);
+			plot(x+2, y-4);
+			plot(x+2, y-3);
+			plot(x+3, y-4);
+			plot(x+4, y-3);
+			plot(x+5, y-2);
+			plot(x+6, y-1);
+			plot(x+7, y);
+			x+=8;
+		}else if(c == 'l'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=1;i<=6;i++){
+				plot(x+i, y);
+			}
+			x+=7;
+		}else if(c == 'm'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			plot(x+3, y-6);
+			plot(x+2, y-7);
+			plot(x+4, y-5);
+			
+			plot(x+5, y-6);
+			plot(x+6, y-7);
+			plot(x+4, y-5);
+			x+=8;
+		}else if(c == 'n'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			plot(x+2, y-7);
+			plot(x+2, y-6);
+			plot(x+3, y-5);
+			plot(x+4, y-4);
+			plot(x+5, y-3);
+			plot(x+6, y-2);
+			plot(x+6, y-1);
+			x+=8;
+		}else if(c == 'o' || c == '0'){
+			for(int i=1;i<=7;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-8);
+				plot(x+i, y-0);
+			}
+			x+=8;
+		}else if(c == 'p'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-8);
+				plot(x+i, y-4);
+			}
+			plot(x+6, y-7);
+			plot(x+6, y-5);
+			plot(x+6, y-6);
+			x+=8;
+		}else if(c == 'q'){
+			for(int i=1;i<=7;i++){
+				plot(x+1, y-i);
+				if(i != 1) plot(x+7, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-8);
+				if(i != 6) plot(x+i, y-0);
+			}
+			plot(x+4, y-3);
+			plot(x+5, y-2);
+			plot(x+6, y-1);
+			plot(x+7, y);
+			x+=8;
+		}else if(c == 'r'){
+			for(int i=0;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-8);
+				plot(x+i, y-4);
+			}
+			plot(x+6, y-7);
+			plot(x+6, y-5);
+			plot(x+6, y-6);
+			
+			plot(x+4, y-3);
+			plot(x+5, y-2);
+			plot(x+6, y-1);
+			plot(x+7, y);
+			x+=8;
+		}else if(c == 's'){
+			for(int i=2;i<=7;i++){
+				plot(x+i, y-8);
+			}
+			plot(x+1, y-7);
+			plot(x+1, y-6);
+			plot(x+1, y-5);
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-4);
+				plot(x+i, y);
+			}
+			plot(x+7, y-3);
+			plot(x+7, y-2);
+			plot(x+7, y-1);
+			plot(x+1, y-1);
+			plot(x+1, y-2);
+			x+=8;
+		}else if(c == 't'){
+			for(int i=0;i<=8;i++){
+				plot(x+4, y-i);
+			}
+			for(int i=1;i<=7;i++){
+				plot(x+i, y-8);
+			}
+			x+=7;
+		}else if(c == 'u'){
+			for(int i=1;i<=8;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-0);
+			}
+			x+=8;
+		}else if(c == 'v'){
+			for(int i=2;i<=8;i++){
+				plot(x+1, y-i);
+				plot(x+6, y-i);
+			}
+			plot(x+2, y-1);
+			plot(x+5, y-1);
+			plot(x+3, y);
+			plot(x+4, y);
+			x+=7;
+		}else if(c == 'w'){
+			for(int i=1;i<=8;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			plot(x+2, y);
+			plot(x+3, y);
+			plot(x+5, y);
+			plot(x+6, y);
+			for(int i=1;i<=6;i++){
+				plot(x+4, y-i);
+			}
+			x+=8;
+		}else if(c == 'x'){
+			for(int i=1;i<=7;i++)
+				plot(x+i, y-i);
+			for(int i=7;i>=1;i--)
+				plot(x+i, y-8-i);
+			x+=8;
+		}else if(c == 'y'){
+			plot(x+4, y);
+			plot(x+4, y-1);
+			plot(x+4, y-2);
+			plot(x+4, y-3);
+			plot(x+4, y-4);
+			
+			plot(x+3, y-5);
+			plot(x+2, y-6);
+			plot(x+1, y-7);
+			plot(x+1, y-8);
+			
+			plot(x+5, y-5);
+			plot(x+6, y-6);
+			plot(x+7, y-7);
+			plot(x+7, y-8);
+			x+=8;
+		}else if(c == 'z'){
+			for(int i=1;i<=6;i++){
+				plot(x+i, y);
+				plot(x+i, y-8);
+				plot(x+i, y-i);
+			}
+			plot(x+6, y-7);
+			x += 8;
+		}else if(c == '1'){
+			for(int i=2;i<=6;i++){
+				plot(x+i, y);
+			}
+			for(int i=1;i<=8;i++){
+				plot(x+4, y-i);
+			}
+			plot(x+3, y-7);
+			x += 8;
+		}else if(c == '2'){
+			for(int i=1;i<=6;i++){
+				plot(x+i, y);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-8);
+			}
+			plot(x+1, y-7);
+			plot(x+1, y-6);
+			
+			plot(x+6, y-7);
+			plot(x+6, y-6);
+			plot(x+6, y-5);
+			plot(x+5, y-4);
+			plot(x+4, y-3);
+			plot(x+3, y-2);
+			plot(x+2, y-1);
+			x += 8;
+		}else if(c == '3'){
+			for(int i=1;i<=5;i++){
+				plot(x+i, y-8);
+				plot(x+i, y);
+			}
+			for(int i=1;i<=7;i++){
+				plot(x+6, y-i);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-4);
+			}
+			x += 8;
+		}else if(c == '4'){
+			for(int i=2;i<=8;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=7;i++){
+				plot(x+i, y-1);
+			}
+			for(int i=0;i<=4;i++){
+				plot(x+4, y-i);
+			}
+			x+=8;
+		}else if(c == '5'){
+			for(int i=1;i<=7;i++){
+				plot(x+i, y-8);
+			}
+			for(int i=4;i<=7;i++){
+				plot(x+1, y-i);
+			}
+			plot(x+1, y-1);
+			plot(x+2, y);
+			plot(x+3, y);
+			plot(x+4, y);
+			plot(x+5, y);
+			plot(x+6, y);
+			
+			plot(x+7, y-1);
+			plot(x+7, y-2);
+			plot(x+7, y-3);
+			
+			plot(x+6, y-4);
+			plot(x+5, y-4);
+			plot(x+4, y-4);
+			plot(x+3, y-4);
+			plot(x+2, y-4);
+			x += 8;
+		}else if(c == '6'){
+			for(int i=1;i<=7;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y);
+			}
+			for(int i=2;i<=5;i++){
+				plot(x+i, y-4);
+				plot(x+i, y-8);
+			}
+			plot(x+7, y-1);
+			plot(x+7, y-2);
+			plot(x+7, y-3);
+			plot(x+6, y-4);
+			x+=8;
+		}else if(c == '7'){
+			for(int i=0;i<=7;i++)
+				plot(x+i, y-8);
+			plot(x+7, y-7);
+			plot(x+7, y-6);
+			
+			plot(x+6, y-5);
+			plot(x+5, y-4);
+			plot(x+4, y-3);
+			plot(x+3, y-2);
+			plot(x+2, y-1);
+			plot(x+1, y);
+			x+=8;
+		}else if(c == '8'){
+			for(int i=1;i<=7;i++){
+				plot(x+1, y-i);
+				plot(x+7, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-8);
+				plot(x+i, y-0);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-4);
+			}
+			x += 8;
+		}else if(c == '9'){
+			for(int i=1;i<=7;i++){
+				plot(x+7, y-i);
+			}
+			for(int i=5;i<=7;i++){
+				plot(x+1, y-i);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-8);
+				plot(x+i, y-0);
+			}
+			for(int i=2;i<=6;i++){
+				plot(x+i, y-4);
+			}
+			plot(x+1, y-0);
+			x += 8;
+		}else if(c == '.'){
+			plot(x+1, y);
+			x+=2;
+		}else if(c == ','){
+			plot(x+1, y);
+			plot(x+1, y-1);
+			x+=2;
+		}else if(c == ' '){
+			x += 8;
+		}
+		return x;
+	}
+}
@@ -0,0 +1,535 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Draws sprites by collecting their quads into a vertex buffer and
+ * sending them to the card in as few draw calls as possible, rather
+ * than drawing each one on its own in immediate mode. Quads are added
+ * until the texture changes or the buffer fills, then the whole lot is
+ * drawn with a single call. Textures that are regions of the same atlas
+ * page count as the same texture.
+ *
+ * Only uses what's available in an OpenGL 3.2 core profile: a vertex
+ * array object, a vertex and index buffer and a minimal shader that
+ * multiplies the texture by a per-vertex colour.
+ *
+ * A tiled quad, used for scrolling backgrounds, repeats one region of
+ * its texture across the whole quad. The shader wraps the coordinates
+ * into the region itself, so the image can sit on an atlas page and
+ * still be repeated without a texture of its own.
+ *
+ * Quads from a texture whose image hasn't been uploaded yet are drawn
+ * from a clear placeholder pixel, so they don't show until it has.
+ *
+ * Each vertex is 20 bytes: position (2 floats), texture coordinates
+ * (2 floats) and colour (4 unsigned bytes).
+ */
+public class SpriteBatch {
+	/** The number of bytes in a vertex */
+	private static final int VERTEX_SIZE = 20;
+	/** The attribute index of the position */
+	private static final int POSITION = 0;
+	/** The attribute index of the texture coordinates */
+	private static final int TEX_COORD = 1;
+	/** The attribute index of the colour */
+	private static final int COLOR = 2;
+	/** The most quads that can be indexed with unsigned shorts */
+	private static final int MAX_QUADS = 65536 / 4;
+
+	/** The vertex shader, transforms pixel coordinates to the screen */
+	private static final String VERTEX_SHADER =
+		"#version 150\n" +
+		"uniform mat4 projection;\n" +
+		"in vec2 position;\n" +
+		"in vec2 texCoord;\n" +
+		"in vec4 color;\n" +
+		"out vec2 vTexCoord;\n" +
+		"out vec4 vColor;\n" +
+		"void main() {\n" +
+		"	vTexCoord = texCoord;\n" +
+		"	vColor = color;\n" +
+		"	gl_Position = projection * vec4(position, 0.0, 1.0);\n" +
+		"}\n";
+
+	/**
+	 * The fragment shader, tints the texture by the vertex colour. When
+	 * the region has a size the texture coordinates count tiles and are
+	 * wrapped into the region, kept half a texel inside its edges so
+	 * filtering doesn't pick up the neighbouring images.
+	 */
+	private static final String FRAGMENT_SHADER =
+		"#version 150\n" +
+		"uniform sampler2D image;\n" +
+		"uniform vec4 region;\n" +
+		"in vec2 vTexCoord;\n" +
+		"in vec4 vColor;\n" +
+		"out vec4 fragColor;\n" +
+		"void main() {\n" +
+		"	vec2 coord = vTexCoord;\n" +
+		"	if (region.z > 0.0) {\n" +
+		"		vec2 halfTexel = 0.5 / vec2(textureSize(image, 0));\n" +
+		"		coord = clamp(region.xy + fract(coord) * region.zw, region.xy + halfTexel, region.xy + region.zw - halfTexel);\n" +
+		"	}\n" +
+		"	fragColor = texture(image, coord) * vColor;\n" +
+		"}\n";
+
+	/** The number of quads the buffer holds */
+	private int capacity;
+	/** The vertices waiting to be drawn */
+	private ByteBuffer vertices;
+	/** The number of quads waiting to be drawn */
+	private int quads;
+	/** The texture the waiting quads use */
+	private Texture texture;
+	/** The colour given to new quads, packed as RGBA bytes in buffer order */
+	private int color = -1;
+
+	/** The shader program */
+	private int program;
+	/** The location of the projection uniform */
+	private int projectionLocation;
+	/** The location of the tiled region uniform */
+	private int regionLocation;
+	/** The vertex array object holding the attribute layout */
+	private int vao;
+	/** The vertex buffer */
+	private int vbo;
+	/** The index buffer, two triangles per quad */
+	private int ibo;
+	/** A single white pixel, the texture for solid rectangles */
+	private Texture white;
+	/** A single clear pixel, drawn from in place of a texture that hasn't been uploaded */
+	private Texture placeholder;
+	/** The projection matrix, column major */
+	private FloatBuffer projection = BufferUtils.createFloatBuffer(16);
+	/** The screen width the projection was built for */
+	private int projectionWidth;
+	/** The screen height the projection was built for */
+	private int projectionHeight;
+
+	/** True between begin() and end() */
+	private boolean drawing;
+	/** The number of draw calls made since begin() */
+	private int drawCalls;
+	/** The number of vertices drawn since begin() */
+	private int vertexCount;
+	/** The number of draw calls made in the last complete frame */
+	private int lastDrawCalls;
+	/** The number of vertices drawn in the last complete frame */
+	private int lastVertexCount;
+
+	/**
+	 * Create a new batch. Must be called with the GL context current.
+	 *
+	 * @param capacity The number of quads to collect before drawing
+	 */
+	public SpriteBatch(int capacity) {
+		this.capacity = Math.min(Math.max(capacity, 1), MAX_QUADS);
+		vertices = ByteBuffer.allocateDirect(this.capacity * 4 * VERTEX_SIZE).order(ByteOrder.nativeOrder());
+
+		program = createProgram();
+		projectionLocation = GL20.glGetUniformLocation(program, "projection");
+		regionLocation = GL20.glGetUniformLocation(program, "region");
+		GL20.glUseProgram(program);
+		GL20.glUniform1i(GL20.glGetUniformLocation(program, "image"), 0);
+		GL20.glUniform4f(regionLocation, 0, 0, 0, 0);
+		GL20.glUseProgram(0);
+
+		vao = GL30.glGenVertexArrays();
+		GL30.glBindVertexArray(vao);
+
+		vbo = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices.capacity(), GL15.GL_STREAM_DRAW);
+		GL20.glEnableVertexAttribArray(POSITION);
+		GL20.glVertexAttribPointer(POSITION, 2, GL11.GL_FLOAT, false, VERTEX_SIZE, 0);
+		GL20.glEnableVertexAttribArray(TEX_COORD);
+		GL20.glVertexAttribPointer(TEX_COORD, 2, GL11.GL_FLOAT, false, VERTEX_SIZE, 8);
+		GL20.glEnableVertexAttribArray(COLOR);
+		GL20.glVertexAttribPointer(COLOR, 4, GL11.GL_UNSIGNED_BYTE, true, VERTEX_SIZE, 16);
+
+		// the indices never change, every quad is the same two triangles
+		ShortBuffer indices = BufferUtils.createShortBuffer(this.capacity * 6);
+		for (int i=0;i<this.capacity;i++) {
+			short v = (short) (i * 4);
+			indices.put(v).put((short) (v + 1)).put((short) (v + 2));
+			indices.put(v).put((short) (v + 2)).put((short) (v + 3));
+		}
+		indices.flip();
+		ibo = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ibo);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+
+		GL30.glBindVertexArray(0);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+
+		white = createPixelTexture(0xffffffff);
+		placeholder = createPixelTexture(0);
+	}
+
+	/**
+	 * Start a frame. Quads are collected until end() is called.
+	 *
+	 * @param width The width of the screen in pixels
+	 * @param height The height of the screen in pixels
+	 */
+	public void begin(int width, int height) {
+		GL20.glUseProgram(program);
+		if ((width != projectionWidth) || (height != projectionHeight)) {
+			// an orthographic projection with 0,0 at the top left
+			projection.clear();
+			projection.put(2f / width).put(0).put(0).put(0);
+			projection.put(0).put(-2f / height).put(0).put(0);
+			projection.put(0).put(0).put(-1).put(0);
+			projection.put(-1).put(1).put(0).put(1);
+			projection.flip();
+			GL20.glUniformMatrix4(projectionLocation, false, projection);
+			projectionWidth = width;
+			projectionHeight = height;
+		}
+		GL30.glBindVertexArray(vao);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+
+		texture = null;
+		color = -1;
+		quads = 0;
+		vertices.clear();
+		drawCalls = 0;
+		vertexCount = 0;
+		drawing = true;
+	}
+
+	/**
+	 * Set the colour the following quads are tinted with
+	 *
+	 * @param r The red component (0-1)
+	 * @param g The green component (0-1)
+	 * @param b The blue component (0-1)
+	 * @param a The alpha component (0-1)
+	 */
+	public void setColor(float r, float g, float b, float a) {
+		color = packColor(r, g, b, a);
+	}
+
+	/**
+	 * Pack a colour the way it's stored in a vertex
+	 *
+	 * @param r The red component (0-1)
+	 * @param g The green component (0-1)
+	 * @param b The blue component (0-1)
+	 * @param a The alpha component (0-1)
+	 * @return The colour as RGBA bytes in native buffer order
+	 */
+	public static int packColor(float r, float g, float b, float a) {
+		int packed = ((int) (r * 255) & 0xff) | (((int) (g * 255) & 0xff) << 8) |
+				(((int) (b * 255) & 0xff) << 16) | (((int) (a * 255) & 0xff) << 24);
+		return (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) ? packed : Integer.reverseBytes(packed);
+	}
+
+	/**
+	 * Write a quad into a buffer in the batch's vertex format. Used to
+	 * build meshes once that are then drawn many times with drawMesh().
+	 *
+	 * @param buffer The buffer to write to, in native order with room for 4 vertices
+	 * @param x The x location of the top left corner
+	 * @param y The y location of the top left corner
+	 * @param width The width of the quad
+	 * @param height The height of the quad
+	 * @param u0 The texture x coordinate at the left edge
+	 * @param v0 The texture y coordinate at the top edge
+	 * @param u1 The texture x coordinate at the right edge
+	 * @param v1 The texture y coordinate at the bottom edge
+	 * @param packedColor The colour of the quad from packColor()
+	 */
+	public static void putQuad(ByteBuffer buffer, float x, float y, float width, float height, float u0, float v0, float u1, float v1, int packedColor) {
+		float x1 = x + width;
+		float y1 = y + height;
+		buffer.putFloat(x).putFloat(y).putFloat(u0).putFloat(v0).putInt(packedColor);
+		buffer.putFloat(x).putFloat(y1).putFloat(u0).putFloat(v1).putInt(packedColor);
+		buffer.putFloat(x1).putFloat(y1).putFloat(u1).putFloat(v1).putInt(packedColor);
+		buffer.putFloat(x1).putFloat(y).putFloat(u1).putFloat(v0).putInt(packedColor);
+	}
+
+	/**
+	 * Get the number of bytes a mesh of a given number of quads takes
+	 *
+	 * @param meshQuads The number of quads
+	 * @return The number of bytes
+	 */
+	public static int getMeshSize(int meshQuads) {
+		return meshQuads * 4 * VERTEX_SIZE;
+	}
+
+	/**
+	 * Add a textured quad
+	 *
+	 * @param quadTexture The texture to draw from
+	 * @param x The x location of the top left corner
+	 * @param y The y location of the top left corner
+	 * @param width The width of the quad
+	 * @param height The height of the quad
+	 * @param u0 The texture x coordinate at the left edge
+	 * @param v0 The texture y coordinate at the top edge
+	 * @param u1 The texture x coordinate at the right edge
+	 * @param v1 The texture y coordinate at the bottom edge
+	 */
+	public void draw(Texture quadTexture, float x, float y, float width, float height, float u0, float v0, float u1, float v1) {
+		if (!drawing) {
+			throw new IllegalStateException("SpriteBatch.begin() must be called before drawing");
+		}
+		if ((texture == null) || (quadTexture.getTextureID() != texture.getTextureID()) || (quads == capacity)) {
+			flush();
+			texture = quadTexture;
+		}
+
+		float x1 = x + width;
+		float y1 = y + height;
+		vertex(x, y, u0, v0);
+		vertex(x, y1, u0, v1);
+		vertex(x1, y1, u1, v1);
+		vertex(x1, y, u1, v0);
+		quads++;
+	}
+
+	/**
+	 * Add a mesh of quads built up front with putQuad(). The vertices
+	 * are copied into the batch as they are, so a mesh that doesn't
+	 * change costs one copy rather than the work of building it.
+	 *
+	 * @param meshTexture The texture the mesh is drawn from
+	 * @param mesh The vertices of the mesh, from position 0 to the limit
+	 * @param meshQuads The number of quads in the mesh
+	 */
+	public void drawMesh(Texture meshTexture, ByteBuffer mesh, int meshQuads) {
+		if (!drawing) {
+			throw new IllegalStateException("SpriteBatch.begin() must be called before drawing");
+		}
+		if (meshQuads > capacity) {
+			throw new IllegalArgumentException("A mesh of "+meshQuads+" quads won't fit in a batch of "+capacity);
+		}
+		if ((texture == null) || (meshTexture.getTextureID() != texture.getTextureID()) || (quads + meshQuads > capacity)) {
+			flush();
+			texture = meshTexture;
+		}
+
+		mesh.position(0);
+		vertices.put(mesh);
+		mesh.position(0);
+		quads += meshQuads;
+	}
+
+	/**
+	 * Draw a quad filled with copies of one region of a texture, as a
+	 * draw call of its own.
+	 *
+	 * @param quadTexture The texture to draw from
+	 * @param x The x location of the top left corner
+	 * @param y The y location of the top left corner
+	 * @param width The width of the quad
+	 * @param height The height of the quad
+	 * @param u0 The texture x coordinate of the left edge of the region
+	 * @param v0 The texture y coordinate of the top edge of the region
+	 * @param u1 The texture x coordinate of the right edge of the region
+	 * @param v1 The texture y coordinate of the bottom edge of the region
+	 * @param tileWidth The width each copy is drawn at
+	 * @param tileHeight The height each copy is drawn at
+	 * @param offsetX How far the copies are shifted right
+	 * @param offsetY How far the copies are shifted down
+	 */
+	public void drawTiled(Texture quadTexture, float x, float y, float width, float height, float u0, float v0, float u1, float v1,
+			float tileWidth, float tileHeight, float offsetX, float offsetY) {
+		if (!drawing) {
+			throw new IllegalStateException("SpriteBatch.begin() must be called before drawing");
+		}
+		flush();
+		texture = quadTexture;
+
+		// the coordinates count tiles, the shader wraps them into the region
+		float s0 = -offsetX / tileWidth;
+		float t0 = -offsetY / tileHeight;
+		float s1 = s0 + width / tileWidth;
+		float t1 = t0 + height / tileHeight;
+		vertex(x, y, s0, t0);
+		vertex(x, y + height, s0, t1);
+		vertex(x + width, y + height, s1, t1);
+		vertex(x + width, y, s1, t0);
+		quads++;
+
+		GL20.glUniform4f(regionLocation, u0, v0, u1 - u0, v1 - v0);
+		flush();
+		GL20.glUniform4f(regionLocation, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Add a solid rectangle in the current colour
+	 *
+	 * @param x The x location of the top left corner
+	 * @param y The y location of the top left corner
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 */
+	public void fillRect(float x, float y, float width, float height) {
+		draw(white, x, y, width, height, 0, 0, 1, 1);
+	}
+
+	/**
+	 * Draw every quad collected so far
+	 */
+	public void flush() {
+		if (quads == 0) {
+			return;
+		}
+
+		vertices.flip();
+		// orphan the old storage so we don't wait on the card still
+		// drawing from it, then fill the new storage
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices.capacity(), GL15.GL_STREAM_DRAW);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, vertices);
+
+		if (texture.isUploaded()) {
+			texture.bind();
+		} else {
+			placeholder.bind();
+		}
+		GL11.glDrawElements(GL11.GL_TRIANGLES, quads * 6, GL11.GL_UNSIGNED_SHORT, 0);
+
+		drawCalls++;
+		vertexCount += quads * 4;
+		quads = 0;
+		vertices.clear();
+	}
+
+	/**
+	 * Finish a frame, drawing anything still waiting
+	 */
+	public void end() {
+		flush();
+		GL30.glBindVertexArray(0);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GL20.glUseProgram(0);
+
+		drawing = false;
+		lastDrawCalls = drawCalls;
+		lastVertexCount = vertexCount;
+	}
+
+	/**
+	 * Get the number of draw calls made in the last complete frame
+	 *
+	 * @return The number of draw calls
+	 */
+	public int getDrawCalls() {
+		return lastDrawCalls;
+	}
+
+	/**
+	 * Get the number of vertices drawn in the last complete frame
+	 *
+	 * @return The number of vertices
+	 */
+	public int getVertexCount() {
+		return lastVertexCount;
+	}
+
+	/**
+	 * Release the GL resources held by this batch
+	 */
+	public void dispose() {
+		GL15.glDeleteBuffers(vbo);
+		GL15.glDeleteBuffers(ibo);
+		GL30.glDeleteVertexArrays(vao);
+		GL20.glDeleteProgram(program);
+		GL11.glDeleteTextures(white.getTextureID());
+		GL11.glDeleteTextures(placeholder.getTextureID());
+	}
+
+	/**
+	 * Add a vertex to the buffer
+	 *
+	 * @param x The x location
+	 * @param y The y location
+	 * @param u The texture x coordinate
+	 * @param v The texture y coordinate
+	 */
+	private void vertex(float x, float y, float u, float v) {
+		vertices.putFloat(x).putFloat(y).putFloat(u).putFloat(v).putInt(color);
+	}
+
+	/**
+	 * Compile and link the shader program
+	 *
+	 * @return The program
+	 */
+	private static int createProgram() {
+		int vertexShader = compile(GL20.GL_VERTEX_SHADER, VERTEX_SHADER);
+		int fragmentShader = compile(GL20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+
+		int program = GL20.glCreateProgram();
+		GL20.glAttachShader(program, vertexShader);
+		GL20.glAttachShader(program, fragmentShader);
+		GL20.glBindAttribLocation(program, POSITION, "position");
+		GL20.glBindAttribLocation(program, TEX_COORD, "texCoord");
+		GL20.glBindAttribLocation(program, COLOR, "color");
+		GL30.glBindFragDataLocation(program, 0, "fragColor");
+		GL20.glLinkProgram(program);
+		if (GL20.glGetProgrami(program, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
+			throw new RuntimeException("Unable to link sprite shader: "+GL20.glGetProgramInfoLog(program, 1024));
+		}
+
+		GL20.glDetachShader(program, vertexShader);
+		GL20.glDetachShader(program, fragmentShader);
+		GL20.glDeleteShader(vertexShader);
+		GL20.glDeleteShader(fragmentShader);
+		return program;
+	}
+
+	/**
+	 * Compile a shader
+	 *
+	 * @param type The type of shader
+	 * @param source The source of the shader
+	 * @return The shader
+	 */
+	private static int compile(int type, String source) {
+		int shader = GL20.glCreateShader(type);
+		GL20.glShaderSource(shader, source);
+		GL20.glCompileShader(shader);
+		if (GL20.glGetShaderi(shader, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+			throw new RuntimeException("Unable to compile sprite shader: "+GL20.glGetShaderInfoLog(shader, 1024));
+		}
+		return shader;
+	}
+
+	/**
+	 * Create a texture holding a single pixel
+	 *
+	 * @param rgba The colour of the pixel
+	 * @return The texture
+	 */
+	private static Texture createPixelTexture(int rgba) {
+		int id = GL11.glGenTextures();
+		Texture texture = new Texture(GL11.GL_TEXTURE_2D, id);
+		texture.setWidth(1);
+		texture.setHeight(1);
+		texture.setTextureWidth(1);
+		texture.setTextureHeight(1);
+
+		ByteBuffer pixel = BufferUtils.createByteBuffer(4);
+		pixel.put((byte) (rgba >>> 24)).put((byte) (rgba >>> 16)).put((byte) (rgba >>> 8)).put((byte) rgba).flip();
+		texture.bind();
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, 1, 1, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixel);
+		return texture;
+	}
+}
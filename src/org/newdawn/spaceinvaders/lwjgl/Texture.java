@@ -1,6 +1,7 @@
 package org.newdawn.spaceinvaders.lwjgl;
 
 import org.lwjgl.opengl.GL11;
+import org.truman.spaceinvaders.CollisionMask;
 
 /**
  * A texture to be bound within JOGL. This object is responsible for 
@@ -11,6 +12,14 @@ import org.lwjgl.opengl.GL11;
  * considerably bigged that the source image and hence the texture
  * mapping coordinates need to be adjusted to matchup drawing the
  * sprite against the texture.
+ * 
+ * A texture may also be just one region of a larger atlas page, in
+ * which case it shares the page's GL texture and the coordinates
+ * are those of its region within the page.
+ * 
+ * A texture whose image is still being decoded has its size but no
+ * GL texture yet (an ID of 0), it's given one once the decoded image
+ * has been uploaded.
  *
  * @author Kevin Glass
  * @author Brian Matzon
@@ -32,6 +41,22 @@ public class Texture {
     private float widthRatio;
     /** The ratio of the height of the image to the texture */
     private float heightRatio;
+    /** The texture x coordinate of the left edge of the image */
+    private float u;
+    /** The texture y coordinate of the top edge of the image */
+    private float v;
+    /** The solid pixels of the image, null if they're all solid */
+    private CollisionMask collisionMask;
+    /** The decode of the image, null once it's been uploaded */
+    private volatile TextureLoader.Decode decode;
+    /** The atlas page this texture is a region of, null if it's a texture of its own */
+    private Texture page;
+    /** The x location of the region on the page in pixels */
+    private int pageX;
+    /** The y location of the region on the page in pixels */
+    private int pageY;
+    /** True once the region's mask has been cut from the page's */
+    private boolean regionMasked;
     
     /**
      * Create a new texture
@@ -44,13 +69,89 @@ public class Texture {
         this.textureID = textureID;
     }
     
+    /**
+     * Create a texture covering one region of an atlas page
+     *
+     * @param page The atlas page holding the image
+     * @param x The x location of the image on the page in pixels
+     * @param y The y location of the image on the page in pixels
+     * @param width The width of the image
+     * @param height The height of the image
+     */
+    public Texture(Texture page,int x,int y,int width,int height) {
+        this(page.target,page.textureID);
+        this.width = width;
+        this.height = height;
+        this.texWidth = page.texWidth;
+        this.texHeight = page.texHeight;
+        this.u = ((float) x)/texWidth;
+        this.v = ((float) y)/texHeight;
+        setWidth();
+        setHeight();
+        // the page may still be being decoded, the GL texture and the
+        // mask are taken from it when they're needed
+        this.page = page;
+        this.pageX = x;
+        this.pageY = y;
+    }
+    
     /**
      * Bind the specified GL context to a texture
      *
      * @param gl The GL context to bind to
      */
     public void bind() {
-      GL11.glBindTexture(target, textureID); 
+      GL11.glBindTexture(target, getTextureID()); 
+    }
+    
+    /**
+     * Get the GL texture ID
+     *
+     * @return The GL texture ID, 0 if the image hasn't been uploaded yet
+     */
+    public int getTextureID() {
+        return (page != null) ? page.getTextureID() : textureID;
+    }
+    
+    /**
+     * Set the GL texture ID, once the image has been uploaded
+     *
+     * @param textureID The GL texture ID
+     */
+    public void setTextureID(int textureID) {
+        this.textureID = textureID;
+    }
+    
+    /**
+     * Check if the image has been uploaded, until it has there's
+     * nothing to draw from
+     *
+     * @return True if the image has been uploaded
+     */
+    public boolean isUploaded() {
+        return getTextureID() != 0;
+    }
+    
+    /**
+     * Check if the image has been decoded, until it has its mask isn't known
+     *
+     * @return True if the image has been decoded
+     */
+    public boolean isDecoded() {
+        if (page != null) {
+            return page.isDecoded();
+        }
+        TextureLoader.Decode pending = decode;
+        return (pending == null) || pending.isDone();
+    }
+    
+    /**
+     * Set the decode of the image
+     *
+     * @param decode The decode of the image, null once it's been uploaded
+     */
+    void setDecode(TextureLoader.Decode decode) {
+        this.decode = decode;
     }
     
     /**
@@ -91,6 +192,24 @@ public class Texture {
         return width;
     }
     
+    /**
+     * Get the texture x coordinate of the left edge of the image
+     *
+     * @return The texture x coordinate of the left edge
+     */
+    public float getU() {
+        return u;
+    }
+    
+    /**
+     * Get the texture y coordinate of the top edge of the image
+     *
+     * @return The texture y coordinate of the top edge
+     */
+    public float getV() {
+        return v;
+    }
+    
     /**
      * Get the height of the physical texture
      *
@@ -129,6 +248,39 @@ public class Texture {
         setWidth();
     }
     
+    /**
+     * Get the solid pixels of the image. This never waits for the image
+     * to be decoded, until it has been there's no mask and collisions
+     * are found from the rectangle alone.
+     *
+     * @return The mask of the image, or null if every pixel is solid or it isn't known yet
+     */
+    public CollisionMask getCollisionMask() {
+        TextureLoader.Decode pending = decode;
+        if (pending != null) {
+            DecodedImage image = pending.getImage();
+            return (image != null) ? image.collisionMask : null;
+        }
+        if ((page != null) && !regionMasked) {
+            if (!page.isDecoded()) {
+                return null;
+            }
+            CollisionMask pageMask = page.getCollisionMask();
+            collisionMask = (pageMask != null) ? pageMask.region(pageX,pageY,width,height) : null;
+            regionMasked = true;
+        }
+        return collisionMask;
+    }
+    
+    /**
+     * Set the solid pixels of the image
+     *
+     * @param collisionMask The mask of the image, or null if every pixel is solid
+     */
+    public void setCollisionMask(CollisionMask collisionMask) {
+        this.collisionMask = collisionMask;
+    }
+    
     /**
      * Set the height of the texture. This will update the
      * ratio also.
@@ -0,0 +1,329 @@
+package org.newdawn.spaceinvaders.lwjgl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.lwjgl.opengl.GL11;
+import org.truman.spaceinvaders.CollisionMask;
+
+/**
+ * A file of texture data kept between runs, so an image that hasn't
+ * changed since the last run doesn't have to be decoded again. Each
+ * entry is the converted texture data of one image, padded out to the
+ * texture's power of two size exactly as it's sent to the card, and is
+ * found by a hash of the image file's contents rather than its name.
+ *
+ * The file is mapped into memory the first time it's used and the
+ * entries found are handed out as slices of the mapping, so they go
+ * from the file to the card with no decoding and no copies on the way.
+ * The mask of an entry's solid pixels is built again from the alpha of
+ * its texture data. Images decoded during a run are added to the end
+ * of the file, they're found in the mapping the next time.
+ *
+ * The file is laid out as a header (MAGIC, VERSION) then the entries
+ * one after another, each the 20 byte SHA-1 of the image file, the
+ * texture width, height, GL pixel format and the length of its data,
+ * then the data. An entry left half written is dropped, and a file
+ * that isn't a cache of this version or has grown past MAX_SIZE is
+ * started again. A cache that can't be read or written is turned off,
+ * the images are decoded as they would have been without it.
+ *
+ * Only one run at a time writes to the file. The file is locked when
+ * it's opened, and a run that can't have the lock, because another game
+ * is running from the same cache, uses the cache read only. It finds the
+ * entries already there but adds nothing, and it never cuts or restarts
+ * the file. Its entries are copied out of the file rather than mapped,
+ * so the run holding the lock can still cut the file short.
+ */
+public class TextureCache {
+	/** The first int of a cache file */
+	private static final int MAGIC = 0x53495443;
+	/** The version of the layout, a file of any other version is started again */
+	private static final int VERSION = 1;
+	/** The length of the file's header in bytes */
+	private static final int HEADER_SIZE = 8;
+	/** The length of the hash of an image file in bytes */
+	private static final int HASH_SIZE = 20;
+	/** The length of an entry's header in bytes */
+	private static final int ENTRY_SIZE = HASH_SIZE + 16;
+	/** The size past which the file is started again, so old entries don't pile up forever */
+	private static final long MAX_SIZE = 64 * 1024 * 1024;
+
+	/** The file holding the cache */
+	private File file;
+	/** The channel the file is read and written through, null until it's opened */
+	private FileChannel channel;
+	/** The entries in the file when it was opened, mapped read only or copied if the file isn't locked */
+	private ByteBuffer mapping;
+	/** Where each entry's header is in the mapping, by the hash of its image */
+	private HashMap<ByteBuffer, Integer> entries = new HashMap<ByteBuffer, Integer>();
+	/** The hashes of the images added since the file was opened */
+	private HashSet<ByteBuffer> added = new HashSet<ByteBuffer>();
+	/** True once the file has failed to be read or written */
+	private boolean broken;
+	/** True if another run holds the lock on the file, nothing is added to it */
+	private boolean readOnly;
+	/** The number of images found in the cache */
+	private int hits;
+	/** The number of images not found in the cache */
+	private int misses;
+
+	/**
+	 * Create a cache held in a file. The file is created if it doesn't
+	 * exist the first time the cache is used.
+	 *
+	 * @param file The file holding the cache
+	 */
+	public TextureCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Get the hash an image file's entry is found by
+	 *
+	 * @param contents The contents of the image file
+	 * @return The hash of the contents
+	 */
+	public static byte[] hash(byte[] contents) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(contents);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has to provide SHA-1
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Find the texture data of an image
+	 *
+	 * @param hash The hash of the image file
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param texWidth The width of the texture
+	 * @param texHeight The height of the texture
+	 * @return The image, its data a slice of the mapped file, or null if it isn't in the cache
+	 */
+	public synchronized DecodedImage get(byte[] hash, int width, int height, int texWidth, int texHeight) {
+		open();
+		Integer offset = entries.get(ByteBuffer.wrap(hash));
+		if ((offset == null) || (mapping.getInt(offset + HASH_SIZE) != texWidth) || (mapping.getInt(offset + HASH_SIZE + 4) != texHeight)) {
+			misses++;
+			return null;
+		}
+		hits++;
+
+		int srcPixelFormat = mapping.getInt(offset + HASH_SIZE + 8);
+		int length = mapping.getInt(offset + HASH_SIZE + 12);
+		ByteBuffer pixels = mapping.duplicate();
+		pixels.position(offset + ENTRY_SIZE);
+		pixels.limit(offset + ENTRY_SIZE + length);
+		pixels = pixels.slice();
+
+		CollisionMask mask = (srcPixelFormat == GL11.GL_RGBA) ? CollisionMask.create(pixels, texWidth, width, height) : null;
+		return new DecodedImage(pixels, srcPixelFormat, mask);
+	}
+
+	/**
+	 * Add the texture data of an image to the end of the file
+	 *
+	 * @param hash The hash of the image file
+	 * @param image The decoded image
+	 * @param texWidth The width of the texture
+	 * @param texHeight The height of the texture
+	 */
+	public synchronized void put(byte[] hash, DecodedImage image, int texWidth, int texHeight) {
+		open();
+		ByteBuffer key = ByteBuffer.wrap(hash);
+		if (broken || readOnly || entries.containsKey(key) || !added.add(key)) {
+			return;
+		}
+
+		ByteBuffer pixels = image.pixels.duplicate();
+		pixels.rewind();
+		ByteBuffer header = ByteBuffer.allocate(ENTRY_SIZE);
+		header.put(hash).putInt(texWidth).putInt(texHeight).putInt(image.srcPixelFormat).putInt(pixels.remaining());
+		header.flip();
+		try {
+			long end = channel.size();
+			end += write(header, end);
+			write(pixels, end);
+		} catch (IOException e) {
+			fail("Unable to write to texture cache", e);
+		}
+	}
+
+	/**
+	 * Write the whole of a buffer to the file
+	 *
+	 * @param buffer The buffer to write from its position to its limit
+	 * @param position The position in the file to write at
+	 * @return The number of bytes written
+	 * @throws IOException Indicates a failure to write to the file
+	 */
+	private int write(ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, position + written);
+		}
+		return written;
+	}
+
+	/**
+	 * Open the file, if it hasn't been, and map the entries in it. A
+	 * file that isn't a cache or is too big is started again, and an
+	 * entry left half written at the end is cut off, unless another run
+	 * holds the lock on it.
+	 */
+	private void open() {
+		if ((channel != null) || broken) {
+			return;
+		}
+
+		try {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			readOnly = !lock();
+
+			// walk the headers through the channel, the file may need
+			// cutting short and a mapped file can't always be cut
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(ENTRY_SIZE);
+			long end = 0;
+			if ((size >= HEADER_SIZE) && (size <= MAX_SIZE) && (read(header, 0, HEADER_SIZE) == HEADER_SIZE)
+					&& (header.getInt(0) == MAGIC) && (header.getInt(4) == VERSION)) {
+				end = HEADER_SIZE;
+				while (read(header, end, ENTRY_SIZE) == ENTRY_SIZE) {
+					long next = end + ENTRY_SIZE + header.getInt(HASH_SIZE + 12);
+					if ((header.getInt(HASH_SIZE + 12) < 0) || (next > size)) {
+						break;
+					}
+					end = next;
+				}
+			}
+
+			if (readOnly) {
+				// copy what's there, the run holding the lock may cut the file under a mapping
+				mapping = ByteBuffer.allocate((int) end);
+				if (read(mapping, 0, (int) end) < end) {
+					throw new IOException("Texture cache cut short while reading");
+				}
+			} else if (end == 0) {
+				channel.truncate(0);
+				header.clear();
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				write(header, 0);
+				end = HEADER_SIZE;
+			} else if (end < size) {
+				channel.truncate(end);
+			}
+
+			if (!readOnly) {
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+			}
+			for (int offset=HEADER_SIZE;offset<end;offset+=ENTRY_SIZE+mapping.getInt(offset + HASH_SIZE + 12)) {
+				byte[] hash = new byte[HASH_SIZE];
+				mapping.position(offset);
+				mapping.get(hash);
+				entries.put(ByteBuffer.wrap(hash), offset);
+			}
+		} catch (IOException e) {
+			fail("Unable to open texture cache", e);
+		}
+	}
+
+	/**
+	 * Take the lock on the file, without waiting if another run has it.
+	 * The lock is let go when the channel is closed.
+	 *
+	 * @return True if the lock was taken
+	 */
+	private boolean lock() {
+		try {
+			return channel.tryLock() != null;
+		} catch (OverlappingFileLockException e) {
+			// another cache in this run has the file
+			return false;
+		} catch (IOException e) {
+			// the file system can't lock files, so it can't be shared safely either
+			return false;
+		}
+	}
+
+	/**
+	 * Read part of the file into a buffer
+	 *
+	 * @param buffer The buffer to read into from its start
+	 * @param position The position in the file to read from
+	 * @param length The number of bytes to read
+	 * @return The number of bytes read, less than asked for at the end of the file
+	 * @throws IOException Indicates a failure to read the file
+	 */
+	private int read(ByteBuffer buffer, long position, int length) throws IOException {
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * Turn the cache off after the file has failed to be read or written
+	 *
+	 * @param message What was being done
+	 * @param e The failure
+	 */
+	private void fail(String message, IOException e) {
+		System.err.println(message+" "+file+": "+e);
+		broken = true;
+		entries.clear();
+		close();
+	}
+
+	/**
+	 * Get the number of images found in the cache
+	 *
+	 * @return The number of hits
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of images not found in the cache
+	 *
+	 * @return The number of misses
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Close the file. The slices already handed out stay readable.
+	 */
+	public synchronized void close() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing more is written, there's nothing to lose
+		}
+		channel = null;
+		broken = true;
+	}
+}
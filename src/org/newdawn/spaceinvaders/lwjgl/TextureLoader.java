@@ -1,6 +1,7 @@
 package org.newdawn.spaceinvaders.lwjgl;
 
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
@@ -11,17 +12,35 @@ import java.awt.image.DataBufferByte;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.lwjgl.opengl.GL11;
+import org.truman.spaceinvaders.CollisionMask;
 
 /**
  * A utility class to load textures for JOGL. This source is based
@@ -32,13 +51,41 @@ import org.lwjgl.opengl.GL11;
  * loaded from disk may not match this format this loader introduces
  * a intermediate image which the source image is copied into. In turn,
  * this image is used as source for the OpenGL texture.
+ * 
+ * Images that have been packed into an atlas at build time (see 
+ * AtlasPacker) aren't loaded on their own, they're handed out as 
+ * regions of the atlas page they were packed onto so that they all
+ * share one texture.
+ * 
+ * While an image is decoded the mask of its solid pixels is built
+ * as well and kept with the texture, so collisions can be checked
+ * against the pixels without going back to the image.
+ * 
+ * Images are decoded on a small pool of worker threads. Asking for a
+ * texture only reads the size from the image's header, the texture is
+ * handed back straight away and the decoded pixels are queued up to be
+ * sent to the card by uploadReady(), which the display calls at the
+ * start of each frame with a budget of time to spend on it. Until then
+ * the texture has no GL texture and the sprite batch draws a
+ * placeholder instead, so starting a level never holds up a frame
+ * while its images are decoded.
+ * 
+ * With a texture cache set, an image whose file hasn't changed since
+ * it was put in the cache isn't decoded at all, its texture data is
+ * taken straight from the cache file.
  *
  * @author Kevin Glass
  * @author Brian Matzon
  */
 public class TextureLoader {
+    /** The number of decoded images that can wait to be uploaded before the decoders wait for the display */
+    private static final int READY_CAPACITY = 4;
+    
     /** The table of textures that have been loaded in this loader */
     private HashMap<String, Texture> table = new HashMap<String, Texture>();
+    
+    /** Where each image packed into the atlas is, its page, x, y, width and height */
+    private HashMap<String, int[]> atlas;
 
     /** The colour model including alpha for the GL image */
     private ColorModel glAlphaColorModel;
@@ -46,6 +93,15 @@ public class TextureLoader {
     /** The colour model for the GL image */
     private ColorModel glColorModel;
     
+    /** The threads decoding images, started the first time one is needed */
+    private ExecutorService decoders;
+    
+    /** The decoded images waiting to be uploaded, in the order they were finished */
+    private BlockingQueue<Decode> ready = new ArrayBlockingQueue<Decode>(READY_CAPACITY);
+    
+    /** The cache of texture data kept between runs, null for none */
+    private TextureCache cache;
+    
     /** 
      * Create a new texture loader based on the game panel
      *
@@ -80,30 +136,306 @@ public class TextureLoader {
     } 
     
     /**
-     * Load a texture
+     * Set the cache of texture data kept between runs. Must be set 
+     * before any textures are loaded.
+     *
+     * @param cache The cache, null for none
+     */
+    public void setCache(TextureCache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     * Load a texture. The texture's size is known straight away but it
+     * isn't drawn until its image has been decoded and uploaded, so this
+     * can be called from any thread.
      *
      * @param resourceName The location of the resource to load
      * @return The loaded texture
      * @throws IOException Indicates a failure to access the resource
      */
-    public Texture getTexture(String resourceName) throws IOException {
+    public synchronized Texture getTexture(String resourceName) throws IOException {
         Texture tex = (Texture) table.get(resourceName);
         
         if (tex != null) {
             return tex;
         }
         
-        tex = getTexture(resourceName,
-                         GL11.GL_TEXTURE_2D, // target
-                         GL11.GL_RGBA,     // dst pixel format
-                         GL11.GL_LINEAR, // min filter (unused)
-                         GL11.GL_LINEAR);
+        int[] region = getAtlasRegion(resourceName);
+        if (region != null) {
+            Texture page = getTexture(AtlasPacker.PAGE_PREFIX+region[0]+".png");
+            tex = new Texture(page,region[1],region[2],region[3],region[4]);
+            table.put(resourceName,tex);
+            return tex;
+        }
         
+        tex = decodeLater(resourceName);
         table.put(resourceName,tex);
         
         return tex;
     }
     
+    /**
+     * Start decoding an image on the worker threads. The texture is
+     * sized from the image's header, it's given a GL texture once the
+     * decoded image has been uploaded.
+     *
+     * @param resourceName The location of the image
+     * @return The texture the image will be uploaded into
+     * @throws IOException Indicates a failure to read the image's header
+     */
+    private Texture decodeLater(final String resourceName) throws IOException {
+        final Dimension size = readSize(resourceName);
+        final int texWidth = get2Fold(size.width);
+        final int texHeight = get2Fold(size.height);
+        
+        Texture texture = new Texture(GL11.GL_TEXTURE_2D,0);
+        texture.setWidth(size.width);
+        texture.setHeight(size.height);
+        texture.setTextureWidth(texWidth);
+        texture.setTextureHeight(texHeight);
+        
+        Decode decode = new Decode(resourceName,texture,texWidth,texHeight,new Callable<DecodedImage>() {
+            public DecodedImage call() throws IOException {
+                return decode(resourceName,size.width,size.height,texWidth,texHeight);
+            }
+        });
+        texture.setDecode(decode);
+        getDecoders().execute(decode);
+        
+        return texture;
+    }
+    
+    /**
+     * Decode an image and convert it into texture data, on a worker 
+     * thread. If the cache has the image's texture data it's used as
+     * it is, otherwise the image is decoded and added to the cache.
+     *
+     * @param resourceName The location of the image
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param texWidth The width of the texture
+     * @param texHeight The height of the texture
+     * @return The decoded image
+     * @throws IOException Indicates a failure to read the image
+     */
+    private DecodedImage decode(String resourceName,int width,int height,int texWidth,int texHeight) throws IOException {
+        byte[] contents = readResource(resourceName);
+        byte[] hash = null;
+        if (cache != null) {
+            hash = TextureCache.hash(contents);
+            DecodedImage cached = cache.get(hash,width,height,texWidth,texHeight);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(contents));
+        if (bufferedImage == null) {
+            throw new IOException("Unknown image format: "+resourceName);
+        }
+        int srcPixelFormat = bufferedImage.getColorModel().hasAlpha() ? GL11.GL_RGBA : GL11.GL_RGB;
+        
+        DecodedImage image = new DecodedImage(convertImageData(bufferedImage,texWidth,texHeight),
+                                              srcPixelFormat,
+                                              CollisionMask.create(bufferedImage));
+        if (cache != null) {
+            cache.put(hash,image,texWidth,texHeight);
+        }
+        return image;
+    }
+    
+    /**
+     * Read the whole of a resource
+     *
+     * @param ref The location of the resource
+     * @return The contents of the resource
+     * @throws IOException Indicates a failure to find or read the resource
+     */
+    private byte[] readResource(String ref) throws IOException {
+        InputStream in = TextureLoader.class.getClassLoader().getResourceAsStream(ref);
+        if (in == null) {
+            throw new IOException("Cannot find: "+ref);
+        }
+        
+        try {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                contents.write(buffer, 0, read);
+            }
+            return contents.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Get the threads decoding images, starting them if they haven't
+     * been already. One processor is left for the display.
+     *
+     * @return The decoding threads
+     */
+    private ExecutorService getDecoders() {
+        if (decoders == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            decoders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "Texture decoder");
+                    // don't keep the game running once the window has gone
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return decoders;
+    }
+    
+    /**
+     * Send the images that have finished decoding to the card. One is
+     * sent if there are any, then more until the budget has been spent,
+     * so a burst of new images is spread over a few frames rather than
+     * stalling one. Must be called with the GL context current.
+     *
+     * @param budgetNanos The time to spend in nanoseconds
+     * @return The number of textures uploaded
+     */
+    public int uploadReady(long budgetNanos) {
+        long start = System.nanoTime();
+        int uploaded = 0;
+        do {
+            Decode decode = nextReady();
+            if (decode == null) {
+                break;
+            }
+            upload(decode);
+            uploaded++;
+        } while (System.nanoTime() - start < budgetNanos);
+        
+        return uploaded;
+    }
+    
+    /**
+     * Take the next decoded image off the queue
+     *
+     * @return The next image to upload or null if none are ready
+     */
+    Decode nextReady() {
+        return ready.poll();
+    }
+    
+    /**
+     * Upload a decoded image into its texture
+     *
+     * @param decode The decode that has finished
+     */
+    private void upload(Decode decode) {
+        DecodedImage image = decode.getImage();
+        Texture texture = decode.getTexture();
+        if (image == null) {
+            // reported as a sprite reports an image it can't find, but
+            // the display carries on with the placeholder in its place
+            System.err.println("Unable to load texture: "+decode.ref);
+            decode.getFailure().printStackTrace();
+            texture.setDecode(null);
+            return;
+        }
+        
+        int target = GL11.GL_TEXTURE_2D;
+        
+        int textureID = createTextureID();
+        GL11.glBindTexture(target, textureID);
+        GL11.glTexParameteri(target, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(target, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexImage2D(target, 
+                      0, 
+                      GL11.GL_RGBA, 
+                      decode.texWidth, 
+                      decode.texHeight, 
+                      0, 
+                      image.srcPixelFormat, 
+                      GL11.GL_UNSIGNED_BYTE, 
+                      image.pixels);
+        
+        texture.setCollisionMask(image.collisionMask);
+        texture.setTextureID(textureID);
+        texture.setDecode(null);
+    }
+    
+    /**
+     * Read the size of an image from its header, without decoding it
+     *
+     * @param ref The location of the image
+     * @return The size of the image
+     * @throws IOException Indicates a failure to find or read the image
+     */
+    private Dimension readSize(String ref) throws IOException {
+        InputStream in = TextureLoader.class.getClassLoader().getResourceAsStream(ref);
+        if (in == null) {
+            throw new IOException("Cannot find: "+ref);
+        }
+        
+        // cached in memory, only the first few bytes are read and a
+        // cache file on disk would cost more than the read
+        ImageInputStream stream = new MemoryCacheImageInputStream(in);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unknown image format: "+ref);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            stream.close();
+            in.close();
+        }
+    }
+    
+    /**
+     * Find where an image was packed into the atlas. The index is
+     * read the first time it's needed, if there isn't one nothing
+     * has been packed and every image is loaded on its own.
+     *
+     * @param resourceName The location of the image
+     * @return The page, x, y, width and height of the image in the atlas or null if it wasn't packed
+     * @throws IOException Indicates a failure to read the index
+     */
+    private int[] getAtlasRegion(String resourceName) throws IOException {
+        if (atlas == null) {
+            atlas = new HashMap<String, int[]>();
+            
+            InputStream in = TextureLoader.class.getClassLoader().getResourceAsStream(AtlasPacker.INDEX);
+            if (in != null) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        line = line.trim();
+                        if ((line.length() == 0) || line.startsWith("#")) {
+                            continue;
+                        }
+                        String[] parts = line.split("\\s+");
+                        int[] region = new int[5];
+                        for (int i=0;i<5;i++) {
+                            region[i] = Integer.parseInt(parts[i+1]);
+                        }
+                        atlas.put(parts[0],region);
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+        
+        return atlas.get(resourceName);
+    }
+    
     /**
      * Load a texture into OpenGL from a image reference on
      * disk.
@@ -121,6 +453,32 @@ public class TextureLoader {
                               int dstPixelFormat, 
                               int minFilter, 
                               int magFilter) throws IOException 
+    { 
+        BufferedImage bufferedImage = loadImage(resourceName); 
+        
+        Texture texture = createTexture(bufferedImage, target, dstPixelFormat, minFilter, magFilter);
+        texture.setCollisionMask(CollisionMask.create(bufferedImage));
+        
+        return texture;
+    }
+    
+    /**
+     * Load a texture into OpenGL from an image that has been built
+     * in memory rather than read from disk. The texture isn't kept
+     * in the table, it's up to the caller to hold on to it.
+     *
+     * @param bufferedImage The image to load
+     * @param target The GL target to load the texture against
+     * @param dstPixelFormat The pixel format of the screen
+     * @param minFilter The minimising filter
+     * @param magFilter The magnification filter
+     * @return The loaded texture
+     */
+    public Texture createTexture(BufferedImage bufferedImage, 
+                                 int target, 
+                                 int dstPixelFormat, 
+                                 int minFilter, 
+                                 int magFilter) 
     { 
         int srcPixelFormat = 0;
         
@@ -131,7 +489,6 @@ public class TextureLoader {
         // bind this texture 
         GL11.glBindTexture(target, textureID); 
  
-        BufferedImage bufferedImage = loadImage(resourceName); 
         texture.setWidth(bufferedImage.getWidth());
         texture.setHeight(bufferedImage.getHeight());
         
@@ -187,26 +544,32 @@ public class TextureLoader {
      * @param texture The texture to store the data into
      * @return A buffer containing the data
      */
-    private ByteBuffer convertImageData(BufferedImage bufferedImage,Texture texture) { 
-        ByteBuffer imageBuffer = null; 
-        WritableRaster raster;
-        BufferedImage texImage;
-        
-        int texWidth = 2;
-        int texHeight = 2;
-        
+    ByteBuffer convertImageData(BufferedImage bufferedImage,Texture texture) { 
         // find the closest power of 2 for the width and height
         // of the produced texture
-        while (texWidth < bufferedImage.getWidth()) {
-            texWidth *= 2;
-        }
-        while (texHeight < bufferedImage.getHeight()) {
-            texHeight *= 2;
-        }
+        int texWidth = get2Fold(bufferedImage.getWidth());
+        int texHeight = get2Fold(bufferedImage.getHeight());
         
         texture.setTextureHeight(texHeight);
         texture.setTextureWidth(texWidth);
         
+        return convertImageData(bufferedImage,texWidth,texHeight);
+    }
+    
+    /**
+     * Convert the buffered image into texture data of a given size. This
+     * doesn't touch GL so it can be run on any thread.
+     *
+     * @param bufferedImage The image to convert to a texture
+     * @param texWidth The width of the texture
+     * @param texHeight The height of the texture
+     * @return A buffer containing the data
+     */
+    ByteBuffer convertImageData(BufferedImage bufferedImage,int texWidth,int texHeight) { 
+        ByteBuffer imageBuffer = null; 
+        WritableRaster raster;
+        BufferedImage texImage;
+        
         // create a raster that can be used by OpenGL as a source
         // for a texture
         if (bufferedImage.getColorModel().hasAlpha()) {
@@ -268,4 +631,101 @@ public class TextureLoader {
 
       return temp.asIntBuffer();
     }    
+    
+    /**
+     * An image being decoded on a worker thread. Once it's finished,
+     * whether it worked or not, it's queued for the display to upload.
+     */
+    class Decode extends FutureTask<DecodedImage> {
+        /** The location of the image */
+        final String ref;
+        /** The texture the image will be uploaded into */
+        private Texture texture;
+        /** The width of the texture */
+        final int texWidth;
+        /** The height of the texture */
+        final int texHeight;
+        
+        /**
+         * Create a decode of an image
+         *
+         * @param ref The location of the image
+         * @param texture The texture the image will be uploaded into
+         * @param texWidth The width of the texture
+         * @param texHeight The height of the texture
+         * @param decoder The task decoding the image
+         */
+        Decode(String ref,Texture texture,int texWidth,int texHeight,Callable<DecodedImage> decoder) {
+            super(decoder);
+            this.ref = ref;
+            this.texture = texture;
+            this.texWidth = texWidth;
+            this.texHeight = texHeight;
+        }
+        
+        /**
+         * Get the texture the image will be uploaded into
+         *
+         * @return The texture
+         */
+        Texture getTexture() {
+            return texture;
+        }
+        
+        /**
+         * Queue the decode for upload once it's finished. The decoder 
+         * waits here if the queue is full, so no more images are held
+         * in memory than the display can keep up with.
+         */
+        protected void done() {
+            try {
+                ready.put(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * Get the decoded image if it's ready, this never waits for it
+         *
+         * @return The decoded image, or null if it's still being decoded or couldn't be
+         */
+        DecodedImage getImage() {
+            if (!isDone()) {
+                return null;
+            }
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                // a task that's done never waits
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                // the failure is reported when it comes to be uploaded
+                return null;
+            }
+        }
+        
+        /**
+         * Get the reason the image couldn't be decoded
+         *
+         * @return The failure, or null if it's still being decoded or was decoded
+         */
+        Throwable getFailure() {
+            if (!isDone()) {
+                return null;
+            }
+            try {
+                get();
+                return null;
+            } catch (InterruptedException e) {
+                // a task that's done never waits
+                Thread.currentThread().interrupt();
+                return e;
+            } catch (ExecutionException e) {
+                return e.getCause();
+            }
+        }
+
+    }
 }
@@ -0,0 +1,315 @@
+package org.newdawn.spaceinvaders.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times each phase of a frame and keeps a latency histogram per phase,
+ * so we can see which part of the frame is eating the time when a level
+ * gets large rather than only how many frames we manage a second.
+ *
+ * A phase is timed by taking start() before it and passing that to
+ * record() after it. The histograms are fixed arrays of counters, each
+ * bucket covering a range of times that grows with the time so the
+ * error stays within one part in sixteen, and they're updated with
+ * atomic increments. Recording never allocates or locks, and can be
+ * done from more than one thread at once.
+ *
+ * The histograms cover the current window, which is started again
+ * each time the window is rolled over. When the window rolls over the
+ * summary of the finished one is kept, for the overlay, and written to
+ * the log if logging is on.
+ */
+public class FrameProfiler {
+	/** Reading input and handling key presses */
+	public static final int INPUT = 0;
+	/** Finding and resolving collisions */
+	public static final int COLLISION = 1;
+	/** Removing the entities marked for removal */
+	public static final int REMOVAL = 2;
+	/** Moving the entities and the background */
+	public static final int MOVE = 3;
+	/** Drawing the background */
+	public static final int BACKGROUND = 4;
+	/** Drawing the entities */
+	public static final int DRAW = 5;
+	/** Drawing the text */
+	public static final int TEXT = 6;
+	/** Handing the frame to the display */
+	public static final int DISPLAY = 7;
+	/** Copying the game state into the snapshot of a frame */
+	public static final int SNAPSHOT = 8;
+	/** Sending newly decoded textures to the card */
+	public static final int UPLOAD = 9;
+	/** The number of phases */
+	public static final int PHASES = 10;
+
+	/** The names of the phases, as shown in the overlay and the log */
+	private static final String[] NAMES = {"input", "collision", "removal", "move", "background", "draw", "text", "display", "snapshot", "upload"};
+
+	/** The number of bits of a time kept when working out its bucket, sets the precision */
+	private static final int SUB_BITS = 4;
+	/** The number of buckets for each power of two */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	/** The number of powers of two covered, up to about 18 minutes in nanoseconds */
+	private static final int MAGNITUDES = 41 - SUB_BITS;
+	/** The number of buckets in each histogram */
+	private static final int BUCKETS = (MAGNITUDES + 1) * SUB_BUCKETS;
+	/** The number of nanoseconds in a millisecond */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	/** The bucket counts for every phase, one histogram after another */
+	private final AtomicLongArray counts = new AtomicLongArray(PHASES * BUCKETS);
+	/** The longest time recorded for each phase in the window */
+	private final AtomicLongArray max = new AtomicLongArray(PHASES);
+	/** The number of times recorded for each phase in the window */
+	private final AtomicLongArray samples = new AtomicLongArray(PHASES);
+
+	/** The length of a window in nanoseconds */
+	private long windowNanos;
+	/** The time the current window started */
+	private long windowStart = -1;
+	/** True if each window's summary should be written to the log */
+	private boolean logging;
+	/** True if the profiler is recording */
+	private volatile boolean enabled = true;
+	/** The summary of the last complete window */
+	private volatile String summary = "";
+
+	/**
+	 * Create a new profiler
+	 *
+	 * @param windowMillis The length of each window the histograms cover (ms)
+	 */
+	public FrameProfiler(long windowMillis) {
+		this.windowNanos = windowMillis * 1000000L;
+	}
+
+	/**
+	 * Get the time to pass to record() at the end of a phase
+	 *
+	 * @return The current time in nanoseconds, or 0 if the profiler is off
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the time taken by a phase
+	 *
+	 * @param phase The phase that has finished, one of the constants on this class
+	 * @param start The time returned by start() when the phase began
+	 */
+	public void record(int phase, long start) {
+		if (!enabled || (start == 0)) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		counts.incrementAndGet(phase * BUCKETS + bucket(nanos));
+		samples.incrementAndGet(phase);
+		long longest = max.get(phase);
+		while ((nanos > longest) && !max.compareAndSet(phase, longest, nanos)) {
+			longest = max.get(phase);
+		}
+	}
+
+	/**
+	 * Notification that a frame has been completed. Rolls the window
+	 * over once it's run its length.
+	 *
+	 * @param now The current time in nanoseconds
+	 */
+	public void frameFinished(long now) {
+		if (windowStart < 0) {
+			windowStart = now;
+			return;
+		}
+		if (now - windowStart >= windowNanos) {
+			rollOver();
+			windowStart = now;
+		}
+	}
+
+	/**
+	 * Finish the current window, keeping its summary and starting the
+	 * histograms again
+	 */
+	public void rollOver() {
+		summary = buildSummary();
+		if (logging) {
+			System.out.println("[profile] "+summary.replace('\n', ';'));
+		}
+		for (int i=0;i<counts.length();i++) {
+			counts.set(i, 0);
+		}
+		for (int i=0;i<PHASES;i++) {
+			max.set(i, 0);
+			samples.set(i, 0);
+		}
+	}
+
+	/**
+	 * Get the summary of the last complete window, one line per phase
+	 * giving the p50, p99, p99.9 and longest times in milliseconds
+	 *
+	 * @return The summary
+	 */
+	public String getSummary() {
+		return summary;
+	}
+
+	/**
+	 * Get a percentile of the times recorded for a phase in the
+	 * current window
+	 *
+	 * @param phase The phase, one of the constants on this class
+	 * @param percentile The percentile to find (0-100)
+	 * @return The time in nanoseconds, accurate to the width of its bucket
+	 */
+	public long getPercentile(int phase, double percentile) {
+		long total = samples.get(phase);
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(total * percentile / 100.0);
+		if (target < 1) {
+			target = 1;
+		}
+
+		long seen = 0;
+		int base = phase * BUCKETS;
+		for (int i=0;i<BUCKETS;i++) {
+			seen += counts.get(base + i);
+			if (seen >= target) {
+				return Math.min(bucketTop(i), max.get(phase));
+			}
+		}
+		return max.get(phase);
+	}
+
+	/**
+	 * Get the longest time recorded for a phase in the current window
+	 *
+	 * @param phase The phase, one of the constants on this class
+	 * @return The time in nanoseconds
+	 */
+	public long getMax(int phase) {
+		return max.get(phase);
+	}
+
+	/**
+	 * Get the number of times recorded for a phase in the current window
+	 *
+	 * @param phase The phase, one of the constants on this class
+	 * @return The number of times recorded
+	 */
+	public long getSamples(int phase) {
+		return samples.get(phase);
+	}
+
+	/**
+	 * Get the name of a phase
+	 *
+	 * @param phase The phase, one of the constants on this class
+	 * @return The name of the phase
+	 */
+	public static String getName(int phase) {
+		return NAMES[phase];
+	}
+
+	/**
+	 * Turn recording on or off
+	 *
+	 * @param enabled True if the profiler should record
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Check if the profiler is recording
+	 *
+	 * @return True if the profiler is recording
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Set whether each window's summary is written to the log
+	 *
+	 * @param logging True if the summaries should be logged
+	 */
+	public void setLogging(boolean logging) {
+		this.logging = logging;
+	}
+
+	/**
+	 * Build the summary of the current window
+	 *
+	 * @return The summary, one line per phase that recorded anything
+	 */
+	private String buildSummary() {
+		StringBuilder result = new StringBuilder("phase p50 p99 p999 max ms");
+		for (int i=0;i<PHASES;i++) {
+			if (samples.get(i) == 0) {
+				continue;
+			}
+			result.append('\n').append(NAMES[i]);
+			result.append(' ').append(millis(getPercentile(i, 50)));
+			result.append(' ').append(millis(getPercentile(i, 99)));
+			result.append(' ').append(millis(getPercentile(i, 99.9)));
+			result.append(' ').append(millis(max.get(i)));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Format a time in milliseconds to three places
+	 *
+	 * @param nanos The time in nanoseconds
+	 * @return The formatted time
+	 */
+	private static String millis(long nanos) {
+		return String.format("%.3f", nanos / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * Get the bucket a time falls into. Times below SUB_BUCKETS have a
+	 * bucket each, above that each power of two is split into
+	 * SUB_BUCKETS equal buckets.
+	 *
+	 * @param nanos The time in nanoseconds
+	 * @return The index of the bucket
+	 */
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS + 1;
+		if (magnitude > MAGNITUDES) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (nanos >>> (magnitude - 1)) & (SUB_BUCKETS - 1);
+		return magnitude * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Get the largest time that falls into a bucket
+	 *
+	 * @param bucket The index of the bucket
+	 * @return The time in nanoseconds
+	 */
+	static long bucketTop(int bucket) {
+		int magnitude = bucket / SUB_BUCKETS;
+		int sub = bucket % SUB_BUCKETS;
+		if (magnitude == 0) {
+			return sub;
+		}
+		long step = 1L << (magnitude - 1);
+		return ((long) (SUB_BUCKETS + sub) * step) + step - 1;
+	}
+}
@@ -0,0 +1,152 @@
+package org.newdawn.spaceinvaders.util;
+
+/**
+ * A fixed timestep frame scheduler. Time is measured with a nanosecond
+ * clock and accumulated between rendered frames, the accumulated time
+ * is then paid out in fixed size simulation ticks. Whatever is left over
+ * is less than a tick and is exposed as an interpolation factor so the
+ * renderer can draw entities part way between their last two positions.
+ *
+ * This decouples how often the game logic runs from how often the screen
+ * is drawn, so the simulation behaves the same no matter the frame rate.
+ */
+public class FrameScheduler {
+	/** The number of nanoseconds in a millisecond */
+	private static final long NANOS_PER_MILLI = 1000000L;
+	/** The number of nanoseconds in a second */
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	/** The length of a single simulation tick in milliseconds */
+	private final long tickMillis;
+	/** The length of a single simulation tick in nanoseconds */
+	private final long tickNanos;
+	/** The most ticks we'll run for one frame, stops us spiralling when the simulation can't keep up */
+	private final int maxTicksPerFrame;
+
+	/** The time at which the last frame was scheduled */
+	private long lastTime;
+	/** The time that has passed but not yet been paid out as ticks */
+	private long accumulator;
+	/** True once the first frame has been scheduled */
+	private boolean started;
+
+	/** The time since the last record of fps */
+	private long fpsTime;
+	/** The number of frames since the last record of fps */
+	private int frames;
+	/** The recorded fps */
+	private int fps;
+	/** True if the fps has been recorded since it was last read */
+	private boolean fpsUpdated;
+
+	/**
+	 * Create a new scheduler
+	 *
+	 * @param tickMillis The length of a single simulation tick in milliseconds
+	 * @param maxTicksPerFrame The most ticks that will be run for a single frame
+	 */
+	public FrameScheduler(long tickMillis, int maxTicksPerFrame) {
+		this.tickMillis = tickMillis;
+		this.tickNanos = tickMillis * NANOS_PER_MILLI;
+		this.maxTicksPerFrame = maxTicksPerFrame;
+	}
+
+	/**
+	 * Restart the scheduler, discarding any time that has been accumulated
+	 *
+	 * @param now The current time in nanoseconds
+	 */
+	public void reset(long now) {
+		lastTime = now;
+		accumulator = 0;
+		fpsTime = 0;
+		frames = 0;
+		started = true;
+	}
+
+	/**
+	 * Notification that a new frame is starting. Accumulates the time that has
+	 * passed since the last frame and works out how many ticks should be run.
+	 *
+	 * @param now The current time in nanoseconds
+	 * @return The number of simulation ticks to run before rendering this frame
+	 */
+	public int advance(long now) {
+		if (!started) {
+			reset(now);
+		}
+		long elapsed = now - lastTime;
+		lastTime = now;
+		accumulator += elapsed;
+
+		// update our FPS counter if a second has passed
+		fpsTime += elapsed;
+		frames++;
+		if (fpsTime >= NANOS_PER_SECOND) {
+			fps = frames;
+			frames = 0;
+			fpsTime -= NANOS_PER_SECOND;
+			fpsUpdated = true;
+		}
+
+		int ticks = (int) (accumulator / tickNanos);
+		if (ticks > maxTicksPerFrame) {
+			// we've fallen too far behind to ever catch up, drop the
+			// backlog rather than stall trying to simulate it
+			ticks = maxTicksPerFrame;
+			accumulator = accumulator % tickNanos;
+		} else {
+			accumulator -= ticks * tickNanos;
+		}
+
+		return ticks;
+	}
+
+	/**
+	 * Get how far we are through the next tick, used to interpolate
+	 * entity positions when rendering
+	 *
+	 * @return A value between 0 (at the last tick) and 1 (at the next tick)
+	 */
+	public float getAlpha() {
+		return (float) accumulator / tickNanos;
+	}
+
+	/**
+	 * Get the length of a single simulation tick
+	 *
+	 * @return The length of a tick in milliseconds
+	 */
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	/**
+	 * Get the length of a single simulation tick
+	 *
+	 * @return The length of a tick in nanoseconds
+	 */
+	public long getTickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * Get the number of frames rendered over the last second
+	 *
+	 * @return The recorded fps
+	 */
+	public int getFps() {
+		return fps;
+	}
+
+	/**
+	 * Check if the fps has been recorded since this was last called
+	 *
+	 * @return True if there is a new fps value to display
+	 */
+	public boolean isFpsUpdated() {
+		boolean updated = fpsUpdated;
+		fpsUpdated = false;
+		return updated;
+	}
+}
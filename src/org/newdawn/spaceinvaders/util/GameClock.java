@@ -0,0 +1,23 @@
+package org.newdawn.spaceinvaders.util;
+
+/**
+ * A source of time for the game loop. The windows read time through
+ * this rather than the system directly so that a loop can be driven
+ * by a simulated clock, for instance when running without a display.
+ */
+public interface GameClock {
+	/** The clock that reports the real time of the system */
+	public static final GameClock SYSTEM = new GameClock() {
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * Get the current time of this clock
+	 *
+	 * @return The current time in nanoseconds, only meaningful relative
+	 * to other times read from the same clock
+	 */
+	public long nanoTime();
+}
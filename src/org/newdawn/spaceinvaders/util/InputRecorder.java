@@ -0,0 +1,254 @@
+package org.newdawn.spaceinvaders.util;
+
+import java.awt.event.KeyEvent;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An input source that records the input of another as it's read, so
+ * that a session can be played back later by a ReplayInputSource. The
+ * game only ever looks at input at the start of a logic tick and the
+ * ticks are the only time it knows about, so a log of the input seen
+ * by each tick and the length of each tick is enough to run the same
+ * session again exactly.
+ *
+ * At the start of each tick the keys and buttons the game holds down
+ * are sampled into a single set of bits and any key events waiting are
+ * read out, and the game is then answered from those for the rest of
+ * the tick. Only changes are written, the held set when it's different
+ * from the last tick, each key event and the tick length when it changes,
+ * so a long session where the player holds keys for many ticks at a
+ * time makes a small log.
+ *
+ * The log is a header followed by records, each one the number of
+ * ticks since the last record as a variable length number, a byte
+ * giving its type and then its value. The escape key isn't recorded,
+ * it ends the game so the end of the log stands in for it.
+ */
+public class InputRecorder implements InputSource {
+	/** The bytes at the start of every log, "SILG" */
+	static final int MAGIC = 0x53494C47;
+	/** The version of the log format */
+	static final int VERSION = 1;
+
+	/** A record giving the keys and buttons held from this tick on */
+	static final int HELD = 0;
+	/** A record giving a key event read on this tick */
+	static final int EVENT = 1;
+	/** A record giving the length of the ticks from this one on (ms) */
+	static final int DELTA = 2;
+	/** The record marking the end of the log, its tick is the number of ticks recorded */
+	static final int END = 3;
+
+	/** The keys that can be held, in the order of their bits in the held set */
+	static final int[] HELD_KEYS = {KeyEvent.VK_UP, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_SPACE, KeyEvent.VK_SHIFT};
+	/** The bit of the held set given to the first mouse button, the second follows it */
+	static final int MOUSE_BIT = HELD_KEYS.length;
+
+	/** The source whose input is being recorded */
+	private InputSource source;
+	/** The stream the log is written to */
+	private DataOutputStream out;
+	/** The keys and buttons held during the current tick */
+	private int held;
+	/** The length of the last tick recorded (ms), -1 before the first */
+	private long lastDelta = -1;
+	/** The number of ticks that have been polled */
+	private long tick;
+	/** The tick of the last record written */
+	private long lastRecord;
+	/** The key events read this tick, waiting for the game */
+	private int[] events = new int[16];
+	/** The number of key events read this tick */
+	private int eventCount;
+	/** The index of the next key event to give the game */
+	private int nextEvent;
+	/** True once the log has been closed */
+	private boolean closed;
+
+	/**
+	 * Create a new recorder
+	 *
+	 * @param source The source whose input should be recorded
+	 * @param out The stream to write the log to, closed when the recorder is
+	 * @throws IOException Indicates a failure to write the header
+	 */
+	public InputRecorder(InputSource source, OutputStream out) throws IOException {
+		this.source = source;
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+	}
+
+	/**
+	 * Sample the input for the coming tick and record anything that
+	 * has changed
+	 *
+	 * @param delta The length the window means to run the tick for (ms)
+	 * @return The length the source being recorded gives
+	 */
+	public long poll(long delta) {
+		delta = source.poll(delta);
+
+		int state = 0;
+		for (int i=0;i<HELD_KEYS.length;i++) {
+			if (source.isKeyPressed(HELD_KEYS[i])) {
+				state |= 1 << i;
+			}
+		}
+		for (int i=0;i<2;i++) {
+			if (source.isMousePressed(i)) {
+				state |= 1 << (MOUSE_BIT + i);
+			}
+		}
+
+		eventCount = 0;
+		nextEvent = 0;
+		int key;
+		while ((key = source.nextKeyEvent()) != KeyEvent.VK_UNDEFINED) {
+			if (eventCount == events.length) {
+				int[] grown = new int[events.length * 2];
+				System.arraycopy(events, 0, grown, 0, eventCount);
+				events = grown;
+			}
+			events[eventCount++] = key;
+		}
+
+		// the log may be closed from another thread as the game exits
+		synchronized (this) {
+			if (!closed) {
+				try {
+					if (delta != lastDelta) {
+						write(DELTA, delta);
+						lastDelta = delta;
+					}
+					if ((state != held) || (tick == 0)) {
+						write(HELD, state);
+					}
+					for (int i=0;i<eventCount;i++) {
+						write(EVENT, events[i]);
+					}
+				} catch (IOException e) {
+					System.err.println("Unable to record input, recording stopped: "+e);
+					closed = true;
+				}
+			}
+			held = state;
+			tick++;
+		}
+		return delta;
+	}
+
+	/**
+	 * Write a single record, flushing it straight out so the log
+	 * survives the game being killed
+	 *
+	 * @param type The type of record
+	 * @param value The value of the record
+	 * @throws IOException Indicates a failure to write the record
+	 */
+	private void write(int type, long value) throws IOException {
+		writeNumber(tick - lastRecord);
+		out.writeByte(type);
+		writeNumber(value);
+		out.flush();
+		lastRecord = tick;
+	}
+
+	/**
+	 * Write a number using as few bytes as it needs, seven bits to a
+	 * byte with the top bit set on every byte but the last
+	 *
+	 * @param value The number to write, must not be negative
+	 * @throws IOException Indicates a failure to write the number
+	 */
+	private void writeNumber(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Finish the log, marking its end with the number of ticks recorded,
+	 * and close the stream. Input can still be read from the recorder
+	 * once it's closed but none of it is recorded.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writeNumber(tick - lastRecord);
+			out.writeByte(END);
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Unable to finish input recording: "+e);
+		}
+	}
+
+	/**
+	 * Get the number of ticks that have been recorded
+	 *
+	 * @return The number of ticks recorded
+	 */
+	public long getTicks() {
+		return tick;
+	}
+
+	/**
+	 * Check if a particular key was pressed at the start of this tick.
+	 * Escape isn't recorded so it's read straight from the source.
+	 *
+	 * @param keyCode The code of the key to check (defined in KeyEvent)
+	 * @return True if the key is pressed
+	 */
+	public boolean isKeyPressed(int keyCode) {
+		int bit = heldBit(keyCode);
+		if (bit < 0) {
+			return source.isKeyPressed(keyCode);
+		}
+		return (held & (1 << bit)) != 0;
+	}
+
+	/**
+	 * Check if a particular mouse button was pressed at the start of this tick
+	 *
+	 * @param button The button to check, 0 being left and 1 being right
+	 * @return True if the button is pressed
+	 */
+	public boolean isMousePressed(int button) {
+		return (held & (1 << (MOUSE_BIT + button))) != 0;
+	}
+
+	/**
+	 * Get the next key event read at the start of this tick
+	 *
+	 * @return The code of the next key pressed, or KeyEvent.VK_UNDEFINED
+	 */
+	public int nextKeyEvent() {
+		if (nextEvent == eventCount) {
+			return KeyEvent.VK_UNDEFINED;
+		}
+		return events[nextEvent++];
+	}
+
+	/**
+	 * Get the bit of the held set a key is recorded in
+	 *
+	 * @param keyCode The code of the key (defined in KeyEvent)
+	 * @return The bit the key is recorded in, or -1 if it isn't recorded
+	 */
+	static int heldBit(int keyCode) {
+		for (int i=0;i<HELD_KEYS.length;i++) {
+			if (HELD_KEYS[i] == keyCode) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,45 @@
+package org.newdawn.spaceinvaders.util;
+
+/**
+ * A source of player input. The game windows answer their key and
+ * mouse queries from one of these so that the input can come from a
+ * real keyboard and mouse or be scripted, as it is when the game runs
+ * without a display.
+ */
+public interface InputSource {
+
+	/**
+	 * Notification that a logic tick is about to run. Sources that
+	 * play back input at set points in time should advance here.
+	 *
+	 * @param delta The length the window means to run the tick for (ms)
+	 * @return The length the tick should be run for (ms), sources playing
+	 * back a recording give the length the tick was recorded with and
+	 * every other source gives back delta
+	 */
+	public long poll(long delta);
+
+	/**
+	 * Check if a particular key is pressed
+	 *
+	 * @param keyCode The code of the key to check (defined in KeyEvent)
+	 * @return True if the key is pressed
+	 */
+	public boolean isKeyPressed(int keyCode);
+
+	/**
+	 * Check if a particular mouse button is pressed
+	 *
+	 * @param button The button to check, 0 being left and 1 being right
+	 * @return True if the button is pressed
+	 */
+	public boolean isMousePressed(int button);
+
+	/**
+	 * Get the next key that has been pressed since key events were last read
+	 *
+	 * @return The code (defined in KeyEvent) of the next key pressed, or
+	 * KeyEvent.VK_UNDEFINED if there are no more key presses to read
+	 */
+	public int nextKeyEvent();
+}
@@ -0,0 +1,212 @@
+package org.newdawn.spaceinvaders.util;
+
+import java.awt.event.KeyEvent;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input source that plays back a log written by an InputRecorder.
+ * Each tick sees the keys held, the key events and the tick length it
+ * was recorded with, so the game runs the recorded session again tick
+ * for tick however fast the window drives it.
+ *
+ * The whole log is read up front, it only holds the changes in input
+ * so even a long session is small, and nothing is read or allocated
+ * while it's played back.
+ */
+public class ReplayInputSource implements InputSource {
+	/** The tick each record applies from */
+	private long[] recordTick = new long[256];
+	/** The type of each record */
+	private int[] recordType = new int[256];
+	/** The value of each record */
+	private long[] recordValue = new long[256];
+	/** The number of records */
+	private int records;
+	/** The number of ticks in the log */
+	private long length;
+	/** The index of the next record to play */
+	private int next;
+	/** The number of ticks that have been polled */
+	private long tick;
+	/** The keys and buttons held during the current tick */
+	private int held;
+	/** The length of the ticks being played (ms) */
+	private long delta = -1;
+	/** The index of the first key event record for the current tick */
+	private int firstEvent;
+	/** The index after the last key event record for the current tick */
+	private int lastEvent;
+
+	/**
+	 * Create a new source playing back a log
+	 *
+	 * @param in The stream to read the log from, read to its end and closed
+	 * @throws IOException Indicates a failure to read the log, or that it isn't one
+	 */
+	public ReplayInputSource(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		try {
+			if (data.readInt() != InputRecorder.MAGIC) {
+				throw new IOException("Not an input recording");
+			}
+			int version = data.readUnsignedByte();
+			if (version != InputRecorder.VERSION) {
+				throw new IOException("Unsupported input recording version: "+version);
+			}
+
+			long at = 0;
+			while (true) {
+				long gap;
+				try {
+					gap = readNumber(data);
+				} catch (EOFException e) {
+					// the game was killed before it could finish the
+					// log, play back as far as it got
+					length = at + 1;
+					break;
+				}
+				at += gap;
+				int type = data.readUnsignedByte();
+				if (type == InputRecorder.END) {
+					length = at;
+					break;
+				}
+				add(at, type, readNumber(data));
+			}
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Add a record to the end of those read
+	 *
+	 * @param at The tick the record applies from
+	 * @param type The type of record
+	 * @param value The value of the record
+	 */
+	private void add(long at, int type, long value) {
+		if (records == recordTick.length) {
+			int size = records * 2;
+			long[] ticks = new long[size];
+			int[] types = new int[size];
+			long[] values = new long[size];
+			System.arraycopy(recordTick, 0, ticks, 0, records);
+			System.arraycopy(recordType, 0, types, 0, records);
+			System.arraycopy(recordValue, 0, values, 0, records);
+			recordTick = ticks;
+			recordType = types;
+			recordValue = values;
+		}
+		recordTick[records] = at;
+		recordType[records] = type;
+		recordValue[records] = value;
+		records++;
+	}
+
+	/**
+	 * Read a number written by InputRecorder
+	 *
+	 * @param data The stream to read from
+	 * @return The number read
+	 * @throws IOException Indicates a failure to read the number
+	 */
+	private static long readNumber(DataInputStream data) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = data.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Play the records for the coming tick
+	 *
+	 * @param delta The length the window means to run the tick for (ms)
+	 * @return The length the tick was recorded with (ms)
+	 */
+	public long poll(long delta) {
+		firstEvent = lastEvent = 0;
+		while ((next < records) && (recordTick[next] <= tick)) {
+			switch (recordType[next]) {
+			case InputRecorder.HELD:
+				held = (int) recordValue[next];
+				break;
+			case InputRecorder.DELTA:
+				this.delta = recordValue[next];
+				break;
+			case InputRecorder.EVENT:
+				if (lastEvent == 0) {
+					firstEvent = next;
+				}
+				lastEvent = next + 1;
+				break;
+			}
+			next++;
+		}
+		tick++;
+		return (this.delta < 0) ? delta : this.delta;
+	}
+
+	/**
+	 * Check if a particular key was held on this tick when it was recorded
+	 *
+	 * @param keyCode The code of the key to check (defined in KeyEvent)
+	 * @return True if the key is pressed
+	 */
+	public boolean isKeyPressed(int keyCode) {
+		int bit = InputRecorder.heldBit(keyCode);
+		return (bit >= 0) && ((held & (1 << bit)) != 0);
+	}
+
+	/**
+	 * Check if a particular mouse button was held on this tick when it was recorded
+	 *
+	 * @param button The button to check, 0 being left and 1 being right
+	 * @return True if the button is pressed
+	 */
+	public boolean isMousePressed(int button) {
+		return (held & (1 << (InputRecorder.MOUSE_BIT + button))) != 0;
+	}
+
+	/**
+	 * Get the next key event recorded on this tick
+	 *
+	 * @return The code of the next key pressed, or KeyEvent.VK_UNDEFINED
+	 */
+	public int nextKeyEvent() {
+		while (firstEvent < lastEvent) {
+			int i = firstEvent++;
+			if (recordType[i] == InputRecorder.EVENT) {
+				return (int) recordValue[i];
+			}
+		}
+		return KeyEvent.VK_UNDEFINED;
+	}
+
+	/**
+	 * Get the number of ticks in the log
+	 *
+	 * @return The number of ticks recorded
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Check if every tick in the log has been played
+	 *
+	 * @return True if the replay has finished
+	 */
+	public boolean isFinished() {
+		return tick >= length;
+	}
+}
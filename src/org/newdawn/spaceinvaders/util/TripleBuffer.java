@@ -0,0 +1,87 @@
+package org.newdawn.spaceinvaders.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands values from one thread to another through three buffers, so
+ * that neither thread ever waits for the other. The writer always has
+ * a buffer of its own to fill, the reader always has one of its own to
+ * read, and the third holds the newest buffer the writer has finished
+ * with. Publishing swaps the writer's buffer with the third one, and
+ * the reader swaps its buffer for the third one when there's something
+ * newer in it. If the writer publishes twice before the reader looks
+ * the older value is simply overwritten.
+ *
+ * The swap is a single atomic exchange on an index, so handing over a
+ * buffer never locks and never allocates.
+ */
+public class TripleBuffer<T> {
+	/** The bits of the shared index giving the buffer */
+	private static final int INDEX = 3;
+	/** The bit set on the shared index when its buffer hasn't been read yet */
+	private static final int FRESH = 4;
+
+	/** The three buffers */
+	private final Object[] buffers;
+	/** The buffer between the threads, with FRESH set if it's been published since it was last read */
+	private final AtomicInteger shared = new AtomicInteger(1);
+	/** The buffer the writer is filling, only touched by the writer */
+	private int back = 0;
+	/** The buffer the reader is reading, only touched by the reader */
+	private int front = 2;
+
+	/**
+	 * Create a new triple buffer
+	 *
+	 * @param first The first buffer, the writer starts with this one
+	 * @param second The second buffer
+	 * @param third The third buffer, the reader starts with this one
+	 */
+	public TripleBuffer(T first, T second, T third) {
+		buffers = new Object[] {first, second, third};
+	}
+
+	/**
+	 * Get the buffer the writer should fill next. Only the writing
+	 * thread should call this.
+	 *
+	 * @return The buffer to fill
+	 */
+	@SuppressWarnings("unchecked")
+	public T getWriteBuffer() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Hand the filled buffer to the reader and take another to fill.
+	 * Only the writing thread should call this.
+	 */
+	public void publish() {
+		back = shared.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/**
+	 * Swap to the newest buffer published, if there's been one since
+	 * this was last called. Only the reading thread should call this.
+	 *
+	 * @return True if there was a new buffer to read
+	 */
+	public boolean update() {
+		if ((shared.get() & FRESH) == 0) {
+			return false;
+		}
+		front = shared.getAndSet(front) & INDEX;
+		return true;
+	}
+
+	/**
+	 * Get the buffer the reader is reading, the newest one found by
+	 * update(). Only the reading thread should call this.
+	 *
+	 * @return The buffer to read
+	 */
+	@SuppressWarnings("unchecked")
+	public T getReadBuffer() {
+		return (T) buffers[front];
+	}
+}
@@ -1,14 +1,28 @@
 package org.truman.spaceinvaders;
 
-import java.awt.Rectangle;
-
 import org.newdawn.spaceinvaders.Entity;
 
 /**
  * Collision detection for rectangles
- * bounds should depend on the delta and move speed
- * if you move to fast in the object from left or
- * right, the objects will not collide
+ * 
+ * The rectangles are swept along the path each entity took over
+ * its last move, from its previous location to its current one,
+ * and the earliest time along that path at which they touch is
+ * found. A fast entity can't pass straight through another between
+ * two ticks, however long the tick or however fast it moves. Pairs
+ * that were already touching when the move started fall back to
+ * comparing where they are now.
+ * 
+ * Once the rectangles are found to touch, the solid pixels of the
+ * two sprites (see CollisionMask) are compared as well so that the
+ * transparent corners of a sprite don't count as a hit. A swept pair 
+ * is compared at each pixel step along the part of the path where 
+ * the rectangles overlap.
+ * 
+ * One instance is reused as the contact record for every
+ * pair tested, the side flags describe the last collision
+ * found. The test works straight on the entities' positions
+ * and cached sizes so nothing is allocated per pair.
  */
 public class CollisionDetection {
 
@@ -16,72 +30,274 @@ public class CollisionDetection {
 	public boolean collidedLeft;
 	public boolean collidedBottom;
 	public boolean collidedRight;
+	/** 
+	 * The fraction of the last move (0 to 1) at which the last pair
+	 * found colliding first touched, 0 if they were already touching 
+	 * when it started
+	 */
+	public double time;
 	private double bounds = 3;
-	/** The rectangle used for this entity during collisions  resolution */
-	private Rectangle me = new Rectangle();
-	/** The rectangle used for other entities during collision resolution */
-	private Rectangle him = new Rectangle();
-	private Entity my;
+	/** The fraction of the last move at which the last pair swept stopped touching */
+	private double exit;
+	/** True if the solid pixels of the sprites are compared, not just their rectangles */
+	private boolean pixelPerfect = true;
+	/** The time on the animation clock, used to find the frame animated entities show */
+	private long animationTime;
 
-	public CollisionDetection(Entity e){
-		my = e;
+	/**
+	 * Set the time on the animation clock, so that entities are
+	 * checked against the frame of their animation they're showing
+	 * 
+	 * @param animationTime The time on the animation clock (ms)
+	 */
+	public void setAnimationTime(long animationTime) {
+		this.animationTime = animationTime;
+	}
+
+	/**
+	 * Choose whether the solid pixels of the sprites are compared once 
+	 * their rectangles overlap, or the rectangles alone decide
+	 * 
+	 * @param pixelPerfect True if the pixels should be compared
+	 */
+	public void setPixelPerfect(boolean pixelPerfect) {
+		this.pixelPerfect = pixelPerfect;
+	}
+
+	/**
+	 * Clear the side flags ready for the next pair
+	 */
+	public void reset() {
+		collidedTop = false;
+		collidedLeft = false;
+		collidedBottom = false;
+		collidedRight = false;
+		time = 0;
 	}
 	
 	/**
-	 * Check if this entity collided with another.
+	 * Check if one entity collided with another at any point during
+	 * their last move. The side flags are set from the point of view 
+	 * of the first entity and the time of the first contact is set.
 	 * 
+	 * @param my The entity to check collision for
 	 * @param other The other entity to check collision against
 	 * @return True if the entities collide with each other
 	 */
-	public boolean collidesWith(Entity other) {
+	public boolean collidesWith(Entity my, Entity other) {
+		reset();
 		
-		me.setBounds((int) my.getX(),(int) my.getY(),my.getSprite().getWidth(),my.getSprite().getHeight());
-		him.setBounds((int) other.getX(),(int) other.getY(),other.getSprite().getWidth(),other.getSprite().getHeight());
-
-		if(me.intersects(him)){
+		int aw = my.getWidth();
+		int ah = my.getHeight();
+		int bw = other.getWidth();
+		int bh = other.getHeight();
+		if ((aw <= 0) || (ah <= 0) || (bw <= 0) || (bh <= 0)) {
+			return false;
+		}
+		
+		// how far my moved relative to other over the last move, if
+		// they came together part way through that's the contact
+		double moveX = (my.getXd() - my.getPrevXd()) - (other.getXd() - other.getPrevXd());
+		double moveY = (my.getYd() - my.getPrevYd()) - (other.getYd() - other.getPrevYd());
+		double startX = my.getPrevXd() - other.getPrevXd();
+		double startY = my.getPrevYd() - other.getPrevYd();
+		if (((moveX != 0) || (moveY != 0)) && sweep(startX, startY, moveX, moveY, aw, ah, bw, bh)) {
+			if (!pixelPerfect) {
+				return true;
+			}
+			CollisionMask aMask = my.getCollisionMask(animationTime);
+			CollisionMask bMask = other.getCollisionMask(animationTime);
+			if (((aMask == null) && (bMask == null)) || 
+					touchAlongPath(aMask, bMask, startX, startY, moveX, moveY, aw, ah, bw, bh)) {
+				return true;
+			}
+			// the rectangles met but the pixels never did, they may
+			// still be touching where they've ended up
+			reset();
+		}
 		
-			double ax = my.getXd();
-			double ay = my.getYd();
-			int aw = my.getSprite().getWidth();
-			int ah = my.getSprite().getHeight();
+		// overlap of the whole pixel rectangles
+		int ax1 = my.getX();
+		int ay1 = my.getY();
+		int bx1 = other.getX();
+		int by1 = other.getY();
+		if ((ax1 >= bx1 + bw) || (bx1 >= ax1 + aw) ||
+				(ay1 >= by1 + bh) || (by1 >= ay1 + ah)) {
+			return false;
+		}
+		if (pixelPerfect) {
+			CollisionMask aMask = my.getCollisionMask(animationTime);
+			CollisionMask bMask = other.getCollisionMask(animationTime);
+			if (((aMask != null) || (bMask != null)) && 
+					!masksOverlap(aMask, bMask, bx1 - ax1, by1 - ay1, aw, ah, bw, bh)) {
+				return false;
+			}
+		}
+		
+		double ax = my.getXd();
+		double ay = my.getYd();
+		double bx = other.getXd();
+		double by = other.getYd();
 
-			double bx = other.getXd();
-			double by = other.getYd();
-			int bw = other.getSprite().getWidth();
-			int bh = other.getSprite().getHeight();
+		double aTop = ay;
+		double aBottom = ay + ah;
+		double aLeft = ax;
+		double aRight = ax + aw;
 
-			double aTop = ay;
-			double aBottom = ay + ah;
-			double aLeft = ax;
-			double aRight = ax + aw;
+		double bTop = by;
+		double bBottom = by + bh;
+		double bLeft = bx;
+		double bRight = bx + bw;
 
-			double bTop = by;
-			double bBottom = by + bh;
-			double bLeft = bx;
-			double bRight = bx + bw;
+		if(	aBottom > bTop && // collided top
+				aTop < bTop && // but not over b
+				aLeft < bRight - bounds && // and
+				aRight > bLeft + bounds){ // in collision y
+			collidedTop = true;
+		}
+		else if(aTop < bBottom && // collided bottom
+				aBottom > bTop && // but not under b
+				aLeft < bRight - bounds && // and 
+				aRight > bLeft + bounds){// in collision y
+			collidedBottom = true;
+		}
+		else if(aLeft < bRight && // collided left
+				bLeft > aLeft) // and not more left then b
+			collidedLeft = true;
+		else if(aRight > bLeft) collidedRight = true; // collided right
 
-			if(	aBottom > bTop && // collided top
-					aTop < bTop && // but not over b
-					aLeft < bRight - bounds && // and
-					aRight > bLeft + bounds){ // in collision y
-				collidedTop = true;
+		return true;
+	}
+
+	/**
+	 * Sweep one rectangle along a path against another standing still,
+	 * and set the time and side of the contact if it starts part way 
+	 * along the path. For each axis the times the rectangles start and
+	 * stop overlapping are found, they touch from the latest start to 
+	 * the earliest stop, and the side is on the axis that started last.
+	 * 
+	 * @param x The x location of the moving rectangle relative to the other at the start
+	 * @param y The y location of the moving rectangle relative to the other at the start
+	 * @param moveX The distance moved along x
+	 * @param moveY The distance moved along y
+	 * @param aw The width of the moving rectangle
+	 * @param ah The height of the moving rectangle
+	 * @param bw The width of the other rectangle
+	 * @param bh The height of the other rectangle
+	 * @return True if the rectangles come together during the move, false if
+	 * they never touch or were already touching when it started
+	 */
+	private boolean sweep(double x, double y, double moveX, double moveY, int aw, int ah, int bw, int bh) {
+		double enterX;
+		double exitX;
+		if (moveX == 0) {
+			if ((x <= -aw) || (x >= bw)) {
+				return false;
 			}
-			else if(aTop < bBottom && // collided bottom
-					aBottom > bTop && // but not under b
-					aLeft < bRight - bounds && // and 
-					aRight > bLeft + bounds){// in collision y
-				collidedBottom = true;
+			enterX = Double.NEGATIVE_INFINITY;
+			exitX = Double.POSITIVE_INFINITY;
+		} else {
+			double near = (moveX > 0) ? -aw : bw;
+			double far = (moveX > 0) ? bw : -aw;
+			enterX = (near - x) / moveX;
+			exitX = (far - x) / moveX;
+		}
+		
+		double enterY;
+		double exitY;
+		if (moveY == 0) {
+			if ((y <= -ah) || (y >= bh)) {
+				return false;
 			}
-			else if(aLeft < bRight && // collided left
-					bLeft > aLeft) // and not more left then b
-				collidedLeft = true;
-			else if(aRight > bLeft) collidedRight = true; // collided right
-
-			return true;
+			enterY = Double.NEGATIVE_INFINITY;
+			exitY = Double.POSITIVE_INFINITY;
+		} else {
+			double near = (moveY > 0) ? -ah : bh;
+			double far = (moveY > 0) ? bh : -ah;
+			enterY = (near - y) / moveY;
+			exitY = (far - y) / moveY;
+		}
 		
+		double enter = Math.max(enterX, enterY);
+		exit = Math.min(exitX, exitY);
+		if ((enter >= exit) || (enter < 0) || (enter > 1)) {
+			return false;
 		}
 		
+		time = enter;
+		if (enterX > enterY) {
+			// came in from the side it was moving away from
+			if (moveX > 0) {
+				collidedLeft = true;
+			} else {
+				collidedRight = true;
+			}
+		} else {
+			if (moveY > 0) {
+				collidedTop = true;
+			} else {
+				collidedBottom = true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Step along the part of the last move where the rectangles found 
+	 * by sweep() overlap, a pixel at a time, and compare the masks at
+	 * each step. The time is moved on to the first step they touch at.
+	 * 
+	 * @param aMask The mask of the moving rectangle, null if it's solid
+	 * @param bMask The mask of the other rectangle, null if it's solid
+	 * @param x The x location of the moving rectangle relative to the other at the start
+	 * @param y The y location of the moving rectangle relative to the other at the start
+	 * @param moveX The distance moved along x
+	 * @param moveY The distance moved along y
+	 * @param aw The width of the moving rectangle
+	 * @param ah The height of the moving rectangle
+	 * @param bw The width of the other rectangle
+	 * @param bh The height of the other rectangle
+	 * @return True if the solid pixels touch at some step
+	 */
+	private boolean touchAlongPath(CollisionMask aMask, CollisionMask bMask, double x, double y, double moveX, double moveY, int aw, int ah, int bw, int bh) {
+		double start = time;
+		double end = Math.min(exit, 1);
+		// the overlap is never longer than the two rectangles, so
+		// the number of steps doesn't grow with the speed
+		int steps = Math.max(1, (int) Math.ceil((end - start) * Math.max(Math.abs(moveX), Math.abs(moveY))));
+		for (int i=0;i<=steps;i++) {
+			double t = start + ((end - start) * i) / steps;
+			int dx = (int) Math.floor(-(x + moveX * t));
+			int dy = (int) Math.floor(-(y + moveY * t));
+			if (masksOverlap(aMask, bMask, dx, dy, aw, ah, bw, bh)) {
+				time = t;
+				return true;
+			}
+		}
 		return false;
-	
+	}
+
+	/**
+	 * Check if the solid pixels of two rectangles overlap, at least
+	 * one of which has a mask
+	 * 
+	 * @param aMask The mask of the first rectangle, null if it's solid
+	 * @param bMask The mask of the second rectangle, null if it's solid
+	 * @param dx The x location of the second rectangle relative to the first
+	 * @param dy The y location of the second rectangle relative to the first
+	 * @param aw The width of the first rectangle
+	 * @param ah The height of the first rectangle
+	 * @param bw The width of the second rectangle
+	 * @param bh The height of the second rectangle
+	 * @return True if a solid pixel of one is over a solid pixel of the other
+	 */
+	private static boolean masksOverlap(CollisionMask aMask, CollisionMask bMask, int dx, int dy, int aw, int ah, int bw, int bh) {
+		if (aMask == null) {
+			return bMask.overlaps(-dx, -dy, aw, ah);
+		}
+		if (bMask == null) {
+			return aMask.overlaps(dx, dy, bw, bh);
+		}
+		return aMask.overlaps(bMask, dx, dy);
 	}
 }
@@ -0,0 +1,127 @@
+package org.truman.spaceinvaders;
+
+import org.newdawn.spaceinvaders.Entity;
+
+/**
+ * The table of which collision layers can touch each other and what
+ * happens when they do. Every entity sits on one layer and a pair of
+ * layers only collides once a handler has been registered for it, so
+ * pairs that could never do anything (aliens against aliens, shots
+ * against shots...) are turned away by the broadphase on a bit test
+ * and never reach the narrowphase.
+ *
+ * Each layer keeps a mask with a bit set for every layer it collides
+ * with, handed to SpatialHash.insert() along with the entity. The
+ * handler for a pair is found in a table indexed by the two layers,
+ * so the response is a single call rather than a chain of instanceof
+ * tests on each side.
+ */
+public class CollisionLayers {
+
+	/**
+	 * Responds to two entities on a registered pair of layers colliding
+	 */
+	public interface ContactHandler {
+		/**
+		 * Notification that two entities collided. The entities are
+		 * always given in the order their layers were registered, and
+		 * the side flags of the contact record are from the point of
+		 * view of the first.
+		 *
+		 * @param d The contact record of the collision
+		 * @param first The entity on the first layer of the pair
+		 * @param second The entity on the second layer of the pair
+		 */
+		public void contact(CollisionDetection d, Entity first, Entity second);
+	}
+
+	/** The number of layers, one for each bit of a mask */
+	public static final int LAYERS = 32;
+
+	/** The layers each layer collides with, one bit per layer */
+	private int[] masks = new int[LAYERS];
+	/** The handler for each pair of layers, indexed by first * LAYERS + second */
+	private ContactHandler[] handlers = new ContactHandler[LAYERS * LAYERS];
+	/** True for each pair of layers given the other way round to how its handler was registered */
+	private boolean[] swapped = new boolean[LAYERS * LAYERS];
+
+	/**
+	 * Let two layers collide
+	 *
+	 * @param first The first layer
+	 * @param second The second layer, may be the same as the first
+	 * @param handler The handler to notify when entities on the layers collide
+	 */
+	public void register(int first, int second, ContactHandler handler) {
+		masks[first] |= 1 << second;
+		masks[second] |= 1 << first;
+		handlers[first * LAYERS + second] = handler;
+		swapped[first * LAYERS + second] = false;
+		if (first != second) {
+			handlers[second * LAYERS + first] = handler;
+			swapped[second * LAYERS + first] = true;
+		}
+	}
+
+	/**
+	 * Stop two layers colliding
+	 *
+	 * @param first The first layer
+	 * @param second The second layer
+	 */
+	public void ignore(int first, int second) {
+		masks[first] &= ~(1 << second);
+		masks[second] &= ~(1 << first);
+		handlers[first * LAYERS + second] = null;
+		handlers[second * LAYERS + first] = null;
+	}
+
+	/**
+	 * Get the layers a layer collides with
+	 *
+	 * @param layer The layer to check
+	 * @return A mask with a bit set for each layer it collides with
+	 */
+	public int getMask(int layer) {
+		return masks[layer];
+	}
+
+	/**
+	 * Check if two layers collide
+	 *
+	 * @param first The first layer
+	 * @param second The second layer
+	 * @return True if a handler is registered for the pair
+	 */
+	public boolean collides(int first, int second) {
+		return (masks[first] & (1 << second)) != 0;
+	}
+
+	/**
+	 * Test a pair of entities and notify the handler for their layers
+	 * if they collide. The pair is put in the order the layers were
+	 * registered before it's tested, so the side flags in the contact
+	 * record are from the point of view of the entity the handler
+	 * receives first, whichever way round the pair was given.
+	 *
+	 * @param d The contact record to test with
+	 * @param a The first entity
+	 * @param aLayer The layer of the first entity
+	 * @param b The second entity
+	 * @param bLayer The layer of the second entity
+	 */
+	public void dispatch(CollisionDetection d, Entity a, int aLayer, Entity b, int bLayer) {
+		int pair = aLayer * LAYERS + bLayer;
+		ContactHandler handler = handlers[pair];
+		if (handler == null) {
+			return;
+		}
+		if (swapped[pair]) {
+			if (d.collidesWith(b, a)) {
+				handler.contact(d, b, a);
+			}
+		} else if (d.collidesWith(a, b)) {
+			handler.contact(d, a, b);
+		}
+	}
+}
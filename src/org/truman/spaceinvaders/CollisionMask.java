@@ -0,0 +1,282 @@
+package org.truman.spaceinvaders;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * The solid pixels of a sprite, used to tell whether two sprites
+ * really touch once their rectangles have been found to overlap.
+ * Each pixel is a single bit, set if the pixel is opaque enough to
+ * hit, and each row is packed into longs with the leftmost pixel in
+ * the lowest bit. Testing two masks ANDs whole longs of one against
+ * the other shifted into line with it, over only the rows and words
+ * where the rectangles overlap, so a 32 pixel wide alien is tested a
+ * row at a time rather than a pixel at a time.
+ *
+ * A mask never changes once built, so one is made for each image as
+ * it's decoded and shared by every sprite and animation frame showing
+ * that image. Images with no transparent pixels don't get a mask at
+ * all, their rectangle is already exact.
+ */
+public class CollisionMask {
+
+	/** The alpha at or above which a pixel counts as solid */
+	public static final int ALPHA_THRESHOLD = 128;
+
+	/** The width of the mask in pixels */
+	private final int width;
+	/** The height of the mask in pixels */
+	private final int height;
+	/** The number of longs holding each row */
+	private final int words;
+	/** The bits of each row in turn, bits past the width are always clear */
+	private final long[] bits;
+
+	/**
+	 * Create an empty mask
+	 *
+	 * @param width The width of the mask in pixels
+	 * @param height The height of the mask in pixels
+	 */
+	private CollisionMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.words = (width + 63) >> 6;
+		this.bits = new long[words * height];
+	}
+
+	/**
+	 * Build the mask of an image
+	 *
+	 * @param image The decoded image
+	 * @return The mask of the image's solid pixels, or null if every pixel is solid
+	 */
+	public static CollisionMask create(BufferedImage image) {
+		return create(image, 0, 0, image.getWidth(), image.getHeight());
+	}
+
+	/**
+	 * Build the mask of part of an image
+	 *
+	 * @param image The decoded image
+	 * @param x The x location of the part to build the mask of
+	 * @param y The y location of the part to build the mask of
+	 * @param width The width of the part
+	 * @param height The height of the part
+	 * @return The mask of the solid pixels in the part, or null if every pixel is solid
+	 */
+	public static CollisionMask create(BufferedImage image, int x, int y, int width, int height) {
+		if (!image.getColorModel().hasAlpha()) {
+			return null;
+		}
+
+		CollisionMask mask = new CollisionMask(width, height);
+		int[] row = new int[width];
+		boolean solid = true;
+		for (int py=0;py<height;py++) {
+			image.getRGB(x, y + py, width, 1, row, 0, width);
+			int base = py * mask.words;
+			for (int px=0;px<width;px++) {
+				if ((row[px] >>> 24) >= ALPHA_THRESHOLD) {
+					mask.bits[base + (px >> 6)] |= 1L << px;
+				} else {
+					solid = false;
+				}
+			}
+		}
+		return solid ? null : mask;
+	}
+
+	/**
+	 * Build the mask of an image from its texture data, RGBA bytes for
+	 * each pixel in rows that may be longer than the image is wide. Used
+	 * when the texture data has been kept and the image isn't decoded.
+	 *
+	 * @param pixels The texture data, from the buffer's position
+	 * @param stride The number of pixels in each row of the data
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @return The mask of the image's solid pixels, or null if every pixel is solid
+	 */
+	public static CollisionMask create(ByteBuffer pixels, int stride, int width, int height) {
+		CollisionMask mask = new CollisionMask(width, height);
+		int start = pixels.position();
+		boolean solid = true;
+		for (int py=0;py<height;py++) {
+			int base = py * mask.words;
+			int offset = start + (py * stride * 4) + 3;
+			for (int px=0;px<width;px++) {
+				if ((pixels.get(offset + (px * 4)) & 0xff) >= ALPHA_THRESHOLD) {
+					mask.bits[base + (px >> 6)] |= 1L << px;
+				} else {
+					solid = false;
+				}
+			}
+		}
+		return solid ? null : mask;
+	}
+
+	/**
+	 * Cut a mask out of part of this one, used for images packed into
+	 * an atlas page
+	 *
+	 * @param x The x location of the part in this mask
+	 * @param y The y location of the part in this mask
+	 * @param width The width of the part
+	 * @param height The height of the part
+	 * @return The mask of the part, or null if every pixel in it is solid
+	 */
+	public CollisionMask region(int x, int y, int width, int height) {
+		CollisionMask mask = new CollisionMask(width, height);
+		boolean solid = true;
+		long last = ((width & 63) == 0) ? -1L : (1L << (width & 63)) - 1;
+		for (int py=0;py<height;py++) {
+			int base = (y + py) * words;
+			int target = py * mask.words;
+			for (int w=0;w<mask.words;w++) {
+				long word = extract(base, (w << 6) + x);
+				if (w == mask.words - 1) {
+					word &= last;
+					solid &= (word == last);
+				} else {
+					solid &= (word == -1L);
+				}
+				mask.bits[target + w] = word;
+			}
+		}
+		return solid ? null : mask;
+	}
+
+	/**
+	 * Get the width of this mask
+	 *
+	 * @return The width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of this mask
+	 *
+	 * @return The height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Check if a pixel is solid
+	 *
+	 * @param x The x location of the pixel
+	 * @param y The y location of the pixel
+	 * @return True if the pixel is solid
+	 */
+	public boolean isSolid(int x, int y) {
+		return (bits[y * words + (x >> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Check if any solid pixel of this mask overlaps a solid pixel of
+	 * another placed relative to it
+	 *
+	 * @param other The other mask
+	 * @param dx The x location of the other mask relative to this one
+	 * @param dy The y location of the other mask relative to this one
+	 * @return True if the masks overlap
+	 */
+	public boolean overlaps(CollisionMask other, int dx, int dy) {
+		int top = Math.max(0, dy);
+		int bottom = Math.min(height, dy + other.height);
+		int left = Math.max(0, dx);
+		int right = Math.min(width, dx + other.width);
+		if ((top >= bottom) || (left >= right)) {
+			return false;
+		}
+
+		int firstWord = left >> 6;
+		int lastWord = (right - 1) >> 6;
+		for (int row=top;row<bottom;row++) {
+			int base = row * words;
+			int otherBase = (row - dy) * other.words;
+			for (int w=firstWord;w<=lastWord;w++) {
+				// the other mask's pixels under this word, bits that fall
+				// outside either mask are always clear so need no masking
+				if ((bits[base + w] & other.extract(otherBase, (w << 6) - dx)) != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if any solid pixel of this mask falls in a rectangle, the
+	 * test against a sprite with no mask
+	 *
+	 * @param x The x location of the rectangle relative to this mask
+	 * @param y The y location of the rectangle relative to this mask
+	 * @param rectWidth The width of the rectangle
+	 * @param rectHeight The height of the rectangle
+	 * @return True if a solid pixel is in the rectangle
+	 */
+	public boolean overlaps(int x, int y, int rectWidth, int rectHeight) {
+		int top = Math.max(0, y);
+		int bottom = Math.min(height, y + rectHeight);
+		int left = Math.max(0, x);
+		int right = Math.min(width, x + rectWidth);
+		if ((top >= bottom) || (left >= right)) {
+			return false;
+		}
+
+		int firstWord = left >> 6;
+		int lastWord = (right - 1) >> 6;
+		long firstBits = -1L << left;
+		long lastBits = ((right & 63) == 0) ? -1L : (1L << (right & 63)) - 1;
+		for (int row=top;row<bottom;row++) {
+			int base = row * words;
+			for (int w=firstWord;w<=lastWord;w++) {
+				long span = -1L;
+				if (w == firstWord) {
+					span &= firstBits;
+				}
+				if (w == lastWord) {
+					span &= lastBits;
+				}
+				if ((bits[base + w] & span) != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the 64 pixels of a row starting at any column, pixels off
+	 * either end of the row are clear
+	 *
+	 * @param base The index of the first word of the row
+	 * @param column The column of the first pixel, may be negative
+	 * @return The pixels, the first in the lowest bit
+	 */
+	private long extract(int base, int column) {
+		int index = column >> 6;
+		int shift = column & 63;
+		long value = word(base, index) >>> shift;
+		if (shift != 0) {
+			value |= word(base, index + 1) << (64 - shift);
+		}
+		return value;
+	}
+
+	/**
+	 * Get a word of a row
+	 *
+	 * @param base The index of the first word of the row
+	 * @param index The word of the row to get
+	 * @return The word, or 0 if it's off either end of the row
+	 */
+	private long word(int base, int index) {
+		return ((index < 0) || (index >= words)) ? 0 : bits[base + index];
+	}
+}
@@ -82,7 +82,7 @@ public class SoundManager {
    * @param buffer Buffer index to play gotten from addSound
    */
   public void playEffect(int buffer) {
-    if(soundOutput) {
+    if(soundOutput && buffer >= 0) {
       // make sure we never choose last channel, since it is used for special sounds
     	int channel = sources[(sourceIndex++ % (sources.length-1))];
 
@@ -98,7 +98,7 @@ public class SoundManager {
    * @param buffer Buffer index to play gotten from addSound
    */
   public void playSound(int buffer) {
-    if(soundOutput) {
+    if(soundOutput && buffer >= 0) {
       if(isPlayingSound()) AL10.alSourceStop(sources[sources.length-1]);
       AL10.alSourcei(sources[sources.length-1], AL10.AL_BUFFER, buffers[buffer]);
       AL10.alSourcei(sources[sources.length-1], AL10.AL_LOOPING, AL10.AL_TRUE);
@@ -149,14 +149,22 @@ public class SoundManager {
    * @return index into SoundManagers buffer list
    */
   public int addSound(String path) {
+    // nothing to load into without sound
+    if(!soundOutput) {
+      return -1;
+    }
+
+    // load wave data from buffer
+    WaveData wavefile = loadWave(path);
+    if(wavefile == null) {
+      return -1;
+    }
+
     // Generate 1 buffer entry
     scratchBuffer.rewind().position(0).limit(1);
     AL10.alGenBuffers(scratchBuffer);
     buffers[bufferIndex] = scratchBuffer.get(0);
 
-    // load wave data from buffer
-    WaveData wavefile = WaveData.create(path);
-
     // copy to buffers
     AL10.alBufferData(buffers[bufferIndex], wavefile.format, wavefile.data, wavefile.samplerate);
 
@@ -167,6 +175,21 @@ public class SoundManager {
   	return bufferIndex++;
   }
 
+  /**
+   * Loads and decodes a wave file, the part of adding a sound that
+   * doesn't need OpenAL
+   *
+   * @param path Path to file to load
+   * @return The decoded wave or null if it couldn't be loaded
+   */
+  static WaveData loadWave(String path) {
+    WaveData wavefile = WaveData.create(path);
+    if(wavefile == null) {
+      System.out.println("Unable to load sound: " + path);
+    }
+    return wavefile;
+  }
+
   /**
    * Destroy this SoundManager
    */
@@ -0,0 +1,294 @@
+package org.truman.spaceinvaders;
+
+/**
+ * Broadphase collision detection using a uniform grid stored
+ * in a hash table. Each entity is placed in the cell holding
+ * its top left corner. As long as no entity is bigger than a
+ * cell, two entities can only overlap if they are in the same
+ * or neighbouring cells, so only those pairs are handed on to
+ * the narrowphase. Entities bigger than a cell are kept to one
+ * side and checked against everything.
+ *
+ * Each entity can also be given the bits of the collision layers
+ * it sits on and a mask of the layers it collides with (see
+ * CollisionLayers). A pair is only handed on if each entity's mask
+ * takes in the other's layers, so pairs that can never interact
+ * are dropped here before any geometry is tested.
+ *
+ * The grid is rebuilt every tick: clear(), insert() every
+ * entity, then findPairs(). Nothing is allocated once the
+ * arrays have grown to fit the number of entities.
+ */
+public class SpatialHash {
+
+	/**
+	 * Notified of each pair of entities that might collide
+	 */
+	public interface PairHandler {
+		/**
+		 * Notification that two entities share or neighbour a cell
+		 *
+		 * @param a The index of the first entity
+		 * @param b The index of the second entity, always greater than a
+		 */
+		public void pair(int a, int b);
+	}
+
+	/** Marks the end of a chain of entities in a bucket */
+	private static final int NONE = -1;
+
+	/** The width and height of a grid cell */
+	private int cellSize;
+	/** The number of entities inserted since the last clear */
+	private int count;
+	/** The x cell of each entity */
+	private int[] cellX = new int[64];
+	/** The y cell of each entity */
+	private int[] cellY = new int[64];
+	/** The collision layer bits of each entity */
+	private int[] layers = new int[64];
+	/** The layers each entity collides with */
+	private int[] masks = new int[64];
+	/** The next entity in the same bucket as each entity */
+	private int[] next = new int[64];
+	/** The first entity in each bucket */
+	private int[] buckets = new int[128];
+	/** The stamp of the rebuild in which each bucket was last written */
+	private int[] bucketStamp = new int[128];
+	/** The stamp of the current rebuild, saves clearing the buckets every time */
+	private int stamp = 1;
+	/** The entities too big to place in a single cell */
+	private int[] large = new int[16];
+	/** The number of entities too big to place in a single cell */
+	private int largeCount;
+	/** The number of pairs handed on during the last findPairs */
+	private int pairTests;
+	/** The number of pairs dropped by their layers during the last findPairs */
+	private int pairsFiltered;
+
+	/**
+	 * Create a new spatial hash
+	 *
+	 * @param cellSize The width and height of a grid cell, should be
+	 * at least as big as most of the entities
+	 */
+	public SpatialHash(int cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Remove every entity, ready to rebuild the grid
+	 */
+	public void clear() {
+		count = 0;
+		largeCount = 0;
+		stamp++;
+	}
+
+	/**
+	 * Add an entity to the grid that collides with everything.
+	 * Entities must be inserted with indices 0, 1, 2... in turn
+	 * after each clear.
+	 *
+	 * @param index The index of the entity
+	 * @param x The x location of the entity
+	 * @param y The y location of the entity
+	 * @param width The width of the entity
+	 * @param height The height of the entity
+	 */
+	public void insert(int index, double x, double y, double width, double height) {
+		insert(index, x, y, width, height, -1, -1);
+	}
+
+	/**
+	 * Add an entity to the grid on a set of collision layers.
+	 * Entities must be inserted with indices 0, 1, 2... in turn
+	 * after each clear.
+	 *
+	 * @param index The index of the entity
+	 * @param x The x location of the entity
+	 * @param y The y location of the entity
+	 * @param width The width of the entity
+	 * @param height The height of the entity
+	 * @param layerBits The bits of the layers the entity sits on
+	 * @param mask The bits of the layers the entity collides with
+	 */
+	public void insert(int index, double x, double y, double width, double height, int layerBits, int mask) {
+		if (index >= cellX.length) {
+			grow(index + 1);
+		}
+		count = Math.max(count, index + 1);
+		layers[index] = layerBits;
+		masks[index] = mask;
+
+		if ((width > cellSize) || (height > cellSize)) {
+			// too big for the neighbouring cells to cover, these
+			// get checked against everything instead
+			if (largeCount == large.length) {
+				int[] larger = new int[large.length * 2];
+				System.arraycopy(large, 0, larger, 0, largeCount);
+				large = larger;
+			}
+			large[largeCount++] = index;
+			cellX[index] = Integer.MIN_VALUE;
+			next[index] = NONE;
+			return;
+		}
+
+		int cx = (int) Math.floor(x / cellSize);
+		int cy = (int) Math.floor(y / cellSize);
+		int bucket = bucket(cx, cy);
+
+		if (bucketStamp[bucket] != stamp) {
+			bucketStamp[bucket] = stamp;
+			buckets[bucket] = NONE;
+		}
+		cellX[index] = cx;
+		cellY[index] = cy;
+		next[index] = buckets[bucket];
+		buckets[bucket] = index;
+	}
+
+	/**
+	 * Find every pair of entities that share or neighbour a cell
+	 *
+	 * @param handler The handler to notify of each pair
+	 */
+	public void findPairs(PairHandler handler) {
+		pairTests = 0;
+		pairsFiltered = 0;
+
+		for (int a=0;a<count;a++) {
+			int cx = cellX[a];
+			if (cx == Integer.MIN_VALUE) {
+				continue;
+			}
+			int cy = cellY[a];
+			int aLayers = layers[a];
+			int aMask = masks[a];
+
+			for (int nx=cx-1;nx<=cx+1;nx++) {
+				for (int ny=cy-1;ny<=cy+1;ny++) {
+					int bucket = bucket(nx, ny);
+					if (bucketStamp[bucket] != stamp) {
+						continue;
+					}
+					for (int b=buckets[bucket];b!=NONE;b=next[b]) {
+						// different cells can share a bucket, so check
+						// we've really got the cell we're looking at
+						if ((b > a) && (cellX[b] == nx) && (cellY[b] == ny)) {
+							if (((aMask & layers[b]) == 0) || ((masks[b] & aLayers) == 0)) {
+								pairsFiltered++;
+								continue;
+							}
+							pairTests++;
+							handler.pair(a, b);
+						}
+					}
+				}
+			}
+		}
+
+		// large entities against everything else
+		for (int i=0;i<largeCount;i++) {
+			int a = large[i];
+			for (int b=0;b<count;b++) {
+				if ((b == a) || ((cellX[b] == Integer.MIN_VALUE) && (b < a))) {
+					continue;
+				}
+				if (((masks[a] & layers[b]) == 0) || ((masks[b] & layers[a]) == 0)) {
+					pairsFiltered++;
+					continue;
+				}
+				pairTests++;
+				if (a < b) {
+					handler.pair(a, b);
+				} else {
+					handler.pair(b, a);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of pairs handed on by the last findPairs
+	 *
+	 * @return The number of pairs passed to the narrowphase
+	 */
+	public int getPairTests() {
+		return pairTests;
+	}
+
+	/**
+	 * Get the number of pairs the last findPairs dropped without
+	 * handing on, because their layers don't collide
+	 *
+	 * @return The number of pairs filtered out by layer
+	 */
+	public int getPairsFiltered() {
+		return pairsFiltered;
+	}
+
+	/**
+	 * Get the bucket holding a cell
+	 *
+	 * @param cx The x cell
+	 * @param cy The y cell
+	 * @return The index of the bucket
+	 */
+	private int bucket(int cx, int cy) {
+		int h = (cx * 73856093) ^ (cy * 19349663);
+		h ^= (h >>> 16);
+		return h & (buckets.length - 1);
+	}
+
+	/**
+	 * Grow the arrays to hold more entities. The buckets are
+	 * kept at least twice the number of entities.
+	 *
+	 * @param size The number of entities to hold
+	 */
+	private void grow(int size) {
+		int capacity = cellX.length;
+		while (capacity < size) {
+			capacity *= 2;
+		}
+		cellX = copyOf(cellX, capacity);
+		cellY = copyOf(cellY, capacity);
+		next = copyOf(next, capacity);
+		layers = copyOf(layers, capacity);
+		masks = copyOf(masks, capacity);
+
+		if (buckets.length < capacity * 2) {
+			// the bucket of every entity changes with the table size,
+			// so rehash the ones already inserted
+			buckets = new int[capacity * 2];
+			bucketStamp = new int[capacity * 2];
+			for (int i=0;i<count;i++) {
+				if (cellX[i] == Integer.MIN_VALUE) {
+					continue;
+				}
+				int bucket = bucket(cellX[i], cellY[i]);
+				if (bucketStamp[bucket] != stamp) {
+					bucketStamp[bucket] = stamp;
+					buckets[bucket] = NONE;
+				}
+				next[i] = buckets[bucket];
+				buckets[bucket] = i;
+			}
+		}
+	}
+
+	/**
+	 * Copy an array into a larger one
+	 *
+	 * @param array The array to copy
+	 * @param size The size of the new array
+	 * @return The new array
+	 */
+	private static int[] copyOf(int[] array, int size) {
+		int[] copy = new int[size];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+}